@@ -0,0 +1,107 @@
+package ca.cmpt213.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Caps how many requests are in progress at once, and moves the cap with their latency (a gradient limiter).
+// Completed requests are sampled in windows of at least WINDOW_NANOS and MIN_WINDOW_SAMPLES. After each window
+// the average latency is compared with the baseline, the lowest latency seen (which drifts up slowly, so a disk
+// that got slower for good doesn't keep the limit down forever):
+//   average within tolerance x baseline   the requests aren't queueing, the limit may grow by its square root
+//                                         (only if the window actually used at least half of it)
+//   average above that                    they are, the limit shrinks in proportion (to no less than half)
+// and the limit moves a fifth of the way to that target, between min and max. Requests over the limit are
+// turned away straight away instead of queueing for the disk behind the ones already waiting
+public class AdaptiveConcurrencyLimiter {
+    private static final long WINDOW_NANOS = 100_000_000;
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final double SMOOTHING = 0.2;
+    private static final double BASELINE_DRIFT = 0.01; // how far the baseline moves up to a window's minimum
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    // the current window, only touched while holding the monitor
+    private double estimatedLimit;
+    private double baselineNanos;
+    private long windowStart;
+    private int samples;
+    private long latencySum;
+    private long windowMin = Long.MAX_VALUE;
+    private int windowMaxInFlight;
+
+    public AdaptiveConcurrencyLimiter(int minLimit, int initialLimit, int maxLimit, double tolerance) {
+        if (minLimit < 1 || maxLimit < minLimit || tolerance < 1){
+            throw new IllegalArgumentException("Concurrency limits need 1 <= min <= max and a tolerance of at least 1");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.estimatedLimit = Math.clamp(initialLimit, minLimit, maxLimit);
+        this.limit = (int) estimatedLimit;
+    }
+
+    // true if the request may go ahead, it has to call release once it is done
+    public boolean tryAcquire() {
+        while (true){
+            int current = inFlight.get();
+            if (current >= limit){
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)){
+                return true;
+            }
+        }
+    }
+
+    // for a request tryAcquire let in, with how long it took
+    public void release(long latencyNanos, long nowNanos) {
+        int before = inFlight.getAndDecrement();
+        sample(latencyNanos, before, nowNanos);
+    }
+
+    // for a request whose latency says nothing about the others' (a bulk import takes as long as its body does),
+    // gives its slot back without sampling it
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private synchronized void sample(long latencyNanos, int inFlightBefore, long nowNanos) {
+        if (samples == 0){
+            windowStart = nowNanos;
+        }
+        samples++;
+        latencySum += latencyNanos;
+        windowMin = Math.min(windowMin, latencyNanos);
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+        if (samples < MIN_WINDOW_SAMPLES || nowNanos - windowStart < WINDOW_NANOS){
+            return;
+        }
+        double average = (double) latencySum / samples;
+        if (baselineNanos == 0 || windowMin < baselineNanos){
+            baselineNanos = windowMin;
+        } else {
+            baselineNanos += (windowMin - baselineNanos) * BASELINE_DRIFT;
+        }
+        double gradient = Math.clamp(tolerance * baselineNanos / average, 0.5, 1.0);
+        double target = estimatedLimit * gradient;
+        if (gradient == 1.0 && windowMaxInFlight >= estimatedLimit / 2){
+            target += Math.sqrt(estimatedLimit);
+        }
+        estimatedLimit = Math.clamp(estimatedLimit + (target - estimatedLimit) * SMOOTHING, minLimit, maxLimit);
+        limit = (int) estimatedLimit;
+        samples = 0;
+        latencySum = 0;
+        windowMin = Long.MAX_VALUE;
+        windowMaxInFlight = 0;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,227 @@
+package ca.cmpt213.admission;
+
+import ca.cmpt213.cluster.TokimonCluster;
+import ca.cmpt213.controller.ReadOnlyRequests;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Admission control for the requests that write (tokimon.admission.* in application.properties): everything
+// under /api/ that isn't a read (see ReadOnlyRequests), uploads and bulk imports included. Reads are never
+// held back, so a burst of writes can't slow them down by queueing behind the disk. A write has to get past,
+// in this order:
+//   its client's token bucket   429 Too Many Requests, Retry-After says when it has tokens again
+//   the global token bucket     429, the same
+//   the concurrency limiter     503 Service Unavailable, Retry-After 1, see AdaptiveConcurrencyLimiter
+// Uploads, bulk imports and batch mutates cost bulk-cost tokens, other writes one, and a write turned away by a
+// later step gets its tokens back. A write a peer forwarded (cluster mode, see TokimonCluster.isForwardedByPeer)
+// only goes through the global bucket and the limiter, the peer already charged the client.
+// Runs right after Spring's own filters, so rejected writes are still counted in http.server.requests.
+//   tokimon.admission.rejected{reason}       writes turned away: client-rate, global-rate or concurrency
+//   tokimon.admission.concurrency.limit      the limiter's current limit
+//   tokimon.admission.in-flight              writes in progress
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class AdmissionControlFilter extends OncePerRequestFilter {
+    // streams a body of any size, how long it takes isn't a sign of load
+    private static final String BULK_IMPORT_PATH = "/api/tokimon/bulk/import";
+    private static final Set<String> BULK_PATHS = Set.of("/api/tokimon/uploadPhoto", BULK_IMPORT_PATH,
+            "/api/tokimon/batch/mutate");
+    private static final int MAX_CLIENTS = 10_000; // idle clients' buckets are forgotten past this many
+
+    @Value("${tokimon.admission.enabled:true}")
+    private boolean enabled;
+    // where the client's identity comes from, the remote address when empty
+    @Value("${tokimon.admission.client-header:}")
+    private String clientHeader;
+    @Value("${tokimon.admission.client-rate:50}")
+    private double clientRate;
+    @Value("${tokimon.admission.client-burst:100}")
+    private int clientBurst;
+    @Value("${tokimon.admission.global-rate:2000}")
+    private double globalRate;
+    @Value("${tokimon.admission.global-burst:4000}")
+    private int globalBurst;
+    @Value("${tokimon.admission.bulk-cost:10}")
+    private int bulkCost;
+    @Value("${tokimon.admission.min-concurrency:4}")
+    private int minConcurrency;
+    @Value("${tokimon.admission.initial-concurrency:32}")
+    private int initialConcurrency;
+    @Value("${tokimon.admission.max-concurrency:512}")
+    private int maxConcurrency;
+    @Value("${tokimon.admission.latency-tolerance:2.0}")
+    private double latencyTolerance;
+    @Autowired
+    private MeterRegistry registry;
+    @Autowired(required = false)
+    private TokimonCluster cluster;
+
+    private final Map<String, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean forgetting = new AtomicBoolean();
+    private TokenBucket globalBucket;
+    private AdaptiveConcurrencyLimiter limiter;
+    private Counter clientRejected;
+    private Counter globalRejected;
+    private Counter concurrencyRejected;
+
+    @PostConstruct
+    public void init() {
+        globalBucket = new TokenBucket(globalRate, globalBurst);
+        limiter = new AdaptiveConcurrencyLimiter(minConcurrency, initialConcurrency, maxConcurrency, latencyTolerance);
+        clientRejected = rejectedCounter("client-rate");
+        globalRejected = rejectedCounter("global-rate");
+        concurrencyRejected = rejectedCounter("concurrency");
+        Gauge.builder("tokimon.admission.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Writes allowed in progress at once, adapted to their latency")
+                .register(registry);
+        Gauge.builder("tokimon.admission.in-flight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Writes in progress")
+                .register(registry);
+    }
+
+    private Counter rejectedCounter(String reason) {
+        return Counter.builder("tokimon.admission.rejected").tag("reason", reason)
+                .description("Writes turned away by admission control")
+                .register(registry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !request.getRequestURI().startsWith("/api/") || ReadOnlyRequests.isReadOnly(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        int cost = BULK_PATHS.contains(request.getRequestURI()) ? bulkCost : 1;
+        long start = System.nanoTime();
+        TokenBucket clientBucket = null; // stays null for a write a peer forwarded
+        if (cluster == null || !cluster.isForwardedByPeer(request)){
+            clientBucket = clientBucket(clientOf(request), start);
+            long wait = clientBucket.tryTake(cost, start);
+            if (wait > 0){
+                clientRejected.increment();
+                reject(response, HttpStatus.TOO_MANY_REQUESTS.value(), wait); // 429 Too Many Requests
+                return;
+            }
+        }
+        long wait = globalBucket.tryTake(cost, start);
+        if (wait > 0){
+            // the client's tokens weren't spent on anything
+            if (clientBucket != null){
+                clientBucket.refund(cost);
+            }
+            globalRejected.increment();
+            reject(response, HttpStatus.TOO_MANY_REQUESTS.value(), wait); // 429 Too Many Requests
+            return;
+        }
+        if (!limiter.tryAcquire()){
+            if (clientBucket != null){
+                clientBucket.refund(cost);
+            }
+            globalBucket.refund(cost);
+            concurrencyRejected.increment();
+            reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, 1_000_000_000); // 503 Service Unavailable
+            return;
+        }
+        boolean releaseLater = false;
+        try {
+            chain.doFilter(request, response);
+            // add, edit, delete and batch mutate finish once their change is committed, after this returns
+            if (request.isAsyncStarted()){
+                request.getAsyncContext().addListener(new ReleaseOnComplete(start));
+                releaseLater = true;
+            }
+        } finally {
+            if (!releaseLater && request.getRequestURI().equals(BULK_IMPORT_PATH)){
+                limiter.release();
+            } else if (!releaseLater){
+                long end = System.nanoTime();
+                limiter.release(end - start, end);
+            }
+        }
+    }
+
+    // Retry-After in whole seconds, rounded up so a client that waits that long gets in
+    private static void reject(HttpServletResponse response, int status, long waitNanos) {
+        response.setHeader("Retry-After", Long.toString(Math.max(1, Math.ceilDiv(waitNanos, 1_000_000_000L))));
+        response.setStatus(status);
+    }
+
+    private String clientOf(HttpServletRequest request) {
+        if (!clientHeader.isEmpty()){
+            String value = request.getHeader(clientHeader);
+            if (value != null && !value.isBlank()){
+                int comma = value.indexOf(','); // X-Forwarded-For lists the original client first
+                return (comma < 0 ? value : value.substring(0, comma)).trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private TokenBucket clientBucket(String client, long nowNanos) {
+        TokenBucket bucket = clientBuckets.get(client);
+        if (bucket != null){
+            return bucket;
+        }
+        if (clientBuckets.size() >= MAX_CLIENTS && forgetting.compareAndSet(false, true)){
+            try {
+                // a full bucket is the same as a new one, nothing is lost by dropping it
+                clientBuckets.values().removeIf(idle -> idle.isFull(nowNanos));
+            } finally {
+                forgetting.set(false);
+            }
+        }
+        return clientBuckets.computeIfAbsent(client, key -> new TokenBucket(clientRate, clientBurst));
+    }
+
+    // hands the limiter its slot back once an async write has been answered, timed out or failed
+    private class ReleaseOnComplete implements AsyncListener {
+        private final long start;
+
+        ReleaseOnComplete(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            long end = System.nanoTime();
+            limiter.release(end - start, end);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // onComplete follows
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // onComplete follows
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ca.cmpt213.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// A token bucket holding up to burst tokens, refilled at rate tokens a second.
+// Kept as a single number, the time at which the bucket will be full again (the generic cell rate algorithm),
+// so taking tokens is one compare-and-set and many threads can share a bucket without a lock. Each token taken
+// pushes that time one refill interval further out, and tokens can be taken as long as it stays within burst
+// intervals of now
+public class TokenBucket {
+    private final long intervalNanos; // time to refill one token
+    private final long capacityNanos; // time to refill the whole bucket
+    private final int burst;
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE); // starts full
+
+    public TokenBucket(double rate, int burst) {
+        if (rate <= 0 || burst < 1){
+            throw new IllegalArgumentException("A token bucket needs a positive rate and burst, not " + rate + " and " + burst);
+        }
+        this.intervalNanos = Math.max(1, Math.round(1_000_000_000 / rate));
+        this.capacityNanos = intervalNanos * burst;
+        this.burst = burst;
+    }
+
+    // Takes the tokens and returns 0, or takes nothing and returns how many nanoseconds until they are there.
+    // More tokens than the bucket holds are capped at a full bucket, so they can still be taken when it is full
+    public long tryTake(int tokens, long nowNanos) {
+        long cost = intervalNanos * Math.min(tokens, burst);
+        while (true){
+            long current = fullAt.get();
+            long next = Math.max(current, nowNanos) + cost;
+            long wait = next - nowNanos - capacityNanos;
+            if (wait > 0){
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)){
+                return 0;
+            }
+        }
+    }
+
+    // Gives back tokens tryTake took, for a request turned away after it got them. A bucket that has refilled
+    // since is full already and stays that way
+    public void refund(int tokens) {
+        fullAt.addAndGet(-intervalNanos * Math.min(tokens, burst));
+    }
+
+    // true once the bucket has refilled completely, it behaves the same as a new one then
+    public boolean isFull(long nowNanos) {
+        return fullAt.get() <= nowNanos;
+    }
+}
@@ -0,0 +1,81 @@
+package ca.cmpt213.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Which node owns which tids. Tids are owned in blocks of BLOCK_SIZE consecutive tids so a node can hand out
+// runs of new tids (a bulk import batch, the adds of a batch mutate) that all stay on it. Every node is placed
+// on a 64-bit ring at virtualNodes points, and a block belongs to the first point at or after the block's hash.
+// Adding or removing a node only moves the blocks between its points and the ones before them; the rest keep
+// their owner. The ring is immutable, every node builds the same one from the same list of nodes
+public class ConsistentHashRing {
+    public static final int BLOCK_SIZE = 1024;
+    // how far nextOwnedTid looks before giving up, a node with a fair share of the ring owns a block long before
+    private static final int MAX_BLOCKS_SEARCHED = 1 << 20;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final List<String> nodes;
+
+    public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1){
+            throw new IllegalArgumentException("A ring needs at least one node and one virtual node per node");
+        }
+        this.nodes = List.copyOf(nodes);
+        for (String node : this.nodes){
+            for (int i = 0; i < virtualNodes; i++){
+                // on the rare collision the node that sorts first keeps the point, the same on every node
+                ring.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public String ownerOf(long tid) {
+        return ownerOfBlock(Math.floorDiv(tid, BLOCK_SIZE));
+    }
+
+    // The first tid at or after from such that it and the count - 1 tids after it are all owned by node
+    public long nextOwnedTid(String node, long from, int count) {
+        if (count < 1 || count > BLOCK_SIZE){
+            throw new IllegalArgumentException("Between 1 and " + BLOCK_SIZE + " tids can be reserved at a time");
+        }
+        long block = Math.floorDiv(from, BLOCK_SIZE);
+        long tid = from;
+        for (int i = 0; i < MAX_BLOCKS_SEARCHED; i++){
+            if (ownerOfBlock(block).equals(node) && tid - block * BLOCK_SIZE + count <= BLOCK_SIZE){
+                return tid;
+            }
+            block++;
+            tid = block * BLOCK_SIZE;
+        }
+        throw new IllegalStateException(node + " owns none of the " + MAX_BLOCKS_SEARCHED + " blocks after tid " + from);
+    }
+
+    private String ownerOfBlock(long block) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(mix(block));
+        return (point != null ? point : ring.firstEntry()).getValue();
+    }
+
+    // FNV-1a, then mixed so nodes whose names only differ at the end still land far apart
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)){
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // the SplitMix64 finalizer: consecutive blocks end up spread all over the ring
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,113 @@
+package ca.cmpt213.cluster;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Sends requests for a single card that another node owns to that node and relays its answer:
+// GET and DELETE /api/tokimon/{tid} and PUT /api/tokimon/edit/{tid}. Runs before Spring MVC, so the body is
+// passed on untouched and the controller only ever sees tids it owns. Requests already forwarded by a peer
+// (see TokimonCluster.isForwardedByPeer) are never forwarded again, even if the two nodes disagree about the owner because their node lists differ.
+//   tokimon.cluster.forwarded{outcome}   requests relayed to the owner: ok, or unavailable if it didn't answer
+@Component
+public class ShardForwardingFilter extends OncePerRequestFilter {
+    private static final Logger log = LoggerFactory.getLogger(ShardForwardingFilter.class);
+    private static final Pattern CARD_PATH = Pattern.compile("/api/tokimon/(edit/)?(\\d+)");
+    private static final List<String> REQUEST_HEADERS = List.of("Content-Type", "Accept", "If-None-Match");
+    private static final List<String> RESPONSE_HEADERS = List.of("Content-Type", "ETag", "Cache-Control");
+
+    private final TokimonCluster cluster;
+    private final Counter forwarded;
+    private final Counter unavailable;
+
+    public ShardForwardingFilter(TokimonCluster cluster, MeterRegistry registry) {
+        this.cluster = cluster;
+        this.forwarded = Counter.builder("tokimon.cluster.forwarded").tag("outcome", "ok")
+                .description("Requests relayed to the node that owns the card")
+                .register(registry);
+        this.unavailable = Counter.builder("tokimon.cluster.forwarded").tag("outcome", "unavailable")
+                .description("Requests relayed to the node that owns the card")
+                .register(registry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !cluster.isEnabled() || cluster.isForwardedByPeer(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String owner = remoteOwner(request);
+        if (owner == null){
+            chain.doFilter(request, response);
+            return;
+        }
+        String pathAndQuery = request.getRequestURI() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        byte[] body = request.getInputStream().readAllBytes();
+        HttpRequest.Builder forward = cluster.peerRequest(owner, pathAndQuery)
+                .method(request.getMethod(), body.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+        for (String header : REQUEST_HEADERS){
+            String value = request.getHeader(header);
+            if (value != null){
+                forward.header(header, value);
+            }
+        }
+
+        HttpResponse<byte[]> answer;
+        try {
+            answer = cluster.getHttpClient().send(forward.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e){
+            unavailable.increment();
+            log.atWarn().addKeyValue("owner", owner).addKeyValue("path", pathAndQuery).log("owner of the card didn't answer: {}", e.toString());
+            response.setStatus(HttpServletResponse.SC_BAD_GATEWAY); // Set the response status to 502 Bad Gateway
+            return;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            unavailable.increment();
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE); // Set the response status to 503 Service Unavailable
+            return;
+        }
+        forwarded.increment();
+        response.setStatus(answer.statusCode());
+        for (String header : RESPONSE_HEADERS){
+            answer.headers().firstValue(header).ifPresent(value -> response.setHeader(header, value));
+        }
+        response.setContentLength(answer.body().length);
+        response.getOutputStream().write(answer.body());
+    }
+
+    // the node to forward to, or null if this node should answer the request itself
+    private String remoteOwner(HttpServletRequest request) {
+        Matcher matcher = CARD_PATH.matcher(request.getRequestURI());
+        if (!matcher.matches()){
+            return null;
+        }
+        String method = request.getMethod();
+        boolean edit = matcher.group(1) != null;
+        if (edit ? !method.equals("PUT") : !(method.equals("GET") || method.equals("HEAD") || method.equals("DELETE"))){
+            return null;
+        }
+        long tid;
+        try {
+            tid = Long.parseLong(matcher.group(2));
+        } catch (NumberFormatException e){
+            return null; // too long for a tid, the controller answers 400
+        }
+        return cluster.isLocal(tid) ? null : cluster.ownerOf(tid);
+    }
+}
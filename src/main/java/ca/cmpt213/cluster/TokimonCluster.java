@@ -0,0 +1,278 @@
+package ca.cmpt213.cluster;
+
+import ca.cmpt213.exception.ClusterPeerUnavailableException;
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardBatch;
+import ca.cmpt213.model.TokimonCardStats;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+
+// This node's view of the cluster (tokimon.cluster.* in application.properties). The tid space is split between
+// the nodes by a ConsistentHashRing that every node builds from the same tokimon.cluster.nodes list, so they all
+// agree on who owns a tid without talking to each other. Requests for a card another node owns are forwarded to
+// it (ShardForwardingFilter). Listings (all, all/stream, bulk/export), stats and batch gets ask every node and merge
+// the answers. Page, search and query can't be merged from each node's answer (cursors, ranking and groups are per
+// node), so the controller refuses them with 501 in a cluster.
+// A request between nodes carries FORWARDED_HEADER, see isForwardedByPeer for when it is believed.
+// With no nodes configured the cluster is off and every tid is local
+@Component
+public class TokimonCluster {
+    private static final Logger log = LoggerFactory.getLogger(TokimonCluster.class);
+    // set on requests between nodes to the sending node's base url: the receiving node answers from its own cards
+    // and never forwards again
+    public static final String FORWARDED_HEADER = "X-Tokimon-Forwarded";
+    // set on requests between nodes to tokimon.cluster.secret, when there is one
+    public static final String SECRET_HEADER = "X-Tokimon-Cluster-Secret";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // base urls of every node, this one included, e.g. http://localhost:8081,http://localhost:8082
+    @Value("${tokimon.cluster.nodes:}")
+    private String nodes;
+    // this node's base url, exactly as it appears in nodes
+    @Value("${tokimon.cluster.self:}")
+    private String self;
+    @Value("${tokimon.cluster.virtual-nodes:128}")
+    private int virtualNodes;
+    // shared by every node, proves a request came from one of them. Empty trusts the peers' addresses instead
+    @Value("${tokimon.cluster.secret:}")
+    private String secret;
+
+    private ConsistentHashRing ring; // null when the cluster is off
+    private List<String> peers = List.of();
+    private Set<InetAddress> peerAddresses = Set.of(); // what the peers' host names resolved to at startup
+    private HttpClient httpClient;
+
+    @PostConstruct
+    public void init() {
+        List<String> nodeList = Arrays.stream(nodes.split(","))
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .toList();
+        if (nodeList.isEmpty()){
+            return;
+        }
+        if (!nodeList.contains(self)){
+            throw new IllegalStateException("tokimon.cluster.self (" + self + ") must be one of tokimon.cluster.nodes " + nodeList);
+        }
+        ring = new ConsistentHashRing(nodeList, virtualNodes);
+        peers = nodeList.stream().filter(node -> !node.equals(self)).toList();
+        if (secret.isEmpty()){
+            peerAddresses = resolve(peers);
+        }
+        httpClient = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(TIMEOUT)
+                .build();
+    }
+
+    private static Set<InetAddress> resolve(List<String> peers) {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (String peer : peers){
+            String host = URI.create(peer).getHost();
+            try {
+                addresses.addAll(Arrays.asList(InetAddress.getAllByName(host)));
+            } catch (UnknownHostException e){
+                log.warn("Could not resolve cluster node {}, requests it forwards will be treated as a client's", peer);
+            }
+        }
+        return addresses;
+    }
+
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    // True if another node of this cluster forwarded the request: it is answered from this node's own cards and
+    // the client isn't charged again. Anyone can send FORWARDED_HEADER, so it has to name one of the peers and the
+    // request has to carry tokimon.cluster.secret too, or come from a peer's address when there is no secret.
+    // Always false with the cluster off
+    public boolean isForwardedByPeer(HttpServletRequest request) {
+        String from = request.getHeader(FORWARDED_HEADER);
+        if (ring == null || from == null || !peers.contains(from)){
+            return false;
+        }
+        if (!secret.isEmpty()){
+            String given = request.getHeader(SECRET_HEADER);
+            // compared in constant time so the answer's timing doesn't give the secret away
+            return given != null && MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8),
+                    secret.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            // the remote address is an ip, this doesn't look anything up
+            return peerAddresses.contains(InetAddress.getByName(request.getRemoteAddr()));
+        } catch (UnknownHostException e){
+            return false;
+        }
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public String ownerOf(long tid) {
+        return ring == null ? self : ring.ownerOf(tid);
+    }
+
+    public boolean isLocal(long tid) {
+        return ring == null || ring.ownerOf(tid).equals(self);
+    }
+
+    // the first of count consecutive tids at or after from that all belong to this node, see ConsistentHashRing
+    public long nextLocalTid(long from, int count) {
+        return ring == null ? from : ring.nextOwnedTid(self, from, count);
+    }
+
+    HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    // a request to another node, marked so that node answers it from its own cards
+    HttpRequest.Builder peerRequest(String peer, String pathAndQuery) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(peer + pathAndQuery))
+                .timeout(TIMEOUT)
+                .header(FORWARDED_HEADER, self);
+        if (!secret.isEmpty()){
+            request.header(SECRET_HEADER, secret);
+        }
+        return request;
+    }
+
+    // Every peer's own cards as ndjson, asked for all at once and read as they arrive, one card at a time. Each
+    // node's listing comes in tid order. Throws ClusterPeerUnavailableException, with nothing left open, if any
+    // peer doesn't answer 200. A peer failing halfway through its listing shows up as an exception from the
+    // iterator. The caller closes the iterators
+    public List<MappingIterator<TokimonCard>> openPeerListings() {
+        List<CompletableFuture<HttpResponse<InputStream>>> answers = new ArrayList<>();
+        for (String peer : peers){
+            HttpRequest request = peerRequest(peer, "/api/tokimon/all/stream?format=ndjson").GET().build();
+            answers.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()));
+        }
+        List<MappingIterator<TokimonCard>> listings = new ArrayList<>(peers.size());
+        ClusterPeerUnavailableException failure = null;
+        for (int i = 0; i < answers.size(); i++){
+            String peer = peers.get(i);
+            try {
+                HttpResponse<InputStream> response = answers.get(i).join();
+                if (response.statusCode() != 200){
+                    response.body().close();
+                    throw new ClusterPeerUnavailableException(peer + " answered " + response.statusCode(), null);
+                }
+                listings.add(mapper.readerFor(TokimonCard.class).readValues(response.body()));
+            } catch (CompletionException e){
+                failure = failure != null ? failure : new ClusterPeerUnavailableException(peer + " didn't answer", e.getCause());
+            } catch (IOException e){
+                failure = failure != null ? failure : new ClusterPeerUnavailableException(peer + " sent an unreadable answer", e);
+            } catch (ClusterPeerUnavailableException e){
+                failure = failure != null ? failure : e;
+            }
+        }
+        if (failure != null){
+            closeAll(listings);
+            throw failure;
+        }
+        return listings;
+    }
+
+    public static void closeAll(List<? extends Closeable> listings) {
+        for (Closeable listing : listings){
+            try {
+                listing.close();
+            } catch (IOException e){
+                // nothing more is read from it either way
+            }
+        }
+    }
+
+    // Every peer's /api/tokimon/stats for its own cards, asked for all at once
+    public List<TokimonCardStats> getPeerStats() {
+        List<CompletableFuture<TokimonCardStats>> answers = new ArrayList<>();
+        for (String peer : peers){
+            answers.add(sendForJson(peer, peerRequest(peer, "/api/tokimon/stats").GET().build(), new TypeReference<TokimonCardStats>() {}));
+        }
+        return join(answers);
+    }
+
+    // The cards of tidsByOwner from each owner in one batch get per owner, all owners asked at once
+    public List<TokimonCardBatch> getPeerCards(Map<String, List<Long>> tidsByOwner) {
+        List<CompletableFuture<TokimonCardBatch>> answers = new ArrayList<>();
+        tidsByOwner.forEach((peer, tids) -> {
+            try {
+                HttpRequest request = peerRequest(peer, "/api/tokimon/batch/get")
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(tids)))
+                        .build();
+                answers.add(sendForJson(peer, request, new TypeReference<TokimonCardBatch>() {}));
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+        return join(answers);
+    }
+
+    private <T> CompletableFuture<T> sendForJson(String peer, HttpRequest request, TypeReference<T> type) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200){
+                        throw new ClusterPeerUnavailableException(peer + " answered " + response.statusCode(), null);
+                    }
+                    try {
+                        return mapper.readValue(response.body(), type);
+                    } catch (IOException e){
+                        throw new ClusterPeerUnavailableException(peer + " sent an unreadable answer", e);
+                    }
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    throw cause instanceof ClusterPeerUnavailableException unavailable ? unavailable
+                            : new ClusterPeerUnavailableException(peer + " didn't answer", cause);
+                });
+    }
+
+    private static <T> List<T> join(List<CompletableFuture<T>> answers) {
+        List<T> results = new ArrayList<>(answers.size());
+        try {
+            for (CompletableFuture<T> answer : answers){
+                results.add(answer.join());
+            }
+        } catch (CompletionException e){
+            throw (ClusterPeerUnavailableException) e.getCause();
+        }
+        return results;
+    }
+}
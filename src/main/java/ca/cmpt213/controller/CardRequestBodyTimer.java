@@ -0,0 +1,48 @@
+package ca.cmpt213.controller;
+
+import ca.cmpt213.metrics.TokimonCardMetrics;
+import ca.cmpt213.metrics.TokimonCardMetrics.Operation;
+import ca.cmpt213.metrics.TokimonCardMetrics.Phase;
+import ca.cmpt213.model.TokimonCard;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.lang.reflect.Type;
+
+// Times the deserialize phase of add and edit: Spring reads the @RequestBody TokimonCard before the
+// handler runs, so the only place to see how long Jackson took is around the read itself.
+// Both callbacks run on the request thread, one right before and one right after the body is converted
+@ControllerAdvice
+public class CardRequestBodyTimer extends RequestBodyAdviceAdapter {
+    private static final ThreadLocal<long[]> readStart = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final TokimonCardMetrics metrics;
+
+    public CardRequestBodyTimer(TokimonCardMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean supports(MethodParameter methodParameter, Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return targetType == TokimonCard.class;
+    }
+
+    @Override
+    public HttpInputMessage beforeBodyRead(HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                           Class<? extends HttpMessageConverter<?>> converterType) {
+        readStart.get()[0] = System.nanoTime();
+        return inputMessage;
+    }
+
+    @Override
+    public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                Class<? extends HttpMessageConverter<?>> converterType) {
+        long nanos = System.nanoTime() - readStart.get()[0];
+        Operation operation = "updateTokimonCard".equals(parameter.getExecutable().getName()) ? Operation.UPDATE : Operation.ADD;
+        metrics.record(operation, Phase.DESERIALIZE, nanos);
+        return body;
+    }
+}
@@ -0,0 +1,20 @@
+package ca.cmpt213.controller;
+
+// Helpers for HTTP conditional requests shared by the card and image controllers
+class ConditionalRequests {
+    private ConditionalRequests() {}
+
+    // true when an If-None-Match header lists the ETag (or *), meaning the client's copy is current
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null){
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")){
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)){
+                return true;
+            }
+        }
+        return false;
+    }
+}
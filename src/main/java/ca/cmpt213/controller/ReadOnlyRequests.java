@@ -0,0 +1,19 @@
+package ca.cmpt213.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.Set;
+
+// Which requests only read, for the filters that treat reads and changes differently (a replica's read-only
+// filter, admission control). GET, HEAD and OPTIONS, plus the POSTs that only carry a query in their body
+public final class ReadOnlyRequests {
+    private static final Set<String> READ_ONLY_POSTS = Set.of("/api/tokimon/batch/get", "/api/tokimon/query");
+
+    private ReadOnlyRequests() {}
+
+    public static boolean isReadOnly(HttpServletRequest request) {
+        String method = request.getMethod();
+        return method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS")
+                || (method.equals("POST") && READ_ONLY_POSTS.contains(request.getRequestURI()));
+    }
+}
@@ -0,0 +1,107 @@
+package ca.cmpt213.controller;
+
+import ca.cmpt213.model.TokimonCardChange;
+import ca.cmpt213.model.TokimonCardChangeFeed;
+import ca.cmpt213.model.TokimonCardList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Sends one /api/tokimon/changes subscriber the store's changes as server-sent events, on a thread of its own
+// so a slow client only ever holds up itself. The commit thread never waits for it, see TokimonCardChangeFeed.
+// Event ids are <epoch>-<seq>, so an id from before a restart is never mistaken for one of this run's
+class TokimonCardChangeStream implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(TokimonCardChangeStream.class);
+    private static final int MAX_EVENTS_PER_READ = 256;
+    // a comment is sent when nothing changed for this long, so proxies keep the connection open and a client
+    // that went away is noticed
+    private static final long HEARTBEAT_SECONDS = 15;
+
+    private final TokimonCardList tokimonCardList;
+    private final SseEmitter emitter;
+    private final String lastEventId;
+    private volatile boolean finished;
+
+    TokimonCardChangeStream(TokimonCardList tokimonCardList, SseEmitter emitter, String lastEventId) {
+        this.tokimonCardList = tokimonCardList;
+        this.emitter = emitter;
+        this.lastEventId = lastEventId;
+        emitter.onCompletion(() -> finished = true);
+        emitter.onTimeout(() -> finished = true);
+        emitter.onError(e -> finished = true);
+    }
+
+    @Override
+    public void run() {
+        TokimonCardChangeFeed feed = tokimonCardList.getChangeFeed();
+        try {
+            long seq = resumeFrom(feed);
+            while (!finished){
+                List<TokimonCardChange> changes = feed.readAfter(seq, MAX_EVENTS_PER_READ);
+                if (changes == null){
+                    seq = sendReset(feed); // fell more than the feed's capacity behind
+                    continue;
+                }
+                for (TokimonCardChange change : changes){
+                    send(change);
+                    seq = change.seq();
+                }
+                if (changes.isEmpty()){
+                    if (feed.isClosed()){
+                        emitter.complete(); // the store was closed, the client reconnects to the new one
+                        return;
+                    }
+                    if (feed.awaitAfter(seq, HEARTBEAT_SECONDS, TimeUnit.SECONDS) == seq && !feed.isClosed()){
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    }
+                }
+            }
+        } catch (IOException | IllegalStateException e){
+            // the client went away or the emitter was already completed, the server cleans up the request
+            log.debug("change stream ended: {}", e.toString());
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        }
+    }
+
+    // the seq to send changes after: the one in the client's last event id if this run still has the changes
+    // after it, otherwise the latest, after telling the client to start over
+    private long resumeFrom(TokimonCardChangeFeed feed) throws IOException {
+        long latest = feed.getLatestSeq();
+        if (lastEventId == null || lastEventId.isBlank()){
+            return latest; // a new subscriber, only changes from now on
+        }
+        String prefix = tokimonCardList.getEpoch() + "-";
+        if (lastEventId.startsWith(prefix)){
+            try {
+                long seq = Long.parseLong(lastEventId.substring(prefix.length()));
+                if (seq >= 0 && seq <= latest){
+                    return seq; // readAfter tells if the changes after it were overwritten already
+                }
+            } catch (NumberFormatException e){
+                // not an id this server handed out, same as one from another run
+            }
+        }
+        return sendReset(feed);
+    }
+
+    private long sendReset(TokimonCardChangeFeed feed) throws IOException {
+        long latest = feed.getLatestSeq();
+        send(new TokimonCardChange(latest, tokimonCardList.getVersion(), TokimonCardChange.Type.RESET, 0, null));
+        return latest;
+    }
+
+    private void send(TokimonCardChange change) throws IOException {
+        emitter.send(SseEmitter.event()
+                .id(tokimonCardList.getEpoch() + "-" + change.seq())
+                .name(change.type().name().toLowerCase(Locale.ROOT))
+                .data(change, MediaType.APPLICATION_JSON));
+    }
+}
@@ -7,30 +7,115 @@
 
 package ca.cmpt213.controller;
 
+import ca.cmpt213.cluster.ConsistentHashRing;
+import ca.cmpt213.cluster.TokimonCluster;
+import ca.cmpt213.exception.ClusterPeerUnavailableException;
+import ca.cmpt213.exception.InvalidCardBatchException;
+import ca.cmpt213.exception.InvalidCardQueryException;
 import ca.cmpt213.exception.InvalidElementTypeException;
+import ca.cmpt213.exception.TokimonCardConflictException;
 import ca.cmpt213.exception.TokimonCardNotFoundException;
+import ca.cmpt213.metrics.TokimonCardMetrics;
+import ca.cmpt213.metrics.TokimonCardMetrics.Operation;
 import ca.cmpt213.model.TokimonCard;
+import com.fasterxml.jackson.databind.MappingIterator;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import ca.cmpt213.model.CardStorageBackend;
+import ca.cmpt213.model.TokimonCardBatch;
+import ca.cmpt213.model.TokimonCardImportResult;
+import ca.cmpt213.model.TokimonCardImporter;
+import ca.cmpt213.model.TokimonCardJsonWriter;
 import ca.cmpt213.model.TokimonCardList;
-import org.springframework.web.multipart.MultipartFile;
+import ca.cmpt213.model.TokimonCardListSettings;
+import ca.cmpt213.model.TokimonCardMutation;
+import ca.cmpt213.model.TokimonCardPage;
+import ca.cmpt213.model.TokimonCardQuery;
+import ca.cmpt213.model.TokimonCardScan;
+import ca.cmpt213.model.TokimonCardScanResult;
+import ca.cmpt213.model.TokimonCardResponseCache;
+import ca.cmpt213.model.TokimonCardStats;
+import ca.cmpt213.persistence.CardDurabilityMode;
+import ca.cmpt213.persistence.CardSnapshotFormat;
+import ca.cmpt213.replication.TokimonReplication;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 @RestController
 public class TokimonCardController {
-    private AtomicInteger nextId; // Next ID to assign to a new TokimonCard
+    private static final Logger log = LoggerFactory.getLogger(TokimonCardController.class);
+    // most tids or mutations one batch request may hold
+    private static final int MAX_BATCH_SIZE = 1000;
+    // one per /api/tokimon/changes subscriber, they spend nearly all their time waiting
+    private static final ThreadFactory changeStreamThreads = Thread.ofVirtual().name("tokimon-changes-", 0).factory();
+
+    private AtomicLong nextId; // Next ID to assign to a new TokimonCard, unless the store already has larger ones
     private TokimonCardList tokimonCardList;
+    // serialized json and ETags for /api/tokimon/all and /api/tokimon/{tid}
+    private TokimonCardResponseCache responseCache;
+    // per operation timings and failure counts, see /actuator/prometheus
+    @Autowired
+    private TokimonCardMetrics metrics;
+    // which node owns which tids when several servers share the cards, see tokimon.cluster.* in application.properties
+    @Autowired(required = false)
+    private TokimonCluster cluster;
+    // leader/follower replication of the cards, see tokimon.replication.* in application.properties
+    @Autowired(required = false)
+    private TokimonReplication replication;
+
+    // where the cards are saved and how the write-ahead log behaves, see application.properties
+    @Value("${tokimon.store.file:src/main/resources/static/tokimon.json}")
+    private String storeFile;
+    @Value("${tokimon.store.reset-on-start:false}")
+    private boolean resetOnStart;
+    @Value("${tokimon.store.load-in-background:true}")
+    private boolean loadInBackground;
+    @Value("${tokimon.wal.sync-every:1}")
+    private int syncEvery;
+    @Value("${tokimon.wal.durability:sync}")
+    private String durabilityMode;
+    @Value("${tokimon.wal.flush-interval-ms:100}")
+    private long flushIntervalMillis;
+    @Value("${tokimon.wal.compact-every:1000}")
+    private int compactEvery;
+    @Value("${tokimon.store.snapshot-format:json}")
+    private String snapshotFormat;
+    @Value("${tokimon.store.backend:heap}")
+    private String storageBackend;
+    @Value("${tokimon.wal.max-batch-size:256}")
+    private int maxBatchSize;
+    @Value("${tokimon.bulk.batch-size:5000}")
+    private int bulkBatchSize;
+    @Value("${tokimon.changes.buffer-size:4096}")
+    private int changeFeedCapacity;
+    // 0 scans with one thread per core
+    @Value("${tokimon.query.parallelism:0}")
+    private int queryParallelism;
+    // the same switch that moves Tomcat's request handling onto virtual threads
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
 
     //GET and POST requests are the two most common HTTP request methods
     // GET requests are used to request data from a specified resource. GET requests should only
@@ -44,100 +129,454 @@ public class TokimonCardController {
     // the argument provided such as "/tokimonCard" is the URL path that the method will handle. When
     // a GET request is made to this path, the annotated method is invoked to process the request.
     @GetMapping("/api/tokimon/all")
-    public List<TokimonCard> getTokimonCards(HttpServletResponse response) {
+    public void getTokimonCards(HttpServletRequest request, HttpServletResponse response) throws IOException {
         // The parameters are annotated with @RequestParam, which tells Spring to extract the value of the query
         // value="name" specifies the name of the request parameter to bind
         // defaultValue="tokiGuy" specifies the default value to use if the request parameter is not present
         // String name is the method parameter that will hold the value of the request parameter name, if not provided it will be "tokiGuy"
         //These parameters allow the method to accept dynamic values through the URL, making the method more flexible in handling different requests
         // Example: http://localhost:8080/tokimonCard?name=Tokimon&elementType=WATER, would result in name = "Tokimon" and elementType = "WATER"
-        for (TokimonCard tokimonCard : tokimonCardList.getTokimonCards()) {
-            System.out.println("ID: " + tokimonCard.getTid());
-            System.out.println("Name: " + tokimonCard.getName());
-            System.out.println("Element Type: " + tokimonCard.getElementType());
+        logRequest("GET", "/api/tokimon/all");
+        if (answersForCluster(request)){
+            writeClusterListing("json", response);
+            return;
+        }
+        // nothing changed since the client's copy, answer without building the listing at all
+        if (ConditionalRequests.etagMatches(request.getHeader("If-None-Match"), responseCache.getListingEtag())){
+            response.setHeader("ETag", responseCache.getListingEtag());
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); // Set the response status to 304 Not Modified
+            return;
+        }
+        // the listing's json is cached until a card changes
+        TokimonCardResponseCache.Listing listing = responseCache.getListing();
+        response.setHeader("ETag", listing.etag());
+        response.setStatus(HttpServletResponse.SC_OK); // Set the response status to 200 OK
+        writeJson(listing.json(), response);
+    }
+
+    // Every node's cards in tid order, as a json array or ndjson: each peer's own listing is streamed from it as
+    // ndjson, all at once, and merged by tid with this node's cards as they are written out (see
+    // TokimonCardJsonWriter), so no node's listing is held in memory. 502 if a peer doesn't answer. A peer that
+    // fails once the listing has started can only cut the response short. There is no ETag, any node's cards may
+    // have changed
+    private void writeClusterListing(String format, HttpServletResponse response) throws IOException {
+        List<MappingIterator<TokimonCard>> peerListings;
+        try {
+            peerListings = cluster.openPeerListings();
+        } catch (ClusterPeerUnavailableException e){
+            log.atWarn().log("listing incomplete: {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_BAD_GATEWAY); // Set the response status to 502 Bad Gateway
+            return;
+        }
+        try {
+            response.setStatus(HttpServletResponse.SC_OK); // Set the response status to 200 OK
+            if ("ndjson".equalsIgnoreCase(format)){
+                response.setContentType("application/x-ndjson");
+                TokimonCardJsonWriter.writeNdjson(tokimonCardList, peerListings, response.getOutputStream());
+            } else {
+                response.setContentType("application/json");
+                TokimonCardJsonWriter.writeJsonArray(tokimonCardList, peerListings, response.getOutputStream());
+            }
+        } finally {
+            TokimonCluster.closeAll(peerListings);
+        }
+    }
+
+    // same cards as /api/tokimon/all, but written to the response one card at a time as they are read from the store
+    // so memory use doesn't grow with the number of cards. format=ndjson writes one card object per line instead of an array.
+    // In a cluster every node's cards, merged the same way as /api/tokimon/all
+    @GetMapping("/api/tokimon/all/stream")
+    public void streamTokimonCards(@RequestParam(defaultValue = "json") String format, HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
+        logRequest("GET", "/api/tokimon/all/stream");
+        if (!"ndjson".equalsIgnoreCase(format) && !"json".equalsIgnoreCase(format)){
+            metrics.validationFailure(Operation.GET_ALL);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST); // Set the response status to 400 Bad Request
+        } else if (answersForCluster(request)){
+            writeClusterListing(format, response);
+        } else if ("ndjson".equalsIgnoreCase(format)){
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/x-ndjson");
+            TokimonCardJsonWriter.writeNdjson(tokimonCardList, response.getOutputStream());
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/json");
+            TokimonCardJsonWriter.writeJsonArray(tokimonCardList, response.getOutputStream());
+        }
+    }
+
+    // Bulk import: the body is a json array of cards or ndjson (one card per line), read as a stream so it can be
+    // any size. Tids are assigned by the server in blocks, cards are committed batchSize at a time, and cards
+    // with an invalid elementType are skipped and listed in the result
+    // example: curl -X POST -H "Content-Type: application/x-ndjson" --data-binary @cards.ndjson localhost:8080/api/tokimon/bulk/import
+    @PostMapping("/api/tokimon/bulk/import")
+    public TokimonCardImportResult importTokimonCards(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        logRequest("POST", "/api/tokimon/bulk/import");
+        // in a cluster a batch's tids have to fit in one block this node owns
+        int batchSize = isClustered() ? Math.min(bulkBatchSize, ConsistentHashRing.BLOCK_SIZE) : bulkBatchSize;
+        TokimonCardImporter importer = new TokimonCardImporter(tokimonCardList, this::reserveTids, batchSize);
+        TokimonCardImportResult result = importer.importCards(request.getInputStream());
+        log.atInfo().addKeyValue("imported", result.getImported()).addKeyValue("rejected", result.getRejected())
+                .addKeyValue("cardsPerSecond", Math.round(result.getCardsPerSecond())).log("bulk import finished");
+        // 400 if the body stopped being valid json, whatever was read before that is still imported
+        response.setStatus(result.isComplete() ? HttpServletResponse.SC_OK : HttpServletResponse.SC_BAD_REQUEST);
+        return result;
+    }
+
+    // Bulk export: the whole store as a downloadable file, streamed so it never has to fit in memory
+    @GetMapping("/api/tokimon/bulk/export")
+    public void exportTokimonCards(@RequestParam(defaultValue = "json") String format, HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
+        logRequest("GET", "/api/tokimon/bulk/export");
+        if ("ndjson".equalsIgnoreCase(format)){
+            response.setHeader("Content-Disposition", "attachment; filename=\"tokimon.ndjson\"");
+        } else if ("json".equalsIgnoreCase(format)){
+            response.setHeader("Content-Disposition", "attachment; filename=\"tokimon.json\"");
+        }
+        streamTokimonCards(format, request, response);
+    }
+
+    // one page of cards, filtered and sorted on the server
+    // example: /api/tokimon/page?type=FIRE&minRarity=5&sort=attackPoints&order=desc&limit=20
+    // the response has a nextCursor, pass it back as ?cursor= (with the same filters) to get the following page.
+    // Not available in a cluster (501): a cursor only means something on the node that made it
+    @GetMapping("/api/tokimon/page")
+    public TokimonCardPage getTokimonCardPage(@RequestParam(required = false) String cursor,
+                                              @RequestParam(defaultValue = "20") int limit,
+                                              @RequestParam(required = false) String type,
+                                              @RequestParam(required = false) Integer minRarity,
+                                              @RequestParam(required = false) Integer maxRarity,
+                                              @RequestParam(required = false) Integer minHp,
+                                              @RequestParam(required = false) Integer maxHp,
+                                              @RequestParam(required = false) Integer minAttack,
+                                              @RequestParam(required = false) Integer maxAttack,
+                                              @RequestParam(defaultValue = "tid") String sort,
+                                              @RequestParam(defaultValue = "asc") String order,
+                                              HttpServletRequest request, HttpServletResponse response) {
+        logRequest("GET", "/api/tokimon/page");
+        if (answersForCluster(request)){
+            response.setStatus(HttpServletResponse.SC_NOT_IMPLEMENTED); // Set the response status to 501 Not Implemented
+            return null;
+        }
+        try {
+            TokimonCardQuery query = new TokimonCardQuery();
+            query.setCursor(cursor);
+            query.setLimit(limit);
+            if (type != null){
+                query.setElementType(validateElementType(type));
+            }
+            query.setMinRarity(minRarity);
+            query.setMaxRarity(maxRarity);
+            query.setMinHealthPoints(minHp);
+            query.setMaxHealthPoints(maxHp);
+            query.setMinAttackPoints(minAttack);
+            query.setMaxAttackPoints(maxAttack);
+            query.setSortField(TokimonCardQuery.SortField.fromJsonName(sort));
+            query.setOrder(order);
+
+            response.setStatus(HttpServletResponse.SC_OK); // Set the response status to 200 OK
+            return tokimonCardList.getTokimonCardPage(query);
+        } catch (InvalidElementTypeException | InvalidCardQueryException e){
+            metrics.validationFailure(Operation.PAGE);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST); // Set the response status to 400 Bad Request
+            return null;
+        }
+    }
+
+    // cards by name: words of the name starting with the query, then close misspellings of it (unless fuzzy=false)
+    // example: /api/tokimon/search?q=toki&limit=10 or /api/tokimon/search?q=tokimandr
+    // Not available in a cluster (501): each node only ranks its own cards
+    @GetMapping("/api/tokimon/search")
+    public List<TokimonCard> searchTokimonCards(@RequestParam String q,
+                                                @RequestParam(defaultValue = "20") int limit,
+                                                @RequestParam(defaultValue = "true") boolean fuzzy,
+                                                HttpServletRequest request, HttpServletResponse response) {
+        logRequest("GET", "/api/tokimon/search");
+        if (answersForCluster(request)){
+            response.setStatus(HttpServletResponse.SC_NOT_IMPLEMENTED); // Set the response status to 501 Not Implemented
+            return null;
+        }
+        if (q.isBlank() || limit < 1 || limit > TokimonCardQuery.MAX_LIMIT){
+            metrics.validationFailure(Operation.SEARCH);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST); // Set the response status to 400 Bad Request
+            return null;
+        }
+        response.setStatus(HttpServletResponse.SC_OK); // Set the response status to 200 OK
+        return tokimonCardList.searchTokimonCards(q, limit, fuzzy);
+    }
+
+    // Analytical queries: filter on any field, rank by a field or a ratio of two, keep the best limit cards (per
+    // element type with groupBy), return only the selected fields. Every card is scanned, in parallel, see
+    // TokimonCardScan for the body. Not available in a cluster (501): the best cards and groups of each node's
+    // cards don't add up to those of all the cards
+    // example: curl -X POST -H "Content-Type: application/json" localhost:8080/api/tokimon/query
+    //   -d '{"where":{"elementType":["FIRE","DRAGON"],"rarity":{"min":7}},"orderBy":"attackPoints/healthPoints","order":"desc","limit":100}'
+    @PostMapping("/api/tokimon/query")
+    public ResponseEntity<TokimonCardScanResult> queryTokimonCards(@RequestBody TokimonCardScan scan, HttpServletRequest request){
+        logRequest("POST", "/api/tokimon/query");
+        if (answersForCluster(request)){
+            return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build(); // 501 Not Implemented
+        }
+        try {
+            return ResponseEntity.ok(tokimonCardList.scanTokimonCards(scan)); // 200 OK
+        } catch (InvalidCardQueryException e){
+            metrics.validationFailure(Operation.QUERY);
+            return ResponseEntity.badRequest().build(); // 400 Bad Request
+        }
+    }
 
+    // card counts by element type and rarity, and the min, max and average health and attack points.
+    // The store keeps these up to date as cards change, so this never reads the cards themselves.
+    // In a cluster every node's stats are asked for at once and merged, 502 if a peer doesn't answer
+    @GetMapping("/api/tokimon/stats")
+    public TokimonCardStats getTokimonCardStats(HttpServletRequest request, HttpServletResponse response) {
+        logRequest("GET", "/api/tokimon/stats");
+        if (!answersForCluster(request)){
+            response.setStatus(HttpServletResponse.SC_OK); // Set the response status to 200 OK
+            return tokimonCardList.getStats();
+        }
+        List<TokimonCardStats> parts = new ArrayList<>();
+        parts.add(tokimonCardList.getStats());
+        try {
+            parts.addAll(cluster.getPeerStats());
+        } catch (ClusterPeerUnavailableException e){
+            log.atWarn().log("stats incomplete: {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_BAD_GATEWAY); // Set the response status to 502 Bad Gateway
+            return null;
         }
         response.setStatus(HttpServletResponse.SC_OK); // Set the response status to 200 OK
-        return tokimonCardList.getTokimonCards();
+        return TokimonCardStats.merge(parts);
+    }
+
+    // Server-sent events for every add, update and delete, so clients can follow the cards instead of polling
+    // /api/tokimon/all. A client that reconnects with the id of the last event it got as Last-Event-ID (EventSource
+    // does this by itself) or ?lastEventId= gets the changes it missed, otherwise the stream starts at the next
+    // change. A reset event means read /api/tokimon/all again: the server restarted, the cards were reset, or
+    // the client missed more changes than the server keeps (tokimon.changes.buffer-size)
+    // example: curl -N localhost:8080/api/tokimon/changes
+    @GetMapping(value = "/api/tokimon/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                    @RequestParam(value = "lastEventId", required = false) String lastEventIdParam) {
+        logRequest("GET", "/api/tokimon/changes");
+        SseEmitter emitter = new SseEmitter(0L); // never times out, the heartbeats notice a client that went away
+        changeStreamThreads.newThread(new TokimonCardChangeStream(tokimonCardList, emitter,
+                lastEventId != null ? lastEventId : lastEventIdParam)).start();
+        return emitter;
     }
 
     //this get request is used to get a specific tokimon card by its ID
     @GetMapping("/api/tokimon/{tid}")
-    public TokimonCard getTokimonCard(@PathVariable long tid, HttpServletResponse response){
-        System.out.println("GET /tokimonCard/" + tid);
+    public void getTokimonCard(@PathVariable long tid, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        logRequest("GET", "/api/tokimon/{tid}", tid);
         try {
             TokimonCard tokimonCard = tokimonCardList.getTokimonCard(tid);
+            String etag = responseCache.getCardEtag(tokimonCard);
+            response.setHeader("ETag", etag);
+            if (ConditionalRequests.etagMatches(request.getHeader("If-None-Match"), etag)){
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); // Set the response status to 304 Not Modified
+                return;
+            }
             response.setStatus(HttpServletResponse.SC_OK); // Set the response status to 200 OK
-            return tokimonCard;
+            writeJson(responseCache.getCardJson(tokimonCard), response);
         } catch (TokimonCardNotFoundException e){
+            metrics.notFound(Operation.GET);
             response.setStatus(HttpServletResponse.SC_NOT_FOUND); // Set the response status to 404 Not Found
         }
-        return null;
+    }
+
+    // many cards in one request, e.g. a whole deck: the body is a json array of tids, the answer has the cards
+    // found (in the same order) and the tids that weren't. In a cluster the tids other nodes own are fetched from them
+    // example: curl -X POST -H "Content-Type: application/json" -d '[1,2,40]' localhost:8080/api/tokimon/batch/get
+    @PostMapping("/api/tokimon/batch/get")
+    public ResponseEntity<TokimonCardBatch> getTokimonCardBatch(@RequestBody List<Long> tids){
+        logRequest("POST", "/api/tokimon/batch/get");
+        if (tids.size() > MAX_BATCH_SIZE || tids.contains(null)){
+            metrics.validationFailure(Operation.BATCH_GET);
+            return ResponseEntity.badRequest().build(); // 400 Bad Request
+        }
+        if (!isClustered()){
+            return ResponseEntity.ok(tokimonCardList.getTokimonCards(tids)); // 200 OK
+        }
+        try {
+            return ResponseEntity.ok(getClusterCards(tids)); // 200 OK
+        } catch (ClusterPeerUnavailableException e){
+            log.atWarn().log("batch get incomplete: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build(); // 502 Bad Gateway
+        }
+    }
+
+    // the local tids from the store, the rest from their owners (one request per owner), put back in the asked order
+    private TokimonCardBatch getClusterCards(List<Long> tids) {
+        List<Long> localTids = new ArrayList<>();
+        Map<String, List<Long>> remoteTids = new LinkedHashMap<>();
+        for (long tid : tids){
+            if (cluster.isLocal(tid)){
+                localTids.add(tid);
+            } else {
+                remoteTids.computeIfAbsent(cluster.ownerOf(tid), owner -> new ArrayList<>()).add(tid);
+            }
+        }
+        Map<Long, TokimonCard> found = new HashMap<>();
+        tokimonCardList.getTokimonCards(localTids).cards().forEach(card -> found.put(card.getTid(), card));
+        for (TokimonCardBatch batch : cluster.getPeerCards(remoteTids)){
+            batch.cards().forEach(card -> found.put(card.getTid(), card));
+        }
+        List<TokimonCard> cards = new ArrayList<>(tids.size());
+        List<Long> missing = new ArrayList<>();
+        for (long tid : tids){
+            TokimonCard card = found.get(tid);
+            if (card != null){
+                cards.add(card);
+            } else {
+                missing.add(tid);
+            }
+        }
+        return new TokimonCardBatch(cards, missing);
+    }
+
+    // Adds, edits and deletes applied together: all of them or none. The body is a json array of mutations, see
+    // TokimonCardMutation. The answer lists the card each mutation left, in order (null for a delete), and is
+    // sent once the whole batch is committed with a single log record and fsync. 404 if an edit or delete names
+    // a tid that doesn't exist (by then, counting the batch's earlier mutations), 409 if an edit moves a card to a
+    // tid another card has, nothing is changed either way. In a cluster
+    // a batch can only edit and delete cards of the node it is sent to, so it stays a single commit
+    // example: [{"op":"add","card":{"name":"Tokitto","elementType":"NORMAL"}},{"op":"delete","tid":2}]
+    @PostMapping("/api/tokimon/batch/mutate")
+    public CompletableFuture<ResponseEntity<List<TokimonCard>>> mutateTokimonCards(@RequestBody List<TokimonCardMutation> mutations){
+        logRequest("POST", "/api/tokimon/batch/mutate");
+        try {
+            validateMutations(mutations);
+        } catch (InvalidCardBatchException e){
+            metrics.validationFailure(Operation.BATCH_MUTATE);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build()); // 400 Bad Request
+        }
+        int adds = (int) mutations.stream().filter(mutation -> mutation.getOp() == TokimonCardMutation.Type.ADD).count();
+        long nextTid = adds == 0 ? 0 : reserveTids(adds);
+        for (TokimonCardMutation mutation : mutations){
+            if (mutation.getOp() == TokimonCardMutation.Type.ADD){
+                mutation.getCard().setTid(nextTid++);
+            }
+        }
+        return tokimonCardList.mutateTokimonCardsAsync(mutations)
+                .thenApply(ResponseEntity::ok) // 200 OK
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof InvalidCardBatchException){
+                        log.atDebug().addKeyValue("reason", cause.getMessage()).log("batch rejected");
+                        metrics.notFound(Operation.BATCH_MUTATE);
+                        return ResponseEntity.notFound().build(); // 404 Not Found
+                    }
+                    if (cause instanceof TokimonCardConflictException){
+                        log.atDebug().addKeyValue("reason", cause.getMessage()).log("batch rejected");
+                        metrics.validationFailure(Operation.BATCH_MUTATE);
+                        return ResponseEntity.status(HttpStatus.CONFLICT).build(); // 409 Conflict
+                    }
+                    throw e instanceof CompletionException completion ? completion : new CompletionException(e);
+                });
+    }
+
+    // everything about the mutations that can be checked without the store
+    private void validateMutations(List<TokimonCardMutation> mutations) {
+        if (mutations.isEmpty() || mutations.size() > MAX_BATCH_SIZE){
+            throw new InvalidCardBatchException(0, "a batch holds 1 to " + MAX_BATCH_SIZE + " mutations");
+        }
+        for (int i = 0; i < mutations.size(); i++){
+            TokimonCardMutation mutation = mutations.get(i);
+            if (mutation == null || mutation.getOp() == null){
+                throw new InvalidCardBatchException(i, "op must be add, edit or delete");
+            }
+            if (mutation.getOp() != TokimonCardMutation.Type.ADD && !isLocalTid(mutation.getTid())){
+                throw new InvalidCardBatchException(i, "tid " + mutation.getTid() + " belongs to " + cluster.ownerOf(mutation.getTid()));
+            }
+            if (mutation.getOp() == TokimonCardMutation.Type.DELETE){
+                continue;
+            }
+            TokimonCard card = mutation.getCard();
+            if (card == null || card.getElementType() == null){
+                throw new InvalidCardBatchException(i, mutation.getOp() + " needs a card with an elementType");
+            }
+            if (mutation.getOp() == TokimonCardMutation.Type.ADD && !TokimonCard.isValidRarity(card.getRarity())){
+                throw new InvalidCardBatchException(i, "rarity must be " + TokimonCard.MIN_RARITY + " to " + TokimonCard.MAX_RARITY);
+            }
+            if (mutation.getOp() == TokimonCardMutation.Type.EDIT && card.getTid() != 0 && !isLocalTid(card.getTid())){
+                throw new InvalidCardBatchException(i, "can't move a card to tid " + card.getTid() + ", it belongs to " + cluster.ownerOf(card.getTid()));
+            }
+        }
+    }
+
+    // writes json that is already serialized, Jackson isn't involved
+    private static void writeJson(byte[] json, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setContentLength(json.length);
+        response.getOutputStream().write(json);
     }
 
     // the @PostMapping annotation tells Spring to use this method to handle specific URL POST requests
     // annotating a method indicates to Spring that this method should be invoked when the server receives a POST request to the specified URL
     // example: http://localhost:8080/tokimonCard with a POST request would invoke this method
 
-    // the HttpServletResponse arg is used to interact with and manipulate the HTTP response that your server
-    // sends back to the client. Specifically, it allows you to set the status code, headers, and the body of the response
+    // the ResponseEntity returned is the HTTP response that your server sends back to the client.
+    // Specifically, it carries the status code, headers, and the body of the response
     /// in this case we are setting the status code to 201 Created to indicate that the request has been fulfilled
     // and has resulted in one or more new resources being created
 
+    // add, edit and delete return a future that completes once the change is committed, so the request thread
+    // is handed back to the server while the change waits for the commit thread (and, in sync mode, the fsync)
     @PostMapping("/api/tokimon/add")
-    public ResponseEntity<TokimonCard> addTokimonCard(@RequestBody TokimonCard newTokimonCard, HttpServletResponse response){
-        System.out.println("POST /tokimonCard");
+    public CompletableFuture<ResponseEntity<TokimonCard>> addTokimonCard(@RequestBody TokimonCard newTokimonCard){
+        logRequest("POST", "/api/tokimon/add");
+        if (!TokimonCard.isValidRarity(newTokimonCard.getRarity())){
+            // a card without a rarity is given one, a card with one outside 1 to 10 is refused
+            metrics.validationFailure(Operation.ADD);
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null)); // 400 Bad Request
+        }
 
         try {
             // Set the ID and validate the element type
-            newTokimonCard.setTid(nextId.getAndIncrement());
+            newTokimonCard.setTid(reserveTids(1));
             newTokimonCard.setElementType(validateElementType(newTokimonCard.getElementType().toString()));
 
             // .getAndIncrement() method - this method atomically increments the current value by one and returns the updated value
-            tokimonCardList.addTokimonCard(newTokimonCard);
-
-            response.setStatus(HttpServletResponse.SC_CREATED); // Set the response status to 201 Created
-
             // ResponseEntity is a class that represents an HTTP response, including headers, body, and status
-            return ResponseEntity.status(HttpStatus.CREATED).body(newTokimonCard);
+            return tokimonCardList.addTokimonCardAsync(newTokimonCard)
+                    .thenApply(added -> ResponseEntity.status(HttpStatus.CREATED).body(newTokimonCard)); // 201 Created
         } catch (InvalidElementTypeException e){
-            response.setStatus(HttpServletResponse.SC_BAD_REQUEST); // Set the response status to 400 Bad Request
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+            metrics.validationFailure(Operation.ADD);
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null)); // 400 Bad Request
         }
     }
 
-    private TokimonCard.ElementType validateElementType(String elementType) {
-        try { //if element type is valid, convert it to uppercase string and cast it to the ElementType enum
-            return TokimonCard.ElementType.valueOf(elementType.toUpperCase());
-        } catch (IllegalArgumentException e){
-            throw new InvalidElementTypeException("Invalid element type: " + elementType);
+    // Reserves count new tids and returns the first. They come after every tid in the store, so cards that were
+    // saved before the server started (or given a tid by an edit) are never overwritten. Waits for the store to
+    // finish loading if it hasn't yet. In a cluster they also all fall in one block of tids this node owns, so no
+    // other node hands them out and requests for them are routed here
+    private long reserveTids(int count) {
+        long floor = tokimonCardList.getMaxTid() + 1;
+        if (!isClustered()){
+            return nextId.updateAndGet(next -> Math.max(next, floor) + count) - count;
         }
+        return nextId.updateAndGet(next -> cluster.nextLocalTid(Math.max(next, floor), count) + count) - count;
     }
 
-    @PostMapping("/api/tokimon/uploadPhoto")
-    public String uploadFile(@RequestParam("file")MultipartFile file, HttpServletResponse response) throws IOException {
-        if (file.isEmpty()){
-            response.setStatus(HttpServletResponse.SC_NOT_FOUND); // Set the response status to 400 Bad Request
-            return "File is not found";
-        }
+    private boolean isClustered() {
+        return cluster != null && cluster.isEnabled();
+    }
 
-        //validate file type
-        String contentType = file.getContentType();
-        if (!"image/png".equals(contentType) && !"image/jpeg".equals(contentType)){
-            response.setStatus(HttpServletResponse.SC_BAD_REQUEST); // Set the response status to 400 Bad Request
-            return "Invalid file type. Only PNG and JPEG files are allowed";
-        }
+    // whether this request is for the whole cluster's cards, not a peer asking for this node's own
+    private boolean answersForCluster(HttpServletRequest request) {
+        return isClustered() && !cluster.isForwardedByPeer(request);
+    }
 
-        // Define path to the server's resources folder
-        String resourcesPath = "src/main/resources/static/images/";
-        Path path = Paths.get(resourcesPath, file.getOriginalFilename());
+    private boolean isLocalTid(long tid) {
+        return cluster == null || cluster.isLocal(tid);
+    }
 
-        // Save the file to the resoruces folder
-        System.out.println(file.getOriginalFilename());
-        // arguments of .copy: InputStream source, Path target, CopyOption... options
-        Files.copy(file.getInputStream(), path, StandardCopyOption.REPLACE_EXISTING);
-        // StandardCopyOption.REPLACE_EXISTING is used to replace the file if it already exists
-        return "File uploaded successfully";
+    private TokimonCard.ElementType validateElementType(String elementType) {
+        try { //if element type is valid, convert it to uppercase string and cast it to the ElementType enum
+            return TokimonCard.ElementType.valueOf(elementType.toUpperCase());
+        } catch (IllegalArgumentException e){
+            throw new InvalidElementTypeException("Invalid element type: " + elementType);
+        }
     }
 
     // the @PutMapping annotation tells Spring to use this method to handle specific URL PUT requests
@@ -146,45 +585,110 @@ public class TokimonCardController {
     // example of @PathVariable usage: @GetMapping("/tokimonCard/{tid}") - the {tid} is a placeholder for the value that will be extracted
     // note: put requests UPDATE while post requests CREATE
     @PutMapping("/api/tokimon/edit/{tid}")
-    public TokimonCard updateTokimonCard(@PathVariable long tid, @RequestBody TokimonCard newTokimonCard, HttpServletResponse response){
-        System.out.println("PUT /tokimonCard/" + tid);
+    public CompletableFuture<ResponseEntity<TokimonCard>> updateTokimonCard(@PathVariable long tid, @RequestBody TokimonCard newTokimonCard){
+        logRequest("PUT", "/api/tokimon/edit/{tid}", tid);
+        if (newTokimonCard.getTid() != 0 && !isLocalTid(newTokimonCard.getTid())){
+            // the card would move to another node's tids, where that node can't see it
+            metrics.validationFailure(Operation.UPDATE);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build()); // 400 Bad Request
+        }
         try {
             newTokimonCard.setName(newTokimonCard.getName());
             newTokimonCard.setElementType(validateElementType(newTokimonCard.getElementType().name()));
             newTokimonCard.setImageName(newTokimonCard.getImageName());
             newTokimonCard.setHealthPoints(newTokimonCard.getHealthPoints());
             newTokimonCard.setAttackPoints(newTokimonCard.getAttackPoints());
-            tokimonCardList.updateTokimonCard(tid, newTokimonCard);
-            response.setStatus(HttpServletResponse.SC_OK); // Set the response status to 200 OK
-            return newTokimonCard;
+            return tokimonCardList.updateTokimonCardAsync(tid, newTokimonCard)
+                    .thenApply(updated -> ResponseEntity.ok(newTokimonCard)) // 200 OK
+                    .exceptionally(e -> {
+                        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        if (cause instanceof TokimonCardConflictException){
+                            // the new tid belongs to another card, which is left alone
+                            metrics.validationFailure(Operation.UPDATE);
+                            return ResponseEntity.status(HttpStatus.CONFLICT).build(); // 409 Conflict
+                        }
+                        throw e instanceof CompletionException completion ? completion : new CompletionException(e);
+                    });
         } catch (InvalidElementTypeException e){
-            response.setStatus(HttpServletResponse.SC_BAD_REQUEST); // Set the response status to 400 Bad Request
-            return null;
+            metrics.validationFailure(Operation.UPDATE);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build()); // 400 Bad Request
         }
     }
 
     @DeleteMapping("/api/tokimon/{tid}")
-    public void deleteTokimonCard(@PathVariable long tid, HttpServletResponse response){
-        System.out.println("DELETE /tokimonCard/" + tid);
+    public CompletableFuture<ResponseEntity<Void>> deleteTokimonCard(@PathVariable long tid){
+        logRequest("DELETE", "/api/tokimon/{tid}", tid);
 
         try {
-            TokimonCard tokimonCard = tokimonCardList.getTokimonCard(tid);
-            if (tokimonCard != null){
-                tokimonCardList.deleteTokimonCard(tid);
-                response.setStatus(HttpServletResponse.SC_NO_CONTENT); // Set the response status to 204 NO CONTENT
-            }
+            tokimonCardList.getTokimonCard(tid);
+            return tokimonCardList.deleteTokimonCardAsync(tid)
+                    .thenApply(deleted -> ResponseEntity.noContent().build()); // 204 NO CONTENT
         } catch (TokimonCardNotFoundException e){
-            response.setStatus(HttpServletResponse.SC_NOT_FOUND); // Set the response status to 404 Not Found
+            metrics.notFound(Operation.DELETE);
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build()); // 404 Not Found
         }
     }
 
+    // one structured line per request, only written when logging.level.ca.cmpt213.controller=debug
+    private static void logRequest(String method, String path) {
+        log.atDebug().addKeyValue("method", method).addKeyValue("path", path).log("request");
+    }
+
+    private static void logRequest(String method, String path, long tid) {
+        log.atDebug().addKeyValue("method", method).addKeyValue("path", path).addKeyValue("tid", tid).log("request");
+    }
+
     // the @PostConstruct annotation is used on a method that needs to be executed after dependency injection is done to perform any initialization
     // this code is executed after initialization of the class but before the class is put into service
     @PostConstruct
     public void init() {
-        System.out.println("POST CONSTRUCT CODE");
-        nextId = new AtomicInteger(4); // Initialize the nextId to 0
-        tokimonCardList = new TokimonCardList();
+        log.debug("POST CONSTRUCT CODE");
+        nextId = new AtomicLong(1); // the first tid, or one after the largest tid in the store
+        if (tokimonCardList != null){
+            close(); // release the log file (and the replication socket) before they are reopened
+        }
+        TokimonCardListSettings settings = new TokimonCardListSettings(storeFile);
+        settings.setSyncEvery(syncEvery);
+        settings.setDurabilityMode(CardDurabilityMode.fromName(durabilityMode));
+        settings.setFlushIntervalMillis(flushIntervalMillis);
+        settings.setCompactEvery(compactEvery);
+        settings.setSnapshotFormat(CardSnapshotFormat.fromName(snapshotFormat));
+        settings.setStorageBackend(CardStorageBackend.fromName(storageBackend));
+        settings.setMaxBatchSize(maxBatchSize);
+        settings.setChangeFeedCapacity(changeFeedCapacity);
+        settings.setVirtualThreads(virtualThreads);
+        if (queryParallelism > 0){
+            settings.setQueryParallelism(queryParallelism);
+        }
+        // the server starts taking requests while the cards load, readiness (/actuator/health/readiness) says when they have
+        settings.setLoadInBackground(loadInBackground);
+        settings.setMetrics(metrics);
+        if (replication != null){
+            replication.configure(settings);
+        }
+        tokimonCardList = new TokimonCardList(settings);
+        responseCache = new TokimonCardResponseCache(tokimonCardList);
+        // a follower's cards are the leader's, whatever they are
+        if (resetOnStart && !tokimonCardList.isReplica()){
+            tokimonCardList.resetToSampleCards(this::isLocalTid);
+        }
+        if (replication != null){
+            replication.start(tokimonCardList);
+        }
+    }
+
+    // for the store's health indicator
+    TokimonCardList getTokimonCardList() {
+        return tokimonCardList;
+    }
+
+    // the @PreDestroy annotation marks a method that runs when the application shuts down
+    @PreDestroy
+    public void close() {
+        if (replication != null){
+            replication.close();
+        }
+        tokimonCardList.close();
     }
 
 }
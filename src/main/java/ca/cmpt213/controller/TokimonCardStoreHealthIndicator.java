@@ -0,0 +1,48 @@
+package ca.cmpt213.controller;
+
+import ca.cmpt213.model.TokimonCardList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+// The tokimonCardStore component of /actuator/health: OUT_OF_SERVICE while the saved cards are still loading,
+// UP once they are, DOWN if they couldn't be loaded or a change to them couldn't be committed. It is part of
+// the readiness group (/actuator/health/readiness, see application.properties), so a load balancer only sends
+// traffic once the cards are there, while liveness stays UP during a long load. A replication follower is
+// OUT_OF_SERVICE until it has its leader's cards
+@Component
+public class TokimonCardStoreHealthIndicator implements HealthIndicator {
+    @Autowired
+    private TokimonCardController tokimonCardController;
+
+    @Override
+    public Health health() {
+        TokimonCardList tokimonCardList = tokimonCardController.getTokimonCardList();
+        if (tokimonCardList == null){
+            return Health.outOfService().build();
+        }
+        Throwable failure = tokimonCardList.getLoadFailure();
+        if (failure != null){
+            return Health.down(failure).withDetail("file", tokimonCardList.getFilePath()).build();
+        }
+        if (!tokimonCardList.isLoaded()){
+            return Health.outOfService()
+                    .withDetail("file", tokimonCardList.getFilePath())
+                    .withDetail("cardsLoaded", tokimonCardList.size())
+                    .build();
+        }
+        if (tokimonCardList.isReplica()){
+            // a follower's cards come from its leader, not the file
+            return Health.up()
+                    .withDetail("cards", tokimonCardList.size())
+                    .withDetail("replicatedSeq", tokimonCardList.getReplicatedSeq())
+                    .build();
+        }
+        return Health.up()
+                .withDetail("file", tokimonCardList.getFilePath())
+                .withDetail("cards", tokimonCardList.size())
+                .withDetail("loadMillis", tokimonCardList.getLoadMillis())
+                .build();
+    }
+}
@@ -0,0 +1,208 @@
+package ca.cmpt213.controller;
+
+import ca.cmpt213.image.ImageStore;
+import ca.cmpt213.image.ImageThumbnails;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Uploading and serving card images.
+// Images are kept in a content-addressed ImageStore, so identical uploads are stored once and every
+// image has a strong ETag (its hash). Downloads support If-None-Match, single byte ranges and are
+// handed to Tomcat's sendfile when the connector supports it, so the bytes go from the file to the
+// socket without being copied through the JVM.
+// ?w= serves a copy scaled down to that width instead, see ImageThumbnails
+@RestController
+public class TokimonImageController {
+    private static final Logger log = LoggerFactory.getLogger(TokimonImageController.class);
+
+    // request attributes Tomcat uses for sendfile, see org.apache.catalina.Globals
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private ImageStore imageStore;
+    private ImageThumbnails thumbnails;
+
+    @Value("${tokimon.images.dir:src/main/resources/static/images}")
+    private String imagesDir;
+    @Value("${tokimon.images.thumbnail-cache-bytes:16777216}")
+    private long thumbnailCacheBytes;
+
+    @PostMapping("/api/tokimon/uploadPhoto")
+    public String uploadFile(@RequestParam("file")MultipartFile file, HttpServletResponse response) throws IOException {
+        if (file.isEmpty()){
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND); // Set the response status to 400 Bad Request
+            return "File is not found";
+        }
+
+        //validate file type
+        String contentType = file.getContentType();
+        if (!"image/png".equals(contentType) && !"image/jpeg".equals(contentType)){
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST); // Set the response status to 400 Bad Request
+            return "Invalid file type. Only PNG and JPEG files are allowed";
+        }
+
+        String name = file.getOriginalFilename();
+        if (name == null || name.isBlank()){
+            name = "upload" + ("image/png".equals(contentType) ? ".png" : ".jpg");
+        }
+        // the store hashes the bytes as they are saved and skips the write if the same image is already there
+        ImageStore.StoredImage image = imageStore.store(file.getInputStream(), name, contentType);
+        log.atInfo().addKeyValue("name", name).addKeyValue("hash", image.hash()).log("image uploaded");
+        response.setHeader("ETag", image.etag());
+        response.setHeader("Location", "/api/tokimon/image/" + image.hash()); // permanent url of these exact bytes
+        return "File uploaded successfully";
+    }
+
+    // serves an image by the name it was uploaded under (e.g. charmander.png) or by its hash
+    // urls by hash never change content, so they can be cached forever. Urls by name can be pointed at a
+    // new image by uploading again, so clients have to revalidate them (cheap thanks to the ETag)
+    // example: /api/tokimon/image/charmander.png?w=64 for a 64 pixel wide thumbnail
+    @GetMapping("/api/tokimon/image/{name:.+}")
+    public void getImage(@PathVariable String name, @RequestParam(required = false) Integer w,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ImageStore.StoredImage image = imageStore.resolve(name);
+        if (image == null){
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND); // Set the response status to 404 Not Found
+            return;
+        }
+        if (w != null){
+            getThumbnail(name, image, w, request, response);
+            return;
+        }
+
+        response.setHeader("ETag", image.etag());
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Cache-Control", ImageStore.isHash(name) ? "public, max-age=31536000, immutable" : "no-cache");
+        if (ConditionalRequests.etagMatches(request.getHeader("If-None-Match"), image.etag())){
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); // the client's copy is still current
+            return;
+        }
+
+        long start = 0;
+        long end = image.size(); // exclusive
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(image.etag()))){
+            long[] bounds = parseRange(range, image.size());
+            if (bounds == null){
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + image.size());
+                return;
+            }
+            if (bounds.length == 2){
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + image.size());
+            }
+        }
+        if (start == 0 && end == image.size()){
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+
+        response.setContentType(image.contentType());
+        response.setContentLengthLong(end - start);
+        if ("HEAD".equals(request.getMethod())){
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))){
+            // Tomcat writes the file to the socket itself with sendfile once this request returns
+            request.setAttribute(SENDFILE_FILENAME, image.path().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+        // no sendfile (e.g. MockMvc or another servlet container), let the channel do the copying
+        try (FileChannel channel = FileChannel.open(image.path(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position < end){
+                position += channel.transferTo(position, end - position, out);
+            }
+        }
+    }
+
+    // the image scaled down to width pixels, same caching rules as the full image. Thumbnails are small,
+    // so they are written from memory and ranges aren't supported
+    private void getThumbnail(String name, ImageStore.StoredImage image, int width, HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        if (width < 1 || width > ImageThumbnails.MAX_WIDTH){
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST); // Set the response status to 400 Bad Request
+            return;
+        }
+        String etag = ImageThumbnails.etag(image, width);
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", ImageStore.isHash(name) ? "public, max-age=31536000, immutable" : "no-cache");
+        if (ConditionalRequests.etagMatches(request.getHeader("If-None-Match"), etag)){
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); // the client's copy is still current
+            return;
+        }
+
+        ImageThumbnails.Thumbnail thumbnail = thumbnails.thumbnail(image, width);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(thumbnail.contentType());
+        response.setContentLength(thumbnail.bytes().length);
+        if (!"HEAD".equals(request.getMethod())){
+            response.getOutputStream().write(thumbnail.bytes());
+        }
+    }
+
+    // Parses a "bytes=..." Range header into {start, end exclusive}.
+    // Returns an empty array when the header should be ignored (not bytes, or several ranges, which are
+    // answered with the whole image) and null when the range can't be satisfied
+    private static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.contains(",")){
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0){
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()){ // bytes=-500 is the last 500 bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0){
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size : Math.min(size, Long.parseLong(last) + 1);
+            }
+            if (start >= size || start >= end){
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e){
+            return new long[0];
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        imageStore = new ImageStore(imagesDir);
+        thumbnails = new ImageThumbnails(Paths.get(imagesDir, "thumbnails"), thumbnailCacheBytes);
+    }
+}
@@ -0,0 +1,8 @@
+package ca.cmpt213.exception;
+
+// a request had to go to another node of the cluster and that node didn't answer
+public class ClusterPeerUnavailableException extends RuntimeException {
+    public ClusterPeerUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,15 @@
+package ca.cmpt213.exception;
+
+// a batch of mutations that can't be applied as a whole, none of it was. index is the mutation at fault
+public class InvalidCardBatchException extends RuntimeException {
+    private final int index;
+
+    public InvalidCardBatchException(int index, String message) {
+        super("Mutation " + index + ": " + message);
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,7 @@
+package ca.cmpt213.exception;
+
+public class InvalidCardQueryException extends RuntimeException {
+    public InvalidCardQueryException(String message) {
+        super(message);
+    }
+}
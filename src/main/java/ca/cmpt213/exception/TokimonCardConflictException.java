@@ -0,0 +1,8 @@
+package ca.cmpt213.exception;
+
+// a change that would put a card on a tid another card already has, nothing was changed
+public class TokimonCardConflictException extends RuntimeException {
+    public TokimonCardConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package ca.cmpt213.exception;
+
+public class TokimonCardPersistenceException extends RuntimeException {
+    public TokimonCardPersistenceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,172 @@
+package ca.cmpt213.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Content-addressed image storage.
+// Every image is saved once under blobs/<sha-256 of its bytes>.<png|jpg>, uploading the same bytes again
+// (under any name) reuses the existing blob. The name a client uploaded it under (the imageName on a card)
+// points at the blob through names.properties, re-uploading a name just repoints it.
+// Images already sitting in the directory (the sample cards' images) are imported on startup.
+public class ImageStore {
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path root;
+    private final Path blobs;
+    private final Path namesFile;
+    private final Map<String, String> blobsByName = new ConcurrentHashMap<>(); // uploaded name -> blob file name
+
+    // the blob an image name or hash resolves to
+    public record StoredImage(String hash, Path path, String contentType, long size) {
+        // strong validator, the bytes of a blob never change
+        public String etag() {
+            return "\"" + hash + "\"";
+        }
+    }
+
+    public ImageStore(String directory) {
+        this.root = Paths.get(directory);
+        this.blobs = root.resolve("blobs");
+        this.namesFile = root.resolve("names.properties");
+        try {
+            Files.createDirectories(blobs);
+            loadNames();
+            importExistingImages();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open image store " + root, e);
+        }
+    }
+
+    private void loadNames() throws IOException {
+        if (!Files.exists(namesFile)) {
+            return;
+        }
+        Properties names = new Properties();
+        try (InputStream in = Files.newInputStream(namesFile)) {
+            names.load(in);
+        }
+        names.forEach((name, blob) -> blobsByName.put((String) name, (String) blob));
+    }
+
+    private void importExistingImages() throws IOException {
+        try (DirectoryStream<Path> images = Files.newDirectoryStream(root, "*.{png,jpg,jpeg}")) {
+            for (Path image : images) {
+                String name = image.getFileName().toString();
+                if (!blobsByName.containsKey(name)) {
+                    try (InputStream in = Files.newInputStream(image)) {
+                        store(in, name, contentTypeOf(name));
+                    }
+                }
+            }
+        }
+    }
+
+    // Saves the image under its content hash and points name at it. Only the file name part of name is kept,
+    // so a client can't write outside the store with names like ../../something. A name without one (like /)
+    // is saved as upload.png or upload.jpg, the name an upload without any gets
+    public StoredImage store(InputStream in, String name, String contentType) throws IOException {
+        String extension = "image/png".equals(contentType) ? ".png" : ".jpg";
+        String imageName = fileNameOf(name);
+        if (imageName == null) {
+            imageName = "upload" + extension;
+        }
+
+        // hash the bytes while they are copied to a temp file, so the upload is only read once
+        Path temp = Files.createTempFile(blobs, "upload", ".tmp");
+        String hash;
+        try {
+            MessageDigest digest = sha256();
+            try (DigestInputStream digestIn = new DigestInputStream(in, digest)) {
+                Files.copy(digestIn, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            hash = HexFormat.of().formatHex(digest.digest());
+            Path blob = blobs.resolve(hash + extension);
+            if (Files.exists(blob)) {
+                Files.delete(temp); // same bytes were uploaded before, keep the one copy
+            } else {
+                Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        blobsByName.put(imageName, hash + extension);
+        saveNames();
+        return resolve(hash);
+    }
+
+    // the last part of the path, null if there is none or it isn't a name (. or ..)
+    private static String fileNameOf(String name) {
+        Path fileName;
+        try {
+            fileName = Paths.get(name).getFileName();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (fileName == null || fileName.toString().equals(".") || fileName.toString().equals("..")) {
+            return null;
+        }
+        return fileName.toString();
+    }
+
+    // looks an image up by the name it was uploaded under or by its hash, null if there is no such image
+    public StoredImage resolve(String nameOrHash) {
+        String blobName = blobsByName.get(nameOrHash);
+        if (blobName == null && HASH.matcher(nameOrHash).matches()) {
+            blobName = Files.exists(blobs.resolve(nameOrHash + ".png")) ? nameOrHash + ".png" : nameOrHash + ".jpg";
+        }
+        if (blobName == null) {
+            return null;
+        }
+        Path blob = blobs.resolve(blobName);
+        try {
+            return new StoredImage(blobName.substring(0, blobName.indexOf('.')), blob, contentTypeOf(blobName), Files.size(blob));
+        } catch (IOException e) {
+            return null; // the blob doesn't exist
+        }
+    }
+
+    // true when the string is a content hash rather than an uploaded name
+    public static boolean isHash(String nameOrHash) {
+        return HASH.matcher(nameOrHash).matches();
+    }
+
+    private synchronized void saveNames() throws IOException {
+        Properties names = new Properties();
+        names.putAll(blobsByName);
+        Path temp = root.resolve("names.properties.tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            names.store(out, "image name -> content addressed blob");
+        }
+        Files.move(temp, namesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String contentTypeOf(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".png") ? "image/png" : "image/jpeg";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM ships SHA-256
+        }
+    }
+}
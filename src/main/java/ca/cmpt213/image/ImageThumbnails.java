@@ -0,0 +1,193 @@
+package ca.cmpt213.image;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Resized copies of stored images, for /api/tokimon/image/{name}?w=64.
+// A thumbnail is made from a blob, whose bytes never change, so it is keyed by the blob's hash and the width
+// and never goes stale. A lookup tries memory, then disk (<dir>/<hash>-w<width>.<png|jpg>), and only then
+// decodes, scales and encodes the image with ImageIO.
+// The memory cache is an LRU bounded by the bytes it holds rather than the number of entries, so a few
+// large thumbnails can't push it past its budget.
+// Requests for a variant that isn't cached yet share one generation (single flight): the first request does
+// the work, the others wait for its result instead of decoding the same image again
+public class ImageThumbnails {
+    public static final int MAX_WIDTH = 1024;
+
+    private final Path directory;
+    private final long maxCacheBytes;
+    private final LinkedHashMap<String, Thumbnail> cache = new LinkedHashMap<>(64, 0.75f, true); // access order, guarded by this
+    private long cachedBytes; // guarded by this
+    private final Map<String, CompletableFuture<Thumbnail>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong generated = new AtomicLong();
+
+    public record Thumbnail(String key, byte[] bytes, String contentType) {
+        public String etag() {
+            return "\"" + key + "\"";
+        }
+    }
+
+    public ImageThumbnails(Path directory, long maxCacheBytes) {
+        this.directory = directory;
+        this.maxCacheBytes = maxCacheBytes;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create thumbnail directory " + directory, e);
+        }
+    }
+
+    // the ETag the thumbnail will have, known without making it, so a 304 never has to
+    public static String etag(ImageStore.StoredImage image, int width) {
+        return "\"" + key(image, width) + "\"";
+    }
+
+    private static String key(ImageStore.StoredImage image, int width) {
+        return image.hash() + "-w" + width;
+    }
+
+    // The image scaled down to width (keeping its aspect ratio), in the image's own format.
+    // An image that is already narrower than that is returned as it is, never scaled up
+    public Thumbnail thumbnail(ImageStore.StoredImage image, int width) throws IOException {
+        String key = key(image, width);
+        Thumbnail thumbnail = cached(key);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+
+        CompletableFuture<Thumbnail> flight = new CompletableFuture<>();
+        CompletableFuture<Thumbnail> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            // another flight may have finished between the cache miss and this one starting
+            thumbnail = cached(key);
+            if (thumbnail == null) {
+                thumbnail = load(image, key, width);
+                remember(thumbnail);
+            }
+            flight.complete(thumbnail);
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    private static Thumbnail await(CompletableFuture<Thumbnail> flight) throws IOException {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private Thumbnail load(ImageStore.StoredImage image, String key, int width) throws IOException {
+        boolean png = "image/png".equals(image.contentType());
+        Path file = directory.resolve(key + (png ? ".png" : ".jpg"));
+        if (Files.exists(file)) {
+            return new Thumbnail(key, Files.readAllBytes(file), image.contentType());
+        }
+
+        BufferedImage source = ImageIO.read(image.path().toFile());
+        if (source == null) {
+            throw new IOException("Not an image ImageIO can read: " + image.path());
+        }
+        byte[] bytes;
+        if (width >= source.getWidth()) {
+            bytes = Files.readAllBytes(image.path());
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(resize(source, width, png), png ? "png" : "jpg", out);
+            bytes = out.toByteArray();
+        }
+        generated.incrementAndGet();
+
+        // written to a temp file and moved, so a reader never sees half a thumbnail
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new Thumbnail(key, bytes, image.contentType());
+    }
+
+    // Halves the image with bilinear filtering until it is less than twice the target width, then scales it
+    // to the exact size. One bilinear step from a much larger image skips most of its pixels and aliases
+    static BufferedImage resize(BufferedImage source, int width, boolean alpha) {
+        int height = Math.max(1, Math.round((float) source.getHeight() * width / source.getWidth()));
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = currentWidth / 2 >= width ? currentWidth / 2 : width;
+            currentHeight = currentWidth == width ? height : Math.max(height, currentHeight / 2);
+            // jpeg has no alpha channel, ImageIO won't write an ARGB image as jpeg
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            graphics.dispose();
+            current = next;
+        } while (currentWidth != width);
+        return current;
+    }
+
+    private synchronized Thumbnail cached(String key) {
+        return cache.get(key);
+    }
+
+    // adds the thumbnail and evicts the least recently used ones until the cache is back within its budget
+    private synchronized void remember(Thumbnail thumbnail) {
+        if (thumbnail.bytes().length > maxCacheBytes) {
+            return; // would evict everything else and still not fit, it stays on disk only
+        }
+        Thumbnail previous = cache.put(thumbnail.key(), thumbnail);
+        if (previous != null) {
+            cachedBytes -= previous.bytes().length;
+        }
+        cachedBytes += thumbnail.bytes().length;
+        Iterator<Thumbnail> eldest = cache.values().iterator();
+        while (cachedBytes > maxCacheBytes) {
+            cachedBytes -= eldest.next().bytes().length;
+            eldest.remove();
+        }
+    }
+
+    // bytes held by the memory cache
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    // thumbnails made from scratch (not found in memory or on disk) since this was created
+    public long getGenerated() {
+        return generated.get();
+    }
+}
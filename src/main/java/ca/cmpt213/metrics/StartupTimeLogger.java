@@ -0,0 +1,32 @@
+package ca.cmpt213.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.AotDetector;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+
+// Logs how long the server took to start, from the JVM starting (class loading included, which is what an
+// AppCDS archive speeds up) and from Spring starting, and whether the CDS archive and the AOT-generated
+// context were used. StartupTimeBenchmark reads this line. Spring also exports application.ready.time
+// at /actuator/prometheus
+@Component
+public class StartupTimeLogger implements ApplicationListener<ApplicationReadyEvent> {
+    private static final Logger log = LoggerFactory.getLogger(StartupTimeLogger.class);
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        boolean cds = runtime.getInputArguments().stream().anyMatch(argument -> argument.startsWith("-XX:SharedArchiveFile"));
+        log.atInfo()
+                .addKeyValue("jvmMillis", runtime.getUptime())
+                .addKeyValue("springMillis", event.getTimeTaken() == null ? -1 : event.getTimeTaken().toMillis())
+                .addKeyValue("cds", cds)
+                .addKeyValue("aot", AotDetector.useGeneratedArtifacts())
+                .log("Ready in {} ms since the JVM started", runtime.getUptime());
+    }
+}
@@ -0,0 +1,121 @@
+package ca.cmpt213.metrics;
+
+import ca.cmpt213.model.TokimonCardList;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Timers, gauges and counters for the card store, exported at /actuator/prometheus.
+//   tokimon.card.operation{operation, phase}   time per phase of each operation, with a percentile histogram
+//       deserialize  reading the request body into a TokimonCard
+//       lookup       finding the card(s) in the in-memory maps or indexes
+//       mutate       changing the maps and indexes
+//       persist      appending to the write-ahead log and waiting for the batch's fsync (includes queueing)
+//   tokimon.cards                         cards in the store
+//   tokimon.persist.backlog               changes waiting for the commit writer
+//   tokimon.card.not.found{operation}     requests for a tid that doesn't exist
+//   tokimon.card.validation.failures{operation}   requests rejected for bad input
+@Component
+public class TokimonCardMetrics {
+    public enum Operation {GET, GET_ALL, PAGE, SEARCH, STATS, QUERY, BATCH_GET, ADD, BULK_IMPORT, BATCH_MUTATE, UPDATE, DELETE}
+    public enum Phase {DESERIALIZE, LOOKUP, MUTATE, PERSIST}
+
+    private final MeterRegistry registry;
+    // created the first time each operation/phase pair is used, so unused pairs don't export empty histograms.
+    // Registering the same timer twice returns the same instance, so racing to fill a slot is harmless
+    private final Timer[][] timers = new Timer[Operation.values().length][Phase.values().length];
+    private final Counter[] notFound = new Counter[Operation.values().length];
+    private final Counter[] validationFailures = new Counter[Operation.values().length];
+    // the store the gauges read, replaced when the controller reopens the store
+    private volatile TokimonCardList store;
+
+    // the lookup and mutate time of one change, measured on the commit thread. Everything else the caller
+    // waited for is persist time
+    public static class ChangeTimes {
+        private long lookupNanos;
+        private long mutateNanos;
+
+        public void lookedUp(long startNanos) {
+            lookupNanos += System.nanoTime() - startNanos;
+        }
+
+        public void mutated(long startNanos) {
+            mutateNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    public TokimonCardMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("tokimon.cards", this, metrics -> metrics.store == null ? 0 : metrics.store.size())
+                .description("Cards in the store")
+                .register(registry);
+        Gauge.builder("tokimon.persist.backlog", this, metrics -> metrics.store == null ? 0 : metrics.store.getPendingChanges())
+                .description("Changes waiting for the commit writer")
+                .register(registry);
+    }
+
+    public void bindStore(TokimonCardList store) {
+        this.store = store;
+    }
+
+    public void record(Operation operation, Phase phase, long nanos) {
+        timer(operation, phase).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // records a change that went through the commit pipeline, startNanos is when the caller submitted it
+    public void recordChange(Operation operation, long startNanos, ChangeTimes times) {
+        long total = System.nanoTime() - startNanos;
+        if (times.lookupNanos > 0){
+            record(operation, Phase.LOOKUP, times.lookupNanos);
+        }
+        record(operation, Phase.MUTATE, times.mutateNanos);
+        record(operation, Phase.PERSIST, Math.max(0, total - times.lookupNanos - times.mutateNanos));
+    }
+
+    public void notFound(Operation operation) {
+        Counter counter = notFound[operation.ordinal()];
+        if (counter == null){
+            counter = Counter.builder("tokimon.card.not.found")
+                    .tag("operation", tagValue(operation))
+                    .description("Requests for a card that doesn't exist")
+                    .register(registry);
+            notFound[operation.ordinal()] = counter;
+        }
+        counter.increment();
+    }
+
+    public void validationFailure(Operation operation) {
+        Counter counter = validationFailures[operation.ordinal()];
+        if (counter == null){
+            counter = Counter.builder("tokimon.card.validation.failures")
+                    .tag("operation", tagValue(operation))
+                    .description("Requests rejected because of invalid input")
+                    .register(registry);
+            validationFailures[operation.ordinal()] = counter;
+        }
+        counter.increment();
+    }
+
+    private Timer timer(Operation operation, Phase phase) {
+        Timer timer = timers[operation.ordinal()][phase.ordinal()];
+        if (timer == null){
+            timer = Timer.builder("tokimon.card.operation")
+                    .tag("operation", tagValue(operation))
+                    .tag("phase", tagValue(phase))
+                    .description("Time spent in each phase of a card operation")
+                    .publishPercentileHistogram()
+                    .register(registry);
+            timers[operation.ordinal()][phase.ordinal()] = timer;
+        }
+        return timer;
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
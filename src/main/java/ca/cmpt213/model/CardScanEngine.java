@@ -0,0 +1,223 @@
+package ca.cmpt213.model;
+
+import ca.cmpt213.model.TokimonCardScan.Expression;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Runs a TokimonCardScan over every card on its own fork-join pool (scatter-gather).
+// The store is split into a few segments per thread (CardStorage.segments), the segment list is halved by
+// fork-join tasks until a task holds one segment, and each segment is scanned into its own Partial: per group a
+// count, point totals and a bounded heap of the best limit cards seen so far. Partials are merged pairwise as
+// the tasks join, so no two threads ever touch the same counters or heap while scanning and the only
+// sorting is of the final limit cards per group. Spare segments let idle threads steal work when some
+// segments match far more cards than others
+class CardScanEngine implements AutoCloseable {
+    private static final int SEGMENTS_PER_THREAD = 4;
+    private static final TokimonCard.ElementType[] ELEMENT_TYPES = TokimonCard.ElementType.values();
+    private static final int UNGROUPED = ELEMENT_TYPES.length; // the one group of a scan that isn't grouped
+
+    private final ForkJoinPool pool;
+
+    CardScanEngine(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    // the scan has to be validated already
+    TokimonCardScanResult scan(CardStorage storage, TokimonCardScan scan) {
+        Plan plan = new Plan(scan, scan.toStorageQuery(), scan.getOrderExpression(), scan.isDescending(),
+                rankOrder(scan.isDescending()));
+        List<CardStorage.Segment> segments = storage.segments(pool.getParallelism() * SEGMENTS_PER_THREAD);
+        Partial result = segments.isEmpty() ? new Partial(plan)
+                : pool.invoke(new SegmentTask(plan, segments, 0, segments.size()));
+        return result.toResult(segments.size());
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    // best first: by the order expression, then by tid
+    private static Comparator<Ranked> rankOrder(boolean descending) {
+        Comparator<Ranked> byValue = Comparator.comparingDouble(Ranked::value);
+        return (descending ? byValue.reversed() : byValue).thenComparingLong(Ranked::tid);
+    }
+
+    private record Plan(TokimonCardScan scan, TokimonCardQuery storageQuery, Expression orderBy, boolean descending,
+                        Comparator<Ranked> rank) {
+        // rank without making a Ranked, for the cards that don't make it into a full heap
+        boolean beats(double value, long tid, Ranked other) {
+            int byValue = descending ? Double.compare(other.value(), value) : Double.compare(value, other.value());
+            return byValue < 0 || (byValue == 0 && tid < other.tid());
+        }
+    }
+
+    private record Ranked(double value, long tid, TokimonCard card) {}
+
+    private static final class SegmentTask extends RecursiveTask<Partial> {
+        private final Plan plan;
+        private final List<CardStorage.Segment> segments;
+        private final int from;
+        private final int to;
+
+        SegmentTask(Plan plan, List<CardStorage.Segment> segments, int from, int to) {
+            this.plan = plan;
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from == 1){
+                Partial partial = new Partial(plan);
+                segments.get(from).forEachMatching(plan.storageQuery(), tokimonCard -> {
+                    if (plan.scan().matches(tokimonCard)){
+                        partial.add(tokimonCard);
+                    }
+                });
+                return partial;
+            }
+            int middle = (from + to) >>> 1;
+            SegmentTask left = new SegmentTask(plan, segments, from, middle);
+            left.fork();
+            Partial right = new SegmentTask(plan, segments, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    // what one or more segments found, by group (element type ordinal, or UNGROUPED)
+    private static final class Partial {
+        private final Plan plan;
+        private final Group[] groups = new Group[ELEMENT_TYPES.length + 1];
+        private long matched;
+
+        Partial(Plan plan) {
+            this.plan = plan;
+        }
+
+        void add(TokimonCard tokimonCard) {
+            matched++;
+            int key = UNGROUPED;
+            if (plan.scan().isGroupedByElementType()){
+                if (tokimonCard.getElementType() == null){
+                    return; // counted, but in no group
+                }
+                key = tokimonCard.getElementType().ordinal();
+            }
+            if (groups[key] == null){
+                groups[key] = new Group(plan);
+            }
+            groups[key].add(tokimonCard);
+        }
+
+        Partial merge(Partial other) {
+            matched += other.matched;
+            for (int key = 0; key < groups.length; key++){
+                if (groups[key] == null){
+                    groups[key] = other.groups[key];
+                } else if (other.groups[key] != null){
+                    groups[key].merge(other.groups[key]);
+                }
+            }
+            return this;
+        }
+
+        TokimonCardScanResult toResult(int segments) {
+            if (!plan.scan().isGroupedByElementType()){
+                Group all = groups[UNGROUPED];
+                return new TokimonCardScanResult(matched, all == null ? List.of() : all.bestCards(), null, segments);
+            }
+            Map<TokimonCard.ElementType, TokimonCardScanResult.Group> byElementType = new EnumMap<>(TokimonCard.ElementType.class);
+            for (int key = 0; key < ELEMENT_TYPES.length; key++){
+                if (groups[key] != null){
+                    byElementType.put(ELEMENT_TYPES[key], groups[key].toResult());
+                }
+            }
+            return new TokimonCardScanResult(matched, null, byElementType, segments);
+        }
+    }
+
+    // the totals and best cards of one group
+    private static final class Group {
+        private final Plan plan;
+        private final int limit;
+        private final PriorityQueue<Ranked> best; // worst of the best at the head, so it is the one that goes
+        private long count;
+        private long healthPointsTotal;
+        private long attackPointsTotal;
+        private int minHealthPoints = Integer.MAX_VALUE;
+        private int maxHealthPoints = Integer.MIN_VALUE;
+        private int minAttackPoints = Integer.MAX_VALUE;
+        private int maxAttackPoints = Integer.MIN_VALUE;
+
+        Group(Plan plan) {
+            this.plan = plan;
+            this.limit = plan.scan().getLimit();
+            this.best = new PriorityQueue<>(limit + 1, plan.rank().reversed());
+        }
+
+        void add(TokimonCard tokimonCard) {
+            count++;
+            int healthPoints = tokimonCard.getHealthPoints();
+            int attackPoints = tokimonCard.getAttackPoints();
+            healthPointsTotal += healthPoints;
+            attackPointsTotal += attackPoints;
+            minHealthPoints = Math.min(minHealthPoints, healthPoints);
+            maxHealthPoints = Math.max(maxHealthPoints, healthPoints);
+            minAttackPoints = Math.min(minAttackPoints, attackPoints);
+            maxAttackPoints = Math.max(maxAttackPoints, attackPoints);
+            double value = plan.orderBy().valueOf(tokimonCard);
+            if (best.size() < limit || plan.beats(value, tokimonCard.getTid(), best.peek())){
+                offer(new Ranked(value, tokimonCard.getTid(), tokimonCard));
+            }
+        }
+
+        private void offer(Ranked ranked) {
+            if (best.size() < limit){
+                best.add(ranked);
+            } else if (plan.rank().compare(ranked, best.peek()) < 0){
+                best.poll();
+                best.add(ranked);
+            }
+        }
+
+        void merge(Group other) {
+            count += other.count;
+            healthPointsTotal += other.healthPointsTotal;
+            attackPointsTotal += other.attackPointsTotal;
+            minHealthPoints = Math.min(minHealthPoints, other.minHealthPoints);
+            maxHealthPoints = Math.max(maxHealthPoints, other.maxHealthPoints);
+            minAttackPoints = Math.min(minAttackPoints, other.minAttackPoints);
+            maxAttackPoints = Math.max(maxAttackPoints, other.maxAttackPoints);
+            for (Ranked ranked : other.best){
+                offer(ranked);
+            }
+        }
+
+        // best first, with only the selected fields
+        List<Map<String, Object>> bestCards() {
+            List<Ranked> sorted = new ArrayList<>(best);
+            sorted.sort(plan.rank());
+            List<Map<String, Object>> cards = new ArrayList<>(sorted.size());
+            for (Ranked ranked : sorted){
+                cards.add(plan.scan().project(ranked.card()));
+            }
+            return cards;
+        }
+
+        TokimonCardScanResult.Group toResult() {
+            return new TokimonCardScanResult.Group(count,
+                    new TokimonCardStats.Range(minHealthPoints, maxHealthPoints, (double) healthPointsTotal / count),
+                    new TokimonCardStats.Range(minAttackPoints, maxAttackPoints, (double) attackPointsTotal / count),
+                    bestCards());
+        }
+    }
+}
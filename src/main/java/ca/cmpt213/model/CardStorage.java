@@ -0,0 +1,47 @@
+package ca.cmpt213.model;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Where a TokimonCardList keeps its cards in memory, see CardStorageBackend.
+// Reads may come from any thread at any time. put, remove and clear are only ever called by one thread at a time
+// (the commit thread, or the constructor before the list is shared), so implementations only have to make
+// those changes safe for concurrent readers, not for each other
+interface CardStorage {
+    TokimonCard get(long tid);
+
+    boolean contains(long tid);
+
+    // adds the card, or replaces the card with the same tid. Returns the card it replaced, or null
+    TokimonCard put(TokimonCard tokimonCard);
+
+    // returns the card that was removed, or null if there was no card with that tid
+    TokimonCard remove(long tid);
+
+    void clear();
+
+    int size();
+
+    // every card in tid order. The view is live and weakly consistent: iterating it while cards change
+    // never fails, and each card it returns is a complete card
+    Collection<TokimonCard> values();
+
+    // one page of the cards matching the query, with the same cursor semantics as TokimonCardIndex
+    TokimonCardPage query(TokimonCardQuery query);
+
+    // passes every card matching the query's filters to the action, in no particular order.
+    // The query's sort order, cursor and limit are ignored
+    void forEachMatching(TokimonCardQuery query, Consumer<TokimonCard> action);
+
+    // Splits the cards into up to parts segments of about the same size that can be scanned at the same time,
+    // each card is in exactly one of them. Like values(), a card changed during a scan is seen before or after
+    // the change, never half of it
+    List<Segment> segments(int parts);
+
+    // one part of the cards, see segments
+    interface Segment {
+        // like CardStorage.forEachMatching, for this segment's cards only
+        void forEachMatching(TokimonCardQuery query, Consumer<TokimonCard> action);
+    }
+}
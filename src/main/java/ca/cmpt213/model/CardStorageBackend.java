@@ -0,0 +1,28 @@
+package ca.cmpt213.model;
+
+import java.util.Locale;
+
+// How a TokimonCardList holds its cards in memory.
+// HEAP keeps every card as an object in concurrent maps with skip-list indexes, so pages are found in O(log n).
+// OFF_HEAP keeps the fields in primitive columns outside the Java heap (OffHeapCardStorage): far less heap and
+// GC work for very large catalogues and faster full scans, but pages are found by scanning the columns
+public enum CardStorageBackend {
+    HEAP,
+    OFF_HEAP;
+
+    // the property value (heap or off-heap), in any case
+    public static CardStorageBackend fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown card storage backend " + name + ", expected heap or off-heap");
+        }
+    }
+
+    CardStorage create() {
+        return switch (this) {
+            case HEAP -> new HeapCardStorage();
+            case OFF_HEAP -> new OffHeapCardStorage();
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package ca.cmpt213.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+// The cards as objects on the heap.
+// Reads never take a lock: a ConcurrentHashMap answers lookups by tid in O(1) and a ConcurrentSkipListMap
+// keeps the cards ordered by tid for the listing (tids are handed out in increasing order, so this is also
+// the order the cards were added in). The list never edits a card that has been published, it swaps in an
+// updated copy, so a reader can never see a half updated card
+class HeapCardStorage implements CardStorage {
+    private final Map<Long, TokimonCard> tokimonCards = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, TokimonCard> tokimonCardsByTid = new ConcurrentSkipListMap<>();
+    // secondary indexes by element type, rarity, hp and attack for the paged listing
+    private final TokimonCardIndex cardIndex = new TokimonCardIndex();
+
+    @Override
+    public TokimonCard get(long tid) {
+        return tokimonCards.get(tid);
+    }
+
+    @Override
+    public boolean contains(long tid) {
+        return tokimonCards.containsKey(tid);
+    }
+
+    @Override
+    public TokimonCard put(TokimonCard tokimonCard) {
+        tokimonCardsByTid.put(tokimonCard.getTid(), tokimonCard);
+        TokimonCard previous = tokimonCards.put(tokimonCard.getTid(), tokimonCard);
+        if (previous != null) {
+            cardIndex.remove(previous);
+        }
+        cardIndex.add(tokimonCard);
+        return previous;
+    }
+
+    @Override
+    public TokimonCard remove(long tid) {
+        TokimonCard removed = tokimonCards.remove(tid);
+        tokimonCardsByTid.remove(tid);
+        if (removed != null) {
+            cardIndex.remove(removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        tokimonCards.clear();
+        tokimonCardsByTid.clear();
+        cardIndex.clear();
+    }
+
+    @Override
+    public int size() {
+        return tokimonCards.size();
+    }
+
+    @Override
+    public Collection<TokimonCard> values() {
+        return tokimonCardsByTid.values();
+    }
+
+    @Override
+    public TokimonCardPage query(TokimonCardQuery query) {
+        return cardIndex.query(query, tokimonCards::get);
+    }
+
+    @Override
+    public void forEachMatching(TokimonCardQuery query, Consumer<TokimonCard> action) {
+        forEachMatching(tokimonCards.values(), query, action);
+    }
+
+    // Equal tid ranges of the skip list, tids are handed out densely so they hold about as many cards each.
+    // The first and last ranges are open ended so cards added during the scan still land in one of them
+    @Override
+    public List<Segment> segments(int parts) {
+        if (parts <= 1 || tokimonCardsByTid.isEmpty()) {
+            return List.of((query, action) -> forEachMatching(tokimonCardsByTid.values(), query, action));
+        }
+        long first = tokimonCardsByTid.firstKey();
+        long step = Math.max(1, Math.ceilDiv(tokimonCardsByTid.lastKey() - first + 1, parts));
+        List<Segment> segments = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            long from = first + i * step;
+            Collection<TokimonCard> range = i == 0 ? tokimonCardsByTid.headMap(from + step).values()
+                    : i == parts - 1 ? tokimonCardsByTid.tailMap(from).values()
+                    : tokimonCardsByTid.subMap(from, from + step).values();
+            segments.add((query, action) -> forEachMatching(range, query, action));
+        }
+        return segments;
+    }
+
+    private static void forEachMatching(Collection<TokimonCard> cards, TokimonCardQuery query, Consumer<TokimonCard> action) {
+        for (TokimonCard tokimonCard : cards) {
+            if (query.matches(tokimonCard)) {
+                action.accept(tokimonCard);
+            }
+        }
+    }
+}
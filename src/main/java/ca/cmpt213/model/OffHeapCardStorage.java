@@ -0,0 +1,783 @@
+package ca.cmpt213.model;
+
+import ca.cmpt213.model.TokimonCardQuery.SortField;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+// The cards' fields in primitive columns outside the Java heap, allocated with the foreign memory API.
+//
+//   slots    every card has a slot number. Slots live in chunks of 65536, one off-heap segment per chunk,
+//            and within a chunk each field is its own column: tids, versions, name references (long),
+//            health points, attack points, name lengths, image ids (int), element type ordinals, rarities (byte).
+//            New cards are appended, a deleted card's slot is marked and skipped
+//   names    the UTF-8 bytes of every name, appended to 1MB off-heap chunks, a name reference is chunk << 32 | offset
+//   images   image names repeat across thousands of cards, each distinct one is kept once on the heap and
+//            the cards hold its id
+//   tids     an off-heap open addressing hash table from tid to slot number
+//
+// A million cards take a few kilobytes of heap instead of a few hundred megabytes of objects and index nodes,
+// so the GC has nothing to trace, and a filtered scan reads a handful of densely packed columns instead of
+// chasing a pointer per card. Cards are only turned back into objects when they are returned.
+// Once deleted slots and replaced names waste more than the live data, the columns are rebuilt into new
+// chunks in tid order. Old chunks are freed by the GC once no reader is still walking them.
+//
+// Changes take the write lock. Readers don't lock, they read optimistically and check the lock's stamp
+// afterwards. If a change landed while they were reading they throw the result away and read again under
+// the read lock, which only happens while a change is actually being written
+class OffHeapCardStorage implements CardStorage {
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+    // column offsets within a chunk, the 8 byte columns first so every value is aligned
+    private static final long TID = 0;
+    private static final long VERSION = 8L * CHUNK_SLOTS;
+    private static final long NAME = 16L * CHUNK_SLOTS;
+    private static final long HEALTH_POINTS = 24L * CHUNK_SLOTS;
+    private static final long ATTACK_POINTS = 28L * CHUNK_SLOTS;
+    private static final long NAME_LENGTH = 32L * CHUNK_SLOTS;
+    private static final long IMAGE = 36L * CHUNK_SLOTS;
+    private static final long ELEMENT_TYPE = 40L * CHUNK_SLOTS;
+    private static final long RARITY = 41L * CHUNK_SLOTS;
+    private static final int SLOT_BYTES = 42;
+    private static final long CHUNK_BYTES = (long) SLOT_BYTES * CHUNK_SLOTS;
+
+    private static final byte NO_ELEMENT_TYPE = -1;
+    private static final byte DELETED = -2; // in the element type column
+    private static final int ANY_ELEMENT_TYPE = -3; // a filter that accepts every card
+    private static final TokimonCard.ElementType[] ELEMENT_TYPES = TokimonCard.ElementType.values();
+
+    private static final int NAME_CHUNK_BYTES = 1 << 20;
+    private static final int MIN_TABLE_CAPACITY = 1024;
+    private static final long MIN_WASTE_TO_REBUILD = 16L << 20;
+    private static final int ITERATOR_BATCH = 1024;
+    private static final int MIN_SEGMENT_SLOTS = 4096; // smaller segments cost more to hand out than to scan
+
+    // Everything a reader needs to find and decode a card. Slots, names and table entries are written in place,
+    // the record is replaced whenever one of its arrays grows or the whole store is rebuilt
+    private record Columns(MemorySegment[] chunks, MemorySegment[] names, String[] images, MemorySegment table, int tableCapacity) {}
+
+    // the columns and how many slots were in use when a read started
+    private record View(Columns columns, int slotCount, boolean ordered) {}
+
+    // slot numbers in tid order, for when cards were not appended in tid order
+    private record TidOrder(Columns columns, int slotCount, int[] slots) {}
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Columns columns;
+    private volatile int liveCount;
+    private volatile TidOrder tidOrder;
+    // only used under the write lock, readers read them during an optimistic or locked read
+    private int slotCount;
+    private int deadSlots;
+    private int tableUsed; // live entries and tombstones
+    private int namePosition; // next free byte in the last name chunk
+    private long nameBytes;
+    private long deadNameBytes;
+    private final Map<String, Integer> imageIds = new HashMap<>();
+    private int imageCount;
+    private boolean ordered; // true while slots are in tid order, so the listing can walk them as they are
+    private long maxTid;
+
+    OffHeapCardStorage() {
+        reset(MIN_TABLE_CAPACITY);
+    }
+
+    // empty columns, the live count is left to the caller
+    private void reset(int tableCapacity) {
+        columns = new Columns(new MemorySegment[0], new MemorySegment[0], new String[16],
+                Arena.ofAuto().allocate(tableCapacity * 16L, 8), tableCapacity);
+        tidOrder = null;
+        slotCount = 0;
+        deadSlots = 0;
+        tableUsed = 0;
+        namePosition = NAME_CHUNK_BYTES;
+        nameBytes = 0;
+        deadNameBytes = 0;
+        imageIds.clear();
+        imageCount = 0;
+        ordered = true;
+        maxTid = Long.MIN_VALUE;
+    }
+
+    @Override
+    public TokimonCard get(long tid) {
+        return read(() -> {
+            Columns columns = this.columns;
+            int slot = slotOf(columns, tid);
+            return slot < 0 ? null : card(columns, slot);
+        });
+    }
+
+    @Override
+    public boolean contains(long tid) {
+        return read(() -> slotOf(columns, tid) >= 0);
+    }
+
+    @Override
+    public TokimonCard put(TokimonCard tokimonCard) {
+        if (tokimonCard.getRarity() != (byte) tokimonCard.getRarity()) {
+            // the column is a byte, refuse before anything is changed rather than store a different rarity
+            throw new IllegalArgumentException("TokimonCard " + tokimonCard.getTid() + " has rarity " + tokimonCard.getRarity()
+                    + ", the off-heap storage keeps it in a byte");
+        }
+        long stamp = lock.writeLock();
+        try {
+            long tid = tokimonCard.getTid();
+            int slot = slotOf(columns, tid);
+            boolean replaced = slot >= 0;
+            TokimonCard previous = replaced ? card(columns, slot) : null;
+            if (!replaced) {
+                slot = appendSlot();
+                insert(tid, slot);
+                liveCount++;
+                if (tid > maxTid) {
+                    maxTid = tid;
+                } else {
+                    ordered = false;
+                }
+            }
+            write(slot, tokimonCard, replaced);
+            rebuildIfWasteful();
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public TokimonCard remove(long tid) {
+        long stamp = lock.writeLock();
+        try {
+            Columns columns = this.columns;
+            int index = tableIndexOf(columns, tid);
+            if (index < 0) {
+                return null;
+            }
+            int slot = (int) (columns.table().get(JAVA_LONG, index * 16L + 8) - 1);
+            TokimonCard removed = card(columns, slot);
+            columns.table().set(JAVA_LONG, index * 16L + 8, -1); // tombstone, so probes carry on past it
+            MemorySegment chunk = columns.chunks()[slot >>> CHUNK_SHIFT];
+            long i = slot & CHUNK_MASK;
+            chunk.set(JAVA_BYTE, ELEMENT_TYPE + i, DELETED);
+            deadNameBytes += Math.max(0, chunk.get(JAVA_INT, NAME_LENGTH + 4 * i));
+            deadSlots++;
+            liveCount--;
+            rebuildIfWasteful();
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            reset(MIN_TABLE_CAPACITY);
+            liveCount = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return liveCount;
+    }
+
+    @Override
+    public Collection<TokimonCard> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<TokimonCard> iterator() {
+                return new CardIterator();
+            }
+
+            @Override
+            public int size() {
+                return liveCount;
+            }
+        };
+    }
+
+    // Scans the columns for the page's cards: only the columns the filters and sort field need are read, and the
+    // best limit + 1 positions after the cursor are kept, the extra one tells whether there is a next page.
+    // Only the cards on the page are turned into objects
+    @Override
+    public TokimonCardPage query(TokimonCardQuery query) {
+        SortField sortField = query.getSortField();
+        long[] after = query.getCursor() == null ? null : TokimonCardIndex.parseCursor(query.getCursor());
+        Filter filter = new Filter(query);
+        TopPositions best = new TopPositions(query.getLimit() + 1, query.isDescending());
+        View view = read(this::view);
+        // slots in tid order are already in page order, the scan can stop as soon as the page is full
+        boolean stopWhenFull = view.ordered() && sortField == SortField.TID && !query.isDescending();
+        for (int from = 0; from < view.slotCount() && !(stopWhenFull && best.isFull()); from += CHUNK_SLOTS) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(from + CHUNK_SLOTS, view.slotCount());
+            best.save();
+            read(() -> {
+                best.restore(); // forget what an optimistic read that is being retried found
+                scanForPage(view.columns(), chunkFrom, chunkTo, filter, sortField, after, best, stopWhenFull);
+                return null;
+            });
+        }
+
+        int pageSize = Math.min(best.size(), query.getLimit());
+        List<TokimonCard> cards = read(() -> {
+            List<TokimonCard> page = new ArrayList<>(pageSize);
+            for (int i = 0; i < pageSize; i++) {
+                TokimonCard tokimonCard = card(view.columns(), best.slot(i));
+                // skip cards that were changed or deleted since the scan
+                if (tokimonCard != null && tokimonCard.getTid() == best.tid(i)
+                        && sortField.valueOf(tokimonCard) == best.value(i) && query.matches(tokimonCard)) {
+                    page.add(tokimonCard);
+                }
+            }
+            return page;
+        });
+        String nextCursor = best.size() > query.getLimit()
+                ? TokimonCardIndex.cursor(best.value(pageSize - 1), best.tid(pageSize - 1))
+                : null;
+        return new TokimonCardPage(cards, nextCursor);
+    }
+
+    private static void scanForPage(Columns columns, int from, int to, Filter filter, SortField sortField,
+                                    long[] after, TopPositions best, boolean stopWhenFull) {
+        MemorySegment chunk = columns.chunks()[from >>> CHUNK_SHIFT];
+        for (int slot = from; slot < to; slot++) {
+            long i = slot & CHUNK_MASK;
+            if (!filter.matches(chunk, i)) {
+                continue;
+            }
+            long tid = chunk.get(JAVA_LONG, TID + 8 * i);
+            long value = switch (sortField) {
+                case TID -> tid;
+                case RARITY -> chunk.get(JAVA_BYTE, RARITY + i);
+                case HEALTH_POINTS -> chunk.get(JAVA_INT, HEALTH_POINTS + 4 * i);
+                case ATTACK_POINTS -> chunk.get(JAVA_INT, ATTACK_POINTS + 4 * i);
+            };
+            if (after != null && !best.comesBefore(after[0], after[1], value, tid)) {
+                continue; // at or before the cursor
+            }
+            best.offer(value, tid, slot);
+            if (stopWhenFull && best.isFull()) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void forEachMatching(TokimonCardQuery query, Consumer<TokimonCard> action) {
+        View view = read(this::view);
+        forEachMatching(view, 0, view.slotCount(), new Filter(query), action);
+    }
+
+    // Equal slot ranges of one view of the columns. A segment only decodes the cards that pass the query's
+    // filters, so the filtered part of a scan is all primitive column reads
+    @Override
+    public List<Segment> segments(int parts) {
+        View view = read(this::view);
+        int segmentSlots = Math.max(MIN_SEGMENT_SLOTS, Math.ceilDiv(view.slotCount(), Math.max(1, parts)));
+        List<Segment> segments = new ArrayList<>();
+        for (int from = 0; from < view.slotCount(); from += segmentSlots) {
+            int segmentFrom = from;
+            int segmentTo = Math.min(from + segmentSlots, view.slotCount());
+            segments.add((query, action) -> forEachMatching(view, segmentFrom, segmentTo, new Filter(query), action));
+        }
+        return segments;
+    }
+
+    private void forEachMatching(View view, int from, int to, Filter filter, Consumer<TokimonCard> action) {
+        for (int chunkFrom = from; chunkFrom < to; ) {
+            int start = chunkFrom;
+            int end = Math.min((chunkFrom | CHUNK_MASK) + 1, to);
+            // a chunk's matches are only handed out once the read is known to be consistent
+            List<TokimonCard> matches = read(() -> {
+                MemorySegment chunk = view.columns().chunks()[start >>> CHUNK_SHIFT];
+                List<TokimonCard> found = new ArrayList<>();
+                for (int slot = start; slot < end; slot++) {
+                    if (filter.matches(chunk, slot & CHUNK_MASK)) {
+                        found.add(card(view.columns(), slot));
+                    }
+                }
+                return found;
+            });
+            matches.forEach(action);
+            chunkFrom = end;
+        }
+    }
+
+    // the element type and range filters of a query, checked straight against the columns
+    private record Filter(int elementType, int minRarity, int maxRarity, int minHealthPoints, int maxHealthPoints,
+                          int minAttackPoints, int maxAttackPoints) {
+        Filter(TokimonCardQuery query) {
+            this(query.getElementType() == null ? ANY_ELEMENT_TYPE : query.getElementType().ordinal(),
+                    orElse(query.getMinRarity(), Integer.MIN_VALUE), orElse(query.getMaxRarity(), Integer.MAX_VALUE),
+                    orElse(query.getMinHealthPoints(), Integer.MIN_VALUE), orElse(query.getMaxHealthPoints(), Integer.MAX_VALUE),
+                    orElse(query.getMinAttackPoints(), Integer.MIN_VALUE), orElse(query.getMaxAttackPoints(), Integer.MAX_VALUE));
+        }
+
+        private static int orElse(Integer value, int otherwise) {
+            return value == null ? otherwise : value;
+        }
+
+        boolean matches(MemorySegment chunk, long i) {
+            byte type = chunk.get(JAVA_BYTE, ELEMENT_TYPE + i);
+            if (type == DELETED || (elementType != ANY_ELEMENT_TYPE && type != elementType)) {
+                return false;
+            }
+            int rarity = chunk.get(JAVA_BYTE, RARITY + i);
+            if (rarity < minRarity || rarity > maxRarity) {
+                return false;
+            }
+            int healthPoints = chunk.get(JAVA_INT, HEALTH_POINTS + 4 * i);
+            if (healthPoints < minHealthPoints || healthPoints > maxHealthPoints) {
+                return false;
+            }
+            int attackPoints = chunk.get(JAVA_INT, ATTACK_POINTS + 4 * i);
+            return attackPoints >= minAttackPoints && attackPoints <= maxAttackPoints;
+        }
+    }
+
+    // The first n (value, tid, slot) positions in page order, kept sorted in primitive arrays.
+    // save and restore let a chunk scan that has to be retried start again from where the last chunk left off
+    private static final class TopPositions {
+        private final int capacity;
+        private final boolean descending;
+        private final long[] values;
+        private final long[] tids;
+        private final int[] slots;
+        private int size;
+        private final long[] savedValues;
+        private final long[] savedTids;
+        private final int[] savedSlots;
+        private int savedSize;
+
+        TopPositions(int capacity, boolean descending) {
+            this.capacity = capacity;
+            this.descending = descending;
+            values = new long[capacity];
+            tids = new long[capacity];
+            slots = new int[capacity];
+            savedValues = new long[capacity];
+            savedTids = new long[capacity];
+            savedSlots = new int[capacity];
+        }
+
+        // true if (value, tid) comes before (otherValue, otherTid) in page order
+        boolean comesBefore(long value, long tid, long otherValue, long otherTid) {
+            int compared = value != otherValue ? Long.compare(value, otherValue) : Long.compare(tid, otherTid);
+            return descending ? compared > 0 : compared < 0;
+        }
+
+        void offer(long value, long tid, int slot) {
+            if (size == capacity && !comesBefore(value, tid, values[size - 1], tids[size - 1])) {
+                return;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (comesBefore(values[middle], tids[middle], value, tid)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            int moved = Math.min(size, capacity - 1) - low; // the last one falls off when full
+            System.arraycopy(values, low, values, low + 1, moved);
+            System.arraycopy(tids, low, tids, low + 1, moved);
+            System.arraycopy(slots, low, slots, low + 1, moved);
+            values[low] = value;
+            tids[low] = tid;
+            slots[low] = slot;
+            if (size < capacity) {
+                size++;
+            }
+        }
+
+        boolean isFull() {
+            return size == capacity;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long value(int i) {
+            return values[i];
+        }
+
+        long tid(int i) {
+            return tids[i];
+        }
+
+        int slot(int i) {
+            return slots[i];
+        }
+
+        void save() {
+            savedSize = size;
+            System.arraycopy(values, 0, savedValues, 0, size);
+            System.arraycopy(tids, 0, savedTids, 0, size);
+            System.arraycopy(slots, 0, savedSlots, 0, size);
+        }
+
+        void restore() {
+            size = savedSize;
+            System.arraycopy(savedValues, 0, values, 0, size);
+            System.arraycopy(savedTids, 0, tids, 0, size);
+            System.arraycopy(savedSlots, 0, slots, 0, size);
+        }
+    }
+
+    // Walks the cards in tid order a batch of slots at a time. It keeps the columns it started with, a rebuild
+    // writes new chunks and leaves those alone, so the walk never sees a card twice
+    private final class CardIterator implements Iterator<TokimonCard> {
+        private final View view = read(OffHeapCardStorage.this::view);
+        private final int[] order = view.ordered() ? null : tidOrder(view);
+        private final int end = order == null ? view.slotCount() : order.length;
+        private int position;
+        private List<TokimonCard> batch = List.of();
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == batch.size() && position < end) {
+                int from = position;
+                int to = Math.min(end, position + ITERATOR_BATCH);
+                batch = read(() -> {
+                    List<TokimonCard> cards = new ArrayList<>(to - from);
+                    for (int p = from; p < to; p++) {
+                        TokimonCard tokimonCard = card(view.columns(), order == null ? p : order[p]);
+                        if (tokimonCard != null) {
+                            cards.add(tokimonCard);
+                        }
+                    }
+                    return cards;
+                });
+                next = 0;
+                position = to;
+            }
+            return next < batch.size();
+        }
+
+        @Override
+        public TokimonCard next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.get(next++);
+        }
+    }
+
+    private View view() {
+        return new View(columns, slotCount, ordered);
+    }
+
+    // the live slots of a view sorted by tid, worked out once per view and shared by every walk that needs it
+    private int[] tidOrder(View view) {
+        TidOrder cached = tidOrder;
+        if (cached != null && cached.columns() == view.columns() && cached.slotCount() == view.slotCount()) {
+            return cached.slots();
+        }
+        int[] slots = read(() -> sortByTid(view));
+        tidOrder = new TidOrder(view.columns(), view.slotCount(), slots);
+        return slots;
+    }
+
+    private static int[] sortByTid(View view) {
+        Columns columns = view.columns();
+        long[] tids = new long[view.slotCount()];
+        int live = 0;
+        for (int slot = 0; slot < view.slotCount(); slot++) {
+            MemorySegment chunk = columns.chunks()[slot >>> CHUNK_SHIFT];
+            long i = slot & CHUNK_MASK;
+            if (chunk.get(JAVA_BYTE, ELEMENT_TYPE + i) != DELETED) {
+                tids[live++] = chunk.get(JAVA_LONG, TID + 8 * i);
+            }
+        }
+        Arrays.sort(tids, 0, live);
+        int[] sorted = new int[live];
+        for (int i = 0; i < live; i++) {
+            sorted[i] = slotOf(columns, tids[i]);
+        }
+        return sorted;
+    }
+
+    // Runs reader optimistically and returns its result if no change was written meanwhile, otherwise runs it
+    // again under the read lock. A reader racing a change can see a torn value and fail with an index out of
+    // bounds, that is treated the same as a failed validation
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // retried under the lock below
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // the card in a slot as an object, or null if it was deleted
+    private static TokimonCard card(Columns columns, int slot) {
+        MemorySegment chunk = columns.chunks()[slot >>> CHUNK_SHIFT];
+        long i = slot & CHUNK_MASK;
+        byte elementType = chunk.get(JAVA_BYTE, ELEMENT_TYPE + i);
+        if (elementType == DELETED) {
+            return null;
+        }
+        int image = chunk.get(JAVA_INT, IMAGE + 4 * i);
+        TokimonCard tokimonCard = new TokimonCard(
+                chunk.get(JAVA_LONG, TID + 8 * i),
+                name(columns, chunk.get(JAVA_LONG, NAME + 8 * i), chunk.get(JAVA_INT, NAME_LENGTH + 4 * i)),
+                elementType == NO_ELEMENT_TYPE ? null : ELEMENT_TYPES[elementType],
+                chunk.get(JAVA_BYTE, RARITY + i),
+                image < 0 ? null : columns.images()[image],
+                chunk.get(JAVA_INT, HEALTH_POINTS + 4 * i),
+                chunk.get(JAVA_INT, ATTACK_POINTS + 4 * i));
+        tokimonCard.setVersion(chunk.get(JAVA_LONG, VERSION + 8 * i));
+        return tokimonCard;
+    }
+
+    private static String name(Columns columns, long reference, int length) {
+        if (length < 0) {
+            return null;
+        }
+        MemorySegment names = columns.names()[(int) (reference >>> 32)];
+        int offset = (int) reference;
+        if (offset + (long) length > names.byteSize()) {
+            // only a torn read can get here, checked before the array is allocated
+            throw new IndexOutOfBoundsException("name at " + offset + " runs past its chunk");
+        }
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(names, JAVA_BYTE, offset, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // writes every field of the card into its slot, under the write lock
+    private void write(int slot, TokimonCard tokimonCard, boolean replaced) {
+        long i = slot & CHUNK_MASK;
+        byte[] name = tokimonCard.getName() == null ? null : tokimonCard.getName().getBytes(StandardCharsets.UTF_8);
+        long nameReference = 0;
+        int nameLength = name == null ? -1 : name.length;
+        MemorySegment chunk = columns.chunks()[slot >>> CHUNK_SHIFT];
+        if (replaced && sameName(chunk.get(JAVA_LONG, NAME + 8 * i), chunk.get(JAVA_INT, NAME_LENGTH + 4 * i), name)) {
+            nameReference = chunk.get(JAVA_LONG, NAME + 8 * i); // most updates keep the name, don't store it again
+        } else {
+            if (replaced) {
+                deadNameBytes += Math.max(0, chunk.get(JAVA_INT, NAME_LENGTH + 4 * i));
+            }
+            if (name != null) {
+                nameReference = appendName(name);
+            }
+        }
+        int image = imageId(tokimonCard.getImageName());
+        TokimonCard.ElementType elementType = tokimonCard.getElementType();
+
+        chunk.set(JAVA_LONG, TID + 8 * i, tokimonCard.getTid());
+        chunk.set(JAVA_LONG, VERSION + 8 * i, tokimonCard.getVersion());
+        chunk.set(JAVA_LONG, NAME + 8 * i, nameReference);
+        chunk.set(JAVA_INT, NAME_LENGTH + 4 * i, nameLength);
+        chunk.set(JAVA_INT, HEALTH_POINTS + 4 * i, tokimonCard.getHealthPoints());
+        chunk.set(JAVA_INT, ATTACK_POINTS + 4 * i, tokimonCard.getAttackPoints());
+        chunk.set(JAVA_INT, IMAGE + 4 * i, image);
+        chunk.set(JAVA_BYTE, RARITY + i, (byte) tokimonCard.getRarity());
+        chunk.set(JAVA_BYTE, ELEMENT_TYPE + i, elementType == null ? NO_ELEMENT_TYPE : (byte) elementType.ordinal());
+    }
+
+    private boolean sameName(long reference, int length, byte[] name) {
+        if (name == null || length < 0) {
+            return name == null && length < 0;
+        }
+        if (length != name.length) {
+            return false;
+        }
+        MemorySegment names = columns.names()[(int) (reference >>> 32)];
+        int offset = (int) reference;
+        return MemorySegment.mismatch(names, offset, offset + length, MemorySegment.ofArray(name), 0, length) == -1;
+    }
+
+    private long appendName(byte[] name) {
+        Columns current = columns;
+        MemorySegment[] names = current.names();
+        if (names.length == 0 || namePosition + (long) name.length > names[names.length - 1].byteSize()) {
+            // a name longer than a whole chunk gets a chunk of its own
+            names = Arrays.copyOf(names, names.length + 1);
+            names[names.length - 1] = Arena.ofAuto().allocate(Math.max(NAME_CHUNK_BYTES, name.length), 8);
+            namePosition = 0;
+            columns = new Columns(current.chunks(), names, current.images(), current.table(), current.tableCapacity());
+        }
+        MemorySegment.copy(name, 0, names[names.length - 1], JAVA_BYTE, namePosition, name.length);
+        long reference = ((long) (names.length - 1) << 32) | namePosition;
+        namePosition += name.length;
+        nameBytes += name.length;
+        return reference;
+    }
+
+    private int imageId(String imageName) {
+        if (imageName == null) {
+            return -1;
+        }
+        Integer id = imageIds.get(imageName);
+        if (id != null) {
+            return id;
+        }
+        Columns current = columns;
+        String[] images = current.images();
+        if (imageCount == images.length) {
+            images = Arrays.copyOf(images, images.length * 2);
+            columns = new Columns(current.chunks(), current.names(), images, current.table(), current.tableCapacity());
+        }
+        images[imageCount] = imageName;
+        imageIds.put(imageName, imageCount);
+        return imageCount++;
+    }
+
+    // a new slot at the end, adding a chunk when the last one is full
+    private int appendSlot() {
+        Columns current = columns;
+        if (slotCount == current.chunks().length * CHUNK_SLOTS) {
+            MemorySegment[] chunks = Arrays.copyOf(current.chunks(), current.chunks().length + 1);
+            chunks[chunks.length - 1] = Arena.ofAuto().allocate(CHUNK_BYTES, 8);
+            columns = new Columns(chunks, current.names(), current.images(), current.table(), current.tableCapacity());
+        }
+        return slotCount++;
+    }
+
+    // Table entries are 16 bytes: the tid, then the slot number + 1. 0 marks a free entry (fresh memory is
+    // zeroed) and -1 a removed one, so any tid can be stored
+    private static int slotOf(Columns columns, long tid) {
+        int index = tableIndexOf(columns, tid);
+        return index < 0 ? -1 : (int) (columns.table().get(JAVA_LONG, index * 16L + 8) - 1);
+    }
+
+    private static int tableIndexOf(Columns columns, long tid) {
+        MemorySegment table = columns.table();
+        int mask = columns.tableCapacity() - 1;
+        int index = hash(tid) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long slot = table.get(JAVA_LONG, index * 16L + 8);
+            if (slot == 0) {
+                return -1;
+            }
+            if (slot > 0 && table.get(JAVA_LONG, index * 16L) == tid) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int hash(long tid) {
+        long mixed = tid * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    // adds a tid that isn't in the table yet, growing it first if it is getting full
+    private void insert(long tid, int slot) {
+        Columns current = columns;
+        if ((tableUsed + 1) * 4L > current.tableCapacity() * 3L) {
+            current = resizeTable(current);
+        }
+        MemorySegment table = current.table();
+        int mask = current.tableCapacity() - 1;
+        int index = hash(tid) & mask;
+        while (table.get(JAVA_LONG, index * 16L + 8) > 0) {
+            index = (index + 1) & mask;
+        }
+        if (table.get(JAVA_LONG, index * 16L + 8) == 0) {
+            tableUsed++;
+        }
+        table.set(JAVA_LONG, index * 16L, tid);
+        table.set(JAVA_LONG, index * 16L + 8, slot + 1L);
+    }
+
+    // a new table at most half full of live entries, tombstones are dropped
+    private Columns resizeTable(Columns current) {
+        int capacity = MIN_TABLE_CAPACITY;
+        while (capacity < (liveCount + 1) * 2L) {
+            capacity *= 2;
+        }
+        MemorySegment oldTable = current.table();
+        MemorySegment table = Arena.ofAuto().allocate(capacity * 16L, 8);
+        int mask = capacity - 1;
+        for (long entry = 0; entry < current.tableCapacity(); entry++) {
+            long slot = oldTable.get(JAVA_LONG, entry * 16 + 8);
+            if (slot > 0) {
+                long tid = oldTable.get(JAVA_LONG, entry * 16);
+                int index = hash(tid) & mask;
+                while (table.get(JAVA_LONG, index * 16L + 8) != 0) {
+                    index = (index + 1) & mask;
+                }
+                table.set(JAVA_LONG, index * 16L, tid);
+                table.set(JAVA_LONG, index * 16L + 8, slot);
+            }
+        }
+        tableUsed = liveCount;
+        columns = new Columns(current.chunks(), current.names(), current.images(), table, capacity);
+        return columns;
+    }
+
+    // once deleted slots and replaced names take more room than the live cards, copy the live cards into new
+    // chunks in tid order. That also puts cards that were added out of tid order back in order
+    private void rebuildIfWasteful() {
+        long wasted = (long) deadSlots * SLOT_BYTES + deadNameBytes;
+        long used = (long) liveCount * SLOT_BYTES + nameBytes - deadNameBytes;
+        if (wasted < MIN_WASTE_TO_REBUILD || wasted < used) {
+            return;
+        }
+        View old = view();
+        int[] order = old.ordered() ? null : sortByTid(old); // not tidOrder, that would wait on our own write lock
+        int end = order == null ? old.slotCount() : order.length;
+        String[] images = old.columns().images();
+        Map<String, Integer> ids = new HashMap<>(imageIds);
+        int idCount = imageCount;
+        int capacity = MIN_TABLE_CAPACITY;
+        while (capacity < liveCount * 2L) {
+            capacity *= 2;
+        }
+        reset(capacity);
+        // image ids stay the same, so the dictionary carries over as it is
+        columns = new Columns(columns.chunks(), columns.names(), images, columns.table(), capacity);
+        imageIds.putAll(ids);
+        imageCount = idCount;
+        for (int p = 0; p < end; p++) {
+            TokimonCard tokimonCard = card(old.columns(), order == null ? p : order[p]);
+            if (tokimonCard != null) {
+                int slot = appendSlot();
+                insert(tokimonCard.getTid(), slot);
+                write(slot, tokimonCard, false);
+                maxTid = tokimonCard.getTid();
+            }
+        }
+    }
+}
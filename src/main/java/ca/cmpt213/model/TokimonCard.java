@@ -1,6 +1,11 @@
 package ca.cmpt213.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class TokimonCard {
+    public static final int MIN_RARITY = 1;
+    public static final int MAX_RARITY = 10;
+
     private long tid; // Tokimon ID
     private String name;
     private ElementType elementType;
@@ -8,8 +13,9 @@ public class TokimonCard {
     private String imageName;
     private int healthPoints;
     private int attackPoints;
-
-    static private int totalTokimons = 0;
+    // the store version this card was last changed in, set by TokimonCardList. Part of the card's ETag
+    @JsonIgnore
+    private long version;
 
     public enum ElementType {
         FIRE,
@@ -30,7 +36,10 @@ public class TokimonCard {
         BUG
     }
 
-    public TokimonCard() {}
+    // a card read from json that doesn't say its rarity gets a random one, like a card made with the constructor below
+    public TokimonCard() {
+        this.rarity = generateRarity();
+    }
 
     public TokimonCard(long tid, String name, ElementType elementType, String imageURL, int healthPoints, int attackPoints) {
         this.tid = tid;
@@ -40,13 +49,39 @@ public class TokimonCard {
         this.healthPoints = healthPoints;
         this.attackPoints = attackPoints;
         this.rarity = generateRarity();
-        totalTokimons++;
+    }
+
+    // restores a saved card, rarity included
+    public TokimonCard(long tid, String name, ElementType elementType, int rarity, String imageName, int healthPoints, int attackPoints) {
+        this.tid = tid;
+        this.name = name;
+        this.elementType = elementType;
+        this.rarity = rarity;
+        this.imageName = imageName;
+        this.healthPoints = healthPoints;
+        this.attackPoints = attackPoints;
+    }
+
+    // copies every field, the card list publishes changed copies instead of editing a card other threads may be reading
+    public TokimonCard(TokimonCard other) {
+        this.tid = other.tid;
+        this.name = other.name;
+        this.elementType = other.elementType;
+        this.rarity = other.rarity;
+        this.imageName = other.imageName;
+        this.healthPoints = other.healthPoints;
+        this.attackPoints = other.attackPoints;
+        this.version = other.version;
     }
 
     private int generateRarity() {
         return (int) (Math.random() * 10) + 1;
     }
 
+    public static boolean isValidRarity(int rarity) {
+        return rarity >= MIN_RARITY && rarity <= MAX_RARITY;
+    }
+
     public long getTid() {
         return tid;
     }
@@ -99,16 +134,12 @@ public class TokimonCard {
         this.attackPoints = attackPoints;
     }
 
-    public static int getTotalTokimons() {
-        return totalTokimons;
-    }
-
-    public static void incrementTotalTokimons() {
-        totalTokimons++;
+    public long getVersion() {
+        return version;
     }
 
-    public static void decrementTotalTokimons() {
-        totalTokimons--;
+    public void setVersion(long version) {
+        this.version = version;
     }
 
 
@@ -0,0 +1,7 @@
+package ca.cmpt213.model;
+
+import java.util.List;
+
+// the answer to POST /api/tokimon/batch/get: the cards found, in the order their tids were asked for, and the
+// tids that don't exist
+public record TokimonCardBatch(List<TokimonCard> cards, List<Long> missing) {}
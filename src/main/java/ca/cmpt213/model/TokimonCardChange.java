@@ -0,0 +1,15 @@
+package ca.cmpt213.model;
+
+// One entry of the change feed, see TokimonCardChangeFeed.
+// seq numbers the changes since the store was opened, one apart. version is the store version right after
+// the change. card is the card as it is after an add or update (its tid is new if the update changed it,
+// tid is always the one it had before), and null for a delete. A RESET means clients should read all the
+// cards again: the store was reset, or the client fell too far behind to be told what it missed
+public record TokimonCardChange(long seq, long version, Type type, long tid, TokimonCard card) {
+    public enum Type {
+        ADD,
+        UPDATE,
+        DELETE,
+        RESET
+    }
+}
@@ -0,0 +1,108 @@
+package ca.cmpt213.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The most recent changes to the cards, for /api/tokimon/changes.
+// A ring buffer with room for capacity changes, written only by the commit thread and read by any number of
+// subscribers at their own pace. Publishing never waits for a reader: the newest change simply overwrites the
+// oldest, and a reader that was still behind it finds out (readAfter returns null) and has to start over from
+// a full listing. Readers only take the lock to sleep until something is published, and the writer only
+// takes it when someone is asleep
+public class TokimonCardChangeFeed {
+    private final int capacity;
+    private final AtomicReferenceArray<TokimonCardChange> ring; // change seq is at slot seq % capacity
+    private volatile long latestSeq; // seq of the last published change, 0 before the first
+    private volatile boolean closed;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    private final AtomicInteger sleepers = new AtomicInteger();
+
+    public TokimonCardChangeFeed(int capacity) {
+        if (capacity < 1){
+            throw new IllegalArgumentException("Change feed capacity must be at least 1, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    // only called on the commit thread
+    void publish(TokimonCardChange.Type type, long tid, TokimonCard card, long version) {
+        long seq = latestSeq + 1;
+        ring.set((int) (seq % capacity), new TokimonCardChange(seq, version, type, tid, card));
+        latestSeq = seq;
+        // a reader that went to sleep after this seq was published saw it and won't sleep, see awaitAfter
+        if (sleepers.get() > 0){
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public long getLatestSeq() {
+        return latestSeq;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Up to max changes after seq, oldest first (empty when there are none yet), or null when some of the
+    // changes after seq have already been overwritten
+    public List<TokimonCardChange> readAfter(long seq, int max) {
+        long latest = latestSeq;
+        List<TokimonCardChange> changes = new ArrayList<>((int) Math.min(max, Math.max(0, latest - seq)));
+        for (long next = seq + 1; next <= latest && changes.size() < max; next++){
+            TokimonCardChange change = ring.get((int) (next % capacity));
+            if (change == null || change.seq() != next){
+                return null; // the writer has lapped this reader
+            }
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    // Waits until a change after seq is published, the feed is closed or the timeout passes, returns the
+    // latest seq
+    public long awaitAfter(long seq, long timeout, TimeUnit unit) throws InterruptedException {
+        if (latestSeq > seq || closed){
+            return latestSeq;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        sleepers.incrementAndGet();
+        try {
+            while (latestSeq <= seq && !closed && nanos > 0){
+                nanos = published.awaitNanos(nanos);
+            }
+            return latestSeq;
+        } finally {
+            sleepers.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // wakes every waiting reader, nothing is published after this
+    void close() {
+        closed = true;
+        lock.lock();
+        try {
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
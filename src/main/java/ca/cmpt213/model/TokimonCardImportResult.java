@@ -0,0 +1,59 @@
+package ca.cmpt213.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// What a bulk import did: how many cards were added and skipped, the first few problems, and how fast it went
+public class TokimonCardImportResult {
+    private long imported;
+    private long rejected;
+    private final List<String> errors = new ArrayList<>();
+    private boolean complete; // false when the import stopped early because the body was not valid json
+    private long millis;
+    private double cardsPerSecond;
+
+    void addImported(int count) {
+        imported += count;
+    }
+
+    void reject(String error, int maxErrors) {
+        rejected++;
+        addError(error, maxErrors);
+    }
+
+    void addError(String error, int maxErrors) {
+        if (errors.size() < maxErrors) {
+            errors.add(error);
+        }
+    }
+
+    void finish(long nanos, boolean complete) {
+        this.complete = complete;
+        this.millis = nanos / 1_000_000;
+        this.cardsPerSecond = nanos == 0 ? 0 : imported / (nanos / 1e9);
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public double getCardsPerSecond() {
+        return cardsPerSecond;
+    }
+}
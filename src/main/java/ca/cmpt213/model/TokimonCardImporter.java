@@ -0,0 +1,121 @@
+package ca.cmpt213.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntToLongFunction;
+
+// Reads a stream of cards (a json array or ndjson) one card at a time and adds them to a TokimonCardList
+// in batches. Only one batch is ever held in memory, each batch gets a block of tids in one call and is
+// committed with a single fsync, so seeding a large collection is linear in its size.
+// Cards with a missing or unknown elementType, or a rarity outside 1 to 10, are skipped and reported back
+// instead of failing the import
+public class TokimonCardImporter {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    private final TokimonCardList tokimonCardList;
+    private final IntToLongFunction allocateTids; // given a count, reserves that many tids and returns the first one
+    private final int batchSize;
+
+    public TokimonCardImporter(TokimonCardList tokimonCardList, IntToLongFunction allocateTids, int batchSize) {
+        this.tokimonCardList = tokimonCardList;
+        this.allocateTids = allocateTids;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public TokimonCardImportResult importCards(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        TokimonCardImportResult result = new TokimonCardImportResult();
+        List<TokimonCard> batch = new ArrayList<>(batchSize);
+
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            JsonToken token = parser.nextToken();
+            // a json array holds the cards, ndjson is just one card object after another
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            long position = 0;
+            while (token != null && token != JsonToken.END_ARRAY) {
+                position++;
+                JsonNode node = parser.readValueAsTree();
+                TokimonCard tokimonCard = toCard(node, position, result);
+                if (tokimonCard != null) {
+                    batch.add(tokimonCard);
+                    if (batch.size() == batchSize) {
+                        commit(batch, result);
+                    }
+                }
+                token = parser.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            // malformed json, everything committed before this point stays
+            result.addError("Stopped reading: " + e.getOriginalMessage(), MAX_REPORTED_ERRORS);
+            commit(batch, result);
+            result.finish(System.nanoTime() - start, false);
+            return result;
+        }
+        commit(batch, result);
+        result.finish(System.nanoTime() - start, true);
+        return result;
+    }
+
+    private TokimonCard toCard(JsonNode node, long position, TokimonCardImportResult result) {
+        if (!(node instanceof ObjectNode card)) {
+            result.reject("Card " + position + " is not a json object", MAX_REPORTED_ERRORS);
+            return null;
+        }
+        JsonNode elementType = card.get("elementType");
+        if (elementType == null || !elementType.isTextual() || !isElementType(elementType.asText())) {
+            result.reject("Card " + position + " has an invalid element type: " + elementType, MAX_REPORTED_ERRORS);
+            return null;
+        }
+        card.put("elementType", elementType.asText().toUpperCase(Locale.ROOT));
+        card.remove("tid"); // tids are always assigned by the server
+        TokimonCard tokimonCard;
+        try {
+            tokimonCard = mapper.treeToValue(card, TokimonCard.class);
+        } catch (JsonProcessingException e) {
+            result.reject("Card " + position + " could not be read: " + e.getMessage(), MAX_REPORTED_ERRORS);
+            return null;
+        }
+        if (!TokimonCard.isValidRarity(tokimonCard.getRarity())) {
+            result.reject("Card " + position + " has an invalid rarity: " + tokimonCard.getRarity(), MAX_REPORTED_ERRORS);
+            return null;
+        }
+        return tokimonCard;
+    }
+
+    private static boolean isElementType(String elementType) {
+        try {
+            TokimonCard.ElementType.valueOf(elementType.toUpperCase(Locale.ROOT));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void commit(List<TokimonCard> batch, TokimonCardImportResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // one block of consecutive tids for the whole batch
+        long firstTid = allocateTids.applyAsLong(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).setTid(firstTid + i);
+        }
+        tokimonCardList.addTokimonCards(batch);
+        result.addImported(batch.size());
+        batch.clear();
+    }
+}
@@ -0,0 +1,206 @@
+package ca.cmpt213.model;
+
+import ca.cmpt213.exception.InvalidCardQueryException;
+import ca.cmpt213.model.TokimonCardQuery.SortField;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongFunction;
+
+// Secondary indexes behind GET /api/tokimon/page.
+// Every card has one entry per sortable field, ordered by (field value, tid), both in an index over all cards
+// and in an index over just the cards of its ElementType. A page query picks the index for its element type
+// and sort field, jumps straight to the range/cursor position in O(log n) and walks forward from there, so a
+// page costs time proportional to the page size instead of the collection size. Range filters on fields other
+// than the sort field are checked while walking, and their own indexes are walked alongside: if one of them
+// runs out first it holds fewer cards than the walk would still have to pass, and the page is sorted out of
+// just those instead. A page costs O(log n + min(cards walked past, k log k)) for the smallest filter range's k.
+// One card past the page is looked for, so nextCursor is only set when there is another page
+// Only the commit thread changes the indexes, readers walk them without locking (skip lists are weakly consistent),
+// so every entry is checked against the card that is actually in the store before it is returned
+public class TokimonCardIndex {
+    private final Map<SortField, NavigableSet<Entry>> allCards = new EnumMap<>(SortField.class);
+    private final Map<TokimonCard.ElementType, Map<SortField, NavigableSet<Entry>>> byElementType = new EnumMap<>(TokimonCard.ElementType.class);
+
+    // one index entry, the tid breaks ties between cards with the same value
+    private record Entry(long value, long tid) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry other) {
+            int byValue = Long.compare(value, other.value);
+            return byValue != 0 ? byValue : Long.compare(tid, other.tid);
+        }
+    }
+
+    public TokimonCardIndex() {
+        for (SortField sortField : SortField.values()) {
+            allCards.put(sortField, new ConcurrentSkipListSet<>());
+        }
+        for (TokimonCard.ElementType elementType : TokimonCard.ElementType.values()) {
+            Map<SortField, NavigableSet<Entry>> indexes = new EnumMap<>(SortField.class);
+            for (SortField sortField : SortField.values()) {
+                indexes.put(sortField, new ConcurrentSkipListSet<>());
+            }
+            byElementType.put(elementType, indexes);
+        }
+    }
+
+    public void add(TokimonCard tokimonCard) {
+        for (SortField sortField : SortField.values()) {
+            Entry entry = new Entry(sortField.valueOf(tokimonCard), tokimonCard.getTid());
+            allCards.get(sortField).add(entry);
+            if (tokimonCard.getElementType() != null) {
+                byElementType.get(tokimonCard.getElementType()).get(sortField).add(entry);
+            }
+        }
+    }
+
+    public void remove(TokimonCard tokimonCard) {
+        for (SortField sortField : SortField.values()) {
+            Entry entry = new Entry(sortField.valueOf(tokimonCard), tokimonCard.getTid());
+            allCards.get(sortField).remove(entry);
+            if (tokimonCard.getElementType() != null) {
+                byElementType.get(tokimonCard.getElementType()).get(sortField).remove(entry);
+            }
+        }
+    }
+
+    public void clear() {
+        allCards.values().forEach(NavigableSet::clear);
+        byElementType.values().forEach(indexes -> indexes.values().forEach(NavigableSet::clear));
+    }
+
+    // lookup returns the card currently stored under a tid, or null if it is gone
+    public TokimonCardPage query(TokimonCardQuery query, LongFunction<TokimonCard> lookup) {
+        SortField sortField = query.getSortField();
+        Map<SortField, NavigableSet<Entry>> indexes = query.getElementType() == null
+                ? allCards
+                : byElementType.get(query.getElementType());
+
+        // the range filter on the sort field, if there is one, bounds where the walk starts and stops
+        Entry from = new Entry(query.getMin(sortField) == null ? Long.MIN_VALUE : query.getMin(sortField), Long.MIN_VALUE);
+        Entry to = new Entry(query.getMax(sortField) == null ? Long.MAX_VALUE : query.getMax(sortField), Long.MAX_VALUE);
+        boolean fromInclusive = true;
+        boolean toInclusive = true;
+        if (query.getCursor() != null) {
+            Entry after = decodeCursor(query.getCursor());
+            if (!query.isDescending() && after.compareTo(from) >= 0) {
+                from = after;
+                fromInclusive = false;
+            } else if (query.isDescending() && after.compareTo(to) <= 0) {
+                to = after;
+                toInclusive = false;
+            }
+        }
+        if (from.compareTo(to) > 0) {
+            return new TokimonCardPage(List.of(), null);
+        }
+        NavigableSet<Entry> range = indexes.get(sortField).subSet(from, fromInclusive, to, toInclusive);
+
+        // the ranges the filters on the other fields give, walked one step for every step of the sort field's walk
+        List<SortField> filterFields = new ArrayList<>();
+        List<Iterator<Entry>> filterWalks = new ArrayList<>();
+        for (SortField field : SortField.values()) {
+            if (field != sortField && (query.getMin(field) != null || query.getMax(field) != null)) {
+                filterFields.add(field);
+                filterWalks.add(filterRange(indexes.get(field), query, field).iterator());
+            }
+        }
+
+        Iterator<Entry> entries = query.isDescending() ? range.descendingIterator() : range.iterator();
+        List<TokimonCard> cards = new ArrayList<>(query.getLimit());
+        Entry last = null;
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            TokimonCard tokimonCard = lookup.apply(entry.tid());
+            // skip entries for cards that were changed or deleted since the walk started
+            if (tokimonCard != null && sortField.valueOf(tokimonCard) == entry.value() && query.matches(tokimonCard)) {
+                if (cards.size() == query.getLimit()) {
+                    // one more card matches, so there is a next page
+                    return new TokimonCardPage(cards, encodeCursor(last));
+                }
+                cards.add(tokimonCard);
+                last = entry;
+            }
+            for (int i = 0; i < filterWalks.size(); i++) {
+                if (!filterWalks.get(i).hasNext()) {
+                    // that filter matches fewer cards than the walk has already gone past, sorting just those is cheaper
+                    SortField field = filterFields.get(i);
+                    return pageOf(filterRange(indexes.get(field), query, field), field, range, query, lookup);
+                }
+                filterWalks.get(i).next();
+            }
+        }
+        return new TokimonCardPage(cards, null);
+    }
+
+    // the entries of one field's index within the bounds the query's filters put on that field
+    private static NavigableSet<Entry> filterRange(NavigableSet<Entry> index, TokimonCardQuery query, SortField field) {
+        long min = query.getMin(field) == null ? Long.MIN_VALUE : query.getMin(field);
+        long max = query.getMax(field) == null ? Long.MAX_VALUE : query.getMax(field);
+        if (min > max) {
+            return new ConcurrentSkipListSet<>();
+        }
+        return index.subSet(new Entry(min, Long.MIN_VALUE), true, new Entry(max, Long.MAX_VALUE), true);
+    }
+
+    // The page out of the cards in a filter field's range: the ones that match and fall in the sort field's range
+    // (past the cursor) are sorted and the first limit kept, so it costs O(k log k) for the k cards in the range
+    private static TokimonCardPage pageOf(NavigableSet<Entry> filterRange, SortField filterField, NavigableSet<Entry> range,
+                                          TokimonCardQuery query, LongFunction<TokimonCard> lookup) {
+        SortField sortField = query.getSortField();
+        List<Entry> positions = new ArrayList<>();
+        Map<Long, TokimonCard> byTid = new HashMap<>();
+        for (Entry entry : filterRange) {
+            TokimonCard tokimonCard = lookup.apply(entry.tid());
+            if (tokimonCard == null || filterField.valueOf(tokimonCard) != entry.value() || !query.matches(tokimonCard)) {
+                continue;
+            }
+            Entry position = new Entry(sortField.valueOf(tokimonCard), tokimonCard.getTid());
+            // range is a view of the sort field's index, it only holds positions within the bounds and past the cursor
+            if (range.contains(position)) {
+                positions.add(position);
+                byTid.put(position.tid(), tokimonCard);
+            }
+        }
+        positions.sort(query.isDescending() ? Comparator.reverseOrder() : Comparator.naturalOrder());
+
+        List<TokimonCard> cards = new ArrayList<>(Math.min(positions.size(), query.getLimit()));
+        for (int i = 0; i < positions.size() && i < query.getLimit(); i++) {
+            cards.add(byTid.get(positions.get(i).tid()));
+        }
+        String nextCursor = positions.size() > query.getLimit() ? encodeCursor(positions.get(query.getLimit() - 1)) : null;
+        return new TokimonCardPage(cards, nextCursor);
+    }
+
+    // the cursor is the position of the last card on the page: "<sort field value>:<tid>"
+    private static String encodeCursor(Entry entry) {
+        return cursor(entry.value(), entry.tid());
+    }
+
+    private static Entry decodeCursor(String cursor) {
+        long[] position = parseCursor(cursor);
+        return new Entry(position[0], position[1]);
+    }
+
+    // shared with OffHeapCardStorage so a cursor means the same thing whichever backend made it
+    static String cursor(long value, long tid) {
+        return value + ":" + tid;
+    }
+
+    // the sort field value and tid in a cursor
+    static long[] parseCursor(String cursor) {
+        int separator = cursor.indexOf(':');
+        try {
+            return new long[]{Long.parseLong(cursor.substring(0, separator)), Long.parseLong(cursor.substring(separator + 1))};
+        } catch (RuntimeException e) {
+            throw new InvalidCardQueryException("Invalid cursor: " + cursor);
+        }
+    }
+}
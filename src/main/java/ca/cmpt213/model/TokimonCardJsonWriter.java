@@ -0,0 +1,113 @@
+package ca.cmpt213.model;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Writes cards straight to an output stream one at a time with Jackson's streaming JsonGenerator.
+// Nothing is collected into a list first, so memory use stays the same however many cards there are,
+// also when other nodes' cards are merged in
+public class TokimonCardJsonWriter {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    // writeValue would flush the stream after every card otherwise
+    private static final ObjectWriter cardWriter = mapper.writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    // writes the cards as one json array: [{...},{...}]
+    public static void writeJsonArray(TokimonCardList tokimonCardList, OutputStream out) throws IOException {
+        writeJsonArray(tokimonCardList, List.of(), out);
+    }
+
+    // the same, with the cards of other nodes merged in by tid (a listing gathered from a cluster). Each of others
+    // has to come in tid order, like a node's own listing does, and only its next card is held at a time
+    public static void writeJsonArray(TokimonCardList tokimonCardList, List<? extends Iterator<TokimonCard>> others,
+                                      OutputStream out) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            forEachCard(tokimonCardList, others, generator, false);
+            generator.writeEndArray();
+        }
+    }
+
+    // writes the cards as newline delimited json, one card object per line
+    public static void writeNdjson(TokimonCardList tokimonCardList, OutputStream out) throws IOException {
+        writeNdjson(tokimonCardList, List.of(), out);
+    }
+
+    public static void writeNdjson(TokimonCardList tokimonCardList, List<? extends Iterator<TokimonCard>> others,
+                                   OutputStream out) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null); // each line ends with our own newline instead of the default space
+            forEachCard(tokimonCardList, others, generator, true);
+        }
+    }
+
+    // A k-way merge: the list's own cards are walked in tid order, and before each one every card of the others
+    // with a smaller tid is written, smallest first, from a queue holding the next card of each
+    private static void forEachCard(TokimonCardList tokimonCardList, List<? extends Iterator<TokimonCard>> others,
+                                    JsonGenerator generator, boolean newlines) throws IOException {
+        PriorityQueue<Run> runs = new PriorityQueue<>(Math.max(1, others.size()), Comparator.comparingLong(run -> run.next.getTid()));
+        for (Iterator<TokimonCard> cards : others) {
+            if (cards.hasNext()) {
+                runs.add(new Run(cards.next(), cards));
+            }
+        }
+        try {
+            tokimonCardList.forEachTokimonCard(tokimonCard -> {
+                try {
+                    writeRunsUpTo(runs, tokimonCard.getTid() - 1, generator, newlines);
+                    writeCard(tokimonCard, generator, newlines);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // usually the client went away halfway through the listing
+            throw e.getCause();
+        }
+        writeRunsUpTo(runs, Long.MAX_VALUE, generator, newlines);
+    }
+
+    // the next card of one of the other runs, and the rest of that run
+    private static class Run {
+        private TokimonCard next;
+        private final Iterator<TokimonCard> rest;
+
+        Run(TokimonCard next, Iterator<TokimonCard> rest) {
+            this.next = next;
+            this.rest = rest;
+        }
+    }
+
+    // writes the others' cards with tids up to maxTid, in tid order
+    private static void writeRunsUpTo(PriorityQueue<Run> runs, long maxTid, JsonGenerator generator, boolean newlines) throws IOException {
+        while (!runs.isEmpty() && runs.peek().next.getTid() <= maxTid) {
+            Run run = runs.poll();
+            writeCard(run.next, generator, newlines);
+            if (run.rest.hasNext()) {
+                run.next = run.rest.next();
+                runs.add(run);
+            }
+        }
+    }
+
+    private static void writeCard(TokimonCard tokimonCard, JsonGenerator generator, boolean newlines) throws IOException {
+        cardWriter.writeValue(generator, tokimonCard);
+        if (newlines) {
+            generator.writeRaw('\n');
+        }
+    }
+}
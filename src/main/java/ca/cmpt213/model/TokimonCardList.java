@@ -1,174 +1,748 @@
 package ca.cmpt213.model;
 
+import ca.cmpt213.exception.InvalidCardBatchException;
+import ca.cmpt213.exception.TokimonCardConflictException;
 import ca.cmpt213.exception.TokimonCardNotFoundException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ca.cmpt213.exception.TokimonCardPersistenceException;
+import ca.cmpt213.metrics.TokimonCardMetrics;
+import ca.cmpt213.metrics.TokimonCardMetrics.ChangeTimes;
+import ca.cmpt213.metrics.TokimonCardMetrics.Operation;
+import ca.cmpt213.metrics.TokimonCardMetrics.Phase;
+import ca.cmpt213.persistence.CardCommitPipeline;
+import ca.cmpt213.persistence.CardDurabilityMode;
+import ca.cmpt213.persistence.CardLogRecord;
+import ca.cmpt213.persistence.CardWriteAheadLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
 
-import static ca.cmpt213.model.TokimonCard.decrementTotalTokimons;
+public class TokimonCardList implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(TokimonCardList.class);
 
-public class TokimonCardList {
-    private List<TokimonCard> tokimonCards = new ArrayList<>();
-    private static final String FILE_PATH = "src/main/resources/static/tokimon.json";
-    private static final ObjectMapper mapper = new ObjectMapper();
+    // The cards in memory are the source of truth for every read, the files on disk are only written to.
+    // Reads never wait on a writer, and only the commit thread ever changes the cards, see CardStorage.
+    // On the heap (the default) or in off-heap columns, depending on the settings' backend
+    private final CardStorage tokimonCards;
+    // counts, ranges and averages for /api/tokimon/stats, updated with every change
+    private final TokimonCardStatsRollup stats = new TokimonCardStatsRollup();
+    // the words of every card's name, for /api/tokimon/search
+    private final TokimonCardNameIndex nameIndex = new TokimonCardNameIndex();
+    // the latest adds, updates and deletes, for /api/tokimon/changes
+    private final TokimonCardChangeFeed changeFeed;
+    private final String filePath;
+    // every change is appended to the write-ahead log, tokimon.json only holds the last compacted snapshot
+    private final CardWriteAheadLog writeAheadLog;
+    // all changes go through a single writer thread that persists them in batches
+    private final CardCommitPipeline commitPipeline;
+    // whether a change is acknowledged before or after the log is forced, see CardDurabilityMode
+    private final CardDurabilityMode durabilityMode;
+    // per phase timings of every operation, and the size and backlog gauges
+    private final TokimonCardMetrics metrics;
+    // goes up by one with every change to the cards, and each changed card remembers the version it was
+    // changed in. Versions start over when the store is opened, the random epoch tells the runs apart,
+    // so together they make ETags that never repeat. Only the commit thread writes it
+    private volatile long version;
+    private final String epoch = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+    // the largest tid the store has held since it was opened or reset, never goes down so tids aren't reused
+    private volatile long maxTid;
+    // completes once the saved cards are loaded, reads wait for it. loaded is the fast check once it has
+    private final CompletableFuture<Void> loading = new CompletableFuture<>();
+    private volatile boolean loaded;
+    private volatile long loadMillis;
+    // set if a batch couldn't be committed in sync mode (see commitBatch), every read and change fails from then on
+    private volatile RuntimeException commitFailure;
+    // a replica holds a leader's cards and is only changed by replaceReplicated and applyReplicated, nothing is
+    // read from or written to its files. replicatedSeq is the leader's log seq it has applied up to
+    private final boolean replica;
+    private volatile long replicatedSeq;
+    // runs POST /api/tokimon/query scans, see CardScanEngine
+    private final CardScanEngine scanEngine;
 
+    // these open the saved cards like the settings constructor does, nothing is wiped. Tests and benchmarks
+    // that want the sample cards call resetToSampleCards themselves
     public TokimonCardList() {
-        System.out.println("Initializing TokimonCardList");
-        try {
-            File file = new File(FILE_PATH);
-            if (file.exists()){
-                mapper.writeValue(file, new ArrayList<TokimonCard>());
+        this(new TokimonCardListSettings().getFilePath());
+    }
+
+    public TokimonCardList(String filePath) {
+        this(new TokimonCardListSettings(filePath));
+    }
+
+    public TokimonCardList(String filePath, int syncEvery, int compactEvery) {
+        this(settings(filePath, syncEvery, compactEvery));
+    }
+
+    // Recovers the cards saved in the settings' file and its write-ahead log, nothing is wiped.
+    // With loadInBackground the constructor returns straight away and the commit thread loads the cards before
+    // it applies any change: reads wait until they are loaded, changes queue up behind the load
+    public TokimonCardList(TokimonCardListSettings settings) {
+        this.filePath = settings.getFilePath();
+        this.metrics = settings.getMetrics();
+        this.tokimonCards = settings.getStorageBackend().create();
+        this.changeFeed = new TokimonCardChangeFeed(settings.getChangeFeedCapacity());
+        this.writeAheadLog = new CardWriteAheadLog(filePath, settings.getSyncEvery(), settings.getCompactEvery(),
+                settings.getSnapshotFormat());
+        this.durabilityMode = settings.getDurabilityMode();
+        this.replica = settings.isReplica();
+        this.scanEngine = new CardScanEngine(settings.getQueryParallelism());
+        if (settings.getLogListener() != null){
+            writeAheadLog.setListener(settings.getLogListener());
+        }
+        // in async and periodic mode the log is forced by the pipeline's flusher thread, not after every batch
+        this.commitPipeline = new CardCommitPipeline("tokimon-commit", settings.getMaxBatchSize(),
+                settings.isVirtualThreads(), durabilityMode, settings.getFlushIntervalMillis(), this::commitBatch,
+                writeAheadLog::sync);
+        metrics.bindStore(this);
+        if (replica){
+            // reads wait until the first replaceReplicated instead
+            log.info("Card store {} is a replica, waiting for the leader's cards", filePath);
+        } else if (settings.isLoadInBackground()){
+            commitPipeline.submit(() -> {
+                load(settings.getStorageBackend());
+                return null;
+            });
+        } else {
+            try {
+                load(settings.getStorageBackend());
+            } catch (RuntimeException e) {
+                commitPipeline.close();
+                throw e;
             }
-        } catch (IOException e){
-            e.printStackTrace();
         }
-
-        //Add sample TokimonCards
-        TokimonCard tokimon1 = new TokimonCard(1, "Tokimander", TokimonCard.ElementType.FIRE, "charmander.png", 100, 50);
-        TokimonCard tokimon2 = new TokimonCard(2, "Tokiurtle", TokimonCard.ElementType.WATER, "squirtle.png", 80, 60);
-        TokimonCard tokimon3 = new TokimonCard(3, "Tokisaur", TokimonCard.ElementType.GRASS, "bulbasaur.png", 60, 85);
-        tokimonCards.add(tokimon1);
-        tokimonCards.add(tokimon2);
-        tokimonCards.add(tokimon3);
-        updateJsonFile();
     }
 
-    public List<TokimonCard> getTokimonCards() {
+    // only called on the commit thread (or in the constructor before the list is shared)
+    private void load(CardStorageBackend storageBackend) {
+        long start = System.nanoTime();
         try {
-            File file = new File(FILE_PATH);
-            if (file.exists()){
-                //mapper's readValue method reads the json file and converts it into a list of TokimonCard objects
-                // the TypeReference class is used to specify the type of the object to be converted
-                // in this case it's json file --> List<TokimonCard>
-                tokimonCards = mapper.readValue(file, new TypeReference<List<TokimonCard>>(){});
+            for (TokimonCard tokimonCard : writeAheadLog.recover().values()) {
+                put(tokimonCard);
             }
-        } catch (IOException e){
-            e.printStackTrace();
+        } catch (RuntimeException e) {
+            log.error("Could not load card store {}", filePath, e);
+            loading.completeExceptionally(e);
+            throw e;
         }
-        return tokimonCards;
+        loadMillis = (System.nanoTime() - start) / 1_000_000;
+        loaded = true;
+        loading.complete(null);
+        log.info("Opened card store {} with {} cards in {} storage, {} durability, loaded in {} ms", filePath,
+                tokimonCards.size(), storageBackend, durabilityMode, loadMillis);
     }
 
-    public TokimonCard getTokimonCard(long tid){
-        try {
-            File file = new File(FILE_PATH);
-            if (file.exists()){
-                tokimonCards = mapper.readValue(file, new TypeReference<List<TokimonCard>>(){});
+    // waits for the saved cards to be loaded, rethrows what the load failed with. Fails once the store has stopped
+    private void awaitLoaded() {
+        if (!loaded){
+            join(loading);
+            RuntimeException failure = commitFailure;
+            if (failure != null){
+                throw new TokimonCardPersistenceException("The card store stopped after changes could not be committed", failure);
             }
-            for (int i = 0; i < tokimonCards.size(); i++) {
-                if (tokimonCards.get(i).getTid() == tid) {
-                    return tokimonCards.get(i);
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // what loading the saved cards, or committing changes after that, failed with. null while the store is fine
+    public Throwable getLoadFailure() {
+        return loading.isCompletedExceptionally() ? loading.exceptionNow() : commitFailure;
+    }
+
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    private static TokimonCardListSettings settings(String filePath, int syncEvery, int compactEvery) {
+        TokimonCardListSettings settings = new TokimonCardListSettings(filePath);
+        settings.setSyncEvery(syncEvery);
+        settings.setCompactEvery(compactEvery);
+        return settings;
+    }
+
+    // Replaces whatever was saved with the 3 sample cards
+    public void resetToSampleCards() {
+        resetToSampleCards(tid -> true);
+    }
+
+    // the same, keeping only the sample cards whose tid passes keep: in a cluster only the node that owns
+    // tids 1 to 3 gets them
+    public void resetToSampleCards(LongPredicate keep) {
+        requireWritable();
+        commit(() -> {
+            writeAheadLog.cardsReplaced();
+            tokimonCards.clear();
+            stats.clear();
+            nameIndex.clear();
+            maxTid = 0;
+            version = version + 1;
+            changeFeed.publish(TokimonCardChange.Type.RESET, 0, null, version);
+
+            //Add sample TokimonCards
+            for (TokimonCard sample : List.of(
+                    new TokimonCard(1, "Tokimander", TokimonCard.ElementType.FIRE, "charmander.png", 100, 50),
+                    new TokimonCard(2, "Tokiurtle", TokimonCard.ElementType.WATER, "squirtle.png", 80, 60),
+                    new TokimonCard(3, "Tokisaur", TokimonCard.ElementType.GRASS, "bulbasaur.png", 60, 85))){
+                if (!keep.test(sample.getTid())){
+                    continue;
                 }
+                put(sample);
+                changeFeed.publish(TokimonCardChange.Type.ADD, sample.getTid(), sample, version);
             }
-        } catch (IOException e){
-            e.printStackTrace();
-        }
-        throw new TokimonCardNotFoundException("TokimonCard with ID " + tid + " not found");
+            writeAheadLog.compact(tokimonCards.values());
+            return null;
+        });
     }
 
-    public void addTokimonCard(TokimonCard tokimonCard) {
-        //Read existing tokimon.json file
-        try{
-            File file = new File(FILE_PATH);
-            if (file.exists()){
-                tokimonCards = mapper.readValue(file, new TypeReference<List<TokimonCard>>(){});
+    // The cards and the seq of the log's last record, read together on the commit thread so no change falls in
+    // between. then gets the seq there too, once every record up to it is on disk and forwarded and before the
+    // next one is: a replication follower starts listening in it
+    public List<TokimonCard> getLogSnapshot(LongConsumer then) {
+        return commit(() -> {
+            List<TokimonCard> cards = new ArrayList<>(tokimonCards.values());
+            writeAheadLog.syncAndThen(then);
+            return cards;
+        });
+    }
+
+    // Replicas only. Replaces every card with the leader's as of its log record seq, which the change feed
+    // reports as a reset. The first one completes the load, reads wait for it until then
+    public void replaceReplicated(Collection<TokimonCard> cards, long seq) {
+        join(commitPipeline.submit(() -> {
+            long start = System.nanoTime();
+            tokimonCards.clear();
+            stats.clear();
+            nameIndex.clear();
+            maxTid = 0;
+            version = version + 1;
+            changeFeed.publish(TokimonCardChange.Type.RESET, 0, null, version);
+            for (TokimonCard tokimonCard : cards){
+                put(tokimonCard);
+            }
+            replicatedSeq = seq;
+            if (!loaded){
+                loadMillis = (System.nanoTime() - start) / 1_000_000;
+                loaded = true;
+                loading.complete(null);
             }
-            //Add new TokimonCard to the list
-            tokimonCards.add(tokimonCard);
-            // Increment the total number of Tokimons
-            TokimonCard.incrementTotalTokimons();
-            //Write the updated list to the json file
-            updateJsonFile();
-        } catch (IOException e){
-            e.printStackTrace();
+            return null;
+        }));
+    }
+
+    // Replicas only. Applies records from the leader's log in order, the way its store applied them
+    public void applyReplicated(List<CardLogRecord> records) {
+        join(commitPipeline.submit(() -> {
+            for (CardLogRecord record : records){
+                applyRecord(record);
+                replicatedSeq = record.getSeq();
+            }
+            return null;
+        }));
+    }
+
+    public boolean isReplica() {
+        return replica;
+    }
+
+    // the leader's log seq this replica has applied up to
+    public long getReplicatedSeq() {
+        return replicatedSeq;
+    }
+
+    // returns a copy so callers can iterate it while the list keeps changing
+    public List<TokimonCard> getTokimonCards() {
+        awaitLoaded();
+        long start = System.nanoTime();
+        List<TokimonCard> cards = new ArrayList<>(tokimonCards.values());
+        metrics.record(Operation.GET_ALL, Phase.LOOKUP, System.nanoTime() - start);
+        return cards;
+    }
+
+    // walks the cards in tid order without copying them into a list first, for streaming large listings
+    public void forEachTokimonCard(Consumer<TokimonCard> action) {
+        awaitLoaded();
+        tokimonCards.values().forEach(action);
+    }
+
+    // every card matching the query's filters, in no particular order. Sort order, cursor and limit are ignored.
+    // Visits the whole collection, for the paged listing use getTokimonCardPage
+    public void forEachMatchingTokimonCard(TokimonCardQuery query, Consumer<TokimonCard> action) {
+        awaitLoaded();
+        tokimonCards.forEachMatching(query, action);
+    }
+
+    public TokimonCard getTokimonCard(long tid){
+        awaitLoaded();
+        long start = System.nanoTime();
+        TokimonCard tokimonCard = tokimonCards.get(tid);
+        metrics.record(Operation.GET, Phase.LOOKUP, System.nanoTime() - start);
+        if (tokimonCard == null){
+            throw new TokimonCardNotFoundException("TokimonCard with ID " + tid + " not found");
         }
+        return tokimonCard;
     }
 
-    public void updateTokimonCard(long tid, TokimonCard updatedTokimonCard) {
-        try {
-            File file = new File(FILE_PATH);
-            if (file.exists()){
-                tokimonCards = mapper.readValue(file, new TypeReference<List<TokimonCard>>(){});
+    // the cards with these tids in the order asked for, tids with no card end up in missing.
+    // One wait for the load and one timing for the whole batch, each tid is an index lookup
+    public TokimonCardBatch getTokimonCards(Collection<Long> tids) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        List<TokimonCard> cards = new ArrayList<>(tids.size());
+        List<Long> missing = new ArrayList<>();
+        for (long tid : tids){
+            TokimonCard tokimonCard = tokimonCards.get(tid);
+            if (tokimonCard != null){
+                cards.add(tokimonCard);
+            } else {
+                missing.add(tid);
             }
+        }
+        metrics.record(Operation.BATCH_GET, Phase.LOOKUP, System.nanoTime() - start);
+        return new TokimonCardBatch(cards, missing);
+    }
 
-            // Remove the TokimonCard with the specified ID
-            for (int i = 0; i < tokimonCards.size(); i++) {
-                if (tokimonCards.get(i).getTid() == tid) {
-                    TokimonCard currentCard = tokimonCards.get(i);
-                    if (updatedTokimonCard.getTid() != 0){
-                        currentCard.setTid(updatedTokimonCard.getTid());
-                    }
+    // one page of the cards matching the query, see TokimonCardIndex and OffHeapCardStorage
+    public TokimonCardPage getTokimonCardPage(TokimonCardQuery query) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        TokimonCardPage page = tokimonCards.query(query);
+        metrics.record(Operation.PAGE, Phase.LOOKUP, System.nanoTime() - start);
+        return page;
+    }
 
-                    if (updatedTokimonCard.getName() != null){
-                        currentCard.setName(updatedTokimonCard.getName());
-                    }
+    // doesn't wait for the saved cards to be loaded, it counts them as they load (for the tokimon.cards gauge)
+    public int size() {
+        return tokimonCards.size();
+    }
 
-                    if (updatedTokimonCard.getElementType() != null){
-                        currentCard.setElementType(updatedTokimonCard.getElementType());
-                    }
+    // cards whose name has a word starting with each word of the query, then (if fuzzy) cards with a word a typo
+    // or two away from it, see TokimonCardNameIndex
+    public List<TokimonCard> searchTokimonCards(String query, int limit, boolean fuzzy) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        List<TokimonCard> cards = nameIndex.search(query, limit, fuzzy, tokimonCards::get);
+        metrics.record(Operation.SEARCH, Phase.LOOKUP, System.nanoTime() - start);
+        return cards;
+    }
 
-                    if (updatedTokimonCard.getImageName() != null){
-                        currentCard.setImageName(updatedTokimonCard.getImageName());
-                    } else if (updatedTokimonCard.getImageName() == null){
-                        currentCard.setImageName("unown.png");
-                    }
+    // counts by element type and rarity, and the range and average of the points. Read from running totals,
+    // nothing is scanned (see TokimonCardStatsRollup)
+    public TokimonCardStats getStats() {
+        awaitLoaded();
+        long start = System.nanoTime();
+        TokimonCardStats snapshot = stats.snapshot();
+        metrics.record(Operation.STATS, Phase.LOOKUP, System.nanoTime() - start);
+        return snapshot;
+    }
 
-                    if (updatedTokimonCard.getHealthPoints() != 0){
-                        currentCard.setHealthPoints(updatedTokimonCard.getHealthPoints());
-                    }
-                    if (updatedTokimonCard.getAttackPoints() != 0){
-                        currentCard.setAttackPoints(updatedTokimonCard.getAttackPoints());
-                    }
+    // Filters, ranks, groups and projects every card, split across the scan engine's threads (see TokimonCardScan
+    // and CardScanEngine). Throws InvalidCardQueryException before scanning anything if the scan doesn't make sense
+    public TokimonCardScanResult scanTokimonCards(TokimonCardScan scan) {
+        scan.validate();
+        awaitLoaded();
+        long start = System.nanoTime();
+        TokimonCardScanResult result = scanEngine.scan(tokimonCards, scan);
+        metrics.record(Operation.QUERY, Phase.LOOKUP, System.nanoTime() - start);
+        return result;
+    }
 
-                    break;
-                }
+    // the store version, changes whenever any card is added, changed or removed
+    public long getVersion() {
+        awaitLoaded();
+        return version;
+    }
+
+    // the largest tid the store has held, new cards should get larger ones
+    public long getMaxTid() {
+        awaitLoaded();
+        return maxTid;
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    // every add, update and delete from now on, numbered from the store being opened (recovery isn't a change)
+    public TokimonCardChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    public void addTokimonCard(TokimonCard tokimonCard) {
+        join(addTokimonCardAsync(tokimonCard));
+    }
+
+    // completes when the card is added, and persisted as far as the durability mode promises.
+    // Throws IllegalArgumentException if the card's rarity isn't 1 to 10
+    public CompletableFuture<Void> addTokimonCardAsync(TokimonCard tokimonCard) {
+        requireValidRarity(tokimonCard);
+        // the caller keeps its own object, the list only ever hands out its private copy
+        TokimonCard newCard = new TokimonCard(tokimonCard);
+        return commit(Operation.ADD, times -> {
+            //Record the change in the log before it becomes visible
+            writeAheadLog.append(CardLogRecord.Operation.ADD, newCard.getTid(), newCard);
+            //Add new TokimonCard to the store
+            long start = System.nanoTime();
+            put(newCard);
+            times.mutated(start);
+            changeFeed.publish(TokimonCardChange.Type.ADD, newCard.getTid(), newCard, version);
+        });
+    }
+
+    // adds many cards as one change: one trip through the commit pipeline and one fsync for all of them.
+    // Throws IllegalArgumentException, adding none of them, if any card's rarity isn't 1 to 10
+    public void addTokimonCards(List<TokimonCard> newTokimonCards) {
+        List<TokimonCard> newCards = new ArrayList<>(newTokimonCards.size());
+        for (TokimonCard tokimonCard : newTokimonCards) {
+            requireValidRarity(tokimonCard);
+            newCards.add(new TokimonCard(tokimonCard));
+        }
+        join(commit(Operation.BULK_IMPORT, times -> {
+            for (TokimonCard newCard : newCards) {
+                writeAheadLog.append(CardLogRecord.Operation.ADD, newCard.getTid(), newCard);
+                long start = System.nanoTime();
+                put(newCard);
+                times.mutated(start);
+                changeFeed.publish(TokimonCardChange.Type.ADD, newCard.getTid(), newCard, version);
             }
+        }));
+    }
 
-            // Write the updated list to the json file
-            updateJsonFile();
-        } catch(IOException e){
-            e.printStackTrace();
+    public void updateTokimonCard(long tid, TokimonCard updatedTokimonCard) {
+        join(updateTokimonCardAsync(tid, updatedTokimonCard));
+    }
+
+    // fails with TokimonCardConflictException if the update moves the card to a tid another card has
+    public CompletableFuture<Void> updateTokimonCardAsync(long tid, TokimonCard updatedTokimonCard) {
+        return commit(Operation.UPDATE, times -> applyUpdate(tid, updatedTokimonCard, times));
+    }
+
+    // runs on the commit thread, builds the updated copy and swaps it in
+    private void applyUpdate(long tid, TokimonCard updatedTokimonCard, ChangeTimes times) {
+        long start = System.nanoTime();
+        TokimonCard currentCard = tokimonCards.get(tid);
+        times.lookedUp(start);
+        if (currentCard == null){
+            return;
+        }
+        start = System.nanoTime();
+        TokimonCard newCard = updatedCopy(currentCard, updatedTokimonCard);
+        times.mutated(start);
+        if (newCard.getTid() != tid && tokimonCards.contains(newCard.getTid())){
+            // putting it there would replace the other card
+            throw new TokimonCardConflictException("Cannot move TokimonCard " + tid + " to ID " + newCard.getTid() + ", it is in use");
+        }
+
+        // Record the change in the log, then publish the new copy
+        writeAheadLog.append(CardLogRecord.Operation.UPDATE, tid, newCard);
+        start = System.nanoTime();
+        if (newCard.getTid() != tid){
+            // the card is keyed by its tid, so a new tid means moving it to a new key
+            remove(tid);
+            put(newCard);
+        } else {
+            put(newCard);
+        }
+        times.mutated(start);
+        changeFeed.publish(TokimonCardChange.Type.UPDATE, tid, newCard, version);
+    }
+
+    // New cards are checked here, before they reach the log. Cards replayed from the log or sent by a leader
+    // aren't, they were checked when they were first added (stores from before the check may hold rarity 0)
+    private static void requireValidRarity(TokimonCard tokimonCard) {
+        if (!TokimonCard.isValidRarity(tokimonCard.getRarity())){
+            throw new IllegalArgumentException("TokimonCard " + tokimonCard.getTid() + " has rarity " + tokimonCard.getRarity()
+                    + ", it must be " + TokimonCard.MIN_RARITY + " to " + TokimonCard.MAX_RARITY);
+        }
+    }
+
+    // a copy of the card with the fields set in the update changed
+    private static TokimonCard updatedCopy(TokimonCard currentCard, TokimonCard updatedTokimonCard) {
+        TokimonCard newCard = new TokimonCard(currentCard);
+
+        if (updatedTokimonCard.getTid() != 0){
+            newCard.setTid(updatedTokimonCard.getTid());
+        }
+
+        if (updatedTokimonCard.getName() != null){
+            newCard.setName(updatedTokimonCard.getName());
+        }
+
+        if (updatedTokimonCard.getElementType() != null){
+            newCard.setElementType(updatedTokimonCard.getElementType());
+        }
+
+        if (updatedTokimonCard.getImageName() != null){
+            newCard.setImageName(updatedTokimonCard.getImageName());
+        } else if (updatedTokimonCard.getImageName() == null){
+            newCard.setImageName("unown.png");
         }
+
+        if (updatedTokimonCard.getHealthPoints() != 0){
+            newCard.setHealthPoints(updatedTokimonCard.getHealthPoints());
+        }
+        if (updatedTokimonCard.getAttackPoints() != 0){
+            newCard.setAttackPoints(updatedTokimonCard.getAttackPoints());
+        }
+        return newCard;
     }
 
     public void deleteTokimonCard(long tid) {
-        try {
-            File file = new File(FILE_PATH);
-            if (file.exists()){
-                tokimonCards = mapper.readValue(file, new TypeReference<>() {
-                });
-            }
+        join(deleteTokimonCardAsync(tid));
+    }
 
+    public CompletableFuture<Void> deleteTokimonCardAsync(long tid) {
+        return commit(Operation.DELETE, times -> {
             // Remove the TokimonCard with the specified ID
-            for (int i = 0; i < tokimonCards.size(); i++) {
-                if (tokimonCards.get(i).getTid() == tid) {
-                    tokimonCards.remove(i);
-                    decrementTotalTokimons();
-                    break;
+            long start = System.nanoTime();
+            boolean exists = tokimonCards.contains(tid);
+            times.lookedUp(start);
+            if (exists){
+                writeAheadLog.append(CardLogRecord.Operation.DELETE, tid, null);
+                start = System.nanoTime();
+                remove(tid);
+                times.mutated(start);
+                changeFeed.publish(TokimonCardChange.Type.DELETE, tid, null, version);
+            }
+        });
+    }
+
+    // Applies the mutations as one change: all of them or, if any can't be (an edit or delete of a tid that
+    // doesn't exist, counting the batch's own earlier mutations), none, failing with InvalidCardBatchException.
+    // An edit that moves a card to a tid another card has fails the batch with TokimonCardConflictException.
+    // The log gets a single BATCH record, so a crash keeps all of them or none, and there is one fsync.
+    // Readers may see the batch part way through being applied, as with any other run of changes.
+    // Completes with the card each mutation left (null for a delete)
+    public CompletableFuture<List<TokimonCard>> mutateTokimonCardsAsync(List<TokimonCardMutation> mutations) {
+        List<TokimonCardMutation> copies = new ArrayList<>(mutations.size());
+        for (TokimonCardMutation mutation : mutations){
+            // the caller keeps its own cards, like addTokimonCardAsync
+            TokimonCard card = mutation.getCard() == null ? null : new TokimonCard(mutation.getCard());
+            copies.add(new TokimonCardMutation(mutation.getOp(), mutation.getTid(), card));
+        }
+        List<TokimonCard> results = new ArrayList<>(copies.size()); // filled on the commit thread
+        return commit(Operation.BATCH_MUTATE, times -> applyMutations(copies, results, times))
+                .thenApply(applied -> results);
+    }
+
+    // runs on the commit thread. Works out every record first, against the cards as the batch's earlier
+    // mutations leave them, and only then logs and applies them
+    private void applyMutations(List<TokimonCardMutation> mutations, List<TokimonCard> results, ChangeTimes times) {
+        long start = System.nanoTime();
+        Map<Long, TokimonCard> staged = new HashMap<>(); // tid -> card after the batch so far, null once removed
+        List<CardLogRecord> records = new ArrayList<>(mutations.size());
+        for (int i = 0; i < mutations.size(); i++){
+            TokimonCardMutation mutation = mutations.get(i);
+            if (mutation.getOp() == null){
+                throw new InvalidCardBatchException(i, "op must be add, edit or delete");
+            }
+            if (mutation.getOp() == TokimonCardMutation.Type.ADD){
+                if (mutation.getCard() == null){
+                    throw new InvalidCardBatchException(i, "add needs a card");
+                }
+                if (!TokimonCard.isValidRarity(mutation.getCard().getRarity())){
+                    throw new InvalidCardBatchException(i, "rarity must be " + TokimonCard.MIN_RARITY + " to " + TokimonCard.MAX_RARITY);
+                }
+                staged.put(mutation.getCard().getTid(), mutation.getCard());
+                records.add(new CardLogRecord(0, CardLogRecord.Operation.ADD, mutation.getCard().getTid(), mutation.getCard()));
+                results.add(mutation.getCard());
+                continue;
+            }
+            long tid = mutation.getTid();
+            TokimonCard currentCard = staged.containsKey(tid) ? staged.get(tid) : tokimonCards.get(tid);
+            if (currentCard == null){
+                throw new InvalidCardBatchException(i, "TokimonCard with ID " + tid + " not found");
+            }
+            if (mutation.getOp() == TokimonCardMutation.Type.EDIT){
+                if (mutation.getCard() == null){
+                    throw new InvalidCardBatchException(i, "edit needs a card");
+                }
+                TokimonCard newCard = updatedCopy(currentCard, mutation.getCard());
+                if (newCard.getTid() != tid){
+                    long newTid = newCard.getTid();
+                    boolean inUse = staged.containsKey(newTid) ? staged.get(newTid) != null : tokimonCards.contains(newTid);
+                    if (inUse){
+                        throw new TokimonCardConflictException("Mutation " + i + ": cannot move TokimonCard " + tid
+                                + " to ID " + newTid + ", it is in use");
+                    }
+                    staged.put(tid, null);
+                }
+                staged.put(newCard.getTid(), newCard);
+                records.add(new CardLogRecord(0, CardLogRecord.Operation.UPDATE, tid, newCard));
+                results.add(newCard);
+            } else {
+                staged.put(tid, null);
+                records.add(new CardLogRecord(0, CardLogRecord.Operation.DELETE, tid, null));
+                results.add(null);
+            }
+        }
+        times.lookedUp(start);
+
+        // Record the whole batch in the log, then apply it
+        writeAheadLog.appendBatch(records);
+        start = System.nanoTime();
+        for (CardLogRecord record : records){
+            applyRecord(record);
+        }
+        times.mutated(start);
+    }
+
+    // only called on the commit thread, for a record that is already in the log (this one's or a leader's)
+    private void applyRecord(CardLogRecord record) {
+        switch (record.getOp()){
+            case ADD -> {
+                put(record.getCard());
+                changeFeed.publish(TokimonCardChange.Type.ADD, record.getTid(), record.getCard(), version);
+            }
+            case UPDATE -> {
+                if (record.getCard().getTid() != record.getTid()){
+                    remove(record.getTid());
+                }
+                put(record.getCard());
+                changeFeed.publish(TokimonCardChange.Type.UPDATE, record.getTid(), record.getCard(), version);
+            }
+            case DELETE -> {
+                remove(record.getTid());
+                changeFeed.publish(TokimonCardChange.Type.DELETE, record.getTid(), null, version);
+            }
+            case BATCH -> {
+                for (CardLogRecord batched : record.getRecords()){
+                    applyRecord(batched);
                 }
             }
+        }
+    }
 
-            // Write the updated list to the json file
-            updateJsonFile();
-        } catch (IOException e){
-            e.printStackTrace();
+    // only called on the commit thread (or in the constructor before the list is shared)
+    private void put(TokimonCard tokimonCard) {
+        long newVersion = version + 1;
+        tokimonCard.setVersion(newVersion);
+        if (tokimonCard.getTid() > maxTid){
+            maxTid = tokimonCard.getTid();
+        }
+        TokimonCard previous = tokimonCards.put(tokimonCard);
+        if (previous != null){
+            stats.remove(previous);
+        }
+        stats.add(tokimonCard);
+        if (previous == null || !Objects.equals(previous.getName(), tokimonCard.getName())){
+            if (previous != null){
+                nameIndex.remove(previous);
+            }
+            nameIndex.add(tokimonCard);
         }
+        // bumped after the cards change, so anyone who reads this version also sees the change
+        version = newVersion;
+    }
 
+    private void remove(long tid) {
+        TokimonCard removed = tokimonCards.remove(tid);
+        if (removed != null){
+            stats.remove(removed);
+            nameIndex.remove(removed);
+            version = version + 1;
+        }
     }
 
     public String getFilePath() {
-        return FILE_PATH;
+        return filePath;
+    }
+
+    // number of changes waiting to be committed
+    public int getPendingChanges() {
+        return commitPipeline.getBacklog();
+    }
+
+    // Hands a card operation to the commit pipeline, the future completes when the pipeline acknowledges it.
+    // Records how long it spent looking up, mutating and persisting (up to the acknowledgement)
+    private CompletableFuture<Void> commit(Operation operation, Consumer<ChangeTimes> change) {
+        requireWritable();
+        long start = System.nanoTime();
+        ChangeTimes times = new ChangeTimes(); // written on the commit thread, read once the future completes
+        return commitPipeline.<Void>submit(() -> {
+            awaitLoaded(); // already done on the commit thread, but a failed load fails every change
+            change.accept(times);
+            return null;
+        }).thenRun(() -> metrics.recordChange(operation, start, times));
+    }
+
+    private void requireWritable() {
+        if (replica){
+            throw new IllegalStateException("A replica's cards only change through replication from its leader");
+        }
+    }
+
+    // hands the change to the commit pipeline and waits until it has been persisted
+    private <T> T commit(Supplier<T> change) {
+        return join(commitPipeline.submit(() -> {
+            awaitLoaded();
+            return change.get();
+        }));
+    }
+
+    // waits for a change, rethrowing what it failed with as is
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // runs on the commit thread after each batch of changes, one fsync covers the whole batch
+    // (in sync mode, the other modes leave the fsync to the flusher)
+    private void commitBatch() {
+        try {
+            if (durabilityMode == CardDurabilityMode.SYNC){
+                writeAheadLog.commit();
+            }
+            if (writeAheadLog.needsCompaction()){
+                writeAheadLog.compact(tokimonCards.values());
+            }
+        } catch (RuntimeException e) {
+            if (durabilityMode == CardDurabilityMode.SYNC){
+                stop(e);
+            }
+            throw e;
+        }
+    }
+
+    // The batch's changes are in memory but were never acknowledged, and the pipeline refuses every change after
+    // them (see CardCommitPipeline). Reads stop being served from them too: they fail from now on like after a
+    // failed load, and the health indicator reports the store DOWN. A restart recovers whatever reached the log
+    private void stop(RuntimeException e) {
+        commitFailure = e;
+        loaded = false; // sends every read through awaitLoaded's slow path, which throws
+        changeFeed.close(); // subscribers stop following changes that may not be kept
     }
 
-    private void updateJsonFile(){
-        try { //write the updated list of TokimonCards to the json file in the server
-            mapper.writeValue(new File(FILE_PATH), tokimonCards);
-        } catch (IOException e){
-            e.printStackTrace();
+    @Override
+    public void close() {
+        commitPipeline.close();
+        if (replica){
+            // a replica that never got the leader's cards lets its waiting readers go
+            loading.completeExceptionally(new IllegalStateException("The replica was closed before it got the leader's cards"));
         }
+        changeFeed.close();
+        scanEngine.close();
+        writeAheadLog.close();
     }
 
     //Endpoints are specific URLs that the application exposes to handle various HTTP requests (like GET, POST, PUT, DELETE
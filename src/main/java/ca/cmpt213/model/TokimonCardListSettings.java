@@ -0,0 +1,154 @@
+package ca.cmpt213.model;
+
+import ca.cmpt213.metrics.TokimonCardMetrics;
+import ca.cmpt213.persistence.CardDurabilityMode;
+import ca.cmpt213.persistence.CardLogListener;
+import ca.cmpt213.persistence.CardSnapshotFormat;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+// Everything that can be tuned about how a TokimonCardList stores its cards.
+// The controller fills this in from application.properties, benchmarks and tests just use the defaults
+public class TokimonCardListSettings {
+    private String filePath = "src/main/resources/static/tokimon.json";
+    private int syncEvery = 1; // fsync the log once this many changes are waiting at the end of a batch (0 = never force it)
+    private CardDurabilityMode durabilityMode = CardDurabilityMode.SYNC; // acknowledge a change before or after it's forced to disk
+    private long flushIntervalMillis = 100; // how often PERIODIC forces the log
+    private int compactEvery = 1000; // fold the log into a new snapshot after this many changes
+    private CardSnapshotFormat snapshotFormat = CardSnapshotFormat.JSON; // how that snapshot is written
+    private CardStorageBackend storageBackend = CardStorageBackend.HEAP; // where the cards are kept in memory
+    private int maxBatchSize = 256; // most changes the writer commits with a single fsync
+    private int changeFeedCapacity = 4096; // most recent changes kept for /api/tokimon/changes subscribers that fall behind
+    private boolean loadInBackground = false; // load the saved cards on the commit thread instead of in the constructor
+    private boolean virtualThreads = false; // run the commit writer on a virtual thread instead of a platform thread
+    private boolean replica = false; // hold a leader's cards in memory only, see TokimonCardList.replaceReplicated
+    private CardLogListener logListener; // told about every record appended to the log and every reset, may be null
+    private int queryParallelism = Runtime.getRuntime().availableProcessors(); // threads a scatter-gather query scans with
+    // where the store reports its timings, an empty composite registry throws every measurement away
+    private TokimonCardMetrics metrics = new TokimonCardMetrics(new CompositeMeterRegistry());
+
+    public TokimonCardListSettings() {}
+
+    public TokimonCardListSettings(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public int getSyncEvery() {
+        return syncEvery;
+    }
+
+    public void setSyncEvery(int syncEvery) {
+        this.syncEvery = syncEvery;
+    }
+
+    public CardDurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    public void setDurabilityMode(CardDurabilityMode durabilityMode) {
+        this.durabilityMode = durabilityMode;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getCompactEvery() {
+        return compactEvery;
+    }
+
+    public void setCompactEvery(int compactEvery) {
+        this.compactEvery = compactEvery;
+    }
+
+    public CardSnapshotFormat getSnapshotFormat() {
+        return snapshotFormat;
+    }
+
+    public void setSnapshotFormat(CardSnapshotFormat snapshotFormat) {
+        this.snapshotFormat = snapshotFormat;
+    }
+
+    public CardStorageBackend getStorageBackend() {
+        return storageBackend;
+    }
+
+    public void setStorageBackend(CardStorageBackend storageBackend) {
+        this.storageBackend = storageBackend;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getChangeFeedCapacity() {
+        return changeFeedCapacity;
+    }
+
+    public void setChangeFeedCapacity(int changeFeedCapacity) {
+        this.changeFeedCapacity = changeFeedCapacity;
+    }
+
+    public boolean isLoadInBackground() {
+        return loadInBackground;
+    }
+
+    public void setLoadInBackground(boolean loadInBackground) {
+        this.loadInBackground = loadInBackground;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isReplica() {
+        return replica;
+    }
+
+    public void setReplica(boolean replica) {
+        this.replica = replica;
+    }
+
+    public CardLogListener getLogListener() {
+        return logListener;
+    }
+
+    public void setLogListener(CardLogListener logListener) {
+        this.logListener = logListener;
+    }
+
+    public int getQueryParallelism() {
+        return queryParallelism;
+    }
+
+    public void setQueryParallelism(int queryParallelism) {
+        this.queryParallelism = queryParallelism;
+    }
+
+    public TokimonCardMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(TokimonCardMetrics metrics) {
+        this.metrics = metrics;
+    }
+}
@@ -0,0 +1,58 @@
+package ca.cmpt213.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.util.Locale;
+
+// One change of POST /api/tokimon/batch/mutate.
+// add takes a card (its tid is assigned by the server), edit a tid and the fields to change like
+// PUT /api/tokimon/edit/{tid}, delete just a tid
+// example: {"op":"edit","tid":2,"card":{"name":"Tokiturtle","elementType":"WATER"}}
+public class TokimonCardMutation {
+    public enum Type {
+        ADD,
+        EDIT,
+        DELETE;
+
+        @JsonCreator
+        public static Type fromName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private Type op;
+    private long tid;
+    private TokimonCard card;
+
+    public TokimonCardMutation() {}
+
+    public TokimonCardMutation(Type op, long tid, TokimonCard card) {
+        this.op = op;
+        this.tid = tid;
+        this.card = card;
+    }
+
+    public Type getOp() {
+        return op;
+    }
+
+    public void setOp(Type op) {
+        this.op = op;
+    }
+
+    public long getTid() {
+        return tid;
+    }
+
+    public void setTid(long tid) {
+        this.tid = tid;
+    }
+
+    public TokimonCard getCard() {
+        return card;
+    }
+
+    public void setCard(TokimonCard card) {
+        this.card = card;
+    }
+}
@@ -0,0 +1,410 @@
+package ca.cmpt213.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+// Name search behind GET /api/tokimon/search.
+// Every card name is split into words (runs of letters and digits, lowercased) and each word goes into a trie,
+// the node where a word ends lists the tids of the cards that have that word in their name.
+//   prefix  walk down the query's characters, every word below that node starts with it. Words are visited in
+//           alphabetical order and the walk stops once the page is full, so it costs O(query length + results)
+//           however many cards there are
+//   fuzzy   words within a small edit distance of the query, found by walking the trie with one row of the
+//           Levenshtein table per character and cutting off every branch whose row is already over the limit,
+//           so only a thin slice of the trie around the query is visited
+// A query with several words matches cards that have a word starting with each of them. Every node counts the
+// postings below it, the query word with the fewest drives the search and the rest are checked on the cards it finds.
+// Fuzzy matching tries one typo before two and stops as soon as the page is full.
+// Only the commit thread changes the trie. Children arrays are replaced, never edited, and postings only ever
+// grow past the size readers were given, both published through volatile fields, so readers walk the trie
+// without locking and always see a complete node.
+// Every card found is checked against the card actually in the store before it is returned
+public class TokimonCardNameIndex {
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    // the most tids gathered for one query word to filter the cards found through another
+    private static final int MAX_FILTER_SIZE = 1 << 16;
+
+    private final Node root = new Node('\0');
+
+    private static final class Node {
+        private final char c;
+        private volatile Node[] children = NO_CHILDREN; // sorted by character
+        private volatile Postings postings = Postings.EMPTY; // cards with a word that ends here
+        private volatile int count; // postings in this node and every node below it
+
+        Node(char c) {
+            this.c = c;
+        }
+
+        Node child(char c) {
+            Node[] children = this.children;
+            int index = indexOf(children, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        // binary search by character, (-(insertion point) - 1) when there is no such child
+        static int indexOf(Node[] children, char c) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (children[middle].c < c) {
+                    low = middle + 1;
+                } else if (children[middle].c > c) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    // The sorted tids of one word. Readers only look at the first size entries, so a tid larger than all the others
+    // (the usual case, tids are handed out in increasing order) is written into spare room at the end of the array
+    // and published with a new size, common words like "the" don't copy their whole list for every card added
+    private record Postings(long[] tids, int size) {
+        static final Postings EMPTY = new Postings(new long[0], 0);
+
+        Postings add(long tid) {
+            int index = Arrays.binarySearch(tids, 0, size, tid);
+            if (index >= 0) {
+                return this;
+            }
+            index = -index - 1;
+            if (index == size && size < tids.length) {
+                tids[size] = tid;
+                return new Postings(tids, size + 1);
+            }
+            long[] grown = new long[Math.max(2, size + (size >> 1) + 1)];
+            System.arraycopy(tids, 0, grown, 0, index);
+            grown[index] = tid;
+            System.arraycopy(tids, index, grown, index + 1, size - index);
+            return new Postings(grown, size + 1);
+        }
+
+        // a new array, the entries readers can see are never written
+        Postings remove(long tid) {
+            int index = Arrays.binarySearch(tids, 0, size, tid);
+            if (index < 0) {
+                return this;
+            }
+            long[] shrunk = new long[size - 1];
+            System.arraycopy(tids, 0, shrunk, 0, index);
+            System.arraycopy(tids, index + 1, shrunk, index, size - index - 1);
+            return new Postings(shrunk, size - 1);
+        }
+    }
+
+    // the words of a name or query: lowercased runs of letters and digits
+    public static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        String lowerCase = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowerCase.length(); i++) {
+            boolean wordChar = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(lowerCase.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    public void add(TokimonCard tokimonCard) {
+        for (String word : new LinkedHashSet<>(words(tokimonCard.getName()))) {
+            Node[] path = new Node[word.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < word.length(); i++) {
+                Node node = path[i];
+                Node child = node.child(word.charAt(i));
+                if (child == null) {
+                    child = new Node(word.charAt(i));
+                    Node[] children = node.children;
+                    int insertAt = -Node.indexOf(children, child.c) - 1;
+                    Node[] grown = new Node[children.length + 1];
+                    System.arraycopy(children, 0, grown, 0, insertAt);
+                    grown[insertAt] = child;
+                    System.arraycopy(children, insertAt, grown, insertAt + 1, children.length - insertAt);
+                    node.children = grown;
+                }
+                path[i + 1] = child;
+            }
+            Node node = path[word.length()];
+            Postings postings = node.postings;
+            node.postings = postings.add(tokimonCard.getTid());
+            if (node.postings != postings) {
+                for (Node onPath : path) {
+                    onPath.count++;
+                }
+            }
+        }
+    }
+
+    public void remove(TokimonCard tokimonCard) {
+        for (String word : new LinkedHashSet<>(words(tokimonCard.getName()))) {
+            Node[] path = new Node[word.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < word.length() && path[i] != null; i++) {
+                path[i + 1] = path[i].child(word.charAt(i));
+            }
+            Node node = path[word.length()];
+            if (node == null) {
+                continue;
+            }
+            Postings postings = node.postings;
+            node.postings = postings.remove(tokimonCard.getTid());
+            if (node.postings == postings) {
+                continue;
+            }
+            for (Node onPath : path) {
+                onPath.count--;
+            }
+            // drop the nodes the word no longer needs, from the end of the word back up
+            for (int depth = word.length(); depth > 0 && path[depth].count == 0; depth--) {
+                Node parent = path[depth - 1];
+                Node[] children = parent.children;
+                int at = Node.indexOf(children, path[depth].c);
+                Node[] shrunk = new Node[children.length - 1];
+                System.arraycopy(children, 0, shrunk, 0, at);
+                System.arraycopy(children, at + 1, shrunk, at, children.length - at - 1);
+                parent.children = shrunk;
+            }
+        }
+    }
+
+    public void clear() {
+        root.children = NO_CHILDREN;
+        root.postings = Postings.EMPTY;
+        root.count = 0;
+    }
+
+    // Up to limit cards whose name matches the query: cards with the exact word first, then the other words it is
+    // a prefix of in alphabetical order, then (if fuzzy) the words closest to it by edit distance.
+    // lookup returns the card currently stored under a tid, or null if it is gone
+    public List<TokimonCard> search(String query, int limit, boolean fuzzy, LongFunction<TokimonCard> lookup) {
+        List<String> terms = words(query);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        // the prefix walk starts from the query word with the fewest cards below it, the others are checked
+        // on the cards it finds
+        Node start = null;
+        for (String term : terms) {
+            Node node = find(term);
+            if (node == null) {
+                start = null;
+                break;
+            }
+            if (start == null || node.count < start.count) {
+                start = node;
+            }
+        }
+        List<TokimonCard> results = new ArrayList<>(Math.min(limit, 64));
+        Set<Long> seen = new HashSet<>();
+        if (start != null) {
+            // few matching cards can be spread thin through a big prefix, so the tids under the other query words
+            // are gathered up front (when there aren't too many) and candidates are checked against those before
+            // the card is looked up
+            List<TidSet> filters = new ArrayList<>();
+            for (String term : terms) {
+                Node node = find(term);
+                if (node != null && node != start && node.count <= MAX_FILTER_SIZE) {
+                    filters.add(new TidSet(node));
+                }
+            }
+            collectPrefix(start, terms, filters, limit, lookup, seen, results);
+        }
+
+        if (fuzzy && results.size() < limit) {
+            // a word no card starts with is the likely typo, otherwise the longest word
+            String misspelled = terms.stream().filter(word -> find(word) == null).findFirst()
+                    .orElse(terms.stream().max(Comparator.comparingInt(String::length)).get());
+            List<String> otherTerms = new ArrayList<>(terms);
+            otherTerms.remove(misspelled);
+            int maxDistance = misspelled.length() <= 2 ? 0 : misspelled.length() <= 5 ? 1 : 2;
+            // one typo first, the wider two typo walk only if that didn't fill the page
+            for (int distance = 1; distance <= maxDistance && results.size() < limit; distance++) {
+                List<Postings> matches = new ArrayList<>();
+                int[][] rows = new int[misspelled.length() + distance + 1][misspelled.length() + 1];
+                for (int i = 0; i <= misspelled.length(); i++) {
+                    rows[0][i] = i;
+                }
+                collectFuzzy(root, misspelled, rows, 1, distance, matches);
+                for (Postings match : matches) {
+                    if (!addCards(match, otherTerms, List.of(), limit, lookup, seen, results)) {
+                        break;
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private Node find(String word) {
+        Node node = root;
+        for (int i = 0; i < word.length() && node != null; i++) {
+            node = node.child(word.charAt(i));
+        }
+        return node;
+    }
+
+    // The tids under the node where one query word ends, for checking the cards found through another word
+    // without looking them up. Open addressing with linear probing, sized to at most half full
+    private static final class TidSet {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private final long[] slots;
+        private boolean containsEmpty;
+
+        TidSet(Node node) {
+            List<Postings> postings = new ArrayList<>();
+            gatherPostings(node, postings);
+            int size = postings.stream().mapToInt(Postings::size).sum();
+            slots = new long[Integer.highestOneBit(Math.max(size, 1)) * 4];
+            Arrays.fill(slots, EMPTY);
+            for (Postings posting : postings) {
+                for (int i = 0; i < posting.size(); i++) {
+                    add(posting.tids()[i]);
+                }
+            }
+        }
+
+        private void add(long tid) {
+            if (tid == EMPTY) {
+                containsEmpty = true;
+                return;
+            }
+            int mask = slots.length - 1;
+            for (int slot = hash(tid) & mask; slots[slot] != tid; slot = (slot + 1) & mask) {
+                if (slots[slot] == EMPTY) {
+                    slots[slot] = tid;
+                    return;
+                }
+            }
+        }
+
+        boolean contains(long tid) {
+            if (tid == EMPTY) {
+                return containsEmpty;
+            }
+            int mask = slots.length - 1;
+            for (int slot = hash(tid) & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (slots[slot] == tid) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int hash(long tid) {
+            long h = tid * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static void gatherPostings(Node node, List<Postings> postings) {
+        postings.add(node.postings);
+        for (Node child : node.children) {
+            gatherPostings(child, postings);
+        }
+    }
+
+    // the cards under node, word by word in alphabetical order. Returns false once results is full
+    private static boolean collectPrefix(Node node, List<String> terms, List<TidSet> filters, int limit,
+                                         LongFunction<TokimonCard> lookup, Set<Long> seen, List<TokimonCard> results) {
+        if (!addCards(node.postings, terms, filters, limit, lookup, seen, results)) {
+            return false;
+        }
+        for (Node child : node.children) {
+            if (!collectPrefix(child, terms, filters, limit, lookup, seen, results)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Words exactly distance edits from the term, in alphabetical order. rows[depth] is the row of the edit distance
+    // table for the word down to this depth, reused between siblings so the walk allocates nothing
+    private static void collectFuzzy(Node node, String term, int[][] rows, int depth, int distance, List<Postings> matches) {
+        if (depth >= rows.length) {
+            return;
+        }
+        int[] previousRow = rows[depth - 1];
+        int[] row = rows[depth];
+        for (Node child : node.children) {
+            row[0] = previousRow[0] + 1;
+            int smallest = row[0];
+            for (int i = 1; i < row.length; i++) {
+                int substitution = previousRow[i - 1] + (term.charAt(i - 1) == child.c ? 0 : 1);
+                row[i] = Math.min(substitution, Math.min(row[i - 1] + 1, previousRow[i] + 1));
+                smallest = Math.min(smallest, row[i]);
+            }
+            Postings postings = child.postings;
+            if (row[row.length - 1] == distance && postings.size() > 0) {
+                matches.add(postings);
+            }
+            // every word further down costs at least the smallest value in this row
+            if (smallest <= distance) {
+                collectFuzzy(child, term, rows, depth + 1, distance, matches);
+            }
+        }
+    }
+
+    // adds the cards that are in every filter, are still in the store and have a word starting with each of terms.
+    // Returns false once results is full
+    private static boolean addCards(Postings postings, List<String> terms, List<TidSet> filters, int limit,
+                                    LongFunction<TokimonCard> lookup, Set<Long> seen, List<TokimonCard> results) {
+        long[] tids = postings.tids();
+        for (int i = 0; i < postings.size(); i++) {
+            if (results.size() >= limit) {
+                return false;
+            }
+            if (!inAll(filters, tids[i]) || !seen.add(tids[i])) {
+                continue;
+            }
+            TokimonCard tokimonCard = lookup.apply(tids[i]);
+            if (tokimonCard != null && startsWords(tokimonCard.getName(), terms)) {
+                results.add(tokimonCard);
+            }
+        }
+        return results.size() < limit;
+    }
+
+    private static boolean inAll(List<TidSet> filters, long tid) {
+        for (TidSet filter : filters) {
+            if (!filter.contains(tid)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // true if every term is the start of some word in the name, checked in place without splitting the name
+    private static boolean startsWords(String name, List<String> terms) {
+        for (String term : terms) {
+            boolean found = false;
+            for (int i = 0; i < name.length() && !found; i++) {
+                boolean wordStart = Character.isLetterOrDigit(name.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(name.charAt(i - 1)));
+                found = wordStart && name.regionMatches(true, i, term, 0, term.length());
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package ca.cmpt213.model;
+
+import java.util.List;
+
+// One page of cards plus the cursor to pass back to get the next one (null on the last page)
+public class TokimonCardPage {
+    private final List<TokimonCard> cards;
+    private final String nextCursor;
+
+    public TokimonCardPage(List<TokimonCard> cards, String nextCursor) {
+        this.cards = cards;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<TokimonCard> getCards() {
+        return cards;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
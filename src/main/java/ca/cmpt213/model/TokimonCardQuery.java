@@ -0,0 +1,191 @@
+package ca.cmpt213.model;
+
+import ca.cmpt213.exception.InvalidCardQueryException;
+
+import java.util.Locale;
+
+// Filters, sort order and position of one page of GET /api/tokimon/page.
+// Every filter is optional, a null bound means that side of the range is open
+public class TokimonCardQuery {
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 1000;
+
+    // the numeric fields cards can be sorted by, named the same as in the card json
+    public enum SortField {
+        TID("tid"),
+        RARITY("rarity"),
+        HEALTH_POINTS("healthPoints"),
+        ATTACK_POINTS("attackPoints");
+
+        private final String jsonName;
+
+        SortField(String jsonName) {
+            this.jsonName = jsonName;
+        }
+
+        public long valueOf(TokimonCard tokimonCard) {
+            return switch (this) {
+                case TID -> tokimonCard.getTid();
+                case RARITY -> tokimonCard.getRarity();
+                case HEALTH_POINTS -> tokimonCard.getHealthPoints();
+                case ATTACK_POINTS -> tokimonCard.getAttackPoints();
+            };
+        }
+
+        public static SortField fromJsonName(String name) {
+            for (SortField sortField : values()) {
+                if (sortField.jsonName.equalsIgnoreCase(name)) {
+                    return sortField;
+                }
+            }
+            throw new InvalidCardQueryException("Cannot sort by " + name);
+        }
+    }
+
+    private TokimonCard.ElementType elementType;
+    private Integer minRarity;
+    private Integer maxRarity;
+    private Integer minHealthPoints;
+    private Integer maxHealthPoints;
+    private Integer minAttackPoints;
+    private Integer maxAttackPoints;
+    private SortField sortField = SortField.TID;
+    private boolean descending;
+    private int limit = DEFAULT_LIMIT;
+    private String cursor; // nextCursor of the previous page, null for the first page
+
+    public boolean matches(TokimonCard tokimonCard) {
+        return (elementType == null || elementType == tokimonCard.getElementType())
+                && inRange(tokimonCard.getRarity(), minRarity, maxRarity)
+                && inRange(tokimonCard.getHealthPoints(), minHealthPoints, maxHealthPoints)
+                && inRange(tokimonCard.getAttackPoints(), minAttackPoints, maxAttackPoints);
+    }
+
+    private static boolean inRange(int value, Integer min, Integer max) {
+        return (min == null || value >= min) && (max == null || value <= max);
+    }
+
+    // lower bound the filters put on a field, if they give one
+    public Long getMin(SortField field) {
+        return switch (field) {
+            case TID -> null;
+            case RARITY -> toLong(minRarity);
+            case HEALTH_POINTS -> toLong(minHealthPoints);
+            case ATTACK_POINTS -> toLong(minAttackPoints);
+        };
+    }
+
+    // upper bound the filters put on a field, if they give one
+    public Long getMax(SortField field) {
+        return switch (field) {
+            case TID -> null;
+            case RARITY -> toLong(maxRarity);
+            case HEALTH_POINTS -> toLong(maxHealthPoints);
+            case ATTACK_POINTS -> toLong(maxAttackPoints);
+        };
+    }
+
+    private static Long toLong(Integer value) {
+        return value == null ? null : value.longValue();
+    }
+
+    public TokimonCard.ElementType getElementType() {
+        return elementType;
+    }
+
+    public void setElementType(TokimonCard.ElementType elementType) {
+        this.elementType = elementType;
+    }
+
+    public Integer getMinRarity() {
+        return minRarity;
+    }
+
+    public void setMinRarity(Integer minRarity) {
+        this.minRarity = minRarity;
+    }
+
+    public Integer getMaxRarity() {
+        return maxRarity;
+    }
+
+    public void setMaxRarity(Integer maxRarity) {
+        this.maxRarity = maxRarity;
+    }
+
+    public Integer getMinHealthPoints() {
+        return minHealthPoints;
+    }
+
+    public void setMinHealthPoints(Integer minHealthPoints) {
+        this.minHealthPoints = minHealthPoints;
+    }
+
+    public Integer getMaxHealthPoints() {
+        return maxHealthPoints;
+    }
+
+    public void setMaxHealthPoints(Integer maxHealthPoints) {
+        this.maxHealthPoints = maxHealthPoints;
+    }
+
+    public Integer getMinAttackPoints() {
+        return minAttackPoints;
+    }
+
+    public void setMinAttackPoints(Integer minAttackPoints) {
+        this.minAttackPoints = minAttackPoints;
+    }
+
+    public Integer getMaxAttackPoints() {
+        return maxAttackPoints;
+    }
+
+    public void setMaxAttackPoints(Integer maxAttackPoints) {
+        this.maxAttackPoints = maxAttackPoints;
+    }
+
+    public SortField getSortField() {
+        return sortField;
+    }
+
+    public void setSortField(SortField sortField) {
+        this.sortField = sortField;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public void setDescending(boolean descending) {
+        this.descending = descending;
+    }
+
+    // accepts "asc" or "desc"
+    public void setOrder(String order) {
+        switch (order.toLowerCase(Locale.ROOT)) {
+            case "asc" -> descending = false;
+            case "desc" -> descending = true;
+            default -> throw new InvalidCardQueryException("Order must be asc or desc, not " + order);
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new InvalidCardQueryException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        this.limit = limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+}
@@ -0,0 +1,102 @@
+package ca.cmpt213.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Serialized json and ETags for the responses clients poll: the full listing and single cards.
+// ETags are strong and come from the store's epoch and version, so checking If-None-Match costs a string
+// compare and never touches the cards. The listing's bytes are kept until the store version moves on,
+// each card's bytes are kept by tid along with the version of the card they were made from, so rebuilding
+// the listing after one change only serializes the card that changed and copies the rest.
+// Keyed by tid and version rather than held on the card: the off-heap storage decodes a new card object on
+// every get, so bytes held on the object would never be found again
+public class TokimonCardResponseCache {
+    private static final ObjectWriter cardWriter = new ObjectMapper().writerFor(TokimonCard.class);
+
+    private final TokimonCardList tokimonCardList;
+    private volatile Listing listing;
+    // tid -> the json of that card at one version. Replaced with only the listed cards every time the listing
+    // is rebuilt, so deleted cards don't pile up
+    private volatile Map<Long, CardJson> cardJson = new ConcurrentHashMap<>();
+
+    // the listing's json and the ETag of the store version it was built from
+    public record Listing(String etag, byte[] json) {}
+
+    private record CardJson(long version, byte[] json) {}
+
+    public TokimonCardResponseCache(TokimonCardList tokimonCardList) {
+        this.tokimonCardList = tokimonCardList;
+    }
+
+    public String getListingEtag() {
+        return etag(tokimonCardList.getVersion());
+    }
+
+    public String getCardEtag(TokimonCard tokimonCard) {
+        return etag(tokimonCard.getVersion());
+    }
+
+    private String etag(long version) {
+        return "\"" + tokimonCardList.getEpoch() + "-" + version + "\"";
+    }
+
+    // The cached listing, rebuilt if a card changed since it was made.
+    // The version is read before the cards, so if a change lands while the listing is being built the
+    // bytes may be newer than their ETag, never older. The next request sees the new version and rebuilds
+    public Listing getListing() {
+        long version = tokimonCardList.getVersion();
+        Listing cached = listing;
+        String etag = etag(version);
+        if (cached != null && cached.etag().equals(etag)){
+            return cached;
+        }
+        List<TokimonCard> tokimonCards = tokimonCardList.getTokimonCards();
+        Map<Long, CardJson> previous = cardJson;
+        Map<Long, CardJson> listed = new ConcurrentHashMap<>(Math.max(16, tokimonCards.size() * 4 / 3));
+        ByteArrayOutputStream json = new ByteArrayOutputStream(Math.max(64, tokimonCards.size() * 128));
+        json.write('[');
+        for (int i = 0; i < tokimonCards.size(); i++) {
+            if (i > 0){
+                json.write(',');
+            }
+            json.writeBytes(getCardJson(tokimonCards.get(i), previous, listed));
+        }
+        json.write(']');
+        cardJson = listed;
+        Listing rebuilt = new Listing(etag, json.toByteArray());
+        listing = rebuilt;
+        return rebuilt;
+    }
+
+    public byte[] getCardJson(TokimonCard tokimonCard) {
+        Map<Long, CardJson> cached = cardJson;
+        // cards fetched one at a time and deleted since the last listing would otherwise stay here for good
+        if (cached.size() > 2 * tokimonCardList.size() + 64){
+            cached.clear();
+        }
+        return getCardJson(tokimonCard, cached, cached);
+    }
+
+    // the card's bytes from cached if they are of its version, otherwise serialized. Either way kept in keep
+    private static byte[] getCardJson(TokimonCard tokimonCard, Map<Long, CardJson> cached, Map<Long, CardJson> keep) {
+        CardJson json = cached.get(tokimonCard.getTid());
+        if (json == null || json.version() != tokimonCard.getVersion()){
+            try {
+                json = new CardJson(tokimonCard.getVersion(), cardWriter.writeValueAsBytes(tokimonCard));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            keep.put(tokimonCard.getTid(), json);
+        } else if (keep != cached){
+            keep.put(tokimonCard.getTid(), json);
+        }
+        return json.json();
+    }
+}
@@ -0,0 +1,300 @@
+package ca.cmpt213.model;
+
+import ca.cmpt213.exception.InvalidCardQueryException;
+import ca.cmpt213.model.TokimonCardQuery.SortField;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// An analytical query over every card, the body of POST /api/tokimon/query:
+//   where     filters on any card field, a card has to pass all of them (see Where)
+//   select    the fields returned for each card: card fields, or expressions like the ones orderBy takes.
+//             Every card field if left out
+//   orderBy   a numeric field, or one divided by another like attackPoints/healthPoints. tid if left out.
+//             A card with 0 in the divisor sorts above every other card
+//   order     asc or desc, asc if left out. Cards with the same value are in tid order
+//   limit     how many cards to return, per group when grouped
+//   groupBy   elementType for counts, point ranges and the best cards of each element type, or nothing
+// example, the 100 FIRE and DRAGON cards of rarity 7 and up with the most attack per health point:
+//   {"where":{"elementType":["FIRE","DRAGON"],"rarity":{"min":7}},"orderBy":"attackPoints/healthPoints","order":"desc","limit":100}
+public class TokimonCardScan {
+    public static final String GROUP_BY_ELEMENT_TYPE = "elementType";
+    // in the order a card's json has them
+    private static final List<String> CARD_FIELDS = List.of("tid", "name", "elementType", "rarity", "imageName",
+            "healthPoints", "attackPoints");
+
+    // bounds on a numeric field, both inclusive, either may be left out
+    public record Range(Long min, Long max) {
+        boolean contains(long value) {
+            return (min == null || value >= min) && (max == null || value <= max);
+        }
+    }
+
+    // filters on the card fields, the ones left out let every card through
+    public static class Where {
+        private Set<TokimonCard.ElementType> elementType; // any of these
+        private String name; // part of the name, in any case
+        private String imageName; // exactly this image
+        private Range tid;
+        private Range rarity;
+        private Range healthPoints;
+        private Range attackPoints;
+
+        public Set<TokimonCard.ElementType> getElementType() {
+            return elementType;
+        }
+
+        public void setElementType(Set<TokimonCard.ElementType> elementType) {
+            this.elementType = elementType;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getImageName() {
+            return imageName;
+        }
+
+        public void setImageName(String imageName) {
+            this.imageName = imageName;
+        }
+
+        public Range getTid() {
+            return tid;
+        }
+
+        public void setTid(Range tid) {
+            this.tid = tid;
+        }
+
+        public Range getRarity() {
+            return rarity;
+        }
+
+        public void setRarity(Range rarity) {
+            this.rarity = rarity;
+        }
+
+        public Range getHealthPoints() {
+            return healthPoints;
+        }
+
+        public void setHealthPoints(Range healthPoints) {
+            this.healthPoints = healthPoints;
+        }
+
+        public Range getAttackPoints() {
+            return attackPoints;
+        }
+
+        public void setAttackPoints(Range attackPoints) {
+            this.attackPoints = attackPoints;
+        }
+    }
+
+    // a numeric field, or field / divisor
+    public record Expression(SortField field, SortField divisor) {
+        // "attackPoints" or "attackPoints/healthPoints", field names as in the card json
+        public static Expression parse(String text) {
+            int slash = text.indexOf('/');
+            if (slash < 0){
+                return new Expression(SortField.fromJsonName(text.trim()), null);
+            }
+            return new Expression(SortField.fromJsonName(text.substring(0, slash).trim()),
+                    SortField.fromJsonName(text.substring(slash + 1).trim()));
+        }
+
+        public double valueOf(TokimonCard tokimonCard) {
+            double value = field.valueOf(tokimonCard);
+            return divisor == null ? value : value / divisor.valueOf(tokimonCard);
+        }
+    }
+
+    private Where where = new Where();
+    private List<String> select;
+    private String orderBy = "tid";
+    private String order = "asc";
+    private int limit = TokimonCardQuery.DEFAULT_LIMIT;
+    private String groupBy;
+    // worked out by validate
+    private Expression orderExpression;
+    private Map<String, Expression> selectExpressions;
+
+    // checks everything Jackson can't and parses the expressions, before the scan starts
+    public void validate() {
+        if (limit < 1 || limit > TokimonCardQuery.MAX_LIMIT){
+            throw new InvalidCardQueryException("Limit must be between 1 and " + TokimonCardQuery.MAX_LIMIT);
+        }
+        if (order == null || (!order.equalsIgnoreCase("asc") && !order.equalsIgnoreCase("desc"))){
+            throw new InvalidCardQueryException("Order must be asc or desc, not " + order);
+        }
+        if (groupBy != null && !groupBy.equals(GROUP_BY_ELEMENT_TYPE)){
+            throw new InvalidCardQueryException("Cards can only be grouped by " + GROUP_BY_ELEMENT_TYPE);
+        }
+        if (where == null){
+            where = new Where();
+        }
+        orderExpression = Expression.parse(orderBy == null ? "tid" : orderBy);
+        selectExpressions = new LinkedHashMap<>();
+        if (select != null){
+            for (String field : select){
+                if (field == null || field.isBlank()){
+                    throw new InvalidCardQueryException("Cannot select an empty field");
+                }
+                selectExpressions.put(field, CARD_FIELDS.contains(field) ? null : Expression.parse(field));
+            }
+        }
+    }
+
+    public boolean matches(TokimonCard tokimonCard) {
+        return (where.elementType == null || where.elementType.contains(tokimonCard.getElementType()))
+                && inRange(where.tid, tokimonCard.getTid())
+                && inRange(where.rarity, tokimonCard.getRarity())
+                && inRange(where.healthPoints, tokimonCard.getHealthPoints())
+                && inRange(where.attackPoints, tokimonCard.getAttackPoints())
+                && (where.imageName == null || where.imageName.equals(tokimonCard.getImageName()))
+                && (where.name == null || containsIgnoreCase(tokimonCard.getName(), where.name));
+    }
+
+    private static boolean inRange(Range range, long value) {
+        return range == null || range.contains(value);
+    }
+
+    private static boolean containsIgnoreCase(String text, String part) {
+        if (text == null){
+            return false;
+        }
+        for (int i = 0; i + part.length() <= text.length(); i++){
+            if (text.regionMatches(true, i, part, 0, part.length())){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The filters a CardStorage can check on its own (one element type and the point ranges), so an off-heap
+    // store only decodes cards that can match. Cards it lets through still have to pass matches
+    TokimonCardQuery toStorageQuery() {
+        TokimonCardQuery query = new TokimonCardQuery();
+        if (where.elementType != null && where.elementType.size() == 1){
+            query.setElementType(where.elementType.iterator().next());
+        }
+        if (where.rarity != null){
+            query.setMinRarity(toInt(where.rarity.min()));
+            query.setMaxRarity(toInt(where.rarity.max()));
+        }
+        if (where.healthPoints != null){
+            query.setMinHealthPoints(toInt(where.healthPoints.min()));
+            query.setMaxHealthPoints(toInt(where.healthPoints.max()));
+        }
+        if (where.attackPoints != null){
+            query.setMinAttackPoints(toInt(where.attackPoints.min()));
+            query.setMaxAttackPoints(toInt(where.attackPoints.max()));
+        }
+        return query;
+    }
+
+    // clamped, a bound past the int range lets more cards through, never fewer
+    private static Integer toInt(Long value) {
+        return value == null ? null : Math.clamp(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    // the selected fields of a card, in the order they were asked for
+    Map<String, Object> project(TokimonCard tokimonCard) {
+        if (selectExpressions.isEmpty()){
+            return project(tokimonCard, CARD_FIELDS);
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        selectExpressions.forEach((field, expression) ->
+                row.put(field, expression == null ? fieldValue(tokimonCard, field) : expression.valueOf(tokimonCard)));
+        return row;
+    }
+
+    private static Map<String, Object> project(TokimonCard tokimonCard, List<String> fields) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (String field : fields){
+            row.put(field, fieldValue(tokimonCard, field));
+        }
+        return row;
+    }
+
+    private static Object fieldValue(TokimonCard tokimonCard, String field) {
+        return switch (field) {
+            case "tid" -> tokimonCard.getTid();
+            case "name" -> tokimonCard.getName();
+            case "elementType" -> tokimonCard.getElementType();
+            case "rarity" -> tokimonCard.getRarity();
+            case "imageName" -> tokimonCard.getImageName();
+            case "healthPoints" -> tokimonCard.getHealthPoints();
+            case "attackPoints" -> tokimonCard.getAttackPoints();
+            default -> throw new IllegalArgumentException("Not a card field: " + field);
+        };
+    }
+
+    Expression getOrderExpression() {
+        return orderExpression;
+    }
+
+    boolean isGroupedByElementType() {
+        return GROUP_BY_ELEMENT_TYPE.equals(groupBy);
+    }
+
+    public Where getWhere() {
+        return where;
+    }
+
+    public void setWhere(Where where) {
+        this.where = where;
+    }
+
+    public List<String> getSelect() {
+        return select;
+    }
+
+    public void setSelect(List<String> select) {
+        this.select = select;
+    }
+
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public void setOrderBy(String orderBy) {
+        this.orderBy = orderBy;
+    }
+
+    public String getOrder() {
+        return order;
+    }
+
+    public void setOrder(String order) {
+        this.order = order;
+    }
+
+    public boolean isDescending() {
+        return order.equalsIgnoreCase("desc");
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+}
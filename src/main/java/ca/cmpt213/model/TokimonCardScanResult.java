@@ -0,0 +1,17 @@
+package ca.cmpt213.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+
+// the answer to POST /api/tokimon/query: how many cards matched, then either the best of them (cards) or, when
+// grouped, one Group per element type that had a match (groups). segments is how many parts the store was
+// scanned in at the same time
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TokimonCardScanResult(long matched, List<Map<String, Object>> cards,
+                                    Map<TokimonCard.ElementType, Group> groups, int segments) {
+    // the matching cards of one element type: how many, the range and average of their points, and the best of them
+    public record Group(long count, TokimonCardStats.Range healthPoints, TokimonCardStats.Range attackPoints,
+                        List<Map<String, Object>> cards) {}
+}
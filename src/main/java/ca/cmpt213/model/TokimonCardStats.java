@@ -0,0 +1,98 @@
+package ca.cmpt213.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+// What GET /api/tokimon/stats returns: card counts by element type and rarity, and the range and average
+// of the health and attack points. A snapshot of TokimonCardStatsRollup, it never changes once made
+public class TokimonCardStats {
+    private final long totalCards;
+    private final Map<TokimonCard.ElementType, Long> byElementType;
+    private final Map<Integer, Long> byRarity;
+    private final Range healthPoints;
+    private final Range attackPoints;
+
+    // smallest, largest and average value of one field over all the cards, min and max are null with no cards
+    public record Range(Integer min, Integer max, double average) {}
+
+    // also how a node reads the stats another node sent it
+    @JsonCreator
+    TokimonCardStats(@JsonProperty("totalCards") long totalCards,
+                     @JsonProperty("byElementType") Map<TokimonCard.ElementType, Long> byElementType,
+                     @JsonProperty("byRarity") Map<Integer, Long> byRarity,
+                     @JsonProperty("healthPoints") Range healthPoints,
+                     @JsonProperty("attackPoints") Range attackPoints) {
+        this.totalCards = totalCards;
+        this.byElementType = byElementType;
+        this.byRarity = byRarity;
+        this.healthPoints = healthPoints;
+        this.attackPoints = attackPoints;
+    }
+
+    // The stats of all the cards of several nodes together: counts add up, the ranges widen to cover every node's
+    // and the averages are weighted by each node's number of cards
+    public static TokimonCardStats merge(List<TokimonCardStats> parts) {
+        long totalCards = 0;
+        Map<TokimonCard.ElementType, Long> byElementType = new EnumMap<>(TokimonCard.ElementType.class);
+        for (TokimonCard.ElementType elementType : TokimonCard.ElementType.values()) {
+            byElementType.put(elementType, 0L);
+        }
+        Map<Integer, Long> byRarity = new TreeMap<>();
+        for (TokimonCardStats part : parts) {
+            totalCards += part.totalCards;
+            part.byElementType.forEach((elementType, count) -> byElementType.merge(elementType, count, Long::sum));
+            part.byRarity.forEach((rarity, count) -> byRarity.merge(rarity, count, Long::sum));
+        }
+        return new TokimonCardStats(totalCards,
+                Collections.unmodifiableMap(byElementType),
+                Collections.unmodifiableMap(byRarity),
+                mergeRanges(parts, TokimonCardStats::getHealthPoints, totalCards),
+                mergeRanges(parts, TokimonCardStats::getAttackPoints, totalCards));
+    }
+
+    private static Range mergeRanges(List<TokimonCardStats> parts, Function<TokimonCardStats, Range> field, long totalCards) {
+        Integer min = null;
+        Integer max = null;
+        double sum = 0;
+        for (TokimonCardStats part : parts) {
+            Range range = field.apply(part);
+            if (range.min() != null && (min == null || range.min() < min)) {
+                min = range.min();
+            }
+            if (range.max() != null && (max == null || range.max() > max)) {
+                max = range.max();
+            }
+            sum += range.average() * part.totalCards;
+        }
+        return new Range(min, max, totalCards == 0 ? 0 : sum / totalCards);
+    }
+
+    public long getTotalCards() {
+        return totalCards;
+    }
+
+    // every element type, including the ones with no cards
+    public Map<TokimonCard.ElementType, Long> getByElementType() {
+        return byElementType;
+    }
+
+    // only the rarities some card has, in increasing order
+    public Map<Integer, Long> getByRarity() {
+        return byRarity;
+    }
+
+    public Range getHealthPoints() {
+        return healthPoints;
+    }
+
+    public Range getAttackPoints() {
+        return attackPoints;
+    }
+}
@@ -0,0 +1,86 @@
+package ca.cmpt213.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Running totals behind GET /api/tokimon/stats, kept up to date by TokimonCardList as cards are added, replaced
+// and removed, so reading the stats never walks the cards.
+// Min and max have to survive the card holding them being deleted, so each field keeps a count per distinct
+// value and min/max are the first and last keys. Nothing bounds the points, so their maps hold one entry per
+// distinct value (at most one per card) and a change or a min/max lookup is O(log distinct values), not constant.
+// Rarity is 1 to 10 for new cards, so its map stays tiny and copying it for a snapshot is cheap.
+// Only the commit thread changes the totals, readers take a snapshot. Both synchronize, the lock is held
+// for a few map updates and the commit thread is the only writer, so readers rarely wait
+class TokimonCardStatsRollup {
+    private long totalCards;
+    private final long[] byElementType = new long[TokimonCard.ElementType.values().length];
+    private final TreeMap<Integer, Long> byRarity = new TreeMap<>();
+    private final FieldRollup healthPoints = new FieldRollup();
+    private final FieldRollup attackPoints = new FieldRollup();
+
+    // count per distinct value and the sum of one field
+    private static class FieldRollup {
+        private final TreeMap<Integer, Long> counts = new TreeMap<>();
+        private long sum;
+
+        void add(int value, int delta) {
+            count(counts, value, delta);
+            sum += (long) value * delta;
+        }
+
+        TokimonCardStats.Range snapshot(long totalCards) {
+            if (counts.isEmpty()) {
+                return new TokimonCardStats.Range(null, null, 0);
+            }
+            return new TokimonCardStats.Range(counts.firstKey(), counts.lastKey(), (double) sum / totalCards);
+        }
+    }
+
+    synchronized void add(TokimonCard tokimonCard) {
+        change(tokimonCard, 1);
+    }
+
+    synchronized void remove(TokimonCard tokimonCard) {
+        change(tokimonCard, -1);
+    }
+
+    private void change(TokimonCard tokimonCard, int delta) {
+        totalCards += delta;
+        if (tokimonCard.getElementType() != null) {
+            byElementType[tokimonCard.getElementType().ordinal()] += delta;
+        }
+        count(byRarity, tokimonCard.getRarity(), delta);
+        healthPoints.add(tokimonCard.getHealthPoints(), delta);
+        attackPoints.add(tokimonCard.getAttackPoints(), delta);
+    }
+
+    // adds delta to the count for value, dropping values whose count reaches 0
+    private static void count(TreeMap<Integer, Long> counts, int value, int delta) {
+        counts.merge(value, (long) delta, (count, change) -> count + change == 0 ? null : count + change);
+    }
+
+    synchronized void clear() {
+        totalCards = 0;
+        Arrays.fill(byElementType, 0);
+        byRarity.clear();
+        healthPoints.counts.clear();
+        healthPoints.sum = 0;
+        attackPoints.counts.clear();
+        attackPoints.sum = 0;
+    }
+
+    synchronized TokimonCardStats snapshot() {
+        Map<TokimonCard.ElementType, Long> elementTypes = new EnumMap<>(TokimonCard.ElementType.class);
+        for (TokimonCard.ElementType elementType : TokimonCard.ElementType.values()) {
+            elementTypes.put(elementType, byElementType[elementType.ordinal()]);
+        }
+        return new TokimonCardStats(totalCards,
+                Collections.unmodifiableMap(elementTypes),
+                Collections.unmodifiableMap(new TreeMap<>(byRarity)),
+                healthPoints.snapshot(totalCards),
+                attackPoints.snapshot(totalCards));
+    }
+}
@@ -0,0 +1,188 @@
+package ca.cmpt213.persistence;
+
+import ca.cmpt213.model.TokimonCard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary snapshot of the cards, an alternative to the json array in tokimon.json.
+//
+//   header   magic "TKMN" (int), format version (int), card count (int), string count (int), string table offset (long)
+//   cards    one fixed 28 byte record per card, in tid order:
+//              tid (long), element type ordinal (byte, -1 = none), rarity (byte), 2 unused bytes,
+//              health points (int), attack points (int), name (int), image name (int)
+//            names are indexes into the string table, -1 = null
+//   strings  every distinct name and image name once: length in bytes (int) then the UTF-8 bytes
+//
+// Image names repeat across thousands of cards and are stored once, and numbers take 4 bytes instead of up to
+// 11 characters plus a quoted key, so the file is a fraction of the json's size. Loading maps the file and
+// reads the fields at fixed offsets, there is no text to tokenize or field names to match
+public class BinaryCardSnapshot {
+    private static final int MAGIC = 0x544B4D4E; // "TKMN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 28;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private BinaryCardSnapshot() {}
+
+    // writes the snapshot from the channel's current position, the caller forces and closes it.
+    // The cards are walked twice, so the collection must not change while this runs
+    public static void write(Collection<TokimonCard> tokimonCards, FileChannel channel) throws IOException {
+        // the string table is built first so the records can refer to it by index
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int count = 0;
+        for (TokimonCard tokimonCard : tokimonCards) {
+            addString(tokimonCard.getName(), stringIndexes, strings);
+            addString(tokimonCard.getImageName(), stringIndexes, strings);
+            count++;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        buffer.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putInt(count)
+                .putInt(strings.size())
+                .putLong(HEADER_SIZE + (long) count * RECORD_SIZE);
+
+        for (TokimonCard tokimonCard : tokimonCards) {
+            if (buffer.remaining() < RECORD_SIZE) {
+                flush(buffer, channel);
+            }
+            if (tokimonCard.getRarity() != (byte) tokimonCard.getRarity()) {
+                // the snapshot would read back a different rarity, leave the old snapshot and the log as they are
+                throw new IllegalArgumentException("TokimonCard " + tokimonCard.getTid() + " has rarity "
+                        + tokimonCard.getRarity() + ", which doesn't fit in the snapshot's byte");
+            }
+            TokimonCard.ElementType elementType = tokimonCard.getElementType();
+            buffer.putLong(tokimonCard.getTid())
+                    .put((byte) (elementType == null ? -1 : elementType.ordinal()))
+                    .put((byte) tokimonCard.getRarity())
+                    .putShort((short) 0)
+                    .putInt(tokimonCard.getHealthPoints())
+                    .putInt(tokimonCard.getAttackPoints())
+                    .putInt(indexOf(tokimonCard.getName(), stringIndexes))
+                    .putInt(indexOf(tokimonCard.getImageName(), stringIndexes));
+        }
+
+        for (byte[] string : strings) {
+            if (buffer.remaining() < 4 + string.length) {
+                flush(buffer, channel);
+            }
+            buffer.putInt(string.length);
+            if (string.length > buffer.remaining()) {
+                // a string longer than the whole buffer, write it straight through
+                flush(buffer, channel);
+                ByteBuffer large = ByteBuffer.wrap(string);
+                while (large.hasRemaining()) {
+                    channel.write(large);
+                }
+            } else {
+                buffer.put(string);
+            }
+        }
+        flush(buffer, channel);
+    }
+
+    private static void addString(String value, Map<String, Integer> stringIndexes, List<byte[]> strings) {
+        if (value != null && !stringIndexes.containsKey(value)) {
+            stringIndexes.put(value, strings.size());
+            strings.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static int indexOf(String value, Map<String, Integer> stringIndexes) {
+        return value == null ? -1 : stringIndexes.get(value);
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Reads a snapshot through a memory mapping of the file. Every card is added to tokimonCards by tid.
+    // Throws IOException if the file isn't a complete snapshot in this format
+    public static void read(Path path, Map<Long, TokimonCard> tokimonCards) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(path + " is too short to be a card snapshot");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is larger than a single mapping (2GB)");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != FORMAT_VERSION) {
+                throw new IOException(path + " is not a version " + FORMAT_VERSION + " card snapshot");
+            }
+            int count = map.getInt(8);
+            int stringCount = map.getInt(12);
+            long stringTableOffset = map.getLong(16);
+            if (count < 0 || stringCount < 0 || stringTableOffset != HEADER_SIZE + (long) count * RECORD_SIZE || stringTableOffset > size) {
+                throw new IOException(path + " has a corrupt header");
+            }
+
+            String[] strings = readStrings(map, (int) stringTableOffset, stringCount, path);
+            TokimonCard.ElementType[] elementTypes = TokimonCard.ElementType.values();
+            for (int i = 0; i < count; i++) {
+                int record = HEADER_SIZE + i * RECORD_SIZE;
+                byte elementType = map.get(record + 8);
+                TokimonCard tokimonCard = new TokimonCard(
+                        map.getLong(record),
+                        stringAt(strings, map.getInt(record + 20)),
+                        elementType < 0 ? null : elementTypes[elementType],
+                        map.get(record + 9),
+                        stringAt(strings, map.getInt(record + 24)),
+                        map.getInt(record + 12),
+                        map.getInt(record + 16));
+                tokimonCards.put(tokimonCard.getTid(), tokimonCard);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException(path + " is truncated", e);
+        }
+    }
+
+    private static String[] readStrings(MappedByteBuffer map, int offset, int stringCount, Path path) throws IOException {
+        String[] strings = new String[stringCount];
+        int position = offset;
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < stringCount; i++) {
+            int length = map.getInt(position);
+            position += 4;
+            if (length < 0 || position + length > map.limit()) {
+                throw new IOException(path + " has a corrupt string table");
+            }
+            if (length > bytes.length) {
+                bytes = new byte[length];
+            }
+            map.get(position, bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+        return strings;
+    }
+
+    private static String stringAt(String[] strings, int index) throws IOException {
+        if (index == -1) {
+            return null;
+        }
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("string index " + index + " is out of range");
+        }
+        return strings[index];
+    }
+}
@@ -0,0 +1,232 @@
+package ca.cmpt213.persistence;
+
+import ca.cmpt213.exception.TokimonCardPersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Single-writer commit pipeline for card changes.
+// Request threads submit a change and get a future back. One writer thread drains whatever changes are
+// waiting (up to maxBatchSize), applies them one after another, persists the whole batch once through
+// commitBatch (one fsync instead of one per request) and only then completes the callers' futures.
+// Because only the writer thread ever applies changes, two requests can no longer overwrite each other.
+// With ASYNC or PERIODIC durability the futures are completed as soon as the batch has been applied and
+// commitBatch has run, and forcing the log to disk (flush) moves to a second flusher thread: after every
+// batch for ASYNC, every flush interval for PERIODIC. The writer never waits for an fsync then, it goes
+// straight on to the next batch while the flusher forces the last one.
+// With SYNC durability a batch that can't be committed stops the pipeline: its changes were applied (and may
+// have been read) but never acknowledged, so no later change may build on them. Every change queued after it,
+// and every change submitted from then on, fails
+public class CardCommitPipeline implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(CardCommitPipeline.class);
+
+    private final BlockingQueue<PendingChange<?>> queue = new LinkedBlockingQueue<>();
+    private final int maxBatchSize;
+    private final Runnable commitBatch; // persists everything applied in the batch, runs once per batch
+    private final CardDurabilityMode durability;
+    private final Runnable flush; // forces what commitBatch wrote, run by the flusher unless the mode is SYNC
+    private final long flushIntervalMillis;
+    private final Semaphore flushRequests = new Semaphore(0); // ASYNC: released by the writer after each batch
+    private final Thread writer;
+    private final Thread flusher;
+    private volatile boolean running = true;
+    // what committing a batch failed with in SYNC mode, once set nothing more is applied
+    private volatile RuntimeException failure;
+
+    public CardCommitPipeline(String name, int maxBatchSize, Runnable commitBatch) {
+        this(name, maxBatchSize, false, commitBatch);
+    }
+
+    public CardCommitPipeline(String name, int maxBatchSize, boolean virtualThread, Runnable commitBatch) {
+        this(name, maxBatchSize, virtualThread, CardDurabilityMode.SYNC, 0, commitBatch, null);
+    }
+
+    // virtualThread: run the writer (and flusher) on a virtual thread, so its blocking log I/O doesn't hold on to
+    // a platform thread. flush and flushIntervalMillis are only used by ASYNC and PERIODIC
+    public CardCommitPipeline(String name, int maxBatchSize, boolean virtualThread, CardDurabilityMode durability,
+                              long flushIntervalMillis, Runnable commitBatch, Runnable flush) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.commitBatch = commitBatch;
+        this.durability = durability;
+        this.flush = flush;
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        Thread.Builder threads = virtualThread ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+        this.writer = threads.name(name).start(this::run);
+        this.flusher = durability == CardDurabilityMode.SYNC ? null : threads.name(name + "-flush").start(this::flushUntilClosed);
+    }
+
+    // queues a change to be applied on the writer thread, the future completes once the change is persisted
+    public <T> CompletableFuture<T> submit(Supplier<T> change) {
+        PendingChange<T> pendingChange = new PendingChange<>(change);
+        if (!running) {
+            pendingChange.future.completeExceptionally(new IllegalStateException("Commit pipeline is closed"));
+            return pendingChange.future;
+        }
+        if (failure != null) {
+            pendingChange.future.completeExceptionally(stopped());
+            return pendingChange.future;
+        }
+        queue.add(pendingChange);
+        return pendingChange.future;
+    }
+
+    // number of changes waiting for the writer thread
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    // what stopped the pipeline, null while it takes changes
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    private TokimonCardPersistenceException stopped() {
+        return new TokimonCardPersistenceException("Changes are refused since a batch could not be committed", failure);
+    }
+
+    private void run() {
+        List<PendingChange<?>> batch = new ArrayList<>(maxBatchSize);
+        // keep going after close() until everything that was queued has been committed
+        while (running || !queue.isEmpty()) {
+            PendingChange<?> first;
+            try {
+                // the writer is never interrupted (that would close the log's FileChannel), so poll to notice close()
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, maxBatchSize - 1);
+            if (failure != null) {
+                // queued behind the batch that failed, or raced with it in submit
+                for (PendingChange<?> pendingChange : batch) {
+                    pendingChange.future.completeExceptionally(stopped());
+                }
+            } else {
+                commit(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(List<PendingChange<?>> batch) {
+        for (PendingChange<?> pendingChange : batch) {
+            pendingChange.apply();
+        }
+
+        if (durability != CardDurabilityMode.SYNC) {
+            try {
+                commitBatch.run();
+            } catch (RuntimeException e) {
+                for (PendingChange<?> pendingChange : batch) {
+                    pendingChange.error = e;
+                }
+            }
+            for (PendingChange<?> pendingChange : batch) {
+                pendingChange.complete();
+            }
+            if (durability == CardDurabilityMode.ASYNC) {
+                // one permit at most, batches committed while the flusher is busy share its next force
+                flushRequests.drainPermits();
+                flushRequests.release();
+            }
+            return;
+        }
+
+        try {
+            commitBatch.run();
+        } catch (RuntimeException e) {
+            // nothing in this batch is known to be on disk, so none of it can be acknowledged, and nothing after it
+            // can be applied on top of it
+            failure = e;
+            log.error("Could not commit a batch of {} changes, refusing every change from now on", batch.size(), e);
+            for (PendingChange<?> pendingChange : batch) {
+                pendingChange.error = e;
+            }
+        }
+
+        for (PendingChange<?> pendingChange : batch) {
+            pendingChange.complete();
+        }
+    }
+
+    private void flushUntilClosed() {
+        while (running) {
+            boolean requested;
+            try {
+                // like the writer, poll so close() is noticed
+                requested = flushRequests.tryAcquire(durability == CardDurabilityMode.PERIODIC ? flushIntervalMillis : 100,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (requested || durability == CardDurabilityMode.PERIODIC) {
+                try {
+                    flush.run();
+                } catch (RuntimeException e) {
+                    // the changes were acknowledged already, all that can be done is say so
+                    log.error("Could not force acknowledged changes to disk", e);
+                }
+            }
+        }
+    }
+
+    // stops accepting changes, commits everything already queued and waits for the writer (and flusher) to finish.
+    // Whatever the flusher hadn't forced yet is left to the owner, which forces the log when it closes it
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+            if (flusher != null) {
+                flusher.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // a change that raced with close() and was queued after the writer stopped is rejected
+        PendingChange<?> leftover;
+        while ((leftover = queue.poll()) != null) {
+            leftover.future.completeExceptionally(new IllegalStateException("Commit pipeline is closed"));
+        }
+    }
+
+    private static class PendingChange<T> {
+        private final Supplier<T> change;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        private RuntimeException error;
+
+        PendingChange(Supplier<T> change) {
+            this.change = change;
+        }
+
+        void apply() {
+            try {
+                result = change.get();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+}
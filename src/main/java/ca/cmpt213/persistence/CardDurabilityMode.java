@@ -0,0 +1,24 @@
+package ca.cmpt213.persistence;
+
+import java.util.Locale;
+
+// When a change is acknowledged, relative to the log being forced to disk.
+// SYNC acknowledges a change only once its batch is committed, fsynced when syncEvery says so (the default,
+// an acknowledged change survives a crash). ASYNC acknowledges as soon as the change is applied and appended
+// to the log, a flusher thread forces it right after. PERIODIC also acknowledges on append, but the flusher
+// only forces the log once per flush interval. With either, a crash (not a clean shutdown) can lose the
+// changes acknowledged since the last force. In every mode the change is visible to reads when it is acknowledged
+public enum CardDurabilityMode {
+    SYNC,
+    ASYNC,
+    PERIODIC;
+
+    // the property value (sync, async or periodic), in any case
+    public static CardDurabilityMode fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown durability mode " + name + ", expected sync, async or periodic");
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ca.cmpt213.persistence;
+
+// Sees every record the write-ahead log appends, in log order, once the record has been forced to disk (or once
+// its batch is committed, if the log is never forced). That happens on the commit thread, or on the pipeline's
+// flusher thread in async and periodic mode, so it must not block. json is the record exactly as it was written to
+// the log, without the newline
+public interface CardLogListener {
+    void appended(long seq, byte[] json);
+
+    // the cards were replaced without going through the log (reset to the sample cards), the records that
+    // follow don't build on the ones before
+    void reset();
+}
@@ -0,0 +1,82 @@
+package ca.cmpt213.persistence;
+
+import ca.cmpt213.model.TokimonCard;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// One line of the write-ahead log. Each record is written as a single json object followed by a newline
+// example: {"seq":7,"op":"UPDATE","tid":2,"card":{"tid":2,"name":"Tokiurtle",...}}
+// A BATCH record holds several changes that are applied together or not at all: being one line, a crash
+// can't leave half of it in the log. Its records have no seq of their own
+// example: {"seq":8,"op":"BATCH","tid":0,"card":null,"records":[{"seq":0,"op":"DELETE","tid":3,"card":null},...]}
+public class CardLogRecord {
+    public enum Operation {
+        ADD,
+        UPDATE,
+        DELETE,
+        BATCH
+    }
+
+    private long seq; // position of the record in the log, strictly increasing
+    private Operation op;
+    private long tid; // tid the operation applies to (the old tid when an update changes it)
+    private TokimonCard card; // full card after the change, null for deletes
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<CardLogRecord> records; // the changes of a BATCH, in order
+
+    public CardLogRecord() {}
+
+    public CardLogRecord(long seq, Operation op, long tid, TokimonCard card) {
+        this.seq = seq;
+        this.op = op;
+        this.tid = tid;
+        this.card = card;
+    }
+
+    public CardLogRecord(long seq, List<CardLogRecord> records) {
+        this.seq = seq;
+        this.op = Operation.BATCH;
+        this.records = records;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public Operation getOp() {
+        return op;
+    }
+
+    public void setOp(Operation op) {
+        this.op = op;
+    }
+
+    public long getTid() {
+        return tid;
+    }
+
+    public void setTid(long tid) {
+        this.tid = tid;
+    }
+
+    public TokimonCard getCard() {
+        return card;
+    }
+
+    public void setCard(TokimonCard card) {
+        this.card = card;
+    }
+
+    public List<CardLogRecord> getRecords() {
+        return records;
+    }
+
+    public void setRecords(List<CardLogRecord> records) {
+        this.records = records;
+    }
+}
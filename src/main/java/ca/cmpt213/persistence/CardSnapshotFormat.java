@@ -0,0 +1,20 @@
+package ca.cmpt213.persistence;
+
+import java.util.Locale;
+
+// How the card snapshot is written when the log is compacted.
+// JSON is the readable tokimon.json array, BINARY is the compact memory-mapped format in BinaryCardSnapshot
+// and lives next to it as tokimon.bin
+public enum CardSnapshotFormat {
+    JSON,
+    BINARY;
+
+    // the property value (json or binary), in any case
+    public static CardSnapshotFormat fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown snapshot format " + name + ", expected json or binary");
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package ca.cmpt213.persistence;
+
+import ca.cmpt213.exception.TokimonCardPersistenceException;
+import ca.cmpt213.model.TokimonCard;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+// Persists the card store as a snapshot file (the usual tokimon.json array) plus an append-only log of
+// every add/update/delete applied since that snapshot was taken.
+// A single change only appends one small json line to the log, so writes no longer rewrite the whole file.
+// Once the log grows past compactEvery records the current cards are written to a new snapshot and the log is emptied.
+// On startup the snapshot is read and the log is replayed on top of it. Only the last line of the log can have been
+// torn by a crash, a record that can't be read anywhere before it fails recovery instead of being cut off.
+// The snapshot is either json (tokimon.json) or the binary format in BinaryCardSnapshot (tokimon.bin). If only the
+// other format's file exists it is read and rewritten in the configured format straight away, so switching
+// tokimon.store.snapshot-format converts the saved cards the next time the server starts.
+public class CardWriteAheadLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(CardWriteAheadLog.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path snapshotPath; // the snapshot in the configured format
+    private final Path otherSnapshotPath; // where a snapshot in the other format would be
+    private final CardSnapshotFormat snapshotFormat;
+    private final Path logPath;
+    private final int syncEvery; // fsync once this many records are waiting at the end of a batch, 1 = every batch, 0 = leave it to the OS
+    private final int compactEvery; // write a new snapshot after this many records
+
+    private FileChannel logChannel;
+    // seq of the last record written, and of the last one known to be on disk. Only the thread appending
+    // writes seq, but sync() may run on another thread (see CardCommitPipeline), so both are volatile
+    private volatile long seq;
+    private volatile long syncedSeq;
+    private int recordsSinceCompaction;
+    // set if an append failed and what it wrote couldn't be cut off again, every append after it is refused
+    private IOException broken;
+    // told about every record once it is on disk, for replication. Set before the log is shared
+    private CardLogListener listener;
+    // records appended but not handed to the listener yet, oldest first. Guarded by itself: the flusher's
+    // sync() hands them over from its own thread
+    private final ArrayDeque<PendingRecord> unforwarded = new ArrayDeque<>();
+
+    private record PendingRecord(long seq, byte[] json) {}
+
+    public CardWriteAheadLog(String snapshotFile, int syncEvery, int compactEvery) {
+        this(snapshotFile, syncEvery, compactEvery, CardSnapshotFormat.JSON);
+    }
+
+    // snapshotFile is the json snapshot's path, the binary one is the same path ending in .bin instead of .json
+    public CardWriteAheadLog(String snapshotFile, int syncEvery, int compactEvery, CardSnapshotFormat snapshotFormat) {
+        Path jsonPath = Paths.get(snapshotFile);
+        Path binaryPath = Paths.get(snapshotFile.endsWith(".json")
+                ? snapshotFile.substring(0, snapshotFile.length() - ".json".length()) + ".bin"
+                : snapshotFile + ".bin");
+        this.snapshotFormat = snapshotFormat;
+        this.snapshotPath = snapshotFormat == CardSnapshotFormat.BINARY ? binaryPath : jsonPath;
+        this.otherSnapshotPath = snapshotFormat == CardSnapshotFormat.BINARY ? jsonPath : binaryPath;
+        this.logPath = Paths.get(snapshotFile + ".wal");
+        this.syncEvery = syncEvery;
+        this.compactEvery = compactEvery;
+    }
+
+    public void setListener(CardLogListener listener) {
+        this.listener = listener;
+    }
+
+    // seq of the last record appended, only meaningful on the thread appending
+    public long getSeq() {
+        return seq;
+    }
+
+    // Reads the snapshot, replays the log on top of it and opens the log for appending.
+    // The returned map is keyed by tid and keeps the order the cards were added in
+    public Map<Long, TokimonCard> recover() {
+        Map<Long, TokimonCard> tokimonCards = new LinkedHashMap<>();
+        boolean convert = false;
+        try {
+            if (Files.exists(snapshotPath) && Files.size(snapshotPath) > 0) {
+                readSnapshot(snapshotPath, snapshotFormat, tokimonCards);
+            } else if (Files.exists(otherSnapshotPath) && Files.size(otherSnapshotPath) > 0) {
+                CardSnapshotFormat otherFormat = snapshotFormat == CardSnapshotFormat.BINARY ? CardSnapshotFormat.JSON : CardSnapshotFormat.BINARY;
+                readSnapshot(otherSnapshotPath, otherFormat, tokimonCards);
+                convert = true;
+            }
+
+            long validLength = 0;
+            if (Files.exists(logPath)) {
+                validLength = replay(Files.readAllBytes(logPath), tokimonCards);
+            }
+
+            logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // drop a half written record left behind by a crash so new records don't get appended after garbage
+            logChannel.truncate(validLength);
+            logChannel.position(validLength);
+            syncedSeq = seq;
+        } catch (IOException e) {
+            throw new TokimonCardPersistenceException("Could not recover tokimon cards from " + snapshotPath, e);
+        }
+        if (convert) {
+            compact(tokimonCards.values());
+        }
+        return tokimonCards;
+    }
+
+    private static void readSnapshot(Path path, CardSnapshotFormat format, Map<Long, TokimonCard> tokimonCards) throws IOException {
+        if (format == CardSnapshotFormat.BINARY) {
+            BinaryCardSnapshot.read(path, tokimonCards);
+            return;
+        }
+        List<TokimonCard> snapshot = mapper.readValue(path.toFile(), new TypeReference<List<TokimonCard>>(){});
+        for (TokimonCard tokimonCard : snapshot) {
+            tokimonCards.put(tokimonCard.getTid(), tokimonCard);
+        }
+    }
+
+    // applies every complete record in the log to the map and returns how many bytes of the log were valid
+    private long replay(byte[] log, Map<Long, TokimonCard> tokimonCards) {
+        int start = 0;
+        for (int i = 0; i < log.length; i++) {
+            if (log[i] != '\n') {
+                continue;
+            }
+            CardLogRecord record;
+            try {
+                record = mapper.readValue(log, start, i - start, CardLogRecord.class);
+            } catch (IOException e) {
+                if (i + 1 < log.length) {
+                    // not torn by a crash, there are records after it. Cutting the log here would drop them too
+                    throw new TokimonCardPersistenceException("Corrupt record at byte " + start + " of " + logPath
+                            + " with more records after it", e);
+                }
+                // the last line can only be the torn tail of the log, stop here
+                return start;
+            }
+            apply(record, tokimonCards);
+            seq = record.getSeq();
+            recordsSinceCompaction++;
+            start = i + 1;
+        }
+        // anything after the last newline was never completely written
+        return start;
+    }
+
+    private void apply(CardLogRecord record, Map<Long, TokimonCard> tokimonCards) {
+        switch (record.getOp()) {
+            case ADD -> tokimonCards.put(record.getCard().getTid(), record.getCard());
+            case UPDATE -> {
+                if (record.getCard().getTid() != record.getTid()) {
+                    tokimonCards.remove(record.getTid());
+                }
+                tokimonCards.put(record.getCard().getTid(), record.getCard());
+            }
+            case DELETE -> tokimonCards.remove(record.getTid());
+            case BATCH -> {
+                for (CardLogRecord batched : record.getRecords()) {
+                    apply(batched, tokimonCards);
+                }
+            }
+        }
+    }
+
+    public void append(CardLogRecord.Operation op, long tid, TokimonCard card) {
+        write(new CardLogRecord(seq + 1, op, tid, card));
+        recordsSinceCompaction++;
+    }
+
+    // appends the changes as a single BATCH record, see CardLogRecord. The records' own seq is ignored
+    public void appendBatch(List<CardLogRecord> records) {
+        write(new CardLogRecord(seq + 1, records));
+        recordsSinceCompaction += records.size();
+    }
+
+    // Appends the record as one line. If the write fails part way the log is cut back to where the record started,
+    // so the next record still starts a line of its own
+    private void write(CardLogRecord record) {
+        if (broken != null) {
+            throw new TokimonCardPersistenceException("Could not append to " + logPath + ", an earlier append left part of a record in it", broken);
+        }
+        long start = -1;
+        try {
+            byte[] json = mapper.writeValueAsBytes(record);
+            ByteBuffer buffer = ByteBuffer.allocate(json.length + 1);
+            buffer.put(json).put((byte) '\n').flip();
+            start = logChannel.position();
+            while (buffer.hasRemaining()) {
+                logChannel.write(buffer);
+            }
+            seq = record.getSeq();
+            if (listener != null) {
+                // a follower must not get a record a crash could still take back, it waits for the force
+                synchronized (unforwarded) {
+                    unforwarded.add(new PendingRecord(record.getSeq(), json));
+                }
+            }
+        } catch (IOException e) {
+            if (start >= 0) {
+                cutBack(start, e);
+            }
+            throw new TokimonCardPersistenceException("Could not append to " + logPath, e);
+        }
+    }
+
+    // drops whatever part of a failed record made it into the log
+    private void cutBack(long position, IOException failure) {
+        try {
+            logChannel.truncate(position);
+            logChannel.position(position);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+            broken = failure;
+            log.error("Could not cut the failed record off {}, refusing further appends", logPath, e);
+        }
+    }
+
+    // Called once after a batch of records has been appended (group commit).
+    // fsyncs the log if at least syncEvery records are waiting, so a whole batch costs a single fsync
+    public void commit() {
+        if (syncEvery > 0 && seq - syncedSeq >= syncEvery) {
+            sync();
+        } else if (syncEvery == 0) {
+            // the log is never forced, the listener hears about the batch once it's written
+            forwardUpTo(seq);
+        }
+    }
+
+    // Forces every appended record to disk, nothing to do if none were appended since the last time.
+    // Safe to call from another thread while records are appended, a record appended during the force
+    // may not be covered by it and is forced the next time
+    public void sync() {
+        long appended = seq;
+        if (appended == syncedSeq) {
+            return;
+        }
+        try {
+            logChannel.force(false);
+            syncedSeq = appended;
+        } catch (IOException e) {
+            throw new TokimonCardPersistenceException("Could not sync " + logPath, e);
+        }
+        forwardUpTo(appended);
+    }
+
+    // hands the listener every waiting record up to and including seq upTo, in log order
+    private void forwardUpTo(long upTo) {
+        if (listener == null) {
+            return;
+        }
+        synchronized (unforwarded) {
+            while (!unforwarded.isEmpty() && unforwarded.peek().seq() <= upTo) {
+                PendingRecord record = unforwarded.poll();
+                listener.appended(record.seq(), record.json());
+            }
+        }
+    }
+
+    // Forces and forwards every record appended so far, then runs then with the last one's seq while no other
+    // record can be forwarded: a listener that starts following in then gets every later record exactly once.
+    // On the thread appending
+    public void syncAndThen(LongConsumer then) {
+        sync();
+        synchronized (unforwarded) {
+            forwardUpTo(seq);
+            then.accept(seq);
+        }
+    }
+
+    // The cards are about to be replaced without going through the log (reset to the sample cards). Records the
+    // listener wasn't told about yet don't matter to it anymore, and it is told to start over
+    public void cardsReplaced() {
+        if (listener == null) {
+            return;
+        }
+        synchronized (unforwarded) {
+            unforwarded.clear();
+            listener.reset();
+        }
+    }
+
+    public boolean needsCompaction() {
+        return recordsSinceCompaction >= compactEvery;
+    }
+
+    // Writes the cards to a new snapshot and empties the log.
+    // The snapshot is written to a temp file and moved over the old one so a crash never leaves a half written snapshot
+    public void compact(Collection<TokimonCard> tokimonCards) {
+        Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (snapshotFormat == CardSnapshotFormat.BINARY) {
+                BinaryCardSnapshot.write(tokimonCards, tempChannel);
+            } else {
+                // Jackson would close the channel when it finishes writing, keep it open so it can be forced below
+                mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                        .writeValue(Channels.newOutputStream(tempChannel), tokimonCards);
+            }
+            tempChannel.force(true);
+        } catch (IOException e) {
+            throw new TokimonCardPersistenceException("Could not write snapshot " + tempPath, e);
+        }
+
+        try {
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // an old snapshot in the other format is out of date now, and would be read if the format is switched back
+            Files.deleteIfExists(otherSnapshotPath);
+            // the rename is only sure to survive a crash once the directory is on disk
+            forceDirectory(snapshotPath.toAbsolutePath().getParent());
+            // only now that the snapshot holds every change can the log be emptied
+            logChannel.truncate(0);
+            logChannel.position(0);
+            logChannel.force(true);
+            syncedSeq = seq;
+            recordsSinceCompaction = 0;
+        } catch (IOException e) {
+            throw new TokimonCardPersistenceException("Could not compact " + logPath, e);
+        }
+        // the snapshot holds them now
+        forwardUpTo(seq);
+    }
+
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (logChannel == null) {
+            return;
+        }
+        try {
+            logChannel.force(false);
+            logChannel.close();
+        } catch (IOException e) {
+            log.error("Could not close {}", logPath, e);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ca.cmpt213.replication;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.persistence.CardLogRecord;
+import ca.cmpt213.replication.ReplicationProtocol.Heartbeat;
+import ca.cmpt213.replication.ReplicationProtocol.SnapshotHeader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Keeps a replica TokimonCardList in step with a leader (see CardReplicationLeader and ReplicationProtocol).
+// Connects, replaces the replica's cards with the leader's snapshot, then applies the leader's log records
+// as they come, a burst of records at a time so the replica's commit thread isn't woken once per record.
+// If the connection drops it reconnects and starts over from a new snapshot, the replica keeps serving the
+// cards it has meanwhile. Lag is measured against the leader's heartbeats:
+//   lag records: how many records the leader had appended that this replica hadn't applied yet
+//   lag seconds: how old the leader's state this replica has applied is, by the leader's clock (followers on
+//                the same machine share it, elsewhere clock skew adds to it)
+public class CardReplicationFollower implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(CardReplicationFollower.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectReader cardReader = mapper.readerFor(TokimonCard.class);
+    private static final ObjectReader recordReader = mapper.readerFor(CardLogRecord.class);
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    // most records applied with one trip through the replica's commit pipeline
+    private static final int MAX_RECORDS_PER_APPLY = 1024;
+
+    private final TokimonCardList replica;
+    private final String host;
+    private final int port;
+    private Thread thread;
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private volatile boolean connected;
+    // the leader's last record as of its latest heartbeat or record, and when (leader clock) the replica had
+    // last applied everything the leader had
+    private volatile long leaderSeq;
+    private volatile long caughtUpMillis;
+    private volatile long snapshots;
+
+    public CardReplicationFollower(TokimonCardList replica, String host, int port) {
+        if (!replica.isReplica()){
+            throw new IllegalArgumentException("A follower needs a store opened as a replica");
+        }
+        this.replica = replica;
+        this.host = host;
+        this.port = port;
+    }
+
+    public void start() {
+        thread = Thread.ofVirtual().name("tokimon-follower").start(this::run);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getLagRecords() {
+        return Math.max(0, leaderSeq - replica.getReplicatedSeq());
+    }
+
+    // 0 until the first snapshot, then the time since the replica last had everything the leader had
+    public double getLagSeconds() {
+        if (caughtUpMillis == 0){
+            return 0;
+        }
+        if (getLagRecords() == 0 && connected){
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - caughtUpMillis) / 1000.0;
+    }
+
+    // how many snapshots the replica was loaded from: 1, plus one per reconnect or reset of the leader
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    private void run() {
+        while (!closed){
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                connected = true;
+                log.info("Connected to replication leader {}:{}", host, port);
+                follow(connection.getInputStream());
+            } catch (IOException e){
+                if (!closed){
+                    log.warn("Lost replication leader {}:{}: {}", host, port, e.toString());
+                }
+            } catch (RuntimeException e){
+                log.error("Stopped applying the leader's changes, reconnecting", e);
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e){
+                return;
+            }
+        }
+    }
+
+    private void follow(InputStream in) throws IOException {
+        FrameReader frames = new FrameReader(in);
+        List<CardLogRecord> records = new ArrayList<>();
+        while (!closed){
+            char type = frames.next();
+            switch (type){
+                case ReplicationProtocol.SNAPSHOT -> readSnapshot(frames);
+                case ReplicationProtocol.RECORD -> {
+                    records.add(recordReader.readValue(frames.buffer, 2, frames.length - 2));
+                    // everything already received goes to the replica together
+                    while (records.size() < MAX_RECORDS_PER_APPLY && frames.hasBuffered()
+                            && frames.peek() == ReplicationProtocol.RECORD){
+                        frames.next();
+                        records.add(recordReader.readValue(frames.buffer, 2, frames.length - 2));
+                    }
+                    replica.applyReplicated(records);
+                    leaderSeq = Math.max(leaderSeq, records.getLast().getSeq());
+                    records.clear();
+                }
+                case ReplicationProtocol.HEARTBEAT -> {
+                    Heartbeat heartbeat = mapper.readValue(frames.buffer, 2, frames.length - 2, Heartbeat.class);
+                    leaderSeq = Math.max(leaderSeq, heartbeat.seq());
+                    if (replica.getReplicatedSeq() >= heartbeat.seq()){
+                        caughtUpMillis = heartbeat.time();
+                    }
+                }
+                default -> throw new IOException("Unexpected replication frame " + type);
+            }
+        }
+    }
+
+    private void readSnapshot(FrameReader frames) throws IOException {
+        SnapshotHeader header = mapper.readValue(frames.buffer, 2, frames.length - 2, SnapshotHeader.class);
+        long start = System.nanoTime();
+        List<TokimonCard> cards = new ArrayList<>((int) Math.min(header.cards(), 1 << 20));
+        for (long i = 0; i < header.cards(); i++){
+            if (frames.next() != ReplicationProtocol.CARD){
+                throw new IOException("Snapshot ended after " + i + " of " + header.cards() + " cards");
+            }
+            cards.add(cardReader.readValue(frames.buffer, 2, frames.length - 2));
+        }
+        replica.replaceReplicated(cards, header.seq());
+        // the leader's seq starts over if it restarted
+        leaderSeq = header.seq();
+        caughtUpMillis = System.currentTimeMillis();
+        snapshots++;
+        log.info("Loaded {} cards from the replication leader as of log record {} in {} ms", cards.size(),
+                header.seq(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Socket connection = socket;
+        try {
+            if (connection != null){
+                connection.close();
+            }
+        } catch (IOException e){
+            log.warn("Could not close the replication connection", e);
+        }
+        if (thread != null){
+            thread.interrupt();
+        }
+    }
+
+    // Reads one frame (line) at a time into a reused buffer, from its own read buffer so a frame costs one
+    // scan for the newline rather than a read call per byte
+    private static class FrameReader {
+        private final InputStream in;
+        private final byte[] chunk = new byte[1 << 16];
+        private int position;
+        private int limit;
+        byte[] buffer = new byte[4096];
+        int length; // of the current frame, without the newline
+
+        FrameReader(InputStream in) {
+            this.in = in;
+        }
+
+        // reads the next frame and returns its type
+        char next() throws IOException {
+            length = 0;
+            while (true){
+                if (position == limit){
+                    fill();
+                }
+                int end = position;
+                while (end < limit && chunk[end] != '\n'){
+                    end++;
+                }
+                append(end - position);
+                if (end < limit){
+                    position = end + 1;
+                    break;
+                }
+                position = end;
+            }
+            if (length < 2){
+                throw new IOException("Empty replication frame");
+            }
+            return (char) buffer[0];
+        }
+
+        private void append(int count) {
+            if (length + count > buffer.length){
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+            System.arraycopy(chunk, position, buffer, length, count);
+            length += count;
+        }
+
+        private void fill() throws IOException {
+            int read = in.read(chunk);
+            if (read < 0){
+                throw new EOFException("The replication leader closed the connection");
+            }
+            position = 0;
+            limit = read;
+        }
+
+        // whether the next frame has at least started arriving
+        boolean hasBuffered() throws IOException {
+            return position < limit || in.available() > 0;
+        }
+
+        // the next frame's type, without reading it. Only after hasBuffered
+        char peek() throws IOException {
+            if (position == limit){
+                fill();
+            }
+            return (char) chunk[position];
+        }
+    }
+}
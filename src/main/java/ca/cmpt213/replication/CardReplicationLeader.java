@@ -0,0 +1,222 @@
+package ca.cmpt213.replication;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.persistence.CardLogListener;
+import ca.cmpt213.replication.ReplicationProtocol.Heartbeat;
+import ca.cmpt213.replication.ReplicationProtocol.SnapshotHeader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+// Streams the leader's write-ahead log to its followers over a socket, see ReplicationProtocol.
+// Each follower that connects gets a snapshot of the cards taken on the commit thread, then every record
+// appended after it. Records are queued per follower as the commit thread appends them and written by that
+// follower's own thread, so a slow follower never holds up a commit: one that falls more than bufferSize
+// frames behind is disconnected, and starts over with a new snapshot when it reconnects. A reset (the cards
+// replaced without going through the log) disconnects every follower the same way
+public class CardReplicationLeader implements CardLogListener, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(CardReplicationLeader.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectWriter cardWriter = mapper.writerFor(TokimonCard.class);
+    private static final ThreadFactory threads = Thread.ofVirtual().name("tokimon-replication-", 0).factory();
+
+    private final String host;
+    private final int port;
+    private final int bufferSize;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private TokimonCardList tokimonCardList;
+    private ServerSocket serverSocket;
+    private volatile boolean closed;
+    // seq of the last record appended, for heartbeats
+    private volatile long latestSeq;
+
+    public CardReplicationLeader(String host, int port, int bufferSize) {
+        this.host = host;
+        this.port = port;
+        this.bufferSize = bufferSize;
+    }
+
+    // starts taking followers, the store must have been opened with this leader as its log listener
+    public void start(TokimonCardList tokimonCardList) throws IOException {
+        this.tokimonCardList = tokimonCardList;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName(host), port));
+        threads.newThread(this::acceptFollowers).start();
+        threads.newThread(this::sendHeartbeats).start();
+        log.info("Replication leader listening on {}:{}", host, getPort());
+    }
+
+    // the port followers connect to, the one the system picked if port was 0
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    // once the record is on disk, on the commit thread or the flusher thread (see CardLogListener)
+    @Override
+    public void appended(long seq, byte[] json) {
+        if (!followers.isEmpty()){
+            byte[] frame = ReplicationProtocol.frame(ReplicationProtocol.RECORD, json);
+            for (Follower follower : followers){
+                follower.send(frame);
+            }
+        }
+        // after the record is queued, so a heartbeat never gets ahead of the records it counts
+        latestSeq = seq;
+    }
+
+    // on the commit thread
+    @Override
+    public void reset() {
+        for (Follower follower : followers){
+            follower.disconnect("the leader's cards were reset");
+        }
+    }
+
+    private void acceptFollowers() {
+        while (!closed){
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                threads.newThread(() -> serve(new Follower(socket))).start();
+            } catch (IOException e){
+                if (!closed){
+                    log.warn("Could not accept a follower", e);
+                }
+            }
+        }
+    }
+
+    // sends the follower a snapshot, then whatever was queued for it since, until it goes away or falls behind
+    private void serve(Follower follower) {
+        String address = follower.socket.getRemoteSocketAddress().toString();
+        try (follower.socket; OutputStream out = new BufferedOutputStream(follower.socket.getOutputStream(), 1 << 16)) {
+            // the follower is added on the commit thread together with the snapshot, so every record after
+            // the snapshot's seq is queued for it
+            long[] seq = new long[1];
+            List<TokimonCard> cards = tokimonCardList.getLogSnapshot(snapshotSeq -> {
+                seq[0] = snapshotSeq;
+                latestSeq = Math.max(latestSeq, snapshotSeq);
+                followers.add(follower);
+            });
+            log.info("Follower {} connected, sending {} cards as of log record {}", address, cards.size(), seq[0]);
+            out.write(ReplicationProtocol.frame(ReplicationProtocol.SNAPSHOT, mapper.writeValueAsBytes(new SnapshotHeader(seq[0], cards.size()))));
+            for (TokimonCard tokimonCard : cards){
+                out.write(ReplicationProtocol.frame(ReplicationProtocol.CARD, cardWriter.writeValueAsBytes(tokimonCard)));
+            }
+            while (!closed){
+                byte[] frame = follower.queue.take();
+                if (frame == Follower.DISCONNECT){
+                    break;
+                }
+                out.write(frame);
+                // write whatever else is waiting before flushing, one flush per burst of records
+                while ((frame = follower.queue.poll()) != null && frame != Follower.DISCONNECT){
+                    out.write(frame);
+                }
+                if (frame == Follower.DISCONNECT){
+                    break;
+                }
+                out.flush();
+            }
+        } catch (IOException e){
+            log.info("Follower {} went away: {}", address, e.toString());
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e){
+            log.warn("Stopped replicating to {}", address, e);
+        } finally {
+            followers.remove(follower);
+        }
+    }
+
+    private void sendHeartbeats() {
+        while (!closed){
+            try {
+                Thread.sleep(ReplicationProtocol.HEARTBEAT_MILLIS);
+                if (followers.isEmpty()){
+                    continue;
+                }
+                byte[] frame = ReplicationProtocol.frame(ReplicationProtocol.HEARTBEAT,
+                        mapper.writeValueAsBytes(new Heartbeat(latestSeq, System.currentTimeMillis())));
+                for (Follower follower : followers){
+                    follower.send(frame);
+                }
+            } catch (InterruptedException e){
+                return;
+            } catch (IOException e){
+                log.warn("Could not write a heartbeat", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Follower follower : followers){
+            follower.disconnect("the leader is closing");
+        }
+        try {
+            if (serverSocket != null){
+                serverSocket.close();
+            }
+        } catch (IOException e){
+            log.warn("Could not close the replication socket", e);
+        }
+    }
+
+    // one connected follower and the frames waiting to be written to it
+    private class Follower {
+        // queued to end the follower's stream, never written
+        static final byte[] DISCONNECT = new byte[0];
+
+        final Socket socket;
+        final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        // set once the follower is disconnected, nothing more is queued for it
+        private volatile boolean dropped;
+
+        Follower(Socket socket) {
+            this.socket = socket;
+        }
+
+        void send(byte[] frame) {
+            if (dropped){
+                return;
+            }
+            if (queue.size() >= bufferSize){
+                disconnect("it fell more than " + bufferSize + " records behind");
+                return;
+            }
+            queue.add(frame);
+        }
+
+        void disconnect(String reason) {
+            if (dropped){
+                return;
+            }
+            dropped = true;
+            log.info("Disconnecting follower {}: {}", socket.getRemoteSocketAddress(), reason);
+            followers.remove(this);
+            queue.add(DISCONNECT);
+        }
+    }
+}
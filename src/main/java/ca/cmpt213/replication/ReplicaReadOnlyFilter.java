@@ -0,0 +1,39 @@
+package ca.cmpt213.replication;
+
+import ca.cmpt213.controller.ReadOnlyRequests;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// A follower only serves reads: anything else under /api/ is answered 405 Method Not Allowed before it
+// reaches a controller, changes have to go to the leader. The POSTs that only read (batch/get and query, see
+// ReadOnlyRequests) are let through
+@Component
+public class ReplicaReadOnlyFilter extends OncePerRequestFilter {
+    private final TokimonReplication replication;
+
+    public ReplicaReadOnlyFilter(TokimonReplication replication) {
+        this.replication = replication;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !replication.isFollower() || !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (ReadOnlyRequests.isReadOnly(request)){
+            chain.doFilter(request, response);
+            return;
+        }
+        response.setHeader("Allow", "GET, HEAD");
+        response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED); // Set the response status to 405 Method Not Allowed
+    }
+}
@@ -0,0 +1,32 @@
+package ca.cmpt213.replication;
+
+// What a leader sends a follower over the replication socket: one frame per line, a letter, a space and json.
+//   S {"seq":120,"cards":3}   a snapshot: the leader's cards as of its log record 120, in the next 3 lines
+//   C {"tid":1,...}           one card of the snapshot
+//   R {"seq":121,"op":"ADD",...}   a log record, exactly as the leader's write-ahead log holds it (CardLogRecord)
+//   H {"seq":121,"time":1723}      heartbeat: the leader's last record and its clock in epoch millis
+// A follower gets a snapshot first, then every record after it in order, with a heartbeat every
+// HEARTBEAT_MILLIS. Followers send nothing. Read it with: nc localhost 7070
+final class ReplicationProtocol {
+    static final char SNAPSHOT = 'S';
+    static final char CARD = 'C';
+    static final char RECORD = 'R';
+    static final char HEARTBEAT = 'H';
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    record SnapshotHeader(long seq, long cards) {}
+
+    record Heartbeat(long seq, long time) {}
+
+    private ReplicationProtocol() {}
+
+    // the frame for json that is already serialized: the letter, a space, the json and a newline
+    static byte[] frame(char type, byte[] json) {
+        byte[] frame = new byte[json.length + 3];
+        frame[0] = (byte) type;
+        frame[1] = ' ';
+        System.arraycopy(json, 0, frame, 2, json.length);
+        frame[frame.length - 1] = '\n';
+        return frame;
+    }
+}
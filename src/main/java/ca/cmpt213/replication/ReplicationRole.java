@@ -0,0 +1,20 @@
+package ca.cmpt213.replication;
+
+import java.util.Locale;
+
+// What this server does in replication. NONE keeps the cards on its own like before, a LEADER does the same
+// and streams its log to followers, a FOLLOWER holds a read-only copy of a leader's cards in memory
+public enum ReplicationRole {
+    NONE,
+    LEADER,
+    FOLLOWER;
+
+    // the property value (none, leader or follower), in any case
+    public static ReplicationRole fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown replication role " + name + ", expected none, leader or follower");
+        }
+    }
+}
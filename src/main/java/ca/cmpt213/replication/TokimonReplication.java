@@ -0,0 +1,107 @@
+package ca.cmpt213.replication;
+
+import ca.cmpt213.exception.TokimonCardPersistenceException;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+// This server's part in replication (tokimon.replication.* in application.properties). The controller asks it
+// to set up the card store before opening it and starts it once it is open. Its gauges, at /actuator/prometheus:
+//   tokimon.replication.lag.records    on a follower, leader log records not applied yet
+//   tokimon.replication.lag.seconds    on a follower, how far behind the leader its cards are
+//   tokimon.replication.connected      on a follower, 1 while it is connected to the leader
+//   tokimon.replication.followers      on a leader, followers connected
+@Component
+public class TokimonReplication {
+    @Value("${tokimon.replication.role:none}")
+    private String role;
+    // the leader listens here and followers connect here, the loopback address by default
+    @Value("${tokimon.replication.host:127.0.0.1}")
+    private String host;
+    @Value("${tokimon.replication.port:7070}")
+    private int port;
+    @Value("${tokimon.replication.follower-buffer:65536}")
+    private int followerBuffer;
+    @Autowired
+    private MeterRegistry registry;
+
+    private ReplicationRole replicationRole = ReplicationRole.NONE;
+    // replaced whenever the controller reopens the store
+    private volatile CardReplicationLeader leader;
+    private volatile CardReplicationFollower follower;
+
+    @PostConstruct
+    public void init() {
+        replicationRole = ReplicationRole.fromName(role);
+        if (replicationRole == ReplicationRole.FOLLOWER){
+            Gauge.builder("tokimon.replication.lag.records", this, replication -> replication.follower == null ? 0 : replication.follower.getLagRecords())
+                    .description("Leader log records this follower hasn't applied yet")
+                    .register(registry);
+            Gauge.builder("tokimon.replication.lag.seconds", this, replication -> replication.follower == null ? 0 : replication.follower.getLagSeconds())
+                    .description("How far behind the leader this follower's cards are")
+                    .register(registry);
+            Gauge.builder("tokimon.replication.connected", this, replication -> replication.follower != null && replication.follower.isConnected() ? 1 : 0)
+                    .description("1 while this follower is connected to its leader")
+                    .register(registry);
+        } else if (replicationRole == ReplicationRole.LEADER){
+            Gauge.builder("tokimon.replication.followers", this, replication -> replication.leader == null ? 0 : replication.leader.getFollowerCount())
+                    .description("Followers connected to this leader")
+                    .register(registry);
+        }
+    }
+
+    public ReplicationRole getRole() {
+        return replicationRole;
+    }
+
+    public boolean isFollower() {
+        return replicationRole == ReplicationRole.FOLLOWER;
+    }
+
+    public CardReplicationFollower getFollower() {
+        return follower;
+    }
+
+    // before the store is opened: a leader's store tells it about every record, a follower's is a replica
+    public void configure(TokimonCardListSettings settings) {
+        close();
+        if (replicationRole == ReplicationRole.LEADER){
+            leader = new CardReplicationLeader(host, port, followerBuffer);
+            settings.setLogListener(leader);
+        } else if (replicationRole == ReplicationRole.FOLLOWER){
+            settings.setReplica(true);
+        }
+    }
+
+    // once the store is open: the leader starts taking followers, a follower connects to its leader
+    public void start(TokimonCardList tokimonCardList) {
+        if (leader != null){
+            try {
+                leader.start(tokimonCardList);
+            } catch (IOException e){
+                throw new TokimonCardPersistenceException("Could not listen for followers on " + host + ":" + port, e);
+            }
+        } else if (replicationRole == ReplicationRole.FOLLOWER){
+            follower = new CardReplicationFollower(tokimonCardList, host, port);
+            follower.start();
+        }
+    }
+
+    public void close() {
+        if (leader != null){
+            leader.close();
+            leader = null;
+        }
+        if (follower != null){
+            follower.close();
+            follower = null;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.tokidexServerApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Floods the server with writes while a steady set of readers keeps going, once with admission control off and
+// once with it on (tokimon.admission.*), and prints for each how the reads held up (p50, p99) next to how many
+// writes got in and how many were turned away with 429 or 503.
+// The readers are GET /api/tokimon/{tid} and /api/tokimon/all in a closed loop, the writers POST
+// /api/tokimon/add and /api/tokimon/uploadPhoto as fast as they are answered, adds fsync'd. Every writer sends
+// its own X-Forwarded-For so the per-client buckets are exercised too.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.AdmissionControlHarness
+// optional args: <seconds, default 20> <readers, default 32> <writers, default 512>
+public class AdmissionControlHarness {
+    private static final String ADD_BODY = "{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"imageName\":\"ditto.png\",\"healthPoints\":150,\"attackPoints\":20}";
+    private static final String BOUNDARY = "tokimon-harness";
+    private static final byte[] UPLOAD_BODY = uploadBody(256 * 1024);
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int writers = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+
+        System.out.printf("%-10s %10s %10s %10s %12s %8s %8s %8s%n",
+                "admission", "read rps", "p50 ms", "p99 ms", "writes/s", "429", "503", "errors");
+        for (boolean admission : new boolean[]{false, true}) {
+            Result result = runMode(admission, seconds, readers, writers);
+            System.out.printf("%-10s %10.0f %10.2f %10.2f %12.0f %8d %8d %8d%n", admission ? "on" : "off",
+                    result.readRps, result.readP50Millis, result.readP99Millis, result.acceptedWritesPerSecond,
+                    result.tooManyRequests, result.unavailable, result.errors);
+        }
+        System.exit(0);
+    }
+
+    private static Result runMode(boolean admission, int seconds, int readerCount, int writerCount) throws Exception {
+        Path dir = Files.createTempDirectory("tokimon-admission");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(tokidexServerApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.threads.virtual.enabled=true",
+                        "tokimon.store.file=" + dir.resolve("tokimon.json"),
+                        "tokimon.store.reset-on-start=true",
+                        "tokimon.images.dir=" + dir.resolve("images"),
+                        "tokimon.admission.enabled=" + admission,
+                        "tokimon.admission.client-header=X-Forwarded-For")
+                .run();
+        String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .executor(clients)
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            CountDownLatch done = new CountDownLatch(readerCount + writerCount);
+            LongAdder accepted = new LongAdder();
+            LongAdder tooManyRequests = new LongAdder();
+            LongAdder unavailable = new LongAdder();
+            LongAdder errors = new LongAdder();
+            List<Recorder> recorders = new ArrayList<>();
+
+            long begin = System.nanoTime();
+            for (int i = 0; i < readerCount; i++) {
+                // each reader records into its own buffer, merged once the run is over
+                Recorder recorder = new Recorder();
+                recorders.add(recorder);
+                clients.submit(() -> {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            long start = System.nanoTime();
+                            try {
+                                HttpResponse<Void> response = httpClient.send(readRequest(baseUrl), HttpResponse.BodyHandlers.discarding());
+                                if (response.statusCode() >= 400) {
+                                    errors.increment();
+                                }
+                            } catch (Exception e) {
+                                errors.increment();
+                            }
+                            recorder.record(System.nanoTime() - start);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            for (int i = 0; i < writerCount; i++) {
+                String client = "10.0." + (i / 256) + "." + (i % 256);
+                clients.submit(() -> {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            try {
+                                int status = httpClient.send(writeRequest(baseUrl, client), HttpResponse.BodyHandlers.discarding()).statusCode();
+                                if (status == 429) {
+                                    tooManyRequests.increment();
+                                } else if (status == 503) {
+                                    unavailable.increment();
+                                } else if (status >= 400) {
+                                    errors.increment();
+                                } else {
+                                    accepted.increment();
+                                }
+                            } catch (Exception e) {
+                                errors.increment();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+            double elapsed = (System.nanoTime() - begin) / 1e9;
+
+            long[] reads = recorders.stream()
+                    .flatMapToLong(recorder -> Arrays.stream(recorder.samples, 0, recorder.count))
+                    .sorted()
+                    .toArray();
+            return new Result(reads.length / elapsed,
+                    reads.length == 0 ? 0 : reads[(int) (reads.length * 0.50)] / 1e6,
+                    reads.length == 0 ? 0 : reads[Math.min(reads.length - 1, (int) (reads.length * 0.99))] / 1e6,
+                    accepted.sum() / elapsed, tooManyRequests.sum(), unavailable.sum(), errors.sum());
+        } finally {
+            context.close();
+        }
+    }
+
+    // latencies recorded by one reader, only ever touched by that reader's thread until the run is over
+    private static class Recorder {
+        private long[] samples = new long[1024];
+        private int count;
+
+        void record(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+    }
+
+    private static HttpRequest readRequest(String baseUrl) {
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/api/tokimon/all")).GET().build();
+        }
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/api/tokimon/" + ThreadLocalRandom.current().nextInt(1, 4))).GET().build();
+    }
+
+    // one upload for every nine adds
+    private static HttpRequest writeRequest(String baseUrl, String client) {
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/api/tokimon/uploadPhoto"))
+                    .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                    .header("X-Forwarded-For", client)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(UPLOAD_BODY))
+                    .build();
+        }
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/api/tokimon/add"))
+                .header("Content-Type", "application/json")
+                .header("X-Forwarded-For", client)
+                .POST(HttpRequest.BodyPublishers.ofString(ADD_BODY))
+                .build();
+    }
+
+    // a multipart body with one png of the given size, the bytes after the signature don't matter
+    private static byte[] uploadBody(int size) {
+        byte[] image = new byte[size];
+        ThreadLocalRandom.current().nextBytes(image);
+        System.arraycopy(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'}, 0, image, 0, 8);
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"harness.png\"\r\n"
+                + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] body = new byte[head.length + image.length + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(image, 0, body, head.length, image.length);
+        System.arraycopy(tail, 0, body, head.length + image.length, tail.length);
+        return body;
+    }
+
+    private record Result(double readRps, double readP50Millis, double readP99Millis, double acceptedWritesPerSecond,
+                          long tooManyRequests, long unavailable, long errors) {}
+}
@@ -0,0 +1,124 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.CardStorageBackend;
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import ca.cmpt213.model.TokimonCardPage;
+import ca.cmpt213.model.TokimonCardQuery;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Heap backend against off-heap columns for large catalogues.
+// The heap each store takes once it is filled is printed when the trial starts (after a full GC, so it is the
+// live set the GC has to trace). scan visits every card matching a filter, the work behind reports and
+// aggregates, page is one page through the paged listing, where the heap backend's indexes win,
+// and getById is a single lookup. Add -prof gc to see the allocation each one does.
+// Run with: mvn -Pbenchmark verify -Djmh.include=CardStorageBenchmark
+// or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.CardStorageBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class CardStorageBenchmark {
+    private static final int FILL_BATCH = 10_000;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    private CardStorageBackend backend;
+
+    @Param({"1000000", "5000000"})
+    private int size;
+
+    private Path dir;
+    private TokimonCardList tokimonCardList;
+    private TokimonCardQuery scanQuery;
+    private TokimonCardQuery pageQuery;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tokimon-storage-bench");
+        TokimonCardListSettings settings = new TokimonCardListSettings(dir.resolve("tokimon.json").toString());
+        settings.setSyncEvery(0);
+        settings.setCompactEvery(Integer.MAX_VALUE);
+        settings.setStorageBackend(backend);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeapAfterGc(memory);
+        tokimonCardList = new TokimonCardList(settings);
+        List<TokimonCard> batch = new ArrayList<>(FILL_BATCH);
+        for (int i = 1; i <= size; i++) {
+            batch.add(TokimonCardStoreBenchmark.card(i));
+            if (batch.size() == FILL_BATCH || i == size) {
+                tokimonCardList.addTokimonCards(batch);
+                batch = new ArrayList<>(FILL_BATCH);
+            }
+        }
+        long heapAfter = usedHeapAfterGc(memory);
+        System.out.printf("%n%s store of %d cards: %,d bytes of heap%n", backend, size, heapAfter - heapBefore);
+
+        // fire cards with high hp, about 1 in 64 of the cards
+        scanQuery = new TokimonCardQuery();
+        scanQuery.setElementType(TokimonCard.ElementType.FIRE);
+        scanQuery.setMinHealthPoints(150);
+
+        pageQuery = new TokimonCardQuery();
+        pageQuery.setElementType(TokimonCard.ElementType.WATER);
+        pageQuery.setSortField(TokimonCardQuery.SortField.ATTACK_POINTS);
+        pageQuery.setDescending(true);
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tokimonCardList.close();
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        tokimonCardList.forEachMatchingTokimonCard(scanQuery, blackhole::consume);
+    }
+
+    @Benchmark
+    public TokimonCardPage page() {
+        return tokimonCardList.getTokimonCardPage(pageQuery);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public TokimonCard getById() {
+        return tokimonCardList.getTokimonCard(ThreadLocalRandom.current().nextLong(1, size + 1));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CardStorageBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
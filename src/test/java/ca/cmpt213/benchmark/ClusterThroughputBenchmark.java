@@ -0,0 +1,242 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.tokidexServerApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Starts a cluster of 1, 2, 3 and 4 servers on localhost, each its own JVM with its own card store, and drives
+// every cluster with the same closed-loop HTTP workload. Prints the aggregate throughput, p50 and p99 latency
+// and errors per cluster size, and the speedup over one node.
+// Each cluster is seeded with cards added through every node (so every node owns some), then clients send
+// 80% GET /api/tokimon/{tid} and 20% PUT /api/tokimon/edit/{tid} for random tids to random nodes. A request
+// that reaches a node not owning its tid is forwarded, as it would be behind a plain load balancer. Edits are
+// fsync'd, so each node's log is its own bottleneck.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.ClusterThroughputBenchmark
+// optional args: <seconds per cluster size, default 15> <concurrent clients, default 256> <cards, default 20000>
+public class ClusterThroughputBenchmark {
+    private static final int MAX_NODES = 4;
+    private static final int SEED_BATCH = 1000;
+    private static final long READY_TIMEOUT_MILLIS = 120_000;
+    private static final String ADD = "{\"op\":\"add\",\"card\":{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"imageName\":\"ditto.png\",\"healthPoints\":150,\"attackPoints\":20}}";
+    private static final String EDIT_BODY = "{\"elementType\":\"WATER\",\"healthPoints\":120}";
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+        int clientCount = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int cards = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        System.out.printf("%-6s %10s %10s %10s %8s %9s%n", "nodes", "rps", "p50 ms", "p99 ms", "errors", "speedup");
+        double singleNode = 0;
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .executor(clients)
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            for (int nodes = 1; nodes <= MAX_NODES; nodes++) {
+                LevelResult result = runCluster(httpClient, clients, nodes, clientCount, cards, seconds);
+                if (nodes == 1) {
+                    singleNode = result.rps;
+                }
+                System.out.printf("%-6d %10.0f %10.2f %10.2f %8d %8.2fx%n", nodes, result.rps, result.p50Millis,
+                        result.p99Millis, result.errors, result.rps / singleNode);
+            }
+        }
+    }
+
+    private static LevelResult runCluster(HttpClient httpClient, ExecutorService clients, int nodeCount, int clientCount,
+                                          int cards, int seconds) throws Exception {
+        Path dir = Files.createTempDirectory("tokimon-cluster");
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.add("http://localhost:" + freePort());
+        }
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                processes.add(startNode(nodes, i, dir.resolve("node" + i)));
+            }
+            for (String node : nodes) {
+                awaitReady(httpClient, node);
+            }
+            long[] tids = seed(httpClient, nodes, cards);
+            run(httpClient, clients, nodes, tids, clientCount, 2); // warm up the JIT and the connection pools
+            return run(httpClient, clients, nodes, tids, clientCount, seconds);
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            for (Process process : processes) {
+                process.waitFor();
+            }
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    // one server in its own JVM, on the classpath this benchmark runs with
+    private static Process startNode(List<String> nodes, int index, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String self = nodes.get(index);
+        List<String> command = List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx1g",
+                "-cp", System.getProperty("java.class.path"),
+                tokidexServerApplication.class.getName(),
+                "--server.port=" + self.substring(self.lastIndexOf(':') + 1),
+                "--spring.threads.virtual.enabled=true",
+                "--tokimon.cluster.nodes=" + String.join(",", nodes),
+                "--tokimon.cluster.self=" + self,
+                "--tokimon.store.file=" + dir.resolve("tokimon.json"),
+                "--tokimon.store.reset-on-start=true",
+                "--tokimon.admission.enabled=false",
+                "--tokimon.images.dir=" + dir.resolve("images"),
+                "--logging.level.ca.cmpt213=warn");
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("server.log").toFile())
+                .start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitReady(HttpClient httpClient, String node) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+        HttpRequest readiness = HttpRequest.newBuilder(URI.create(node + "/actuator/health/readiness")).GET().build();
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                if (httpClient.send(readiness, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException(node + " didn't get ready, see server.log in its temp directory");
+    }
+
+    // adds the cards in batches sent to each node in turn, returns their tids (plus the sample cards' 1 to 3)
+    private static long[] seed(HttpClient httpClient, List<String> nodes, int cards) throws IOException, InterruptedException {
+        StringJoiner batch = new StringJoiner(",", "[", "]");
+        for (int i = 0; i < SEED_BATCH; i++) {
+            batch.add(ADD);
+        }
+        List<Long> tids = new ArrayList<>(List.of(1L, 2L, 3L));
+        for (int i = 0; i * SEED_BATCH < cards; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(nodes.get(i % nodes.size()) + "/api/tokimon/batch/mutate"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(batch.toString()))
+                    .build();
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("seeding failed with " + response.statusCode());
+            }
+            for (JsonNode card : mapper.readTree(response.body())) {
+                tids.add(card.get("tid").asLong());
+            }
+        }
+        return tids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static LevelResult run(HttpClient httpClient, ExecutorService clients, List<String> nodes, long[] tids,
+                                   int clientCount, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LongAdder errors = new LongAdder();
+        List<Recorder> recorders = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(clientCount);
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            // each client records into its own buffer, merged once the run is over
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            clients.submit(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = httpClient.send(nextRequest(nodes, tids), HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 400) {
+                                errors.increment();
+                            }
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                        recorder.record(System.nanoTime() - start);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+
+        long[] all = recorders.stream()
+                .flatMapToLong(recorder -> Arrays.stream(recorder.samples, 0, recorder.count))
+                .sorted()
+                .toArray();
+        if (all.length == 0) {
+            return new LevelResult(0, 0, 0, errors.sum());
+        }
+        return new LevelResult(all.length / elapsed,
+                all[(int) (all.length * 0.50)] / 1e6,
+                all[Math.min(all.length - 1, (int) (all.length * 0.99))] / 1e6,
+                errors.sum());
+    }
+
+    // latencies recorded by one client, only ever touched by that client's thread until the run is over
+    private static class Recorder {
+        private long[] samples = new long[1024];
+        private int count;
+
+        void record(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+    }
+
+    private static HttpRequest nextRequest(List<String> nodes, long[] tids) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String node = nodes.get(random.nextInt(nodes.size()));
+        long tid = tids[random.nextInt(tids.length)];
+        if (random.nextInt(100) < 80) {
+            return HttpRequest.newBuilder(URI.create(node + "/api/tokimon/" + tid)).GET().build();
+        }
+        return HttpRequest.newBuilder(URI.create(node + "/api/tokimon/edit/" + tid))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(EDIT_BODY))
+                .build();
+    }
+
+    private record LevelResult(double rps, double p50Millis, double p99Millis, long errors) {}
+}
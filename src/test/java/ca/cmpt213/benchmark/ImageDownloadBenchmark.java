@@ -0,0 +1,94 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.tokidexServerApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+// Throughput of concurrent image downloads through GET /api/tokimon/image/{name}.
+// Starts the embedded server on a random port with a scratch image directory holding one image of the given
+// size, then downloads it from 1 to 64 concurrent clients and prints requests/sec and MB/sec for each level.
+// On Tomcat's NIO connector the body goes out through sendfile, so throughput should scale with clients
+// without the server's heap allocation climbing.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.ImageDownloadBenchmark
+// optional args: <seconds per level, default 5> <image size in KB, default 512>
+public class ImageDownloadBenchmark {
+    private static final int[] CLIENTS = {1, 4, 16, 64};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int imageKb = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+
+        Path imagesDir = Files.createTempDirectory("tokimon-image-bench");
+        byte[] image = new byte[imageKb * 1024];
+        new Random(42).nextBytes(image);
+        Files.write(imagesDir.resolve("bench.png"), image);
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(tokidexServerApplication.class)
+                .properties(
+                        "server.port=0",
+                        "tokimon.images.dir=" + imagesDir,
+                        "tokimon.store.file=" + imagesDir.resolve("tokimon.json"))
+                .run();
+        URI uri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/tokimon/image/bench.png");
+
+        System.out.printf("%-8s %12s %12s %8s%n", "clients", "req/sec", "MB/sec", "errors");
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient httpClient = HttpClient.newBuilder().executor(clients).version(HttpClient.Version.HTTP_1_1).build();
+            download(httpClient, clients, uri, 4, 2, image.length); // warm up
+            for (int clientCount : CLIENTS) {
+                download(httpClient, clients, uri, clientCount, seconds, image.length);
+            }
+        } finally {
+            context.close();
+        }
+        System.exit(0);
+    }
+
+    private static void download(HttpClient httpClient, ExecutorService clients, URI uri, int clientCount, int seconds, int imageSize)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LongAdder requests = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        LongAdder errors = new LongAdder();
+        CountDownLatch done = new CountDownLatch(clientCount);
+        HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            clients.submit(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        try {
+                            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                            if (response.statusCode() != 200 || response.body().length != imageSize) {
+                                errors.increment();
+                            } else {
+                                requests.increment();
+                                bytes.add(response.body().length);
+                            }
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-8d %12.0f %12.1f %8d%n", clientCount, requests.sum() / elapsed, bytes.sum() / elapsed / (1024 * 1024), errors.sum());
+    }
+}
@@ -0,0 +1,85 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardJsonWriter;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Allocation per listing request: the buffered /api/tokimon/all path (copy every card into a list, then let
+// Jackson serialize the list) against the streamed /api/tokimon/all/stream path in json array and ndjson form.
+// Output goes to a stream that throws the bytes away, so only the serialization path is measured.
+// Runs with JMH's gc profiler, compare gc.alloc.rate.norm (bytes allocated per request) between the modes:
+// the buffered path grows with the number of cards, the streamed paths should stay flat.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.ListingSerializationBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ListingSerializationBenchmark {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    private Path dir;
+    private TokimonCardList tokimonCardList;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tokimon-listing-bench");
+        TokimonCardListSettings settings = new TokimonCardListSettings(dir.resolve("tokimon.json").toString());
+        settings.setSyncEvery(0);
+        settings.setCompactEvery(Integer.MAX_VALUE);
+        tokimonCardList = new TokimonCardList(settings);
+        for (int i = 1; i <= size; i++) {
+            tokimonCardList.addTokimonCard(new TokimonCard(i, "Tokimon" + i, TokimonCard.ElementType.values()[i % 16], "charmander.png", i % 200, i % 150));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tokimonCardList.close();
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void bufferedList() throws IOException {
+        mapper.writeValue(OutputStream.nullOutputStream(), tokimonCardList.getTokimonCards());
+    }
+
+    @Benchmark
+    public void streamedJsonArray() throws IOException {
+        TokimonCardJsonWriter.writeJsonArray(tokimonCardList, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void streamedNdjson() throws IOException {
+        TokimonCardJsonWriter.writeNdjson(tokimonCardList, OutputStream.nullOutputStream());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ListingSerializationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,157 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.tokidexServerApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Starts the embedded server once with platform threads and once with virtual threads
+// (spring.threads.virtual.enabled) and drives both with the same closed-loop HTTP workload at increasing
+// numbers of concurrent clients. For each level it prints throughput, p50 and p99 latency and errors, then the
+// highest request rate each mode sustained while p99 stayed under the latency target.
+// The workload is 80% GET /api/tokimon/{tid}, 10% GET /api/tokimon/all and 10% POST /api/tokimon/add, the adds
+// are fsync'd so request threads really block on disk.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.LoadTestHarness
+// optional args: <seconds per level, default 10> <p99 target in ms, default 100>
+public class LoadTestHarness {
+    private static final int[] CLIENTS = {16, 64, 256, 512, 1024};
+    private static final String ADD_BODY = "{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"imageName\":\"ditto.png\",\"healthPoints\":150,\"attackPoints\":20}";
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long p99TargetMillis = args.length > 1 ? Long.parseLong(args[1]) : 100;
+
+        double platformMax = runMode(false, seconds, p99TargetMillis);
+        double virtualMax = runMode(true, seconds, p99TargetMillis);
+
+        System.out.printf("%nmax sustained RPS with p99 < %d ms: platform threads %.0f, virtual threads %.0f%n",
+                p99TargetMillis, platformMax, virtualMax);
+        System.exit(0);
+    }
+
+    // returns the best throughput reached while p99 stayed under the target
+    private static double runMode(boolean virtualThreads, int seconds, long p99TargetMillis) throws Exception {
+        Path dir = Files.createTempDirectory("tokimon-load");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(tokidexServerApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "tokimon.store.file=" + dir.resolve("tokimon.json"),
+                        "tokimon.store.reset-on-start=true",
+                        "tokimon.admission.enabled=false")
+                .run();
+        String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+
+        String mode = virtualThreads ? "virtual" : "platform";
+        System.out.printf("%n%s threads%n%-8s %10s %10s %10s %8s%n", mode, "clients", "rps", "p50 ms", "p99 ms", "errors");
+        double maxSustained = 0;
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .executor(clients)
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            run(httpClient, clients, baseUrl, 16, 2); // warm up the JIT and the connection pool
+            for (int clientCount : CLIENTS) {
+                LevelResult result = run(httpClient, clients, baseUrl, clientCount, seconds);
+                System.out.printf("%-8d %10.0f %10.2f %10.2f %8d%n", clientCount, result.rps, result.p50Millis, result.p99Millis, result.errors);
+                if (result.p99Millis < p99TargetMillis && result.errors == 0) {
+                    maxSustained = Math.max(maxSustained, result.rps);
+                }
+            }
+        } finally {
+            context.close();
+        }
+        return maxSustained;
+    }
+
+    private static LevelResult run(HttpClient httpClient, ExecutorService clients, String baseUrl, int clientCount, int seconds)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LongAdder errors = new LongAdder();
+        List<Recorder> recorders = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(clientCount);
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            // each client records into its own buffer, merged once the level is over
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            clients.submit(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = httpClient.send(nextRequest(baseUrl), HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 400) {
+                                errors.increment();
+                            }
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                        recorder.record(System.nanoTime() - start);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+
+        long[] all = recorders.stream()
+                .flatMapToLong(recorder -> Arrays.stream(recorder.samples, 0, recorder.count))
+                .sorted()
+                .toArray();
+        if (all.length == 0) {
+            return new LevelResult(0, 0, 0, errors.sum());
+        }
+        return new LevelResult(all.length / elapsed,
+                all[(int) (all.length * 0.50)] / 1e6,
+                all[Math.min(all.length - 1, (int) (all.length * 0.99))] / 1e6,
+                errors.sum());
+    }
+
+    // latencies recorded by one client, only ever touched by that client's thread until the level is over
+    private static class Recorder {
+        private long[] samples = new long[1024];
+        private int count;
+
+        void record(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+    }
+
+    private static HttpRequest nextRequest(String baseUrl) {
+        int roll = ThreadLocalRandom.current().nextInt(100);
+        if (roll < 80) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/api/tokimon/" + ThreadLocalRandom.current().nextInt(1, 4))).GET().build();
+        } else if (roll < 90) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/api/tokimon/all")).GET().build();
+        }
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/api/tokimon/add"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(ADD_BODY))
+                .build();
+    }
+
+    private record LevelResult(double rps, double p50Millis, double p99Millis, long errors) {}
+}
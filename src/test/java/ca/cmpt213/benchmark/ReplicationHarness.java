@@ -0,0 +1,244 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.tokidexServerApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Starts a replication leader and followers on localhost, each its own JVM, and checks that the followers keep
+// up. Writers add and edit cards on the leader while readers GET cards from the followers. Every second it
+// prints each follower's replication lag (read from its /actuator/prometheus), and at the end the write and
+// read throughput, how long the followers took to catch up once the writes stopped, and whether every
+// follower's /api/tokimon/all is the same as the leader's.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.ReplicationHarness
+// optional args: <seconds of load, default 20> <followers, default 2> <writers, default 16> <readers, default 64>
+public class ReplicationHarness {
+    private static final int SEED_CARDS = 10_000;
+    private static final long READY_TIMEOUT_MILLIS = 120_000;
+    private static final String ADD = "{\"op\":\"add\",\"card\":{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"imageName\":\"ditto.png\",\"healthPoints\":150,\"attackPoints\":20}}";
+    private static final String ADD_BODY = "{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"imageName\":\"ditto.png\",\"healthPoints\":150,\"attackPoints\":20}";
+    private static final String EDIT_BODY = "{\"elementType\":\"WATER\",\"healthPoints\":120}";
+    private static final Pattern LAG_RECORDS = Pattern.compile("^tokimon_replication_lag_records\\S* (\\S+)$", Pattern.MULTILINE);
+    private static final Pattern LAG_SECONDS = Pattern.compile("^tokimon_replication_lag_seconds\\S* (\\S+)$", Pattern.MULTILINE);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int followerCount = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int writers = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int readers = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        Path dir = Files.createTempDirectory("tokimon-replication");
+        int replicationPort = freePort();
+        String leader = "http://localhost:" + freePort();
+        List<String> followers = new ArrayList<>();
+        List<Process> processes = new ArrayList<>();
+        boolean consistent = true;
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .executor(clients)
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            processes.add(startNode(leader, "leader", replicationPort, dir.resolve("leader")));
+            awaitReady(httpClient, leader);
+            long[] tids = seed(httpClient, leader);
+            for (int i = 0; i < followerCount; i++) {
+                String follower = "http://localhost:" + freePort();
+                followers.add(follower);
+                processes.add(startNode(follower, "follower", replicationPort, dir.resolve("follower" + i)));
+            }
+            for (String follower : followers) {
+                awaitReady(httpClient, follower);
+            }
+
+            LongAdder writes = new LongAdder();
+            LongAdder reads = new LongAdder();
+            LongAdder errors = new LongAdder();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            for (int i = 0; i < writers; i++) {
+                clients.submit(() -> loop(httpClient, deadline, () -> nextWrite(leader, tids), writes, errors));
+            }
+            for (int i = 0; i < readers; i++) {
+                clients.submit(() -> loop(httpClient, deadline, () -> nextRead(followers, tids), reads, errors));
+            }
+
+            System.out.printf("%-6s", "second");
+            for (int i = 0; i < followerCount; i++) {
+                System.out.printf(" %14s %14s", "f" + i + " lag recs", "f" + i + " lag s");
+            }
+            System.out.println();
+            double maxLagSeconds = 0;
+            for (int second = 1; System.nanoTime() < deadline; second++) {
+                Thread.sleep(1000);
+                System.out.printf("%-6d", second);
+                for (String follower : followers) {
+                    String metrics = get(httpClient, follower + "/actuator/prometheus");
+                    double lagSeconds = gauge(LAG_SECONDS, metrics);
+                    maxLagSeconds = Math.max(maxLagSeconds, lagSeconds);
+                    System.out.printf(" %14.0f %14.3f", gauge(LAG_RECORDS, metrics), lagSeconds);
+                }
+                System.out.println();
+            }
+            Thread.sleep(500); // let the last requests finish
+
+            long caughtUpStart = System.nanoTime();
+            for (String follower : followers) {
+                while (gauge(LAG_RECORDS, get(httpClient, follower + "/actuator/prometheus")) > 0) {
+                    Thread.sleep(10);
+                }
+            }
+            double caughtUpMillis = (System.nanoTime() - caughtUpStart) / 1e6;
+            JsonNode expected = mapper.readTree(get(httpClient, leader + "/api/tokimon/all"));
+            for (String follower : followers) {
+                consistent &= expected.equals(mapper.readTree(get(httpClient, follower + "/api/tokimon/all")));
+            }
+
+            System.out.printf("%nwrites on the leader: %.0f/s, reads on %d followers: %.0f/s, errors: %d%n",
+                    writes.sum() / (double) seconds, followerCount, reads.sum() / (double) seconds, errors.sum());
+            System.out.printf("max lag %.3f s, followers caught up %.0f ms after the writes stopped%n", maxLagSeconds, caughtUpMillis);
+            System.out.printf("%d cards on the leader, followers %s%n", expected.size(), consistent ? "identical" : "DIFFERENT");
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            for (Process process : processes) {
+                process.waitFor();
+            }
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        System.exit(consistent ? 0 : 1);
+    }
+
+    private static void loop(HttpClient httpClient, long deadline, Supplier<HttpRequest> requests,
+                             LongAdder done, LongAdder errors) {
+        while (System.nanoTime() < deadline) {
+            try {
+                HttpResponse<Void> response = httpClient.send(requests.get(), HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() >= 400) {
+                    errors.increment();
+                }
+            } catch (Exception e) {
+                errors.increment();
+            }
+            done.increment();
+        }
+    }
+
+    // one server in its own JVM, on the classpath this harness runs with
+    private static Process startNode(String baseUrl, String role, int replicationPort, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<String> command = List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx1g",
+                "-cp", System.getProperty("java.class.path"),
+                tokidexServerApplication.class.getName(),
+                "--server.port=" + baseUrl.substring(baseUrl.lastIndexOf(':') + 1),
+                "--spring.threads.virtual.enabled=true",
+                "--tokimon.replication.role=" + role,
+                "--tokimon.replication.port=" + replicationPort,
+                "--tokimon.store.file=" + dir.resolve("tokimon.json"),
+                "--tokimon.store.reset-on-start=true",
+                "--tokimon.admission.enabled=false",
+                "--tokimon.images.dir=" + dir.resolve("images"),
+                "--logging.level.ca.cmpt213=warn");
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("server.log").toFile())
+                .start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // a follower is only ready once it has the leader's cards
+    private static void awaitReady(HttpClient httpClient, String node) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+        HttpRequest readiness = HttpRequest.newBuilder(URI.create(node + "/actuator/health/readiness")).GET().build();
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                if (httpClient.send(readiness, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException(node + " didn't get ready, see server.log in its temp directory");
+    }
+
+    // adds the seed cards on the leader in batches of 1000, returns their tids and the sample cards' 1 to 3
+    private static long[] seed(HttpClient httpClient, String leader) throws IOException, InterruptedException {
+        StringJoiner batch = new StringJoiner(",", "[", "]");
+        for (int i = 0; i < 1000; i++) {
+            batch.add(ADD);
+        }
+        List<Long> tids = new ArrayList<>(List.of(1L, 2L, 3L));
+        for (int added = 0; added < SEED_CARDS; added += 1000) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(leader + "/api/tokimon/batch/mutate"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(batch.toString()))
+                    .build();
+            for (JsonNode card : mapper.readTree(httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray()).body())) {
+                tids.add(card.get("tid").asLong());
+            }
+        }
+        return tids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static String get(HttpClient httpClient, String url) throws IOException, InterruptedException {
+        return httpClient.send(HttpRequest.newBuilder(URI.create(url)).GET().build(), HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private static double gauge(Pattern pattern, String metrics) {
+        Matcher matcher = pattern.matcher(metrics);
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : 0;
+    }
+
+    // half edits of existing cards, half new cards
+    private static HttpRequest nextWrite(String leader, long[] tids) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextBoolean()) {
+            return HttpRequest.newBuilder(URI.create(leader + "/api/tokimon/edit/" + tids[random.nextInt(tids.length)]))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(EDIT_BODY))
+                    .build();
+        }
+        return HttpRequest.newBuilder(URI.create(leader + "/api/tokimon/add"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(ADD_BODY))
+                .build();
+    }
+
+    private static HttpRequest nextRead(List<String> followers, long[] tids) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String follower = followers.get(random.nextInt(followers.size()));
+        return HttpRequest.newBuilder(URI.create(follower + "/api/tokimon/" + tids[random.nextInt(tids.length)])).GET().build();
+    }
+}
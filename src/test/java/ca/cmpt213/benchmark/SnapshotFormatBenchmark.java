@@ -0,0 +1,86 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.persistence.CardSnapshotFormat;
+import ca.cmpt213.persistence.CardWriteAheadLog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Load time and size of the json snapshot (tokimon.json) against the binary one (tokimon.bin).
+// load reads the snapshot the way the server does on startup, write is a compaction of all the cards.
+// The size of each snapshot file is printed when the trial starts.
+// Run with: mvn -Pbenchmark verify -Djmh.include=SnapshotFormatBenchmark
+// or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.SnapshotFormatBenchmark
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class SnapshotFormatBenchmark {
+    @Param({"JSON", "BINARY"})
+    private CardSnapshotFormat format;
+
+    @Param({"100000", "1000000"})
+    private int size;
+
+    private Path dir;
+    private String file;
+    private List<TokimonCard> tokimonCards;
+    private CardWriteAheadLog writer; // stays open for the write benchmark, like the store's own log
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tokimon-snapshot-bench");
+        file = dir.resolve("tokimon.json").toString();
+        tokimonCards = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            tokimonCards.add(new TokimonCard(i, "Tokimon" + i, TokimonCard.ElementType.values()[i % 16], "image" + (i % 150) + ".png", i % 200, i % 150));
+        }
+        writer = new CardWriteAheadLog(file, 0, Integer.MAX_VALUE, format);
+        writer.recover();
+        write();
+
+        Path snapshot = format == CardSnapshotFormat.BINARY ? dir.resolve("tokimon.bin") : dir.resolve("tokimon.json");
+        System.out.printf("%n%s snapshot of %d cards: %,d bytes%n", format, size, Files.size(snapshot));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writer.close();
+        try (var files = Files.list(dir)) {
+            files.forEach(path -> path.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public Map<Long, TokimonCard> load() {
+        try (CardWriteAheadLog log = new CardWriteAheadLog(file, 0, Integer.MAX_VALUE, format)) {
+            return log.recover();
+        }
+    }
+
+    @Benchmark
+    public void write() {
+        writer.compact(tokimonCards);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SnapshotFormatBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
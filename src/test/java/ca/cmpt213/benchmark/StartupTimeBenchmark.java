@@ -0,0 +1,84 @@
+package ca.cmpt213.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Starts the packaged server several times as a plain jar, with the AOT-generated context, and with the AOT
+// context and the AppCDS archive, and prints how long each took until it was ready to take requests (the
+// "Ready in" line StartupTimeLogger writes, measured from the JVM starting). Each start gets an empty card store
+// in a temp directory, so only the boot itself is measured.
+// Run with: mvn -Pfast-start verify
+// or, after mvn -Pfast-start package: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.StartupTimeBenchmark
+// optional args: <extracted app dir, default target/app> <jar name, default webServer-0.0.1-SNAPSHOT.jar> <starts per variant, default 5>
+public class StartupTimeBenchmark {
+    private static final Pattern READY = Pattern.compile("Ready in (\\d+) ms");
+    private static final long TIMEOUT_MILLIS = 120_000;
+
+    private record Variant(String name, List<String> jvmArgs) {}
+
+    public static void main(String[] args) throws Exception {
+        Path appDir = Path.of(args.length > 0 ? args[0] : "target/app");
+        Path jar = appDir.resolve(args.length > 1 ? args[1] : "webServer-0.0.1-SNAPSHOT.jar");
+        int starts = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        Path archive = appDir.resolve("application.jsa");
+
+        List<Variant> variants = new ArrayList<>();
+        variants.add(new Variant("jar", List.of()));
+        variants.add(new Variant("aot", List.of("-Dspring.aot.enabled=true")));
+        if (Files.exists(archive)) {
+            variants.add(new Variant("cds + aot", List.of("-XX:SharedArchiveFile=" + archive, "-Dspring.aot.enabled=true")));
+        } else {
+            System.out.printf("no CDS archive at %s, build it with mvn -Pfast-start package%n", archive);
+        }
+
+        System.out.printf("%-12s %10s %10s %10s%n", "variant", "min ms", "median ms", "max ms");
+        for (Variant variant : variants) {
+            long[] millis = new long[starts];
+            for (int i = 0; i < starts; i++) {
+                millis[i] = start(jar, variant.jvmArgs());
+            }
+            Arrays.sort(millis);
+            System.out.printf("%-12s %10d %10d %10d%n", variant.name(), millis[0], millis[starts / 2], millis[starts - 1]);
+        }
+    }
+
+    // starts the server, waits for it to say it's ready and stops it again, returns the reported startup time
+    private static long start(Path jar, List<String> jvmArgs) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("tokimon-startup");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("--server.port=0");
+        command.add("--tokimon.store.file=" + dir.resolve("tokimon.json"));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            String line;
+            while ((line = output.readLine()) != null && System.currentTimeMillis() < deadline) {
+                Matcher ready = READY.matcher(line);
+                if (ready.find()) {
+                    return Long.parseLong(ready.group(1));
+                }
+            }
+            throw new IllegalStateException("The server exited or took too long without getting ready: " + command);
+        } finally {
+            process.destroy();
+            process.waitFor();
+            try (var files = Files.list(dir)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.controller.CardRequestBodyTimer;
+import ca.cmpt213.controller.TokimonCardController;
+import ca.cmpt213.metrics.TokimonCardMetrics;
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+// Per card cost of reading and editing cards one request per card versus one batch request, for batches of
+// 1, 10, 100 and 1000 cards out of 100k, through the same standalone MockMvc as TokimonCardControllerBenchmark.
+// Every request handles batchSize cards: singleGets and singleEdits send batchSize requests, batchGet and
+// batchMutate send one. Edits are fsynced (sync-every = 1), so singleEdits pays one fsync per card and
+// batchMutate one per batch. main prints the per card time after the usual JMH results.
+// Run with: mvn -Pbenchmark verify -Djmh.include=TokimonCardBatchBenchmark
+// or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.TokimonCardBatchBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class TokimonCardBatchBenchmark {
+    private static final int SIZE = 100_000;
+    private static final int BODIES = 64; // request bodies made up front, used in turn
+    private static final String CHANGES = "{\"elementType\":\"NORMAL\",\"healthPoints\":120}";
+
+    @Param({"1", "10", "100", "1000"})
+    private int batchSize;
+
+    private Path dir;
+    private TokimonCardController controller;
+    private MockMvc mvc;
+    private long[][] tids;
+    private String[] getBodies;
+    private String[] mutateBodies;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tokimon-batch-bench");
+        controller = new TokimonCardController();
+        ReflectionTestUtils.setField(controller, "storeFile", dir.resolve("tokimon.json").toString());
+        ReflectionTestUtils.setField(controller, "syncEvery", 1);
+        ReflectionTestUtils.setField(controller, "durabilityMode", "sync");
+        ReflectionTestUtils.setField(controller, "compactEvery", Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(controller, "maxBatchSize", 256);
+        ReflectionTestUtils.setField(controller, "changeFeedCapacity", 4096);
+        ReflectionTestUtils.setField(controller, "snapshotFormat", "json");
+        ReflectionTestUtils.setField(controller, "storageBackend", "heap");
+        TokimonCardMetrics metrics = new TokimonCardMetrics(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(controller, "metrics", metrics);
+        controller.init();
+        TokimonCardList tokimonCardList = (TokimonCardList) ReflectionTestUtils.getField(controller, "tokimonCardList");
+
+        List<TokimonCard> cards = new ArrayList<>(SIZE);
+        for (int i = 1; i <= SIZE; i++) {
+            cards.add(new TokimonCard(i, "Tokimon" + i, TokimonCard.ElementType.values()[i % 16], "charmander.png", i % 200, i % 150));
+        }
+        tokimonCardList.addTokimonCards(cards);
+        ReflectionTestUtils.setField(controller, "nextId", new AtomicInteger(SIZE + 1));
+
+        Random random = new Random(1);
+        tids = new long[BODIES][batchSize];
+        getBodies = new String[BODIES];
+        mutateBodies = new String[BODIES];
+        for (int i = 0; i < BODIES; i++) {
+            StringJoiner get = new StringJoiner(",", "[", "]");
+            StringJoiner mutate = new StringJoiner(",", "[", "]");
+            for (int j = 0; j < batchSize; j++) {
+                tids[i][j] = 1 + random.nextInt(SIZE);
+                get.add(Long.toString(tids[i][j]));
+                mutate.add("{\"op\":\"edit\",\"tid\":" + tids[i][j] + ",\"card\":" + CHANGES + "}");
+            }
+            getBodies[i] = get.toString();
+            mutateBodies[i] = mutate.toString();
+        }
+
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new CardRequestBodyTimer(metrics))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        controller.close();
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private int nextBody() {
+        next = (next + 1) % BODIES;
+        return next;
+    }
+
+    @Benchmark
+    public MvcResult singleGets() throws Exception {
+        MvcResult result = null;
+        for (long tid : tids[nextBody()]) {
+            result = mvc.perform(get("/api/tokimon/{tid}", tid)).andReturn();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public MvcResult batchGet() throws Exception {
+        return mvc.perform(post("/api/tokimon/batch/get").contentType(MediaType.APPLICATION_JSON).content(getBodies[nextBody()])).andReturn();
+    }
+
+    @Benchmark
+    public MvcResult singleEdits() throws Exception {
+        MvcResult result = null;
+        for (long tid : tids[nextBody()]) {
+            result = dispatch(mvc.perform(put("/api/tokimon/edit/{tid}", tid).contentType(MediaType.APPLICATION_JSON).content(CHANGES)).andReturn());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public MvcResult batchMutate() throws Exception {
+        return dispatch(mvc.perform(post("/api/tokimon/batch/mutate").contentType(MediaType.APPLICATION_JSON).content(mutateBodies[nextBody()])).andReturn());
+    }
+
+    // edits answer with a future, dispatching waits for the commit and writes the response
+    private MvcResult dispatch(MvcResult result) throws Exception {
+        return mvc.perform(asyncDispatch(result)).andReturn();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokimonCardBatchBenchmark.class.getSimpleName())
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.printf("%n%-14s %10s %16s%n", "benchmark", "batchSize", "us per card");
+        for (RunResult result : results) {
+            int batchSize = Integer.parseInt(result.getParams().getParam("batchSize"));
+            String benchmark = result.getParams().getBenchmark();
+            System.out.printf("%-14s %10d %16.2f%n", benchmark.substring(benchmark.lastIndexOf('.') + 1), batchSize,
+                    result.getPrimaryResult().getScore() / batchSize);
+        }
+    }
+}
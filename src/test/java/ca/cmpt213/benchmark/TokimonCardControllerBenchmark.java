@@ -0,0 +1,169 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.controller.CardRequestBodyTimer;
+import ca.cmpt213.controller.TokimonCardController;
+import ca.cmpt213.metrics.TokimonCardMetrics;
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+// End to end cost of the card endpoints: request mapping, argument binding, json (de)serialization of the
+// body, the store call and writing the response. Uses a standalone MockMvc around one TokimonCardController,
+// so there is no socket or Spring Boot context, just the Spring MVC dispatch path.
+// The log is never fsynced, like TokimonCardStoreBenchmark, so the numbers are the handler's own cost.
+// Run with: mvn -Pbenchmark verify -Djmh.include=TokimonCardControllerBenchmark
+// or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.TokimonCardControllerBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class TokimonCardControllerBenchmark {
+    private static final int BATCH = 1000;
+    private static final String NEW_CARD = "{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"imageName\":\"ditto.png\",\"healthPoints\":150,\"attackPoints\":20}";
+    private static final String CHANGES = "{\"elementType\":\"NORMAL\",\"healthPoints\":120}";
+
+    @Param({"10", "1000", "100000"})
+    private int size;
+
+    private Path dir;
+    private TokimonCardController controller;
+    private TokimonCardList tokimonCardList;
+    private MockMvc mvc;
+    private final ArrayDeque<Long> deletable = new ArrayDeque<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tokimon-controller-bench");
+        controller = new TokimonCardController();
+        ReflectionTestUtils.setField(controller, "storeFile", dir.resolve("tokimon.json").toString());
+        ReflectionTestUtils.setField(controller, "resetOnStart", false);
+        ReflectionTestUtils.setField(controller, "syncEvery", 0);
+        ReflectionTestUtils.setField(controller, "compactEvery", Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(controller, "maxBatchSize", 256);
+        ReflectionTestUtils.setField(controller, "bulkBatchSize", 5000);
+        ReflectionTestUtils.setField(controller, "durabilityMode", "sync");
+        ReflectionTestUtils.setField(controller, "snapshotFormat", "json");
+        ReflectionTestUtils.setField(controller, "storageBackend", "heap");
+        ReflectionTestUtils.setField(controller, "changeFeedCapacity", 4096);
+        // metrics are recorded like in the server, into a registry nobody reads
+        TokimonCardMetrics metrics = new TokimonCardMetrics(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(controller, "metrics", metrics);
+        controller.init();
+        tokimonCardList = (TokimonCardList) ReflectionTestUtils.getField(controller, "tokimonCardList");
+
+        List<TokimonCard> cards = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            cards.add(new TokimonCard(i, "Tokimon" + i, TokimonCard.ElementType.values()[i % 16], "charmander.png", i % 200, i % 150));
+        }
+        tokimonCardList.addTokimonCards(cards);
+        ReflectionTestUtils.setField(controller, "nextId", new AtomicInteger(size + 1));
+
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new CardRequestBodyTimer(metrics))
+                .build();
+    }
+
+    // delete removes BATCH extra cards per iteration so the collection keeps its size, see TokimonCardStoreBenchmark
+    @Setup(Level.Iteration)
+    public void addDeletableCards(BenchmarkParams params) {
+        if (!params.getBenchmark().endsWith(".delete")) {
+            return;
+        }
+        AtomicInteger nextId = (AtomicInteger) ReflectionTestUtils.getField(controller, "nextId");
+        long tid = nextId.getAndAdd(BATCH);
+        List<TokimonCard> extra = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            deletable.add(tid);
+            extra.add(new TokimonCard(tid++, "Extra", TokimonCard.ElementType.BUG, "charmander.png", 10, 10));
+        }
+        tokimonCardList.addTokimonCards(extra);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        controller.close();
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private long randomTid() {
+        return ThreadLocalRandom.current().nextLong(1, size + 1);
+    }
+
+    @Benchmark
+    public MvcResult getById() throws Exception {
+        return mvc.perform(get("/api/tokimon/{tid}", randomTid())).andReturn();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MvcResult getAll() throws Exception {
+        return mvc.perform(get("/api/tokimon/all")).andReturn();
+    }
+
+    @Benchmark
+    public MvcResult page() throws Exception {
+        return mvc.perform(get("/api/tokimon/page").param("sort", "attackPoints").param("order", "desc")).andReturn();
+    }
+
+    // the store grows by one card per call, at these sizes that doesn't change the cost of an add
+    @Benchmark
+    public MvcResult add() throws Exception {
+        return dispatch(mvc.perform(post("/api/tokimon/add").contentType(MediaType.APPLICATION_JSON).content(NEW_CARD)).andReturn());
+    }
+
+    @Benchmark
+    public MvcResult update() throws Exception {
+        return dispatch(mvc.perform(put("/api/tokimon/edit/{tid}", randomTid()).contentType(MediaType.APPLICATION_JSON).content(CHANGES)).andReturn());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = BATCH)
+    @Measurement(iterations = 5, batchSize = BATCH)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MvcResult delete() throws Exception {
+        // qualified because this method hides the static import of the same name
+        return dispatch(mvc.perform(MockMvcRequestBuilders.delete("/api/tokimon/{tid}", deletable.poll())).andReturn());
+    }
+
+    // add, edit and delete answer with a future, dispatching waits for the commit and writes the response
+    private MvcResult dispatch(MvcResult result) throws Exception {
+        return mvc.perform(asyncDispatch(result)).andReturn();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokimonCardControllerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,88 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.TokimonCard;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Jackson serialization and deserialization of TokimonCard, the work every request body and response does.
+// The *Card benchmarks are one card (add/edit/get by id bodies), the *List ones are count cards like /api/tokimon/all.
+// Run with: mvn -Pbenchmark verify -Djmh.include=TokimonCardJsonBenchmark
+// or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.TokimonCardJsonBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokimonCardJsonBenchmark {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Param({"1", "100", "10000"})
+    private int count;
+
+    private ObjectWriter cardWriter;
+    private ObjectReader cardReader;
+    private ObjectWriter listWriter;
+    private ObjectReader listReader;
+
+    private TokimonCard card;
+    private byte[] cardJson;
+    private List<TokimonCard> cards;
+    private byte[] cardsJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        TypeReference<List<TokimonCard>> listType = new TypeReference<>(){};
+        cardWriter = mapper.writerFor(TokimonCard.class);
+        cardReader = mapper.readerFor(TokimonCard.class);
+        listWriter = mapper.writerFor(listType);
+        listReader = mapper.readerFor(listType);
+
+        cards = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            cards.add(new TokimonCard(i, "Tokimon" + i, TokimonCard.ElementType.values()[i % 16], "charmander.png", i % 200, i % 150));
+        }
+        card = cards.get(0);
+        cardJson = cardWriter.writeValueAsBytes(card);
+        cardsJson = listWriter.writeValueAsBytes(cards);
+    }
+
+    @Benchmark
+    public byte[] serializeCard() throws IOException {
+        return cardWriter.writeValueAsBytes(card);
+    }
+
+    @Benchmark
+    public TokimonCard deserializeCard() throws IOException {
+        return cardReader.readValue(cardJson);
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws IOException {
+        return listWriter.writeValueAsBytes(cards);
+    }
+
+    @Benchmark
+    public List<TokimonCard> deserializeList() throws IOException {
+        return listReader.readValue(cardsJson);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokimonCardJsonBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,93 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Compares the in-memory TokimonCardList against the old behaviour of re-parsing tokimon.json on every read.
+// The legacy* methods reproduce what getTokimonCard/getTokimonCards used to do before the store was kept in memory.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.TokimonCardListBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokimonCardListBenchmark {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Param({"10", "1000", "10000"})
+    private int size;
+
+    private File file;
+    private TokimonCardList tokimonCardList;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("tokimon-bench", ".json").toFile();
+        tokimonCardList = new TokimonCardList(file.getPath());
+        // start from the 3 sample cards and fill the list up to the requested size
+        tokimonCardList.resetToSampleCards();
+        for (int i = 4; i <= size; i++) {
+            tokimonCardList.addTokimonCard(new TokimonCard(i, "Tokimon" + i, TokimonCard.ElementType.FIRE, "charmander.png", 100, 50));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    private long randomTid() {
+        return ThreadLocalRandom.current().nextLong(1, Math.max(size, 3) + 1);
+    }
+
+    @Benchmark
+    public TokimonCard getById() {
+        return tokimonCardList.getTokimonCard(randomTid());
+    }
+
+    @Benchmark
+    public List<TokimonCard> getAll() {
+        return tokimonCardList.getTokimonCards();
+    }
+
+    @Benchmark
+    public TokimonCard legacyGetById() throws IOException {
+        long tid = randomTid();
+        List<TokimonCard> tokimonCards = mapper.readValue(file, new TypeReference<List<TokimonCard>>(){});
+        for (TokimonCard tokimonCard : tokimonCards) {
+            if (tokimonCard.getTid() == tid) {
+                return tokimonCard;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public List<TokimonCard> legacyGetAll() throws IOException {
+        // the old GET /api/tokimon/all parsed the file twice per request
+        mapper.readValue(file, new TypeReference<List<TokimonCard>>(){});
+        return mapper.readValue(file, new TypeReference<List<TokimonCard>>(){});
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokimonCardListBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,112 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.CardStorageBackend;
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import ca.cmpt213.model.TokimonCardScan;
+import ca.cmpt213.model.TokimonCardScanResult;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// The scatter-gather query engine (POST /api/tokimon/query) on 10 million cards with 1 to 16 scan threads.
+// topByAttackPerHp is the top 100 FIRE and DRAGON cards of rarity 7 and up by attack/hp, groupByElementType
+// counts, ranges and the 10 strongest cards of every element type over all the cards. Divide the 1 thread
+// time by the n thread time for the speedup, it should stay close to n up to the number of physical cores
+// (past that the threads share cores and memory bandwidth). Drop the parallelism values above your core
+// count with -p parallelism=1,2,4
+// Run with: mvn -Pbenchmark verify -Djmh.include=TokimonCardScanBenchmark
+// or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.TokimonCardScanBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx16g"})
+public class TokimonCardScanBenchmark {
+    private static final int FILL_BATCH = 10_000;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    private CardStorageBackend backend;
+
+    @Param({"10000000"})
+    private int size;
+
+    @Param({"1", "2", "4", "8", "16"})
+    private int parallelism;
+
+    private Path dir;
+    private TokimonCardList tokimonCardList;
+    private TokimonCardScan topByAttackPerHp;
+    private TokimonCardScan groupByElementType;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tokimon-scan-bench");
+        TokimonCardListSettings settings = new TokimonCardListSettings(dir.resolve("tokimon.json").toString());
+        settings.setSyncEvery(0);
+        settings.setCompactEvery(Integer.MAX_VALUE);
+        settings.setStorageBackend(backend);
+        settings.setQueryParallelism(parallelism);
+        tokimonCardList = new TokimonCardList(settings);
+        List<TokimonCard> batch = new ArrayList<>(FILL_BATCH);
+        for (int i = 1; i <= size; i++) {
+            batch.add(TokimonCardStoreBenchmark.card(i));
+            if (batch.size() == FILL_BATCH || i == size) {
+                tokimonCardList.addTokimonCards(batch);
+                batch = new ArrayList<>(FILL_BATCH);
+            }
+        }
+
+        topByAttackPerHp = new TokimonCardScan();
+        topByAttackPerHp.getWhere().setElementType(Set.of(TokimonCard.ElementType.FIRE, TokimonCard.ElementType.DRAGON));
+        topByAttackPerHp.getWhere().setRarity(new TokimonCardScan.Range(7L, null));
+        topByAttackPerHp.setOrderBy("attackPoints/healthPoints");
+        topByAttackPerHp.setOrder("desc");
+        topByAttackPerHp.setLimit(100);
+        topByAttackPerHp.setSelect(List.of("tid", "name", "attackPoints/healthPoints"));
+
+        groupByElementType = new TokimonCardScan();
+        groupByElementType.setGroupBy("elementType");
+        groupByElementType.setOrderBy("attackPoints");
+        groupByElementType.setOrder("desc");
+        groupByElementType.setLimit(10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tokimonCardList.close();
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public TokimonCardScanResult topByAttackPerHp() {
+        return tokimonCardList.scanTokimonCards(topByAttackPerHp);
+    }
+
+    @Benchmark
+    public TokimonCardScanResult groupByElementType() {
+        return tokimonCardList.scanTokimonCards(groupByElementType);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokimonCardScanBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,105 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Latency of /api/tokimon/search over a million cards, through TokimonCardList.searchTokimonCards.
+// Names are made of a few random syllables ("Chusaurbel"), a quarter of them with a title ("the Ramon") and
+// half with a number, so prefixes are shared by thousands of cards the way real names are. The queries cover
+// a short prefix, a full name, a word with one and with two typos, and two words that each match thousands
+// of cards but few together. Sample time mode, read the p0.99 line of each result.
+// Run with: mvn -Pbenchmark verify -Djmh.include=TokimonCardSearchBenchmark
+// or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.TokimonCardSearchBenchmark
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class TokimonCardSearchBenchmark {
+    private static final int FILL_BATCH = 10_000;
+    private static final String[] SYLLABLES = {"to", "ki", "ma", "chu", "saur", "zor", "bel", "ix", "ra", "mon",
+            "dra", "pik", "lu", "ne", "ta"};
+
+    @Param({"1000000"})
+    private int size;
+
+    @Param({"to", "chusaurbel", "chusaurbl", "zrobelix", "ra the", "kima 12"})
+    private String query;
+
+    private Path dir;
+    private TokimonCardList tokimonCardList;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tokimon-search-bench");
+        TokimonCardListSettings settings = new TokimonCardListSettings(dir.resolve("tokimon.json").toString());
+        settings.setSyncEvery(0);
+        settings.setCompactEvery(Integer.MAX_VALUE);
+        tokimonCardList = new TokimonCardList(settings);
+
+        Random random = new Random(1);
+        List<TokimonCard> batch = new ArrayList<>(FILL_BATCH);
+        for (int i = 1; i <= size; i++) {
+            TokimonCard tokimonCard = TokimonCardStoreBenchmark.card(i);
+            tokimonCard.setName(name(random));
+            batch.add(tokimonCard);
+            if (batch.size() == FILL_BATCH || i == size) {
+                tokimonCardList.addTokimonCards(batch);
+                batch = new ArrayList<>(FILL_BATCH);
+            }
+        }
+    }
+
+    private static String name(Random random) {
+        StringBuilder name = new StringBuilder();
+        int syllables = 2 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        if (random.nextInt(4) == 0) {
+            name.append(" the ").append(SYLLABLES[random.nextInt(SYLLABLES.length)])
+                    .append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        if (random.nextInt(2) == 0) {
+            name.append(' ').append(random.nextInt(1000));
+        }
+        return name.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tokimonCardList.close();
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public List<TokimonCard> search() {
+        return tokimonCardList.searchTokimonCards(query, 20, true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokimonCardSearchBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
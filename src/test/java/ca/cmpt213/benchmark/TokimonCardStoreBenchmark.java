@@ -0,0 +1,150 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Cost of each TokimonCardList operation (get by id, get all, add, update, delete) as the collection grows
+// from 10 to 1M cards. The log is written but never fsynced or compacted, so this measures the store itself
+// rather than the disk, WriteThroughputBenchmark covers the durable write path.
+// add and delete change the size of the store, so they run as single shots of BATCH calls per iteration
+// and the store is brought back to its size between iterations.
+// Run with: mvn -Pbenchmark verify -Djmh.include=TokimonCardStoreBenchmark
+// or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.TokimonCardStoreBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class TokimonCardStoreBenchmark {
+    private static final int BATCH = 1000;
+    private static final int FILL_BATCH = 10_000;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int size;
+
+    private Path dir;
+    private TokimonCardList tokimonCardList;
+
+    // cards added by add() during an iteration, removed again before the next one
+    private final List<Long> added = new ArrayList<>();
+    private long nextTid;
+    // cards waiting to be removed by delete()
+    private final ArrayDeque<Long> deletable = new ArrayDeque<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tokimon-store-bench");
+        TokimonCardListSettings settings = new TokimonCardListSettings(dir.resolve("tokimon.json").toString());
+        settings.setSyncEvery(0);
+        settings.setCompactEvery(Integer.MAX_VALUE);
+        tokimonCardList = new TokimonCardList(settings);
+        // fill in large commits, one card at a time would take longer than the benchmark itself at 1M
+        List<TokimonCard> batch = new ArrayList<>(FILL_BATCH);
+        for (int i = 1; i <= size; i++) {
+            batch.add(card(i));
+            if (batch.size() == FILL_BATCH || i == size) {
+                tokimonCardList.addTokimonCards(batch);
+                batch = new ArrayList<>(FILL_BATCH);
+            }
+        }
+        nextTid = size + 1;
+    }
+
+    @Setup(Level.Iteration)
+    public void restoreSize(BenchmarkParams params) {
+        for (long tid : added) {
+            tokimonCardList.deleteTokimonCard(tid);
+        }
+        added.clear();
+        if (!params.getBenchmark().endsWith(".delete")) {
+            return;
+        }
+        // delete() removes BATCH extra cards on top of the collection, so even the 10 card store has enough
+        List<TokimonCard> extra = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            deletable.add(nextTid);
+            extra.add(card(nextTid++));
+        }
+        tokimonCardList.addTokimonCards(extra);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tokimonCardList.close();
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    static TokimonCard card(long tid) {
+        return new TokimonCard(tid, "Tokimon" + tid, TokimonCard.ElementType.values()[(int) (tid % 16)], "charmander.png", (int) (tid % 200), (int) (tid % 150));
+    }
+
+    private long randomTid() {
+        return ThreadLocalRandom.current().nextLong(1, size + 1);
+    }
+
+    @Benchmark
+    public TokimonCard getById() {
+        return tokimonCardList.getTokimonCard(randomTid());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<TokimonCard> getAll() {
+        return tokimonCardList.getTokimonCards();
+    }
+
+    @Benchmark
+    public void update() {
+        long tid = randomTid();
+        TokimonCard changes = new TokimonCard();
+        changes.setHealthPoints(1 + ThreadLocalRandom.current().nextInt(200));
+        tokimonCardList.updateTokimonCard(tid, changes);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = BATCH)
+    @Measurement(iterations = 5, batchSize = BATCH)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void add() {
+        long tid = nextTid++;
+        tokimonCardList.addTokimonCard(card(tid));
+        added.add(tid);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = BATCH)
+    @Measurement(iterations = 5, batchSize = BATCH)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void delete() {
+        tokimonCardList.deleteTokimonCard(deletable.poll());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokimonCardStoreBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,132 @@
+package ca.cmpt213.benchmark;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import ca.cmpt213.persistence.CardDurabilityMode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Measures how many card writes per second the group-commit pipeline sustains as the number of
+// concurrent writers goes from 1 to 256, and how long each write waits for its acknowledgement, once per
+// durability mode. In sync mode every write is fsync'd (sync-every = 1), so without batching the rate would
+// stay flat at the disk's fsync rate no matter how many clients there are. Async and periodic acknowledge
+// before the fsync, so their latency is the commit thread's turnaround and stops depending on the disk.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ca.cmpt213.benchmark.WriteThroughputBenchmark
+// optional args: <seconds per level, default 5> <max batch size, default 256> <modes, default sync,async,periodic>
+public class WriteThroughputBenchmark {
+    private static final int[] CONCURRENCY = {1, 2, 4, 8, 16, 32, 64, 128, 256};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int maxBatchSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        List<CardDurabilityMode> durabilityModes = new ArrayList<>();
+        for (String mode : (args.length > 2 ? args[2] : "sync,async,periodic").split(",")) {
+            durabilityModes.add(CardDurabilityMode.fromName(mode));
+        }
+
+        for (CardDurabilityMode durabilityMode : durabilityModes) {
+            System.out.printf("%n%s%n", durabilityMode);
+            System.out.printf("%-8s %12s %14s %12s %12s %12s%n", "threads", "writes", "writes/sec", "p50 us", "p99 us", "max us");
+            for (int threads : CONCURRENCY) {
+                Result result = run(durabilityMode, threads, seconds, maxBatchSize);
+                System.out.printf("%-8d %12d %14.0f %12d %12d %12d%n", threads, result.writes(), result.writes() / result.seconds(),
+                        result.percentile(0.50) / 1000, result.percentile(0.99) / 1000, result.percentile(1) / 1000);
+            }
+        }
+    }
+
+    private static Result run(CardDurabilityMode durabilityMode, int threads, int seconds, int maxBatchSize)
+            throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("tokimon-write-bench");
+        TokimonCardListSettings settings = new TokimonCardListSettings(dir.resolve("tokimon.json").toString());
+        settings.setSyncEvery(1);
+        settings.setDurabilityMode(durabilityMode);
+        settings.setCompactEvery(Integer.MAX_VALUE); // measure the log path only
+        settings.setMaxBatchSize(maxBatchSize);
+
+        AtomicLong nextId = new AtomicLong(1);
+        try (TokimonCardList tokimonCardList = new TokimonCardList(settings)) {
+            CountDownLatch start = new CountDownLatch(1);
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Thread> writers = new ArrayList<>();
+            Latencies[] latencies = new Latencies[threads];
+            for (int i = 0; i < threads; i++) {
+                Latencies writerLatencies = new Latencies();
+                latencies[i] = writerLatencies;
+                Thread writer = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long now;
+                    while ((now = System.nanoTime()) < deadline) {
+                        long tid = nextId.getAndIncrement();
+                        tokimonCardList.addTokimonCard(new TokimonCard(tid, "Tokimon" + tid, TokimonCard.ElementType.FIRE, "charmander.png", 100, 50));
+                        writerLatencies.add(System.nanoTime() - now);
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            double elapsed = (System.nanoTime() - begin) / 1e9;
+            return new Result(Latencies.merge(latencies), elapsed);
+        } finally {
+            try (var files = Files.list(dir)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // every write's latency in nanoseconds, one per writer thread so recording never contends
+    private static class Latencies {
+        private long[] nanos = new long[1024];
+        private int size;
+
+        void add(long latency) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = latency;
+        }
+
+        static long[] merge(Latencies[] latencies) {
+            long[] merged = new long[Arrays.stream(latencies).mapToInt(writer -> writer.size).sum()];
+            int size = 0;
+            for (Latencies writer : latencies) {
+                System.arraycopy(writer.nanos, 0, merged, size, writer.size);
+                size += writer.size;
+            }
+            Arrays.sort(merged);
+            return merged;
+        }
+    }
+
+    private record Result(long[] latencies, double seconds) {
+        long writes() {
+            return latencies.length;
+        }
+
+        long percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            return latencies[(int) Math.min(latencies.length - 1, Math.floor(percentile * latencies.length))];
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.admission.AdaptiveConcurrencyLimiter;
+import ca.cmpt213.admission.TokenBucket;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//the token buckets and the concurrency limiter behind admission control, driven with a made-up clock
+public class AdmissionControlTest {
+	private static final long MILLI = 1_000_000;
+
+	//a full bucket lets a burst through, then one token per refill interval
+	@Test
+	public void testTokenBucketBurstThenRate() {
+		TokenBucket bucket = new TokenBucket(10, 5); // a token every 100 ms
+		long now = 1_000 * MILLI;
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, bucket.tryTake(1, now));
+		}
+		long wait = bucket.tryTake(1, now);
+		assertEquals(100 * MILLI, wait);
+		assertEquals(50 * MILLI, bucket.tryTake(1, now + 50 * MILLI));
+		assertEquals(0, bucket.tryTake(1, now + 100 * MILLI));
+		assertFalse(bucket.isFull(now + 100 * MILLI));
+		assertTrue(bucket.isFull(now + 600 * MILLI));
+	}
+
+	//taking several tokens waits for all of them, more than the bucket holds costs a full bucket
+	@Test
+	public void testTokenBucketBulkCost() {
+		TokenBucket bucket = new TokenBucket(10, 5);
+		long now = 1_000 * MILLI;
+		assertEquals(0, bucket.tryTake(3, now));
+		assertEquals(100 * MILLI, bucket.tryTake(3, now));
+		assertEquals(0, bucket.tryTake(2, now));
+		assertEquals(0, bucket.tryTake(50, now + 500 * MILLI));
+		assertEquals(500 * MILLI, bucket.tryTake(50, now + 500 * MILLI));
+		assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 5));
+	}
+
+	//tokens given back can be taken again straight away, but never fill the bucket past its burst
+	@Test
+	public void testTokenBucketRefund() {
+		TokenBucket bucket = new TokenBucket(10, 5);
+		long now = 1_000 * MILLI;
+		assertEquals(0, bucket.tryTake(5, now));
+		assertEquals(100 * MILLI, bucket.tryTake(1, now));
+		bucket.refund(2);
+		assertEquals(0, bucket.tryTake(2, now));
+		assertEquals(100 * MILLI, bucket.tryTake(1, now));
+
+		bucket.refund(5);
+		assertTrue(bucket.isFull(now + 600 * MILLI));
+		bucket.refund(5);
+		assertEquals(0, bucket.tryTake(5, now + 600 * MILLI));
+		assertEquals(100 * MILLI, bucket.tryTake(1, now + 600 * MILLI));
+	}
+
+	//requests over the limit are turned away until one in progress is released
+	@Test
+	public void testLimiterRejectsOverLimit() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 3, 10, 2.0);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		assertEquals(3, limiter.getInFlight());
+		limiter.release();
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+	}
+
+	//latency well past the tolerance shrinks the limit, steady latency with the limit in use grows it back
+	@Test
+	public void testLimiterFollowsLatency() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 32, 512, 2.0);
+		long now = 0;
+		now = runWindows(limiter, 20, 5 * MILLI, 32, now);
+		int steady = limiter.getLimit();
+		assertTrue(steady > 32, "limit " + steady);
+
+		now = runWindows(limiter, 20, 50 * MILLI, steady, now);
+		int overloaded = limiter.getLimit();
+		assertTrue(overloaded < steady / 2, "limit " + overloaded + " after " + steady);
+		assertTrue(overloaded >= 4);
+
+		runWindows(limiter, 20, 5 * MILLI, overloaded, now);
+		assertTrue(limiter.getLimit() > overloaded, "limit " + limiter.getLimit() + " after " + overloaded);
+	}
+
+	//latency within the tolerance but the limit barely used leaves the limit where it is
+	@Test
+	public void testLimiterDoesNotGrowWhenIdle() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 32, 512, 2.0);
+		runWindows(limiter, 20, 5 * MILLI, 2, 0);
+		assertEquals(32, limiter.getLimit());
+	}
+
+	// windows of 20 requests, up to concurrency of them in progress at once, each taking latency; returns the clock
+	private static long runWindows(AdaptiveConcurrencyLimiter limiter, int windows, long latency, int concurrency, long now) {
+		for (int window = 0; window < windows; window++) {
+			int acquired = 0;
+			while (acquired < concurrency && limiter.tryAcquire()) {
+				acquired++;
+			}
+			for (int i = 0; i < 20; i++) {
+				now += 10 * MILLI;
+				if (acquired == 0) {
+					assertTrue(limiter.tryAcquire());
+					acquired++;
+				}
+				limiter.release(latency, now);
+				acquired--;
+				if (limiter.tryAcquire()) {
+					acquired++;
+				}
+			}
+			while (acquired > 0) {
+				limiter.release();
+				acquired--;
+			}
+		}
+		return now;
+	}
+}
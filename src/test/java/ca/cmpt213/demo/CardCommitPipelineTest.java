@@ -0,0 +1,54 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.exception.TokimonCardPersistenceException;
+import ca.cmpt213.persistence.CardCommitPipeline;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CardCommitPipelineTest {
+
+	//a batch that can't be committed fails, and so does every change after it: none of them is applied
+	@Test
+	public void testFailedCommitStopsThePipeline() {
+		AtomicBoolean failNext = new AtomicBoolean(true);
+		List<Integer> applied = new CopyOnWriteArrayList<>();
+		try (CardCommitPipeline pipeline = new CardCommitPipeline("test-commit", 16, () -> {
+			if (failNext.getAndSet(false)) {
+				throw new TokimonCardPersistenceException("disk full", null);
+			}
+		})) {
+			CompletableFuture<Integer> first = pipeline.submit(() -> {
+				applied.add(1);
+				return 1;
+			});
+			CompletionException failed = assertThrows(CompletionException.class, first::join);
+			assertEquals("disk full", failed.getCause().getMessage());
+			assertNotNull(pipeline.getFailure());
+
+			//the next commit would succeed, but it is never tried
+			CompletableFuture<Integer> second = pipeline.submit(() -> {
+				applied.add(2);
+				return 2;
+			});
+			assertThrows(CompletionException.class, second::join);
+			assertEquals(List.of(1), applied);
+		}
+	}
+
+	//a batch that commits completes every change in it with its result
+	@Test
+	public void testCommittedChangesComplete() {
+		try (CardCommitPipeline pipeline = new CardCommitPipeline("test-commit", 16, () -> {})) {
+			assertEquals(1, (int) pipeline.submit(() -> 1).join());
+			assertEquals(2, (int) pipeline.submit(() -> 2).join());
+			assertNull(pipeline.getFailure());
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import ca.cmpt213.model.TokimonCardMutation;
+import ca.cmpt213.replication.CardReplicationFollower;
+import ca.cmpt213.replication.CardReplicationLeader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//a follower connected to a leader over a local socket ends up with exactly the leader's cards
+public class CardReplicationTest {
+	@TempDir
+	Path tempDir;
+
+	private CardReplicationLeader leader;
+	private TokimonCardList leaderList;
+	private TokimonCardList replica;
+	private CardReplicationFollower follower;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		leader = new CardReplicationLeader("127.0.0.1", 0, 1000);
+		TokimonCardListSettings settings = new TokimonCardListSettings(tempDir.resolve("leader.json").toString());
+		settings.setSyncEvery(0);
+		settings.setLogListener(leader);
+		leaderList = new TokimonCardList(settings);
+		leader.start(leaderList);
+		leaderList.addTokimonCard(card(1, "Tokimander"));
+		leaderList.addTokimonCard(card(2, "Tokiurtle"));
+
+		TokimonCardListSettings replicaSettings = new TokimonCardListSettings(tempDir.resolve("replica.json").toString());
+		replicaSettings.setReplica(true);
+		replica = new TokimonCardList(replicaSettings);
+		follower = new CardReplicationFollower(replica, "127.0.0.1", leader.getPort());
+		follower.start();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		follower.close();
+		replica.close();
+		leader.close();
+		leaderList.close();
+	}
+
+	private static TokimonCard card(long tid, String name) {
+		return new TokimonCard(tid, name, TokimonCard.ElementType.FIRE, "charmander.png", 100, 50);
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the replica");
+			Thread.sleep(10);
+		}
+	}
+
+	private void assertSameCards() throws InterruptedException {
+		await(() -> follower.getSnapshots() > 0 && follower.getLagRecords() == 0 && replica.size() == leaderList.size());
+		List<TokimonCard> expected = leaderList.getTokimonCards();
+		List<TokimonCard> actual = replica.getTokimonCards();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getTid(), actual.get(i).getTid());
+			assertEquals(expected.get(i).getName(), actual.get(i).getName());
+			assertEquals(expected.get(i).getHealthPoints(), actual.get(i).getHealthPoints());
+		}
+	}
+
+	//the snapshot brings the cards the leader had before the follower connected, then every kind of change follows
+	@Test
+	public void testFollowerReplaysChanges() throws Exception {
+		await(() -> follower.getSnapshots() == 1);
+		assertEquals(2, replica.size());
+
+		leaderList.addTokimonCard(card(3, "Tokisaur"));
+		TokimonCard changes = new TokimonCard();
+		changes.setHealthPoints(7);
+		changes.setImageName("squirtle.png");
+		leaderList.updateTokimonCard(2, changes);
+		leaderList.deleteTokimonCard(1);
+		leaderList.mutateTokimonCardsAsync(List.of(
+				new TokimonCardMutation(TokimonCardMutation.Type.ADD, 0, card(4, "Tokitto")),
+				new TokimonCardMutation(TokimonCardMutation.Type.DELETE, 3, null))).join();
+
+		await(() -> replica.getReplicatedSeq() == 6);
+		assertSameCards();
+		assertEquals(7, replica.getTokimonCard(2).getHealthPoints());
+		assertTrue(replica.searchTokimonCards("tokitto", 5, false).size() == 1, "the replica's indexes follow too");
+		assertEquals(1, follower.getSnapshots());
+	}
+
+	//a replica can't be changed directly, and a reset on the leader makes the follower load a new snapshot
+	@Test
+	public void testReplicaFollowsReset() throws Exception {
+		await(() -> follower.getSnapshots() == 1);
+		assertThrows(IllegalStateException.class, () -> replica.addTokimonCard(card(9, "Tokinope")));
+
+		leaderList.resetToSampleCards();
+		leaderList.addTokimonCard(card(10, "Tokiten"));
+		await(() -> follower.getSnapshots() == 2);
+		assertSameCards();
+		assertTrue(follower.isConnected());
+	}
+}
@@ -0,0 +1,345 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.exception.TokimonCardConflictException;
+import ca.cmpt213.exception.TokimonCardPersistenceException;
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import ca.cmpt213.model.TokimonCardMutation;
+import ca.cmpt213.persistence.CardDurabilityMode;
+import ca.cmpt213.persistence.CardLogListener;
+import ca.cmpt213.persistence.CardSnapshotFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CardWriteAheadLogTest {
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	@TempDir //junit creates a fresh directory for each test and deletes it afterwards
+	Path tempDir;
+
+	//every change made before the list was closed should come back when the log is replayed
+	@Test
+	public void testReplayRecoversChanges() {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file)) {
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+			TokimonCard update = new TokimonCard();
+			update.setName("Tokiturtle");
+			tokimonCardList.updateTokimonCard(2, update);
+			tokimonCardList.deleteTokimonCard(1);
+		}
+
+		try (TokimonCardList recovered = new TokimonCardList(file, 1, 1000)) {
+			List<TokimonCard> tokimonCards = recovered.getTokimonCards();
+			assertEquals(3, tokimonCards.size());
+			assertEquals("Tokiturtle", recovered.getTokimonCard(2).getName());
+			assertEquals("Tokitto", recovered.getTokimonCard(4).getName());
+			assertThrows(RuntimeException.class, () -> recovered.getTokimonCard(1));
+		}
+	}
+
+	//opening a store by its file path keeps what was saved in it, only resetToSampleCards wipes it
+	@Test
+	public void testReopenByFilePathKeepsCards() {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file)) {
+			assertEquals(0, tokimonCardList.getTokimonCards().size());
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+		}
+
+		try (TokimonCardList reopened = new TokimonCardList(file)) {
+			assertEquals(4, reopened.getTokimonCards().size());
+			assertEquals("Tokitto", reopened.getTokimonCard(4).getName());
+		}
+	}
+
+	//loading in the background keeps the saved cards: reads wait for them and changes are applied after them
+	@Test
+	public void testLoadInBackgroundRecoversChanges() {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file)) {
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(40, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+		}
+
+		TokimonCardListSettings settings = new TokimonCardListSettings(file);
+		settings.setLoadInBackground(true);
+		try (TokimonCardList recovered = new TokimonCardList(settings)) {
+			recovered.deleteTokimonCard(1);
+			assertEquals(3, recovered.getTokimonCards().size());
+			assertTrue(recovered.isLoaded());
+			assertNull(recovered.getLoadFailure());
+			assertEquals("Tokitto", recovered.getTokimonCard(40).getName());
+			assertEquals(40, recovered.getMaxTid());
+		}
+	}
+
+	//a store that can't be loaded fails every read and change with the reason, instead of looking empty
+	@Test
+	public void testLoadInBackgroundFailure() throws Exception {
+		Path file = tempDir.resolve("tokimon.json");
+		Files.writeString(file, "not json");
+		TokimonCardListSettings settings = new TokimonCardListSettings(file.toString());
+		settings.setLoadInBackground(true);
+		try (TokimonCardList broken = new TokimonCardList(settings)) {
+			assertThrows(RuntimeException.class, broken::getTokimonCards);
+			assertNotNull(broken.getLoadFailure());
+			assertFalse(broken.isLoaded());
+			assertThrows(RuntimeException.class, () -> broken.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20)));
+		}
+	}
+
+	//a batch of mutations is applied whole or not at all, and comes back whole from the log
+	@Test
+	public void testBatchIsAllOrNothing() {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file)) {
+			tokimonCardList.resetToSampleCards();
+			TokimonCard rename = new TokimonCard();
+			rename.setName("Tokiturtle");
+			//the delete of 9 fails, so the add and the delete of 1 before it don't happen either
+			List<TokimonCardMutation> failing = List.of(
+					new TokimonCardMutation(TokimonCardMutation.Type.ADD, 0, new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20)),
+					new TokimonCardMutation(TokimonCardMutation.Type.DELETE, 1, null),
+					new TokimonCardMutation(TokimonCardMutation.Type.DELETE, 9, null));
+			assertThrows(RuntimeException.class, () -> tokimonCardList.mutateTokimonCardsAsync(failing).join());
+			assertEquals(3, tokimonCardList.size());
+
+			//a card added earlier in the batch can be edited and deleted later in it
+			List<TokimonCard> results = tokimonCardList.mutateTokimonCardsAsync(List.of(
+					new TokimonCardMutation(TokimonCardMutation.Type.ADD, 0, new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20)),
+					new TokimonCardMutation(TokimonCardMutation.Type.EDIT, 2, rename),
+					new TokimonCardMutation(TokimonCardMutation.Type.ADD, 0, new TokimonCard(5, "Tokichu", TokimonCard.ElementType.ELECTRIC, "pikachu.png", 90, 55)),
+					new TokimonCardMutation(TokimonCardMutation.Type.DELETE, 5, null),
+					new TokimonCardMutation(TokimonCardMutation.Type.DELETE, 1, null))).join();
+			assertEquals(5, results.size());
+			assertEquals("Tokiturtle", results.get(1).getName());
+			assertNull(results.get(4));
+		}
+
+		try (TokimonCardList recovered = new TokimonCardList(file, 1, 1000)) {
+			assertEquals(3, recovered.size());
+			assertEquals("Tokiturtle", recovered.getTokimonCard(2).getName());
+			assertEquals("Tokitto", recovered.getTokimonCard(4).getName());
+			assertEquals(List.of(1L, 5L), recovered.getTokimonCards(List.of(1L, 2L, 5L, 4L)).missing());
+		}
+	}
+
+	//an edit onto a tid another card has is refused before it reaches the log, so both cards survive a restart
+	@Test
+	public void testEditOntoUsedTidIsRefused() {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file)) {
+			tokimonCardList.resetToSampleCards();
+			TokimonCard move = new TokimonCard();
+			move.setTid(2);
+			assertThrows(TokimonCardConflictException.class, () -> tokimonCardList.updateTokimonCard(1, move));
+			CompletionException batch = assertThrows(CompletionException.class, () -> tokimonCardList.mutateTokimonCardsAsync(List.of(
+					new TokimonCardMutation(TokimonCardMutation.Type.EDIT, 3, move))).join());
+			assertTrue(batch.getCause() instanceof TokimonCardConflictException);
+		}
+
+		try (TokimonCardList recovered = new TokimonCardList(file, 1, 1000)) {
+			assertEquals(3, recovered.size());
+			assertEquals("Tokimander", recovered.getTokimonCard(1).getName());
+			assertEquals("Tokiurtle", recovered.getTokimonCard(2).getName());
+			assertEquals("Tokisaur", recovered.getTokimonCard(3).getName());
+		}
+	}
+
+	//changes acknowledged before the fsync are visible straight away and still come back after a clean close
+	@Test
+	public void testAcknowledgeBeforeSyncRecoversChanges() {
+		for (CardDurabilityMode durabilityMode : List.of(CardDurabilityMode.ASYNC, CardDurabilityMode.PERIODIC)) {
+			String file = tempDir.resolve(durabilityMode + ".json").toString();
+			TokimonCardListSettings settings = new TokimonCardListSettings(file);
+			settings.setDurabilityMode(durabilityMode);
+			settings.setFlushIntervalMillis(10);
+			try (TokimonCardList tokimonCardList = new TokimonCardList(settings)) {
+				List<CompletableFuture<Void>> acknowledgements = new ArrayList<>();
+				for (long tid = 1; tid <= 100; tid++) {
+					acknowledgements.add(tokimonCardList.addTokimonCardAsync(new TokimonCard(tid, "Tokimon" + tid, TokimonCard.ElementType.FIRE, "charmander.png", 100, 50)));
+				}
+				acknowledgements.add(tokimonCardList.deleteTokimonCardAsync(50));
+				CompletableFuture.allOf(acknowledgements.toArray(new CompletableFuture[0])).join();
+				assertEquals(99, tokimonCardList.size());
+			}
+
+			try (TokimonCardList recovered = new TokimonCardList(settings)) {
+				assertEquals(99, recovered.size());
+				assertEquals("Tokimon100", recovered.getTokimonCard(100).getName());
+				assertThrows(RuntimeException.class, () -> recovered.getTokimonCard(50));
+			}
+		}
+	}
+
+	//a record cut off halfway by a crash is dropped, everything before it is kept
+	@Test
+	public void testReplayIgnoresTornRecord() throws Exception {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file)) {
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+		}
+		Files.writeString(Path.of(file + ".wal"), "{\"seq\":2,\"op\":\"DEL", StandardOpenOption.APPEND);
+
+		try (TokimonCardList recovered = new TokimonCardList(file, 1, 1000)) {
+			assertEquals(4, recovered.getTokimonCards().size());
+			recovered.deleteTokimonCard(4);
+		}
+		try (TokimonCardList recovered = new TokimonCardList(file, 1, 1000)) {
+			assertEquals(3, recovered.getTokimonCards().size());
+		}
+	}
+
+	//a broken record with records after it wasn't torn by a crash, recovery fails instead of cutting them all off
+	@Test
+	public void testReplayRejectsCorruptRecordBeforeOthers() throws Exception {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file)) {
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+			tokimonCardList.addTokimonCard(new TokimonCard(5, "Tokipuff", TokimonCard.ElementType.FAIRY, "jigglypuff.png", 115, 45));
+		}
+		Path wal = Path.of(file + ".wal");
+		List<String> records = new ArrayList<>(Files.readAllLines(wal));
+		assertEquals(2, records.size());
+		records.set(0, records.get(0).substring(0, 10));
+		Files.write(wal, records);
+
+		assertThrows(TokimonCardPersistenceException.class, () -> new TokimonCardList(file, 1, 1000));
+		assertEquals(records, Files.readAllLines(wal)); //nothing was cut off
+	}
+
+	//a batch that can't be committed stops the store: its change isn't served and later changes are refused
+	@Test
+	public void testFailedCommitStopsTheStore() throws Exception {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file, 1, 2)) {
+			//compacting after the second record has to write this file, a directory in its place makes it fail
+			Files.createDirectory(tempDir.resolve("tokimon.json.tmp"));
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+			assertThrows(TokimonCardPersistenceException.class, () -> tokimonCardList.addTokimonCard(new TokimonCard(5, "Tokipuff", TokimonCard.ElementType.FAIRY, "jigglypuff.png", 115, 45)));
+
+			assertThrows(TokimonCardPersistenceException.class, tokimonCardList::getTokimonCards);
+			assertThrows(TokimonCardPersistenceException.class, () -> tokimonCardList.getTokimonCard(5));
+			assertThrows(TokimonCardPersistenceException.class, () -> tokimonCardList.deleteTokimonCard(4));
+			assertNotNull(tokimonCardList.getLoadFailure());
+			assertTrue(tokimonCardList.getChangeFeed().isClosed());
+		}
+	}
+
+	//once the log is compacted the snapshot alone holds every card
+	@Test
+	public void testCompactionFoldsLogIntoSnapshot() throws Exception {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file, 1, 2)) {
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+			tokimonCardList.addTokimonCard(new TokimonCard(5, "Tokipuff", TokimonCard.ElementType.FAIRY, "jigglypuff.png", 115, 45));
+		}
+		assertEquals(0, Files.size(Path.of(file + ".wal")));
+
+		try (TokimonCardList recovered = new TokimonCardList(file, 1, 2)) {
+			assertEquals(5, recovered.getTokimonCards().size());
+		}
+	}
+
+	//the binary snapshot gives back exactly the cards that were written, rarity and missing names included
+	@Test
+	public void testBinarySnapshotRoundTrip() throws Exception {
+		String file = tempDir.resolve("tokimon.json").toString();
+		TokimonCardListSettings settings = new TokimonCardListSettings(file);
+		settings.setSnapshotFormat(CardSnapshotFormat.BINARY);
+		settings.setCompactEvery(2);
+		List<TokimonCard> saved;
+		try (TokimonCardList tokimonCardList = new TokimonCardList(settings)) {
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, null, 150, 20));
+			tokimonCardList.addTokimonCard(new TokimonCard(5, "Tökipuff", TokimonCard.ElementType.FAIRY, "jigglypuff.png", 115, 45));
+			saved = tokimonCardList.getTokimonCards();
+		}
+		assertEquals(0, Files.size(Path.of(file + ".wal"))); // everything is in the snapshot
+		assertTrue(Files.exists(tempDir.resolve("tokimon.bin")));
+
+		try (TokimonCardList recovered = new TokimonCardList(settings)) {
+			List<TokimonCard> loaded = recovered.getTokimonCards();
+			assertEquals(saved.size(), loaded.size());
+			for (int i = 0; i < saved.size(); i++) {
+				assertEquals(mapper.writeValueAsString(saved.get(i)), mapper.writeValueAsString(loaded.get(i)));
+			}
+		}
+	}
+
+	//switching the snapshot format converts the existing snapshot when the store is opened
+	@Test
+	public void testSnapshotFormatSwitchConverts() throws Exception {
+		String file = tempDir.resolve("tokimon.json").toString();
+		try (TokimonCardList tokimonCardList = new TokimonCardList(file)) {
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+		}
+
+		TokimonCardListSettings settings = new TokimonCardListSettings(file);
+		settings.setSnapshotFormat(CardSnapshotFormat.BINARY);
+		try (TokimonCardList converted = new TokimonCardList(settings)) {
+			assertEquals(4, converted.size());
+		}
+		assertFalse(Files.exists(Path.of(file)));
+		assertTrue(Files.exists(tempDir.resolve("tokimon.bin")));
+
+		try (TokimonCardList backToJson = new TokimonCardList(file, 1, 1000)) {
+			assertEquals("Tokitto", backToJson.getTokimonCard(4).getName());
+		}
+		assertTrue(Files.exists(Path.of(file)));
+		assertFalse(Files.exists(tempDir.resolve("tokimon.bin")));
+	}
+
+	//a log listener only hears about a record once it has been forced to disk, a crash can't take it back then
+	@Test
+	public void testListenerWaitsForSync() {
+		List<Long> forwarded = new CopyOnWriteArrayList<>();
+		TokimonCardListSettings settings = new TokimonCardListSettings(tempDir.resolve("tokimon.json").toString());
+		settings.setSyncEvery(2);
+		settings.setLogListener(new CardLogListener() {
+			@Override
+			public void appended(long seq, byte[] json) {
+				forwarded.add(seq);
+			}
+
+			@Override
+			public void reset() {
+				forwarded.clear();
+			}
+		});
+		try (TokimonCardList tokimonCardList = new TokimonCardList(settings)) {
+			tokimonCardList.resetToSampleCards();
+			tokimonCardList.addTokimonCard(new TokimonCard(4, "Tokitto", TokimonCard.ElementType.NORMAL, "ditto.png", 150, 20));
+			assertEquals(List.of(), forwarded);
+			tokimonCardList.addTokimonCard(new TokimonCard(5, "Tokichu", TokimonCard.ElementType.ELECTRIC, "pikachu.png", 70, 55));
+			assertEquals(List.of(1L, 2L), forwarded);
+
+			//a follower connecting gets the snapshot as of every record, so they are forced and forwarded first
+			tokimonCardList.deleteTokimonCard(4);
+			long[] snapshotSeq = new long[1];
+			assertEquals(4, tokimonCardList.getLogSnapshot(seq -> snapshotSeq[0] = seq).size());
+			assertEquals(3, snapshotSeq[0]);
+			assertEquals(List.of(1L, 2L, 3L), forwarded);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.cluster.ConsistentHashRing;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//every node agrees on who owns a tid, the tids are shared out evenly, and a node joining only takes tids over
+public class ConsistentHashRingTest {
+	private static final List<String> NODES = List.of("http://localhost:8081", "http://localhost:8082",
+			"http://localhost:8083", "http://localhost:8084");
+	private static final int TIDS = 1_000_000;
+
+	//the same node list gives the same owners, whichever order the nodes are listed in
+	@Test
+	public void testSameOwnersOnEveryNode() {
+		ConsistentHashRing ring = new ConsistentHashRing(NODES, 128);
+		ConsistentHashRing reversed = new ConsistentHashRing(NODES.reversed(), 128);
+		for (long tid = 0; tid < TIDS; tid += 997) {
+			assertEquals(ring.ownerOf(tid), reversed.ownerOf(tid));
+		}
+		//a whole block of tids has one owner
+		long blockStart = 7L * ConsistentHashRing.BLOCK_SIZE;
+		assertEquals(ring.ownerOf(blockStart), ring.ownerOf(blockStart + ConsistentHashRing.BLOCK_SIZE - 1));
+	}
+
+	//each of four nodes owns roughly a quarter of the tids
+	@Test
+	public void testBalanced() {
+		ConsistentHashRing ring = new ConsistentHashRing(NODES, 128);
+		Map<String, Integer> owned = new HashMap<>();
+		for (long tid = 0; tid < 100L * TIDS; tid += ConsistentHashRing.BLOCK_SIZE) {
+			owned.merge(ring.ownerOf(tid), 1, Integer::sum);
+		}
+		int blocks = owned.values().stream().mapToInt(Integer::intValue).sum();
+		for (String node : NODES) {
+			double share = owned.getOrDefault(node, 0) / (double) blocks;
+			assertTrue(share > 0.15 && share < 0.35, node + " owns " + share);
+		}
+	}
+
+	//a fifth node takes tids from the others, no tid moves between the four that were there
+	@Test
+	public void testNodeJoiningOnlyTakesTids() {
+		ConsistentHashRing four = new ConsistentHashRing(NODES, 128);
+		String fifth = "http://localhost:8085";
+		List<String> five = new ArrayList<>(NODES);
+		five.add(fifth);
+		ConsistentHashRing ring = new ConsistentHashRing(five, 128);
+		int moved = 0;
+		for (long tid = 0; tid < 100L * TIDS; tid += ConsistentHashRing.BLOCK_SIZE) {
+			String owner = ring.ownerOf(tid);
+			if (!owner.equals(four.ownerOf(tid))) {
+				assertEquals(fifth, owner);
+				moved++;
+			}
+		}
+		assertTrue(moved > 0);
+	}
+
+	//tids reserved for a node are all its own and fit in one block
+	@Test
+	public void testNextOwnedTid() {
+		ConsistentHashRing ring = new ConsistentHashRing(NODES, 128);
+		for (String node : NODES) {
+			long from = 1;
+			for (int i = 0; i < 200; i++) {
+				long tid = ring.nextOwnedTid(node, from, 100);
+				assertTrue(tid >= from);
+				assertEquals(node, ring.ownerOf(tid));
+				assertEquals(node, ring.ownerOf(tid + 99));
+				from = tid + 100;
+			}
+		}
+		assertThrows(IllegalArgumentException.class, () -> ring.nextOwnedTid(NODES.get(0), 1, ConsistentHashRing.BLOCK_SIZE + 1));
+	}
+}
@@ -0,0 +1,98 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.image.ImageStore;
+import ca.cmpt213.image.ImageThumbnails;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//thumbnails come out the right size, are made once however many requests ask at the same time, and the
+//memory cache stays within its budget
+public class ImageThumbnailsTest {
+	@TempDir
+	Path tempDir;
+
+	private ImageStore.StoredImage storeImage(ImageStore imageStore, String name, int width, int height) throws Exception {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		for (int x = 0; x < width; x++) {
+			image.setRGB(x, x * height / width, 0xffff0000 + x);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return imageStore.store(new ByteArrayInputStream(out.toByteArray()), name, "image/png");
+	}
+
+	//the thumbnail keeps the aspect ratio, and an image narrower than asked for is never scaled up
+	@Test
+	public void testThumbnailSize() throws Exception {
+		ImageStore imageStore = new ImageStore(tempDir.resolve("images").toString());
+		ImageStore.StoredImage image = storeImage(imageStore, "wide.png", 400, 200);
+		ImageThumbnails thumbnails = new ImageThumbnails(tempDir.resolve("thumbnails"), 1 << 20);
+
+		BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(thumbnails.thumbnail(image, 64).bytes()));
+		assertEquals(64, thumbnail.getWidth());
+		assertEquals(32, thumbnail.getHeight());
+
+		thumbnail = ImageIO.read(new ByteArrayInputStream(thumbnails.thumbnail(image, 1000).bytes()));
+		assertEquals(400, thumbnail.getWidth());
+	}
+
+	//many requests for the same missing thumbnail make it once, and later ones come from memory or disk
+	@Test
+	public void testThumbnailGeneratedOnce() throws Exception {
+		ImageStore imageStore = new ImageStore(tempDir.resolve("images").toString());
+		ImageStore.StoredImage image = storeImage(imageStore, "big.png", 2000, 2000);
+		ImageThumbnails thumbnails = new ImageThumbnails(tempDir.resolve("thumbnails"), 1 << 20);
+
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<ImageThumbnails.Thumbnail>> results = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					return thumbnails.thumbnail(image, 100);
+				}));
+			}
+			start.countDown();
+			for (Future<ImageThumbnails.Thumbnail> result : results) {
+				assertEquals(ImageThumbnails.etag(image, 100), result.get().etag());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, thumbnails.getGenerated());
+
+		//a new cache over the same directory finds it on disk
+		ImageThumbnails restarted = new ImageThumbnails(tempDir.resolve("thumbnails"), 1 << 20);
+		restarted.thumbnail(image, 100);
+		assertEquals(0, restarted.getGenerated());
+	}
+
+	//the memory cache never holds more bytes than its budget
+	@Test
+	public void testCacheStaysWithinBudget() throws Exception {
+		ImageStore imageStore = new ImageStore(tempDir.resolve("images").toString());
+		ImageStore.StoredImage image = storeImage(imageStore, "big.png", 1000, 1000);
+		ImageThumbnails thumbnails = new ImageThumbnails(tempDir.resolve("thumbnails"), 4096);
+
+		for (int width = 10; width <= 500; width += 10) {
+			thumbnails.thumbnail(image, width);
+			assertTrue(thumbnails.getCachedBytes() <= 4096);
+		}
+		assertTrue(thumbnails.getCachedBytes() > 0);
+	}
+}
@@ -0,0 +1,231 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.model.CardStorageBackend;
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import ca.cmpt213.model.TokimonCardPage;
+import ca.cmpt213.model.TokimonCardQuery;
+import ca.cmpt213.model.TokimonCardResponseCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//the off-heap backend has to behave exactly like the heap one, whatever it does underneath
+public class OffHeapCardStorageTest {
+	@TempDir
+	Path tempDir;
+
+	private TokimonCardList offHeap;
+	private TokimonCardList heap;
+
+	@BeforeEach
+	public void setUp() {
+		offHeap = new TokimonCardList(settings("off-heap", CardStorageBackend.OFF_HEAP));
+		heap = new TokimonCardList(settings("heap", CardStorageBackend.HEAP));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		offHeap.close();
+		heap.close();
+	}
+
+	private TokimonCardListSettings settings(String name, CardStorageBackend backend) {
+		TokimonCardListSettings settings = new TokimonCardListSettings(tempDir.resolve(name + ".json").toString());
+		settings.setSyncEvery(0);
+		settings.setStorageBackend(backend);
+		return settings;
+	}
+
+	private static List<Long> tids(List<TokimonCard> tokimonCards) {
+		List<Long> tids = new ArrayList<>();
+		for (TokimonCard tokimonCard : tokimonCards) {
+			tids.add(tokimonCard.getTid());
+		}
+		return tids;
+	}
+
+	//every field comes back as it went in, null name and element type included
+	@Test
+	public void testCardRoundTrip() {
+		offHeap.addTokimonCard(new TokimonCard(7, "Tokimänder", TokimonCard.ElementType.BUG, 9, "bug.png", 120, 45));
+		offHeap.addTokimonCard(new TokimonCard(8, null, null, 1, null, 1, 2));
+
+		TokimonCard card = offHeap.getTokimonCard(7);
+		assertEquals("Tokimänder", card.getName());
+		assertEquals(TokimonCard.ElementType.BUG, card.getElementType());
+		assertEquals(9, card.getRarity());
+		assertEquals("bug.png", card.getImageName());
+		assertEquals(120, card.getHealthPoints());
+		assertEquals(45, card.getAttackPoints());
+		assertTrue(card.getVersion() > 0);
+
+		TokimonCard empty = offHeap.getTokimonCard(8);
+		assertNull(empty.getName());
+		assertNull(empty.getElementType());
+		assertNull(empty.getImageName());
+	}
+
+	//updates, tid changes and deletes leave the listing in tid order with nothing missing or doubled
+	@Test
+	public void testChangesKeepListingInTidOrder() {
+		for (long tid = 1; tid <= 10; tid++) {
+			offHeap.addTokimonCard(new TokimonCard(tid, "Tokimon" + tid, TokimonCard.ElementType.FIRE, "fire.png", 100, 50));
+		}
+		TokimonCard update = new TokimonCard();
+		update.setName("Renamed");
+		update.setHealthPoints(77);
+		offHeap.updateTokimonCard(4, update);
+		TokimonCard move = new TokimonCard();
+		move.setTid(-1);
+		offHeap.updateTokimonCard(9, move);
+		offHeap.deleteTokimonCard(2);
+
+		assertEquals(List.of(-1L, 1L, 3L, 4L, 5L, 6L, 7L, 8L, 10L), tids(offHeap.getTokimonCards()));
+		assertEquals(9, offHeap.size());
+		assertEquals("Renamed", offHeap.getTokimonCard(4).getName());
+		assertEquals(77, offHeap.getTokimonCard(4).getHealthPoints());
+		assertFalse(tids(offHeap.getTokimonCards()).contains(2L));
+	}
+
+	//random cards, every sort and filter combination, paged through with cursors: the same pages as the heap indexes
+	@Test
+	public void testPagesMatchHeapBackend() {
+		Random random = new Random(213);
+		List<TokimonCard> tokimonCards = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			tokimonCards.add(new TokimonCard(random.nextInt(1_000_000), "Tokimon" + i,
+					TokimonCard.ElementType.values()[random.nextInt(4)], random.nextInt(10) + 1, "image.png",
+					random.nextInt(200), random.nextInt(150)));
+		}
+		offHeap.addTokimonCards(tokimonCards);
+		heap.addTokimonCards(tokimonCards);
+
+		for (TokimonCardQuery.SortField sortField : TokimonCardQuery.SortField.values()) {
+			for (boolean descending : new boolean[]{false, true}) {
+				TokimonCardQuery query = new TokimonCardQuery();
+				query.setSortField(sortField);
+				query.setDescending(descending);
+				query.setLimit(97);
+				query.setElementType(TokimonCard.ElementType.WATER);
+				query.setMinHealthPoints(20);
+				query.setMaxAttackPoints(120);
+				assertEquals(allPages(heap, query), allPages(offHeap, query), sortField + (descending ? " desc" : " asc"));
+			}
+		}
+	}
+
+	//a filter on another field matching only a few cards pages through exactly those, and the last page has no cursor
+	@Test
+	public void testSelectiveFilterPages() {
+		List<TokimonCard> tokimonCards = new ArrayList<>();
+		for (long tid = 1; tid <= 2000; tid++) {
+			int rarity = tid % 400 == 0 ? 10 : 1; //tids 400, 800, 1200, 1600 and 2000
+			tokimonCards.add(new TokimonCard(tid, "Tokimon" + tid, TokimonCard.ElementType.FIRE, rarity, "image.png",
+					(int) (2000 - tid), 10));
+		}
+		offHeap.addTokimonCards(tokimonCards);
+		heap.addTokimonCards(tokimonCards);
+
+		for (TokimonCardList tokimonCardList : List.of(heap, offHeap)) {
+			TokimonCardQuery query = new TokimonCardQuery();
+			query.setSortField(TokimonCardQuery.SortField.HEALTH_POINTS);
+			query.setMinRarity(10);
+			query.setLimit(5);
+			TokimonCardPage page = tokimonCardList.getTokimonCardPage(query);
+			assertEquals(List.of(2000L, 1600L, 1200L, 800L, 400L), tids(page.getCards()));
+			assertNull(page.getNextCursor());
+
+			query.setLimit(2);
+			assertEquals(List.of(2000L, 1600L, 1200L, 800L, 400L), allPages(tokimonCardList, query));
+			query.setDescending(true);
+			assertEquals(List.of(400L, 800L, 1200L, 1600L, 2000L), allPages(tokimonCardList, query));
+		}
+	}
+
+	private static List<Long> allPages(TokimonCardList tokimonCardList, TokimonCardQuery query) {
+		List<Long> tids = new ArrayList<>();
+		query.setCursor(null);
+		do {
+			TokimonCardPage page = tokimonCardList.getTokimonCardPage(query);
+			tids.addAll(tids(page.getCards()));
+			query.setCursor(page.getNextCursor());
+		} while (query.getCursor() != null);
+		return tids;
+	}
+
+	//a full scan with a filter finds exactly the cards the filter matches
+	@Test
+	public void testForEachMatching() {
+		for (long tid = 1; tid <= 100; tid++) {
+			offHeap.addTokimonCard(new TokimonCard(tid, "Tokimon" + tid, TokimonCard.ElementType.values()[(int) (tid % 4)],
+					1, "image.png", (int) tid, 10));
+		}
+		TokimonCardQuery query = new TokimonCardQuery();
+		query.setElementType(TokimonCard.ElementType.WATER);
+		query.setMinHealthPoints(50);
+		List<Long> found = new ArrayList<>();
+		offHeap.forEachMatchingTokimonCard(query, tokimonCard -> found.add(tokimonCard.getTid()));
+		found.sort(null);
+
+		List<Long> expected = new ArrayList<>();
+		for (long tid = 53; tid <= 100; tid += 4) {
+			expected.add(tid);
+		}
+		assertEquals(expected, found);
+	}
+
+	//the log is replayed into off-heap columns the same as into the heap maps
+	@Test
+	public void testReopenRecoversCards() {
+		offHeap.addTokimonCard(new TokimonCard(4, "Tokimander", TokimonCard.ElementType.FIRE, 2, "charmander.png", 100, 50));
+		offHeap.addTokimonCard(new TokimonCard(5, "Tokiurtle", TokimonCard.ElementType.WATER, 4, "squirtle.png", 80, 60));
+		offHeap.deleteTokimonCard(4);
+		List<Long> before = tids(offHeap.getTokimonCards());
+		offHeap.close();
+
+		offHeap = new TokimonCardList(settings("off-heap", CardStorageBackend.OFF_HEAP));
+		assertEquals(before, tids(offHeap.getTokimonCards()));
+		assertEquals("Tokiurtle", offHeap.getTokimonCard(5).getName());
+	}
+
+	//every get decodes a new card, the response cache still serializes a card once per version
+	@Test
+	public void testResponseCacheKeepsJsonOfDecodedCards() {
+		TokimonCardResponseCache responseCache = new TokimonCardResponseCache(offHeap);
+		offHeap.addTokimonCard(new TokimonCard(7, "Tokimander", TokimonCard.ElementType.FIRE, 2, "charmander.png", 100, 50));
+		byte[] json = responseCache.getCardJson(offHeap.getTokimonCard(7));
+		assertSame(json, responseCache.getCardJson(offHeap.getTokimonCard(7)));
+		responseCache.getListing();
+		assertSame(json, responseCache.getCardJson(offHeap.getTokimonCard(7)));
+
+		offHeap.updateTokimonCard(7, new TokimonCard(7, "Tokimeleon", TokimonCard.ElementType.FIRE, 2, "charmander.png", 100, 50));
+		byte[] changed = responseCache.getCardJson(offHeap.getTokimonCard(7));
+		assertNotSame(json, changed);
+		assertTrue(new String(changed).contains("Tokimeleon"));
+	}
+
+	//a rarity outside 1 to 10 is refused before it reaches the log or the byte column
+	@Test
+	public void testOutOfRangeRarityIsRefused() {
+		assertThrows(IllegalArgumentException.class,
+				() -> offHeap.addTokimonCard(new TokimonCard(7, "Tokimander", TokimonCard.ElementType.FIRE, 300, "charmander.png", 100, 50)));
+		assertThrows(IllegalArgumentException.class, () -> offHeap.addTokimonCards(List.of(
+				new TokimonCard(7, "Tokimander", TokimonCard.ElementType.FIRE, 2, "charmander.png", 100, 50),
+				new TokimonCard(8, "Tokiurtle", TokimonCard.ElementType.WATER, 0, "squirtle.png", 80, 60))));
+		assertEquals(0, offHeap.getTokimonCards().size());
+		offHeap.close();
+
+		offHeap = new TokimonCardList(settings("off-heap", CardStorageBackend.OFF_HEAP));
+		assertEquals(0, offHeap.getTokimonCards().size());
+	}
+}
@@ -0,0 +1,107 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardChange;
+import ca.cmpt213.model.TokimonCardChangeFeed;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//every change the list applies shows up in its change feed, in order, until the feed runs out of room
+public class TokimonCardChangeFeedTest {
+	@TempDir
+	Path tempDir;
+
+	private TokimonCardList tokimonCardList;
+
+	@BeforeEach
+	public void setUp() {
+		TokimonCardListSettings settings = new TokimonCardListSettings(tempDir.resolve("tokimon.json").toString());
+		settings.setSyncEvery(0);
+		settings.setChangeFeedCapacity(8);
+		tokimonCardList = new TokimonCardList(settings);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		if (tokimonCardList != null) {
+			tokimonCardList.close();
+		}
+	}
+
+	private static TokimonCard card(long tid) {
+		return new TokimonCard(tid, "Tokimon" + tid, TokimonCard.ElementType.FIRE, "charmander.png", 100, 50);
+	}
+
+	//adds, updates and deletes come out numbered one apart, with the version the store had after each
+	@Test
+	public void testChangesInOrder() {
+		TokimonCardChangeFeed feed = tokimonCardList.getChangeFeed();
+		long start = feed.getLatestSeq();
+		tokimonCardList.addTokimonCard(card(1));
+		tokimonCardList.updateTokimonCard(1, card(0));
+		tokimonCardList.deleteTokimonCard(1);
+		tokimonCardList.deleteTokimonCard(1); //nothing to delete, not a change
+
+		List<TokimonCardChange> changes = feed.readAfter(start, 10);
+		assertEquals(3, changes.size());
+		assertEquals(TokimonCardChange.Type.ADD, changes.get(0).type());
+		assertEquals(TokimonCardChange.Type.UPDATE, changes.get(1).type());
+		assertEquals(TokimonCardChange.Type.DELETE, changes.get(2).type());
+		assertNull(changes.get(2).card());
+		for (int i = 0; i < changes.size(); i++) {
+			assertEquals(start + i + 1, changes.get(i).seq());
+			assertEquals(1, changes.get(i).tid());
+		}
+		assertEquals(tokimonCardList.getVersion(), changes.get(2).version());
+		assertTrue(feed.readAfter(feed.getLatestSeq(), 10).isEmpty());
+	}
+
+	//a reader that falls more than the capacity behind is told so instead of silently missing changes
+	@Test
+	public void testReaderLapped() {
+		TokimonCardChangeFeed feed = tokimonCardList.getChangeFeed();
+		long start = feed.getLatestSeq();
+		for (long tid = 1; tid <= 20; tid++) {
+			tokimonCardList.addTokimonCard(card(tid));
+		}
+		assertNull(feed.readAfter(start, 100));
+		List<TokimonCardChange> recent = feed.readAfter(feed.getLatestSeq() - 8, 100);
+		assertEquals(8, recent.size());
+		assertEquals(20, recent.get(7).tid());
+	}
+
+	//a waiting reader wakes up for the next change, and for the list being closed
+	@Test
+	public void testAwaitAfter() throws Exception {
+		TokimonCardChangeFeed feed = tokimonCardList.getChangeFeed();
+		long start = feed.getLatestSeq();
+		assertEquals(start, feed.awaitAfter(start, 10, TimeUnit.MILLISECONDS));
+
+		Thread writer = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				return;
+			}
+			tokimonCardList.addTokimonCard(card(1));
+		});
+		writer.start();
+		assertEquals(start + 1, feed.awaitAfter(start, 10, TimeUnit.SECONDS));
+		writer.join();
+
+		tokimonCardList.close();
+		tokimonCardList = null;
+		assertTrue(feed.isClosed());
+		assertEquals(start + 1, feed.awaitAfter(start + 1, 10, TimeUnit.SECONDS));
+	}
+}
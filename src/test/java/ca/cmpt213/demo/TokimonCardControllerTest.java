@@ -4,21 +4,37 @@ import ca.cmpt213.controller.TokimonCardController;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+//every test starts from the 3 sample cards. Admission control is off: every request here comes from 127.0.0.1 and
+//would share one client's tokens, AdmissionControlTest and AdmissionControlHarness cover it
+@SpringBootTest(properties = {"tokimon.store.reset-on-start=true", "tokimon.admission.enabled=false"})
+@AutoConfigureObservability //metrics are only exported in tests when asked for, needed for /actuator/prometheus
 @AutoConfigureMockMvc //this sets up a MockMvc instance to perform web requests and assert responses in your tests without needed to start a full HTTP server
 public class TokimonCardControllerTest {
 
@@ -33,6 +49,16 @@ public class TokimonCardControllerTest {
 		tokimonCardController.init();
 	}
 
+	//add, edit and delete answer with a future, the response only exists once it has been dispatched again
+	private ResultActions perform(RequestBuilder requestBuilder) throws Exception {
+		ResultActions actions = mvc.perform(requestBuilder);
+		MvcResult result = actions.andReturn();
+		if (result.getRequest().isAsyncStarted()){
+			return mvc.perform(asyncDispatch(result));
+		}
+		return actions;
+	}
+
 	//this test method sends a GET request to the /api/tokimon/all endpoint and expects a 200 OK status code in return
 	@Test
 	public void testGetAllTokimonCards() throws Exception {
@@ -54,6 +80,62 @@ public class TokimonCardControllerTest {
 						"]"));
 	}
 
+	//polling the listing with the ETag it returned gets a 304 until a card changes
+	@Test
+	public void testGetAllTokimonCardsNotModified() throws Exception {
+		String etag = mvc.perform(get("/api/tokimon/all"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader("ETag");
+		assertNotNull(etag);
+
+		mvc.perform(get("/api/tokimon/all").header("If-None-Match", etag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string("ETag", etag));
+
+		perform(delete("/api/tokimon/3"));
+
+		mvc.perform(get("/api/tokimon/all").header("If-None-Match", etag))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", not(etag)))
+				.andExpect(content().json("[{\"tid\":1},{\"tid\":2}]"));
+	}
+
+	//a card's ETag only changes when that card is edited
+	@Test
+	public void testGetTokimonCardNotModified() throws Exception {
+		String etag = mvc.perform(get("/api/tokimon/1"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader("ETag");
+
+		perform(delete("/api/tokimon/2"));
+		mvc.perform(get("/api/tokimon/1").header("If-None-Match", etag))
+				.andExpect(status().isNotModified());
+
+		perform(put("/api/tokimon/edit/1")
+				.content("{\"elementType\":\"FIRE\",\"healthPoints\":120}")
+				.contentType(MediaType.APPLICATION_JSON));
+		mvc.perform(get("/api/tokimon/1").header("If-None-Match", etag))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"tid\":1,\"healthPoints\":120}"));
+	}
+
+	//the streamed listing has the same cards as /api/tokimon/all
+	@Test
+	public void testStreamTokimonCards() throws Exception {
+		mvc.perform(get("/api/tokimon/all/stream"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(MediaType.APPLICATION_JSON))
+				.andExpect(content().json("[{\"tid\":1},{\"tid\":2},{\"tid\":3}]"));
+	}
+
+	//the ndjson listing has one card per line
+	@Test
+	public void testStreamTokimonCardsNdjson() throws Exception {
+		mvc.perform(get("/api/tokimon/all/stream").param("format", "ndjson"))
+				.andExpect(status().isOk())
+				.andExpect(result -> assertEquals(3, result.getResponse().getContentAsString().lines().count()));
+	}
+
 	//this test method sends a GET request to the /api/tokimon/1 endpoint and expects a 200 OK status code in return and the json object with the tid of 1
 	@Test
 	public void testGetTokimonCard() throws Exception {
@@ -69,19 +151,192 @@ public class TokimonCardControllerTest {
 				.andExpect(status().isNotFound());
 	}
 
+	//the stats follow every change without the client downloading the cards: deleting Tokisaur takes out the grass card and its points
+	@Test
+	public void testGetTokimonCardStats() throws Exception {
+		perform(delete("/api/tokimon/3"));
+
+		mvc.perform(get("/api/tokimon/stats"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.totalCards").value(2))
+				.andExpect(jsonPath("$.byElementType.FIRE").value(1))
+				.andExpect(jsonPath("$.byElementType.WATER").value(1))
+				.andExpect(jsonPath("$.byElementType.GRASS").value(0))
+				.andExpect(jsonPath("$.healthPoints.min").value(80))
+				.andExpect(jsonPath("$.healthPoints.max").value(100))
+				.andExpect(jsonPath("$.healthPoints.average").value(90.0))
+				.andExpect(jsonPath("$.attackPoints.min").value(50))
+				.andExpect(jsonPath("$.attackPoints.max").value(60))
+				.andExpect(jsonPath("$.attackPoints.average").value(55.0));
+	}
+
+	//card operations are timed per phase and failures are counted, all of it exported for prometheus
+	@Test
+	public void testPrometheusMetrics() throws Exception {
+		mvc.perform(get("/api/tokimon/1"));
+		mvc.perform(get("/api/tokimon/99"));
+		perform(post("/api/tokimon/add")
+				.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"imageName\":\"ditto.png\",\"healthPoints\":150,\"attackPoints\":20}")
+				.contentType(MediaType.APPLICATION_JSON));
+
+		String metrics = mvc.perform(get("/actuator/prometheus"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString();
+		assertTrue(metrics.contains("tokimon_card_operation_seconds_count{operation=\"get\",phase=\"lookup\""));
+		assertTrue(metrics.contains("tokimon_card_operation_seconds_count{operation=\"add\",phase=\"deserialize\""));
+		assertTrue(metrics.contains("tokimon_card_operation_seconds_count{operation=\"add\",phase=\"persist\""));
+		assertTrue(metrics.contains("tokimon_card_not_found_total{operation=\"get\""));
+		assertTrue(metrics.contains("tokimon_cards "));
+	}
+
 	//this test method sends a POST request to the /api/tokimon/add endpoint and expects a 201 Created status code in return
 	@Test
 	public void testAddTokimonCard() throws Exception {
 		String tokimonCardJson = "{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\", \"imageName\":\"/resources/static/images/ditto.png\",\"healthPoints\": 150, \"attackPoints\": 20}";
 
-		mvc.perform(post("/api/tokimon/add")
+		perform(post("/api/tokimon/add")
 				.content(tokimonCardJson).contentType(MediaType.APPLICATION_JSON))
 				.andExpect(status().isCreated());
 	}
 
+	//adding a card frees the request thread while the change is committed, the 201 comes with the async dispatch
+	@Test
+	public void testAddTokimonCardIsAsync() throws Exception {
+		MvcResult result = mvc.perform(post("/api/tokimon/add")
+						.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"healthPoints\":150,\"attackPoints\":20}")
+						.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(asyncDispatch(result))
+				.andExpect(status().isCreated())
+				.andExpect(jsonPath("$.tid").value(4));
+		mvc.perform(get("/api/tokimon/4"))
+				.andExpect(status().isOk());
+	}
+
+	//new cards get tids after the largest one in the store, even one that was set by an edit
+	@Test
+	public void testAddTokimonCardAfterLargestTid() throws Exception {
+		perform(put("/api/tokimon/edit/3")
+				.content("{\"tid\":50,\"elementType\":\"GRASS\"}")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk());
+
+		perform(post("/api/tokimon/add")
+				.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"healthPoints\":150,\"attackPoints\":20}")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isCreated())
+				.andExpect(jsonPath("$.tid").value(51));
+	}
+
+	//the readiness probe includes the card store, which is up once its cards are loaded
+	@Test
+	public void testReadiness() throws Exception {
+		mvc.perform(get("/actuator/health/readiness"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.status").value("UP"));
+		mvc.perform(get("/actuator/health"))
+				.andExpect(status().isOk());
+	}
+
+	//a batch get returns the cards in the order asked for and lists the tids that don't exist
+	@Test
+	public void testBatchGet() throws Exception {
+		mvc.perform(post("/api/tokimon/batch/get")
+						.content("[3, 9, 1]")
+						.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.cards.length()").value(2))
+				.andExpect(jsonPath("$.cards[0].name").value("Tokisaur"))
+				.andExpect(jsonPath("$.cards[1].name").value("Tokimander"))
+				.andExpect(jsonPath("$.missing[0]").value(9));
+	}
+
+	//a batch of mutations is applied whole, or not at all when one of them names a card that doesn't exist
+	@Test
+	public void testBatchMutate() throws Exception {
+		perform(post("/api/tokimon/batch/mutate")
+				.content("[{\"op\":\"delete\",\"tid\":1},{\"op\":\"delete\",\"tid\":1}]")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotFound());
+		mvc.perform(get("/api/tokimon/1"))
+				.andExpect(status().isOk());
+
+		perform(post("/api/tokimon/batch/mutate")
+				.content("[{\"op\":\"add\",\"card\":{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"healthPoints\":150,\"attackPoints\":20}}," +
+						"{\"op\":\"edit\",\"tid\":2,\"card\":{\"name\":\"Tokiturtle\",\"elementType\":\"WATER\"}}," +
+						"{\"op\":\"delete\",\"tid\":1}]")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].tid").value(4))
+				.andExpect(jsonPath("$[1].name").value("Tokiturtle"));
+		mvc.perform(get("/api/tokimon/1"))
+				.andExpect(status().isNotFound());
+		mvc.perform(get("/api/tokimon/4"))
+				.andExpect(status().isOk());
+
+		perform(post("/api/tokimon/batch/mutate")
+				.content("[{\"op\":\"add\"}]")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+	}
+
+	//bulk import reads ndjson, gives the cards new tids and skips the one with a bad element type
+	@Test
+	public void testBulkImportNdjson() throws Exception {
+		String cards = "{\"name\":\"Tokitto\",\"elementType\":\"normal\",\"healthPoints\":150,\"attackPoints\":20}\n" +
+				"{\"name\":\"Tokichu\",\"elementType\":\"INVALID\"}\n" +
+				"{\"name\":\"Tokipuff\",\"elementType\":\"FAIRY\",\"healthPoints\":115,\"attackPoints\":45}\n";
+
+		mvc.perform(post("/api/tokimon/bulk/import")
+						.content(cards).contentType("application/x-ndjson"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"imported\":2,\"rejected\":1,\"complete\":true}"));
+
+		mvc.perform(get("/api/tokimon/all"))
+				.andExpect(content().json("[{\"tid\":1},{\"tid\":2},{\"tid\":3}," +
+						"{\"tid\":4,\"name\":\"Tokitto\",\"elementType\":\"NORMAL\"},{\"tid\":5,\"name\":\"Tokipuff\"}]"));
+	}
+
+	//rarity is 1 to 10: a card without one is given one, a card with one outside the range is refused
+	@Test
+	public void testAddTokimonCardRarity() throws Exception {
+		MvcResult added = perform(post("/api/tokimon/add")
+				.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"healthPoints\":150,\"attackPoints\":20}")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isCreated())
+				.andReturn();
+		int rarity = Integer.parseInt(added.getResponse().getContentAsString().replaceAll(".*\"rarity\":(\\d+).*", "$1"));
+		assertTrue(rarity >= 1 && rarity <= 10, "rarity " + rarity);
+
+		perform(post("/api/tokimon/add")
+				.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"rarity\":300}")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+		perform(post("/api/tokimon/batch/mutate")
+				.content("[{\"op\":\"add\",\"card\":{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"rarity\":0}}]")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest());
+		mvc.perform(post("/api/tokimon/bulk/import")
+						.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"rarity\":11}\n")
+						.contentType("application/x-ndjson"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"imported\":0,\"rejected\":1}"));
+	}
+
+	//bulk export downloads the whole store as a file
+	@Test
+	public void testBulkExport() throws Exception {
+		mvc.perform(get("/api/tokimon/bulk/export"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Content-Disposition", "attachment; filename=\"tokimon.json\""))
+				.andExpect(content().json("[{\"tid\":1},{\"tid\":2},{\"tid\":3}]"));
+	}
+
 	@Test
 	public void testAddTokimonCardInvalidElementType() throws Exception {
-		mvc.perform(post("/api/tokimon/add")
+		perform(post("/api/tokimon/add")
 				.param("name", "Tokichu")
 				.param("elementType", "INVALID") //this is an invalid element type
 				.param("imageName", "/resources/static/images/unown.png")
@@ -94,7 +349,7 @@ public class TokimonCardControllerTest {
 
 	@Test
 	public void testAddTokimonCardInvalidURL() throws Exception {
-		mvc.perform(post("/api/tokimon/add")
+		perform(post("/api/tokimon/add")
 				.param("name", "Tokichu")
 				.param("elementType", "ELECTRIC")
 				.param("imageName", "invalidURL") //this is an invalid URL
@@ -108,7 +363,7 @@ public class TokimonCardControllerTest {
 
 	@Test
 	public void testAddTokimonCardInvalidHP() throws Exception {
-		mvc.perform(post("/api/tokimon/add")
+		perform(post("/api/tokimon/add")
 				.param("name", "Tokichu")
 				.param("elementType", "ELECTRIC")
 				.param("imageName", "/resources/static/images/unown.png")
@@ -139,6 +394,195 @@ public class TokimonCardControllerTest {
 		}
 	}
 
+	//an upload answers with the permanent url and etag of its bytes, and is served under its name and its hash
+	@Test
+	public void testUploadFile() throws Exception {
+		byte[] image = uniqueImage();
+		MvcResult result = mvc.perform(multipart("/api/tokimon/uploadPhoto")
+						.file(new MockMultipartFile("file", "test-upload.png", MediaType.IMAGE_PNG_VALUE, image)))
+				.andExpect(status().isOk())
+				.andExpect(content().string("File uploaded successfully"))
+				.andExpect(header().exists("ETag"))
+				.andReturn();
+		String location = result.getResponse().getHeader("Location");
+		assertTrue(location.startsWith("/api/tokimon/image/"), location);
+
+		mvc.perform(get(location))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(image));
+		mvc.perform(get("/api/tokimon/image/test-upload.png"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", result.getResponse().getHeader("ETag")))
+				.andExpect(content().bytes(image));
+	}
+
+	//the same bytes uploaded twice under different names are saved once, both uploads point at the same hash
+	@Test
+	public void testUploadFileDeduplicates() throws Exception {
+		byte[] image = uniqueImage();
+		Path blobs = Path.of("src/main/resources/static/images/blobs");
+		long blobsBefore = countFiles(blobs);
+
+		MvcResult first = mvc.perform(multipart("/api/tokimon/uploadPhoto")
+						.file(new MockMultipartFile("file", "test-upload-a.png", MediaType.IMAGE_PNG_VALUE, image)))
+				.andExpect(status().isOk())
+				.andReturn();
+		MvcResult second = mvc.perform(multipart("/api/tokimon/uploadPhoto")
+						.file(new MockMultipartFile("file", "test-upload-b.png", MediaType.IMAGE_PNG_VALUE, image)))
+				.andExpect(status().isOk())
+				.andReturn();
+
+		assertEquals(first.getResponse().getHeader("Location"), second.getResponse().getHeader("Location"));
+		assertEquals(first.getResponse().getHeader("ETag"), second.getResponse().getHeader("ETag"));
+		assertEquals(blobsBefore + 1, countFiles(blobs));
+		mvc.perform(get("/api/tokimon/image/test-upload-a.png")).andExpect(content().bytes(image));
+		mvc.perform(get("/api/tokimon/image/test-upload-b.png")).andExpect(content().bytes(image));
+	}
+
+	//only the file name of an upload is kept, a path in it can't reach outside the image store
+	@Test
+	public void testUploadFileStripsPath() throws Exception {
+		byte[] image = uniqueImage();
+		mvc.perform(multipart("/api/tokimon/uploadPhoto")
+						.file(new MockMultipartFile("file", "../../test-upload-escape.png", MediaType.IMAGE_PNG_VALUE, image)))
+				.andExpect(status().isOk());
+
+		mvc.perform(get("/api/tokimon/image/test-upload-escape.png"))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(image));
+		assertFalse(Files.exists(Path.of("src/main/resources/static/images/../../test-upload-escape.png")));
+		assertFalse(Files.exists(Path.of("src/main/resources/test-upload-escape.png")));
+	}
+
+	//a name with no file name part, like /, is saved as upload.png instead of failing
+	@Test
+	public void testUploadFileWithoutFileName() throws Exception {
+		byte[] image = uniqueImage();
+		mvc.perform(multipart("/api/tokimon/uploadPhoto")
+						.file(new MockMultipartFile("file", "/", MediaType.IMAGE_PNG_VALUE, image)))
+				.andExpect(status().isOk())
+				.andExpect(content().string("File uploaded successfully"));
+
+		mvc.perform(get("/api/tokimon/image/upload.png"))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(image));
+	}
+
+	// png bytes no other test uploads, so each upload test saves a new blob
+	private static byte[] uniqueImage() {
+		byte[] marker = Long.toString(System.nanoTime()).getBytes();
+		byte[] image = new byte[8 + marker.length];
+		System.arraycopy(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'}, 0, image, 0, 8);
+		System.arraycopy(marker, 0, image, 8, marker.length);
+		return image;
+	}
+
+	private static long countFiles(Path dir) throws Exception {
+		try (var files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+
+
+	//images are served with a strong etag, and asking again with that etag gets a 304 without the bytes
+	@Test
+	public void testGetImageConditional() throws Exception {
+		String etag = mvc.perform(get("/api/tokimon/image/charmander.png"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(MediaType.IMAGE_PNG))
+				.andExpect(header().string("Accept-Ranges", "bytes"))
+				.andReturn().getResponse().getHeader("ETag");
+		assertNotNull(etag);
+
+		mvc.perform(get("/api/tokimon/image/charmander.png").header("If-None-Match", etag))
+				.andExpect(status().isNotModified());
+	}
+
+	//a byte range request only gets the bytes it asked for
+	@Test
+	public void testGetImageRange() throws Exception {
+		byte[] image = Files.readAllBytes(Path.of("src/main/resources/static/images/charmander.png"));
+
+		mvc.perform(get("/api/tokimon/image/charmander.png").header("Range", "bytes=0-9"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string("Content-Range", "bytes 0-9/" + image.length))
+				.andExpect(content().bytes(java.util.Arrays.copyOfRange(image, 0, 10)));
+
+		mvc.perform(get("/api/tokimon/image/charmander.png").header("Range", "bytes=" + image.length + "-"))
+				.andExpect(status().isRequestedRangeNotSatisfiable());
+	}
+
+	//?w= serves a smaller copy with its own etag, which revalidates like the full image
+	@Test
+	public void testGetImageThumbnail() throws Exception {
+		String originalEtag = mvc.perform(get("/api/tokimon/image/charmander.png"))
+				.andReturn().getResponse().getHeader("ETag");
+
+		MvcResult result = mvc.perform(get("/api/tokimon/image/charmander.png").param("w", "64"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(MediaType.IMAGE_PNG))
+				.andReturn();
+		BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()));
+		assertEquals(64, thumbnail.getWidth());
+		String etag = result.getResponse().getHeader("ETag");
+		assertNotNull(etag);
+		assertNotEquals(originalEtag, etag);
+
+		mvc.perform(get("/api/tokimon/image/charmander.png").param("w", "64").header("If-None-Match", etag))
+				.andExpect(status().isNotModified());
+		mvc.perform(get("/api/tokimon/image/charmander.png").param("w", "0"))
+				.andExpect(status().isBadRequest());
+	}
+
+	//waits for a server-sent event stream to contain text, the stream itself never ends
+	private static String awaitEvents(MvcResult result, String text) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		String events = result.getResponse().getContentAsString();
+		while (!events.contains(text) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			events = result.getResponse().getContentAsString();
+		}
+		assertTrue(events.contains(text), "expected " + text + " in " + events);
+		return events;
+	}
+
+	//every change is streamed as a server-sent event, and reconnecting with the last event id gets the ones missed
+	@Test
+	public void testChangeFeed() throws Exception {
+		MvcResult live = mvc.perform(get("/api/tokimon/changes"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		perform(post("/api/tokimon/add")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"imageName\":\"ditto.png\",\"healthPoints\":150,\"attackPoints\":20}"))
+				.andExpect(status().isCreated());
+		String events = awaitEvents(live, "event:add");
+		assertTrue(events.contains("\"name\":\"Tokitto\""));
+		Matcher id = Pattern.compile("id:(\\S+)\nevent:add").matcher(events);
+		assertTrue(id.find());
+
+		perform(delete("/api/tokimon/4"))
+				.andExpect(status().isNoContent());
+		awaitEvents(live, "event:delete");
+
+		MvcResult resumed = mvc.perform(get("/api/tokimon/changes").header("Last-Event-ID", id.group(1)))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		assertFalse(awaitEvents(resumed, "event:delete").contains("event:add"));
+
+		//an id from another run of the server can't be resumed from
+		MvcResult unknown = mvc.perform(get("/api/tokimon/changes").header("Last-Event-ID", "elsewhere-1"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		awaitEvents(unknown, "event:reset");
+	}
+
+	//test getting an image that was never uploaded
+	@Test
+	public void testGetImageNotFound() throws Exception {
+		mvc.perform(get("/api/tokimon/image/unown.png"))
+				.andExpect(status().isNotFound());
+	}
 
 	//test editing a tokimon card with a valid element type in the request body
 	//this also verifies that the status code is 200 OK and the request body is in JSON format
@@ -146,7 +590,7 @@ public class TokimonCardControllerTest {
 	public void testEditTokimonCard() throws Exception {
 		String tokimonCardReqBody = "{\"tid\":1,\"name\":\"Tokimander\",\"elementType\":\"FIRE\"}";
 
-		mvc.perform(put("/api/tokimon/edit/1")
+		perform(put("/api/tokimon/edit/1")
 						.content(tokimonCardReqBody)
 						.contentType(MediaType.APPLICATION_JSON)) //
 				.andExpect(status().isOk());
@@ -157,23 +601,148 @@ public class TokimonCardControllerTest {
 	public void testEditTokimonCardInvalidElementType() throws Exception {
 		String tokimonCardReqBody = "{\"tid\":1,\"name\":\"Tokimander\",\"elementType\":\"INVALID\"}";
 
-		mvc.perform(put("/api/tokimon/edit/1")
+		perform(put("/api/tokimon/edit/1")
 						.content(tokimonCardReqBody)
 						.contentType(MediaType.APPLICATION_JSON))
 				.andExpect(status().isBadRequest());
 	}
 
+	//a card edited to a tid past the int range doesn't stop new cards from getting tids after it
+	@Test
+	public void testAddAfterEditToHugeTid() throws Exception {
+		long huge = Integer.MAX_VALUE + 10L;
+		perform(put("/api/tokimon/edit/3")
+						.content("{\"tid\":" + huge + ",\"elementType\":\"GRASS\"}")
+						.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk());
+		perform(post("/api/tokimon/add")
+						.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"healthPoints\":150,\"attackPoints\":20}")
+						.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isCreated())
+				.andExpect(jsonPath("$.tid").value(huge + 1));
+	}
+
+	//moving a card onto a tid another card has is refused, alone or in a batch, and both cards are left as they were
+	@Test
+	public void testEditToTidInUseConflicts() throws Exception {
+		perform(put("/api/tokimon/edit/1")
+						.content("{\"tid\":2,\"elementType\":\"FIRE\"}")
+						.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isConflict());
+		perform(post("/api/tokimon/batch/mutate")
+						.content("[{\"op\":\"edit\",\"tid\":3,\"card\":{\"tid\":2,\"elementType\":\"GRASS\"}}]")
+						.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isConflict());
+		mvc.perform(get("/api/tokimon/1"))
+				.andExpect(jsonPath("$.name").value("Tokimander"));
+		mvc.perform(get("/api/tokimon/2"))
+				.andExpect(jsonPath("$.name").value("Tokiurtle"));
+		mvc.perform(get("/api/tokimon/3"))
+				.andExpect(jsonPath("$.name").value("Tokisaur"));
+
+		//a tid freed earlier in the same batch can be moved onto
+		perform(post("/api/tokimon/batch/mutate")
+						.content("[{\"op\":\"delete\",\"tid\":2},{\"op\":\"edit\",\"tid\":3,\"card\":{\"tid\":2,\"elementType\":\"GRASS\"}}]")
+						.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk());
+		mvc.perform(get("/api/tokimon/2"))
+				.andExpect(jsonPath("$.name").value("Tokisaur"));
+	}
+
+	//searching by the start of a name finds every card with a word that starts that way
+	@Test
+	public void testSearchByPrefix() throws Exception {
+		mvc.perform(get("/api/tokimon/search").param("q", "toki"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(3));
+		mvc.perform(get("/api/tokimon/search").param("q", "TokiM"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(1))
+				.andExpect(jsonPath("$[0].name").value("Tokimander"));
+	}
+
+	//a misspelled name still finds the card unless fuzzy matching is turned off
+	@Test
+	public void testSearchFuzzy() throws Exception {
+		mvc.perform(get("/api/tokimon/search").param("q", "tokimandr"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].name").value("Tokimander"));
+		mvc.perform(get("/api/tokimon/search").param("q", "tokimandr").param("fuzzy", "false"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(0));
+	}
+
+	//renaming a card moves it in the index: the new name is found and the old one is not
+	@Test
+	public void testSearchAfterRename() throws Exception {
+		perform(put("/api/tokimon/edit/2")
+				.content("{\"name\":\"Shellby the Great\",\"elementType\":\"WATER\"}")
+				.contentType(MediaType.APPLICATION_JSON));
+
+		mvc.perform(get("/api/tokimon/search").param("q", "great shel"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(1))
+				.andExpect(jsonPath("$[0].tid").value(2));
+		mvc.perform(get("/api/tokimon/search").param("q", "tokiurtle").param("fuzzy", "false"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(0));
+	}
+
+	//an empty query is rejected
+	@Test
+	public void testSearchEmptyQuery() throws Exception {
+		mvc.perform(get("/api/tokimon/search").param("q", " "))
+				.andExpect(status().isBadRequest());
+	}
+
+	//test getting a filtered, sorted page of tokimon cards
+	@Test
+	public void testGetTokimonCardPage() throws Exception {
+		mvc.perform(get("/api/tokimon/page")
+						.param("minHp", "70")
+						.param("sort", "healthPoints")
+						.param("order", "desc")
+						.param("limit", "1"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"cards\":[{\"tid\":1,\"name\":\"Tokimander\"}],\"nextCursor\":\"100:1\"}"));
+
+		//the cursor from the first page continues right after the last card on it
+		mvc.perform(get("/api/tokimon/page")
+						.param("minHp", "70")
+						.param("sort", "healthPoints")
+						.param("order", "desc")
+						.param("limit", "1")
+						.param("cursor", "100:1"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"cards\":[{\"tid\":2,\"name\":\"Tokiurtle\"}],\"nextCursor\":null}"));
+	}
+
+	//test filtering a page by element type
+	@Test
+	public void testGetTokimonCardPageByElementType() throws Exception {
+		mvc.perform(get("/api/tokimon/page").param("type", "grass"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"cards\":[{\"tid\":3,\"name\":\"Tokisaur\"}]}"));
+	}
+
+	//test asking for a page with an invalid sort field
+	@Test
+	public void testGetTokimonCardPageInvalidSort() throws Exception {
+		mvc.perform(get("/api/tokimon/page").param("sort", "name"))
+				.andExpect(status().isBadRequest());
+	}
+
 	//test deleting a tokimon card with a valid tid
 	@Test
 	public void testDeleteTokimonCard() throws Exception {
-		mvc.perform(delete("/api/tokimon/1"))
+		perform(delete("/api/tokimon/1"))
 				.andExpect(status().isNoContent());
 	}
 
 	//test deleting a tokimon card with an invalid tid
 	@Test
 	public void testDeleteTokimonCardNotFound() throws Exception {
-		mvc.perform(delete("/api/tokimon/4"))
+		perform(delete("/api/tokimon/4"))
 				.andExpect(status().isNotFound());
 	}
 
@@ -0,0 +1,176 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//hammers a TokimonCardList from many threads at once to check that no change is lost and the count stays exact
+public class TokimonCardListStressTest {
+	private static final int THREADS = 32;
+	private static final int CARDS_PER_THREAD = 200;
+
+	@TempDir
+	Path tempDir;
+
+	private TokimonCardList tokimonCardList;
+	private ExecutorService executor;
+
+	@BeforeEach
+	public void setUp() {
+		TokimonCardListSettings settings = new TokimonCardListSettings(tempDir.resolve("tokimon.json").toString());
+		settings.setSyncEvery(0); //no fsync, this test is about the in-memory state
+		tokimonCardList = new TokimonCardList(settings);
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+		tokimonCardList.close();
+	}
+
+	//runs the task on every thread at the same time and rethrows the first failure
+	private void runConcurrently(IntConsumerTask task) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			int thread = t;
+			futures.add(executor.submit(() -> {
+				start.await();
+				task.run(thread);
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get(60, TimeUnit.SECONDS);
+		}
+	}
+
+	private interface IntConsumerTask {
+		void run(int thread) throws Exception;
+	}
+
+	private static TokimonCard card(long tid) {
+		return new TokimonCard(tid, "Tokimon" + tid, TokimonCard.ElementType.FIRE, "charmander.png", 100, 50);
+	}
+
+	//every card added from every thread must end up in the list
+	@Test
+	public void testConcurrentAddsAreNotLost() throws Exception {
+		long countBefore = tokimonCardList.getStats().getTotalCards();
+
+		runConcurrently(thread -> {
+			for (int i = 0; i < CARDS_PER_THREAD; i++) {
+				tokimonCardList.addTokimonCard(card((long) thread * CARDS_PER_THREAD + i + 1));
+			}
+		});
+
+		assertEquals(THREADS * CARDS_PER_THREAD, tokimonCardList.size());
+		assertEquals(THREADS * CARDS_PER_THREAD, tokimonCardList.getTokimonCards().size());
+		assertEquals(countBefore + THREADS * CARDS_PER_THREAD, tokimonCardList.getStats().getTotalCards());
+		for (long tid = 1; tid <= THREADS * CARDS_PER_THREAD; tid++) {
+			assertEquals("Tokimon" + tid, tokimonCardList.getTokimonCard(tid).getName());
+		}
+	}
+
+	//threads updating their own cards at the same time must all see their last update kept
+	@Test
+	public void testConcurrentUpdatesAreNotLost() throws Exception {
+		for (long tid = 1; tid <= THREADS; tid++) {
+			tokimonCardList.addTokimonCard(card(tid));
+		}
+
+		runConcurrently(thread -> {
+			long tid = thread + 1;
+			for (int i = 1; i <= CARDS_PER_THREAD; i++) {
+				TokimonCard update = new TokimonCard();
+				update.setImageName("charmander.png");
+				update.setHealthPoints(i);
+				update.setAttackPoints(i * 2);
+				tokimonCardList.updateTokimonCard(tid, update);
+			}
+		});
+
+		for (long tid = 1; tid <= THREADS; tid++) {
+			TokimonCard tokimonCard = tokimonCardList.getTokimonCard(tid);
+			assertEquals(CARDS_PER_THREAD, tokimonCard.getHealthPoints());
+			assertEquals(CARDS_PER_THREAD * 2, tokimonCard.getAttackPoints());
+			assertEquals("Tokimon" + tid, tokimonCard.getName());
+		}
+	}
+
+	//adding and deleting at the same time leaves the count equal to the number of cards actually stored
+	@Test
+	public void testCountStaysAccurateUnderAddAndDelete() throws Exception {
+		long countBefore = tokimonCardList.getStats().getTotalCards();
+
+		runConcurrently(thread -> {
+			for (int i = 0; i < CARDS_PER_THREAD; i++) {
+				long tid = (long) thread * CARDS_PER_THREAD + i + 1;
+				tokimonCardList.addTokimonCard(card(tid));
+				if (i % 2 == 0) {
+					tokimonCardList.deleteTokimonCard(tid);
+				}
+				//deleting a card that is already gone must not change the count
+				tokimonCardList.deleteTokimonCard(tid + 1_000_000);
+			}
+		});
+
+		assertEquals(THREADS * CARDS_PER_THREAD / 2, tokimonCardList.size());
+		assertEquals(countBefore + tokimonCardList.size(), tokimonCardList.getStats().getTotalCards());
+		assertEquals(tokimonCardList.size(), tokimonCardList.getStats().getByElementType().get(TokimonCard.ElementType.FIRE).longValue());
+	}
+
+	//readers running alongside writers never see an error or a card whose fields don't belong together
+	@Test
+	public void testReadersNeverSeeTornCards() throws Exception {
+		for (long tid = 1; tid <= THREADS; tid++) {
+			tokimonCardList.addTokimonCard(card(tid));
+		}
+		AtomicBoolean writing = new AtomicBoolean(true);
+		AtomicReference<String> problem = new AtomicReference<>();
+
+		ExecutorService readerExecutor = Executors.newSingleThreadExecutor();
+		Future<?> reader = readerExecutor.submit(() -> {
+			while (writing.get()) {
+				for (TokimonCard tokimonCard : tokimonCardList.getTokimonCards()) {
+					//every update below keeps attack = 2 * hp, a torn card would break that
+					if (tokimonCard.getHealthPoints() != 100 && tokimonCard.getAttackPoints() != tokimonCard.getHealthPoints() * 2) {
+						problem.set("torn card " + tokimonCard.getTid());
+					}
+				}
+			}
+		});
+
+		runConcurrently(thread -> {
+			long tid = thread + 1;
+			for (int i = 1; i <= CARDS_PER_THREAD; i++) {
+				TokimonCard update = new TokimonCard();
+				update.setImageName("charmander.png");
+				update.setHealthPoints(i);
+				update.setAttackPoints(i * 2);
+				tokimonCardList.updateTokimonCard(tid, update);
+			}
+		});
+		writing.set(false);
+		reader.get(60, TimeUnit.SECONDS);
+		readerExecutor.shutdown();
+
+		assertNull(problem.get());
+		assertEquals(THREADS, tokimonCardList.size());
+	}
+}
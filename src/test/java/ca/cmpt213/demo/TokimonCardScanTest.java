@@ -0,0 +1,154 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.exception.InvalidCardQueryException;
+import ca.cmpt213.model.CardStorageBackend;
+import ca.cmpt213.model.TokimonCard;
+import ca.cmpt213.model.TokimonCardList;
+import ca.cmpt213.model.TokimonCardListSettings;
+import ca.cmpt213.model.TokimonCardScan;
+import ca.cmpt213.model.TokimonCardScanResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//a scan split across threads and segments finds exactly what a plain loop over the cards finds, on both backends
+public class TokimonCardScanTest {
+	@TempDir
+	Path tempDir;
+
+	private TokimonCardList list(CardStorageBackend backend, int parallelism, List<TokimonCard> tokimonCards) {
+		TokimonCardListSettings settings = new TokimonCardListSettings(tempDir.resolve(backend + "-" + parallelism + ".json").toString());
+		settings.setSyncEvery(0);
+		settings.setStorageBackend(backend);
+		settings.setQueryParallelism(parallelism);
+		TokimonCardList tokimonCardList = new TokimonCardList(settings);
+		tokimonCardList.addTokimonCards(tokimonCards);
+		return tokimonCardList;
+	}
+
+	private static List<TokimonCard> randomCards(int count) {
+		Random random = new Random(213);
+		List<TokimonCard> tokimonCards = new ArrayList<>();
+		for (int i = 1; i <= count; i++) {
+			tokimonCards.add(new TokimonCard(i, "Tokimon" + i, TokimonCard.ElementType.values()[random.nextInt(16)],
+					random.nextInt(10) + 1, "image.png", random.nextInt(200) + 1, random.nextInt(150)));
+		}
+		return tokimonCards;
+	}
+
+	private static TokimonCardScan fireAndDragonByAttackPerHp() {
+		TokimonCardScan scan = new TokimonCardScan();
+		scan.getWhere().setElementType(Set.of(TokimonCard.ElementType.FIRE, TokimonCard.ElementType.DRAGON));
+		scan.getWhere().setRarity(new TokimonCardScan.Range(7L, null));
+		scan.setOrderBy("attackPoints/healthPoints");
+		scan.setOrder("desc");
+		scan.setLimit(100);
+		scan.setSelect(List.of("tid", "attackPoints/healthPoints"));
+		return scan;
+	}
+
+	//the top 100 by attack/hp among FIRE and DRAGON of rarity 7 and up, ties in tid order
+	@Test
+	public void testTopCardsMatchSequentialScan() {
+		List<TokimonCard> tokimonCards = randomCards(20_000);
+		List<TokimonCard> matching = tokimonCards.stream()
+				.filter(card -> (card.getElementType() == TokimonCard.ElementType.FIRE || card.getElementType() == TokimonCard.ElementType.DRAGON)
+						&& card.getRarity() >= 7)
+				.sorted(Comparator.comparingDouble((TokimonCard card) -> -((double) card.getAttackPoints() / card.getHealthPoints()))
+						.thenComparingLong(TokimonCard::getTid))
+				.toList();
+		List<Object> expected = new ArrayList<>();
+		for (TokimonCard card : matching.subList(0, 100)) {
+			expected.add(card.getTid());
+		}
+
+		for (CardStorageBackend backend : CardStorageBackend.values()) {
+			for (int parallelism : new int[]{1, 3, 8}) {
+				TokimonCardList tokimonCardList = list(backend, parallelism, tokimonCards);
+				try {
+					TokimonCardScanResult result = tokimonCardList.scanTokimonCards(fireAndDragonByAttackPerHp());
+					assertEquals(matching.size(), result.matched(), backend + " x" + parallelism);
+					List<Object> tids = new ArrayList<>();
+					for (Map<String, Object> row : result.cards()) {
+						tids.add(row.get("tid"));
+						assertEquals(Set.of("tid", "attackPoints/healthPoints"), row.keySet());
+					}
+					assertEquals(expected, tids, backend + " x" + parallelism);
+					assertNull(result.groups());
+				} finally {
+					tokimonCardList.close();
+				}
+			}
+		}
+	}
+
+	//grouped by element type: every group's count, point ranges and best cards
+	@Test
+	public void testGroupByElementType() {
+		List<TokimonCard> tokimonCards = randomCards(20_000);
+		TokimonCardScan scan = new TokimonCardScan();
+		scan.getWhere().setName("tokimon1");
+		scan.getWhere().setAttackPoints(new TokimonCardScan.Range(null, 100L));
+		scan.setGroupBy("elementType");
+		scan.setOrderBy("healthPoints");
+		scan.setLimit(3);
+
+		for (CardStorageBackend backend : CardStorageBackend.values()) {
+			TokimonCardList tokimonCardList = list(backend, 4, tokimonCards);
+			try {
+				TokimonCardScanResult result = tokimonCardList.scanTokimonCards(scan);
+				long total = 0;
+				for (TokimonCard.ElementType elementType : TokimonCard.ElementType.values()) {
+					List<TokimonCard> group = tokimonCards.stream()
+							.filter(card -> card.getElementType() == elementType && card.getName().startsWith("Tokimon1")
+									&& card.getAttackPoints() <= 100)
+							.sorted(Comparator.comparingInt(TokimonCard::getHealthPoints).thenComparingLong(TokimonCard::getTid))
+							.toList();
+					TokimonCardScanResult.Group actual = result.groups().get(elementType);
+					assertEquals(group.size(), actual.count(), backend + " " + elementType);
+					assertEquals((Integer) group.stream().mapToInt(TokimonCard::getHealthPoints).min().getAsInt(), actual.healthPoints().min());
+					assertEquals((Integer) group.stream().mapToInt(TokimonCard::getAttackPoints).max().getAsInt(), actual.attackPoints().max());
+					assertEquals(group.stream().mapToInt(TokimonCard::getHealthPoints).average().getAsDouble(), actual.healthPoints().average(), 1e-9);
+					for (int i = 0; i < 3; i++) {
+						assertEquals(group.get(i).getTid(), actual.cards().get(i).get("tid"));
+						assertEquals(group.get(i).getName(), actual.cards().get(i).get("name"));
+					}
+					total += group.size();
+				}
+				assertEquals(total, result.matched());
+				assertNull(result.cards());
+			} finally {
+				tokimonCardList.close();
+			}
+		}
+	}
+
+	//scans that make no sense are turned down before any card is read
+	@Test
+	public void testInvalidScans() {
+		TokimonCardList tokimonCardList = list(CardStorageBackend.HEAP, 2, randomCards(10));
+		try {
+			TokimonCardScan badField = new TokimonCardScan();
+			badField.setOrderBy("attackPoints/luck");
+			assertThrows(InvalidCardQueryException.class, () -> tokimonCardList.scanTokimonCards(badField));
+			TokimonCardScan badGroup = new TokimonCardScan();
+			badGroup.setGroupBy("rarity");
+			assertThrows(InvalidCardQueryException.class, () -> tokimonCardList.scanTokimonCards(badGroup));
+			TokimonCardScan badLimit = new TokimonCardScan();
+			badLimit.setLimit(0);
+			assertThrows(InvalidCardQueryException.class, () -> tokimonCardList.scanTokimonCards(badLimit));
+			assertEquals(10, tokimonCardList.scanTokimonCards(new TokimonCardScan()).matched());
+		} finally {
+			tokimonCardList.close();
+		}
+	}
+}
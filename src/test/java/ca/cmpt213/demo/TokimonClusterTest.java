@@ -0,0 +1,336 @@
+package ca.cmpt213.demo;
+
+import ca.cmpt213.cluster.ConsistentHashRing;
+import ca.cmpt213.cluster.TokimonCluster;
+import ca.cmpt213.controller.TokimonCardController;
+import ca.cmpt213.model.TokimonCard;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+//one node of a two node cluster whose other node is a stand-in http server: requests for the other node's cards are
+//relayed to it, listings and stats merge both nodes' cards, and a node that doesn't answer gets a 502
+@SpringBootTest
+@AutoConfigureMockMvc
+public class TokimonClusterTest {
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final Pattern CARD_PATH = Pattern.compile("/api/tokimon/(\\d+)");
+	private static final String SELF = "http://self.tokimon.test"; //never called, MockMvc stands in for this node
+	private static final HttpServer peer = startPeer();
+	private static final String PEER = "http://localhost:" + peer.getAddress().getPort();
+	private static final ConsistentHashRing ring = new ConsistentHashRing(List.of(SELF, PEER), 128);
+	//the first block the peer owns, the first block after it this node owns, and the first peer block after that
+	private static final long peerBlock = firstBlockOwnedBy(PEER, 0);
+	private static final long localBlock = firstBlockOwnedBy(SELF, peerBlock + ConsistentHashRing.BLOCK_SIZE);
+	private static final List<TokimonCard> peerCards = peerCards();
+	//"<method> <path> <X-Tokimon-Forwarded>" of every request the peer got
+	private static final List<String> peerRequests = new CopyOnWriteArrayList<>();
+	private static volatile boolean peerDown;
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private TokimonCardController tokimonCardController;
+
+	@DynamicPropertySource
+	static void clusterProperties(DynamicPropertyRegistry registry) throws IOException {
+		Path storeDir = Files.createTempDirectory("tokimon-cluster");
+		registry.add("tokimon.store.file", () -> storeDir.resolve("tokimon.json").toString());
+		registry.add("tokimon.store.reset-on-start", () -> "true");
+		registry.add("tokimon.cluster.nodes", () -> SELF + "," + PEER);
+		registry.add("tokimon.cluster.self", () -> SELF);
+		registry.add("tokimon.admission.enabled", () -> "false"); //every request comes from 127.0.0.1, see TokimonCardControllerTest
+	}
+
+	@BeforeEach //every test starts from the sample cards this node owns, with the peer answering
+	public void reset() {
+		tokimonCardController.init();
+		peerRequests.clear();
+		peerDown = false;
+	}
+
+	//a card the peer owns is fetched from the peer, the request marked as forwarded and the answer relayed as is
+	@Test
+	public void testGetPeerCardIsForwarded() throws Exception {
+		TokimonCard card = peerCards.get(0);
+		mvc.perform(get("/api/tokimon/" + card.getTid()))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", "\"peer-" + card.getTid() + "\""))
+				.andExpect(jsonPath("$.tid").value(card.getTid()))
+				.andExpect(jsonPath("$.name").value(card.getName()));
+		assertEquals(List.of("GET /api/tokimon/" + card.getTid() + " " + SELF), peerRequests);
+	}
+
+	//deletes are forwarded too, and the peer's status comes back
+	@Test
+	public void testDeletePeerCardIsForwarded() throws Exception {
+		long tid = peerCards.get(1).getTid();
+		mvc.perform(delete("/api/tokimon/" + tid))
+				.andExpect(status().isNoContent());
+		assertEquals(List.of("DELETE /api/tokimon/" + tid + " " + SELF), peerRequests);
+	}
+
+	//a card this node owns is answered here, the peer isn't asked
+	@Test
+	public void testLocalCardIsNotForwarded() throws Exception {
+		long tid = firstTidOwnedBy(SELF);
+		mvc.perform(get("/api/tokimon/" + tid))
+				.andExpect(status().isNotFound());
+		assertTrue(peerRequests.isEmpty(), peerRequests.toString());
+	}
+
+	//the forwarded header is only believed from a peer's address: sent by anyone else the request is still forwarded
+	@Test
+	public void testForwardedHeaderOnlyTrustedFromPeer() throws Exception {
+		long tid = peerCards.get(0).getTid();
+		mvc.perform(get("/api/tokimon/" + tid)
+						.header(TokimonCluster.FORWARDED_HEADER, PEER)
+						.with(request -> {
+							request.setRemoteAddr("192.0.2.7");
+							return request;
+						}))
+				.andExpect(status().isOk());
+		assertEquals(List.of("GET /api/tokimon/" + tid + " " + SELF), peerRequests);
+
+		//from the peer (localhost) it is answered here, where the card isn't
+		peerRequests.clear();
+		mvc.perform(get("/api/tokimon/" + tid)
+						.header(TokimonCluster.FORWARDED_HEADER, PEER))
+				.andExpect(status().isNotFound());
+		assertTrue(peerRequests.isEmpty(), peerRequests.toString());
+	}
+
+	//the listing holds both nodes' cards in one run in tid order, in every format
+	@Test
+	public void testListingMergesNodes() throws Exception {
+		//a card of ours between the peer's two blocks
+		MvcResult added = perform(post("/api/tokimon/add")
+				.content("{\"name\":\"Tokitto\",\"elementType\":\"NORMAL\",\"healthPoints\":150,\"attackPoints\":20}")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isCreated())
+				.andReturn();
+		long tid = mapper.readTree(added.getResponse().getContentAsString()).get("tid").asLong();
+		perform(put("/api/tokimon/edit/" + tid)
+				.content("{\"tid\":" + localBlock + ",\"elementType\":\"NORMAL\"}")
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk());
+		List<Long> expected = allTids();
+		expected.add(localBlock);
+		expected.sort(null);
+		assertTrue(expected.indexOf(localBlock) > 0 && expected.indexOf(localBlock) < expected.size() - 1, expected.toString());
+
+		assertEquals(expected, tids(mvc.perform(get("/api/tokimon/all"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString()));
+		assertEquals(expected, tids(mvc.perform(get("/api/tokimon/all/stream"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString()));
+		assertEquals(expected, ndjsonTids(mvc.perform(get("/api/tokimon/all/stream").param("format", "ndjson"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString()));
+		assertEquals(expected, tids(mvc.perform(get("/api/tokimon/bulk/export"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString()));
+		assertTrue(peerRequests.contains("GET /api/tokimon/all/stream " + SELF), peerRequests.toString());
+	}
+
+	//stats add up both nodes' counts, the ranges cover both
+	@Test
+	public void testStatsMergeNodes() throws Exception {
+		mvc.perform(get("/api/tokimon/stats"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.totalCards").value(localSampleTids().size() + peerCards.size()))
+				.andExpect(jsonPath("$.healthPoints.max").value(999));
+	}
+
+	//page, search and query can't be merged from each node's answer, they are refused in a cluster
+	@Test
+	public void testUnmergeableReadsAreRefused() throws Exception {
+		mvc.perform(get("/api/tokimon/page"))
+				.andExpect(status().isNotImplemented());
+		mvc.perform(get("/api/tokimon/search").param("q", "toki"))
+				.andExpect(status().isNotImplemented());
+		mvc.perform(post("/api/tokimon/query").content("{\"limit\":10}").contentType("application/json"))
+				.andExpect(status().isNotImplemented());
+	}
+
+	//a peer that doesn't answer turns a forwarded request, the listing and the stats into a 502
+	@Test
+	public void testUnreachablePeerIsBadGateway() throws Exception {
+		peerDown = true;
+		mvc.perform(get("/api/tokimon/" + peerCards.get(0).getTid()))
+				.andExpect(status().isBadGateway());
+		mvc.perform(get("/api/tokimon/all"))
+				.andExpect(status().isBadGateway());
+		mvc.perform(get("/api/tokimon/all/stream").param("format", "ndjson"))
+				.andExpect(status().isBadGateway());
+		mvc.perform(get("/api/tokimon/stats"))
+				.andExpect(status().isBadGateway());
+		mvc.perform(get("/api/tokimon/" + firstTidOwnedBy(SELF)))
+				.andExpect(status().isNotFound()); //this node's own cards are still served
+	}
+
+	private static List<Long> localSampleTids() {
+		List<Long> tids = new ArrayList<>();
+		for (long tid = 1; tid <= 3; tid++) {
+			if (ring.ownerOf(tid).equals(SELF)) {
+				tids.add(tid);
+			}
+		}
+		return tids;
+	}
+
+	private static List<Long> allTids() {
+		List<Long> tids = new ArrayList<>(localSampleTids());
+		for (TokimonCard card : peerCards) {
+			tids.add(card.getTid());
+		}
+		return tids;
+	}
+
+	// a tid this node owns and holds no card for
+	private static long firstTidOwnedBy(String node) {
+		for (long tid = 100; ; tid++) {
+			if (ring.ownerOf(tid).equals(node)) {
+				return tid;
+			}
+		}
+	}
+
+	private static List<Long> tids(String json) throws IOException {
+		List<Long> tids = new ArrayList<>();
+		for (JsonNode card : mapper.readTree(json)) {
+			tids.add(card.get("tid").asLong());
+		}
+		return tids;
+	}
+
+	private static List<Long> ndjsonTids(String ndjson) throws IOException {
+		List<Long> tids = new ArrayList<>();
+		for (String line : ndjson.split("\n")) {
+			if (!line.isBlank()) {
+				tids.add(mapper.readTree(line).get("tid").asLong());
+			}
+		}
+		return tids;
+	}
+
+	// the first tid of the first block at or after from that node owns
+	private static long firstBlockOwnedBy(String node, long from) {
+		for (long first = from; ; first += ConsistentHashRing.BLOCK_SIZE) {
+			if (ring.ownerOf(first).equals(node)) {
+				return first;
+			}
+		}
+	}
+
+	// three cards at the start of peerBlock and three in the peer's next block after localBlock, so the merge has to
+	// interleave them with ours. Never tid 0 or the sample tids, which the peer doesn't hold
+	private static List<TokimonCard> peerCards() {
+		List<TokimonCard> cards = new ArrayList<>();
+		for (long first : new long[]{peerBlock + 10, firstBlockOwnedBy(PEER, localBlock + ConsistentHashRing.BLOCK_SIZE)}) {
+			for (long tid = first; tid < first + 3; tid++) {
+				cards.add(new TokimonCard(tid, "Peermon" + tid, TokimonCard.ElementType.ROCK, 5, "unown.png",
+						cards.isEmpty() ? 999 : 10, 20));
+			}
+		}
+		return cards;
+	}
+
+	//add and edit answer with a future, the response only exists once it has been dispatched again
+	private ResultActions perform(RequestBuilder requestBuilder) throws Exception {
+		ResultActions actions = mvc.perform(requestBuilder);
+		MvcResult result = actions.andReturn();
+		if (result.getRequest().isAsyncStarted()) {
+			return mvc.perform(asyncDispatch(result));
+		}
+		return actions;
+	}
+
+	private static HttpServer startPeer() {
+		try {
+			HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			server.createContext("/api/tokimon/", TokimonClusterTest::answerAsPeer);
+			server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+			server.start();
+			return server;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// what a real node answers a forwarded request with, from peerCards
+	private static void answerAsPeer(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		peerRequests.add(method + " " + path + " " + exchange.getRequestHeaders().getFirst(TokimonCluster.FORWARDED_HEADER));
+		if (peerDown) {
+			exchange.close(); //hang up without an answer
+			return;
+		}
+		byte[] body = new byte[0];
+		int status = 404;
+		Matcher card = CARD_PATH.matcher(path);
+		if (path.equals("/api/tokimon/all/stream")) {
+			StringBuilder ndjson = new StringBuilder();
+			for (TokimonCard tokimonCard : peerCards) {
+				ndjson.append(mapper.writeValueAsString(tokimonCard)).append('\n');
+			}
+			body = ndjson.toString().getBytes();
+			status = 200;
+		} else if (path.equals("/api/tokimon/stats")) {
+			body = ("{\"totalCards\":" + peerCards.size() + ",\"byElementType\":{\"ROCK\":" + peerCards.size() + "},"
+					+ "\"byRarity\":{\"5\":" + peerCards.size() + "},\"healthPoints\":{\"min\":10,\"max\":999,\"average\":174.8},"
+					+ "\"attackPoints\":{\"min\":20,\"max\":20,\"average\":20.0}}").getBytes();
+			status = 200;
+		} else if (card.matches()) {
+			long tid = Long.parseLong(card.group(1));
+			TokimonCard found = peerCards.stream().filter(tokimonCard -> tokimonCard.getTid() == tid).findFirst().orElse(null);
+			if (found != null && method.equals("GET")) {
+				body = mapper.writeValueAsBytes(found);
+				exchange.getResponseHeaders().set("ETag", "\"peer-" + tid + "\"");
+				status = 200;
+			} else if (found != null && method.equals("DELETE")) {
+				status = 204;
+			}
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}